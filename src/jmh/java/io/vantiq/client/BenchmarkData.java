@@ -0,0 +1,51 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Helpers that generate the JSON payloads used by the benchmarks.  The
+ * records are shaped like typical custom type instances.
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {}
+
+    /**
+     * Returns a single record with a mix of string, numeric, boolean and
+     * nested properties.
+     *
+     * @param i The index of the record, used to vary the values
+     * @return The record
+     */
+    public static JsonObject record(int i) {
+        JsonObject location = new JsonObject();
+        location.addProperty("lat", 37.7749 + (i % 100) / 1000.0);
+        location.addProperty("lon", -122.4194 - (i % 100) / 1000.0);
+
+        JsonObject obj = new JsonObject();
+        obj.addProperty("_id", String.format("5f1c%020d", i));
+        obj.addProperty("name", "sensor-" + i);
+        obj.addProperty("description", "Temperature sensor located on floor " + (i % 40));
+        obj.addProperty("reading", 20.0 + (i % 150) / 10.0);
+        obj.addProperty("count", i);
+        obj.addProperty("active", (i % 3) != 0);
+        obj.addProperty("ars_createdAt", "2024-01-01T00:00:00.000Z");
+        obj.add("location", location);
+        return obj;
+    }
+
+    /**
+     * Returns the JSON encoding of an array of records.
+     *
+     * @param count The number of records in the array
+     * @return The JSON string
+     */
+    public static String recordArray(int count) {
+        JsonArray arr = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            arr.add(record(i));
+        }
+        return arr.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package io.vantiq.client;
+
+import io.vantiq.client.internal.VantiqSession;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link VantiqResponse#extractBody} for JSON array bodies, and the
+ * lazily decoded body of {@link VantiqResponse#createFromResponse} when the
+ * body is parsed, bound to a class or not read at all.  The response is
+ * assembled in memory so only the body handling is measured.
+ * With 20000 records the body is roughly 5 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VantiqResponseBenchmark {
+
+    @Param({"10", "20000"})
+    public int records;
+
+    private Request request;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        this.request = new Request.Builder().url("http://localhost/api/v1/resources/custom/Sensor").build();
+        this.body = BenchmarkData.recordArray(this.records).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Response response() {
+        return new Response.Builder()
+            .request(this.request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .header("Content-Type", "application/json")
+            .body(ResponseBody.create(VantiqSession.APPLICATION_JSON, this.body))
+            .build();
+    }
+
+    @Benchmark
+    public Object extractBody() throws Exception {
+        return VantiqResponse.extractBody(response(), false);
+    }
+
+    @Benchmark
+    public Object createFromResponse() {
+        return VantiqResponse.createFromResponse(response(), false).getBody();
+    }
+
+    @Benchmark
+    public Object createFromResponseStatusOnly() {
+        return VantiqResponse.createFromResponse(response(), false).getStatusCode();
+    }
+
+    @Benchmark
+    public Object createFromResponseBodyAs() {
+        return VantiqResponse.createFromResponse(response(), false).getBodyAs(SensorRecord[].class);
+    }
+
+    /**
+     * POJO matching the records produced by {@link BenchmarkData#record(int)}
+     */
+    public static class SensorRecord {
+        String _id;
+        String name;
+        String description;
+        double reading;
+        int count;
+        boolean active;
+        String ars_createdAt;
+        Location location;
+    }
+
+    public static class Location {
+        double lat;
+        double lon;
+    }
+}
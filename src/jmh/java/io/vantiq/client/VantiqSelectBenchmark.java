@@ -0,0 +1,67 @@
+package io.vantiq.client;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a synchronous {@link Vantiq#select} including the conversion of
+ * the returned JsonArray into a List of JsonObjects.  The server is an
+ * in-process MockWebServer that returns the same canned result for every
+ * request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VantiqSelectBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int records;
+
+    private MockWebServer server;
+    private Vantiq vantiq;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String body = BenchmarkData.recordArray(this.records);
+
+        this.server = new MockWebServer();
+        this.server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                    .setResponseCode(200)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(body);
+            }
+        });
+        this.server.start();
+
+        this.vantiq = new Vantiq(this.server.url("/").toString());
+        this.vantiq.setAccessToken("benchmark-token");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.server.shutdown();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int select() {
+        VantiqResponse response = this.vantiq.select("Sensor", null, null, null);
+        return ((List<Object>) response.getBody()).size();
+    }
+}
@@ -0,0 +1,58 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.BenchmarkData;
+import io.vantiq.client.GsonCodec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares writing a list of records as a request body by first encoding it
+ * as a String with writing it through a {@link JsonRequestBody}, which
+ * encodes the records directly into the sink.  The records are Maps, as an
+ * application would typically insert or publish.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonRequestBodyBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int records;
+
+    private List<Object> payload;
+
+    @Setup
+    public void setUp() {
+        this.payload = new ArrayList<Object>(this.records);
+        for (int i = 0; i < this.records; i++) {
+            this.payload.add(GsonCodec.getDefault().getGson().fromJson(BenchmarkData.record(i), Map.class));
+        }
+    }
+
+    @Benchmark
+    public long stringBody() throws Exception {
+        String json = GsonCodec.getDefault().encode(this.payload);
+        Buffer sink = new Buffer();
+        RequestBody.create(VantiqSession.APPLICATION_JSON, json).writeTo(sink);
+        return sink.size();
+    }
+
+    @Benchmark
+    public long streamingBody() throws Exception {
+        Buffer sink = new Buffer();
+        new JsonRequestBody(this.payload, GsonCodec.getDefault()).writeTo(sink);
+        return sink.size();
+    }
+}
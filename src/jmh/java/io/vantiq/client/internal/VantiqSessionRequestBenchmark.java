@@ -0,0 +1,73 @@
+package io.vantiq.client.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the round trip of a synchronous {@link VantiqSession#get} call
+ * with query parameters and a target namespace, which exercises the URL
+ * and header construction in the request path.  The server returns a
+ * small JSON object so that body handling does not dominate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VantiqSessionRequestBenchmark {
+
+    private MockWebServer server;
+    private VantiqSession session;
+    private Map<String,String> queryParams;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.server = new MockWebServer();
+        this.server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                    .setResponseCode(200)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody("{\"ok\":true}");
+            }
+        });
+        this.server.start();
+
+        this.session = new VantiqSession(this.server.url("/").toString());
+        this.session.setAccessToken("benchmark-token");
+        this.session.setTargetNamespace("benchmark");
+
+        this.queryParams = new HashMap<String,String>();
+        this.queryParams.put("where", "{\"name\":{\"$in\":[\"sensor-1\",\"sensor-2\"]},\"active\":true}");
+        this.queryParams.put("props", "[\"_id\",\"name\",\"reading\"]");
+        this.queryParams.put("sort", "{\"name\":1}");
+        this.queryParams.put("limit", "100");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.server.shutdown();
+    }
+
+    @Benchmark
+    public Object get() {
+        return this.session.get("/resources/custom/Sensor", this.queryParams, null).getBody();
+    }
+
+    @Benchmark
+    public Object selectOne() {
+        return this.session.get("/resources/custom/Sensor/5f1c00000000000000000001", null, null).getBody();
+    }
+}
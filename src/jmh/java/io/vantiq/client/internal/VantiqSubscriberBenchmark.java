@@ -0,0 +1,144 @@
+package io.vantiq.client.internal;
+
+import com.google.gson.JsonObject;
+import io.vantiq.client.BenchmarkData;
+import io.vantiq.client.GsonCodec;
+import io.vantiq.client.SubscriptionCallback;
+import io.vantiq.client.SubscriptionMessage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link VantiqSubscriber#onMessage(WebSocket, ByteString)}, i.e. the
+ * decoding and routing of a single subscription event.  The subscriber is
+ * connected and subscribed against an in-process MockWebServer WebSocket so
+ * it is in the same state as in production; the benchmark then feeds the
+ * pre-encoded event frames directly to the listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VantiqSubscriberBenchmark {
+
+    private final static String PATH = "/topics/benchmark";
+
+    @Param({"1", "50"})
+    public int valueRecords;
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private VantiqSubscriber subscriber;
+    private ByteString frame;
+
+    private volatile Object lastBody;
+
+    /**
+     * Server side of the WebSocket that acknowledges the authentication and
+     * subscription requests the same way the Vantiq server does.
+     */
+    private static class AcknowledgingListener extends WebSocketListener {
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            JsonObject request = GsonCodec.getDefault().getGson().fromJson(text, JsonObject.class);
+            JsonObject reply = new JsonObject();
+            reply.addProperty("status", 200);
+            if ("subscribe".equals(request.get("op").getAsString())) {
+                JsonObject headers = new JsonObject();
+                headers.addProperty("X-Request-Id", request.get("resourceId").getAsString());
+                reply.add("headers", headers);
+            }
+            webSocket.send(ByteString.encodeUtf8(reply.toString()));
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        this.server = new MockWebServer();
+        this.server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(new AcknowledgingListener());
+            }
+        });
+        this.server.start();
+
+        VantiqSession session = new VantiqSession(this.server.url("/").toString());
+        session.setAccessToken("benchmark-token");
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(1);
+
+        this.client = new OkHttpClient();
+        this.subscriber = new VantiqSubscriber(session, this.client, false);
+        this.subscriber.connect(new VantiqSubscriberLifecycleListener() {
+            @Override public void onConnect() { connected.countDown(); }
+            @Override public void onError(String message, ResponseBody body) {}
+            @Override public void onFailure(Throwable t) {}
+            @Override public void onClose() {}
+        });
+        if (!connected.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("WebSocket did not connect");
+        }
+
+        this.subscriber.subscribe(PATH, new SubscriptionCallback() {
+            @Override public void onConnect() { subscribed.countDown(); }
+            @Override public void onMessage(SubscriptionMessage message) {
+                VantiqSubscriberBenchmark.this.lastBody = message.getBody();
+            }
+            @Override public void onError(String error) {}
+            @Override public void onFailure(Throwable t) {}
+        }, null);
+        if (!subscribed.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Subscription was not acknowledged");
+        }
+
+        JsonObject headers = new JsonObject();
+        headers.addProperty("X-Request-Id", PATH);
+
+        JsonObject value = new JsonObject();
+        for (int i = 0; i < this.valueRecords; i++) {
+            value.add("r" + i, BenchmarkData.record(i));
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("path", PATH + "/publish");
+        body.add("value", value);
+
+        JsonObject msg = new JsonObject();
+        msg.addProperty("status", 100);
+        msg.addProperty("contentType", "application/json");
+        msg.add("headers", headers);
+        msg.add("body", body);
+        this.frame = ByteString.encodeUtf8(msg.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.subscriber.close();
+        this.client.dispatcher().executorService().shutdown();
+        this.server.shutdown();
+    }
+
+    @Benchmark
+    public Object onMessage() {
+        this.subscriber.onMessage(null, this.frame);
+        return this.lastBody;
+    }
+}
@@ -0,0 +1,167 @@
+package io.vantiq.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The aggregated result of {@link Vantiq#insertAll} or {@link Vantiq#upsertAll}.
+ * The records are written in chunks, each with its own request, and this
+ * provides the response of every chunk.
+ */
+public class BulkWriteResponse {
+
+    /**
+     * The result of writing a single chunk of records
+     */
+    public static class Chunk {
+
+        private final int index;
+        private final long offset;
+        private final int size;
+        private volatile VantiqResponse response;
+
+        Chunk(int index, long offset, int size) {
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Returns the position of the chunk among all the chunks, starting at 0.
+         *
+         * @return The chunk index
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        /**
+         * Returns the position in the input of the first record of the chunk.
+         *
+         * @return The offset of the chunk
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * Returns the number of records in the chunk.
+         *
+         * @return The chunk size
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        /**
+         * Returns the response to the request that wrote the chunk, or null if
+         * the request had not completed when the bulk write was interrupted.
+         *
+         * @return The chunk response
+         */
+        public VantiqResponse getResponse() {
+            return this.response;
+        }
+
+        void setResponse(VantiqResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Returns true if the chunk was written successfully.
+         *
+         * @return true if the chunk was written
+         */
+        public boolean isSuccess() {
+            VantiqResponse response = this.response;
+            return response != null && response.isSuccess();
+        }
+    }
+
+    private final List<Chunk> chunks;
+    private final Throwable exception;
+
+    BulkWriteResponse(List<Chunk> chunks, Throwable exception) {
+        this.chunks = Collections.unmodifiableList(chunks);
+        this.exception = exception;
+    }
+
+    /**
+     * Returns true if every chunk was written successfully.
+     *
+     * @return true if all the records were written
+     */
+    public boolean isSuccess() {
+        if (this.exception != null) {
+            return false;
+        }
+        for (Chunk chunk : this.chunks) {
+            if (!chunk.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns all the chunks in input order.
+     *
+     * @return The chunks
+     */
+    public List<Chunk> getChunks() {
+        return this.chunks;
+    }
+
+    /**
+     * Returns the chunks that were not written successfully, in input order.
+     *
+     * @return The failed chunks
+     */
+    public List<Chunk> getFailedChunks() {
+        List<Chunk> failed = new ArrayList<Chunk>();
+        for (Chunk chunk : this.chunks) {
+            if (!chunk.isSuccess()) {
+                failed.add(chunk);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the total number of records sent.
+     *
+     * @return The number of records
+     */
+    public long getRecordCount() {
+        long count = 0;
+        for (Chunk chunk : this.chunks) {
+            count += chunk.getSize();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the exception that stopped the bulk write before all the
+     * records were sent, or null if all were sent.
+     *
+     * @return The exception or null
+     */
+    public Throwable getException() {
+        return this.exception;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BulkWriteResponse[\n");
+        sb.append("  success:").append(this.isSuccess()).append('\n');
+        sb.append("  chunks:").append(this.chunks.size()).append('\n');
+        sb.append("  records:").append(this.getRecordCount()).append('\n');
+        sb.append("  failed:").append(this.getFailedChunks().size()).append('\n');
+        if(this.exception != null) {
+            sb.append("  exception:").append(this.exception.getMessage()).append('\n');
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
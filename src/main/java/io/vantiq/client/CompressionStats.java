@@ -0,0 +1,68 @@
+package io.vantiq.client;
+
+/**
+ * A snapshot of the bytes exchanged with the Vantiq server, before and after
+ * compression, as returned by {@link Vantiq#getCompressionStats()}.  The
+ * counts are only recorded when compression is enabled in the
+ * {@link HttpClientConfig}; otherwise they are all zero.  Response bytes are
+ * counted as the body is read.
+ */
+public class CompressionStats {
+
+    private final long requestBytes;
+    private final long requestBytesSent;
+    private final long responseBytes;
+    private final long responseBytesReceived;
+
+    public CompressionStats(long requestBytes, long requestBytesSent,
+                            long responseBytes, long responseBytesReceived) {
+        this.requestBytes = requestBytes;
+        this.requestBytesSent = requestBytesSent;
+        this.responseBytes = responseBytes;
+        this.responseBytesReceived = responseBytesReceived;
+    }
+
+    /**
+     * Returns the number of request body bytes before compression.
+     *
+     * @return The uncompressed request bytes
+     */
+    public long getRequestBytes() {
+        return this.requestBytes;
+    }
+
+    /**
+     * Returns the number of request body bytes sent to the server.
+     *
+     * @return The request bytes sent
+     */
+    public long getRequestBytesSent() {
+        return this.requestBytesSent;
+    }
+
+    /**
+     * Returns the number of response body bytes after decompression.
+     *
+     * @return The uncompressed response bytes
+     */
+    public long getResponseBytes() {
+        return this.responseBytes;
+    }
+
+    /**
+     * Returns the number of response body bytes received from the server.
+     *
+     * @return The response bytes received
+     */
+    public long getResponseBytesReceived() {
+        return this.responseBytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats[requestBytes=" + this.requestBytes
+               + ", requestBytesSent=" + this.requestBytesSent
+               + ", responseBytes=" + this.responseBytes
+               + ", responseBytesReceived=" + this.responseBytesReceived + "]";
+    }
+}
@@ -0,0 +1,128 @@
+package io.vantiq.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link JsonCodec} backed by Gson.  This is the default codec.  A Gson
+ * instance with custom type adapters can be given to the constructor:
+ *
+ * <pre>
+ * Gson gson = new GsonBuilder().registerTypeAdapterFactory(new MyAdapterFactory()).create();
+ * vantiq.setJsonCodec(new GsonCodec(gson));
+ * </pre>
+ *
+ * The adapter for each type is resolved once and reused.
+ */
+public class GsonCodec implements JsonCodec {
+
+    private static final GsonCodec DEFAULT = new GsonCodec(new Gson());
+
+    private final Gson gson;
+    private final ConcurrentMap<Type, TypeAdapter<?>> adapters = new ConcurrentHashMap<Type, TypeAdapter<?>>();
+
+    public GsonCodec(Gson gson) {
+        if (gson == null) {
+            throw new IllegalArgumentException("gson must not be null");
+        }
+        this.gson = gson;
+    }
+
+    /**
+     * Returns the codec used when none is set, backed by a default Gson instance.
+     *
+     * @return The default codec
+     */
+    public static GsonCodec getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the Gson instance used by this codec
+     *
+     * @return The Gson instance
+     */
+    public Gson getGson() {
+        return this.gson;
+    }
+
+    /**
+     * Returns the adapter for the given type
+     *
+     * @param type The type
+     * @param <T> The type
+     * @return The adapter
+     */
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> getAdapter(Type type) {
+        TypeAdapter<?> adapter = this.adapters.get(type);
+        if (adapter == null) {
+            adapter = this.gson.getAdapter(TypeToken.get(type));
+            TypeAdapter<?> existing = this.adapters.putIfAbsent(type, adapter);
+            if (existing != null) {
+                adapter = existing;
+            }
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    @Override
+    public String encode(Object value) {
+        return this.gson.toJson(value);
+    }
+
+    @Override
+    public void encode(Object value, Writer writer) throws IOException {
+        try {
+            this.gson.toJson(value, writer);
+        } catch (JsonIOException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Decodes the JSON read from the reader.  As with Gson itself, the JSON is
+     * read leniently, but must be a single document.
+     */
+    @Override
+    public <T> T decode(Reader reader, Type type) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        try {
+            T value = this.<T>getAdapter(type).read(jsonReader);
+            if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+            return value;
+        } catch (MalformedJsonException | EOFException | IllegalStateException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    @Override
+    public <T> T decode(JsonElement tree, Type type) {
+        try {
+            return this.<T>getAdapter(type).fromJsonTree(tree);
+        } catch (IllegalStateException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.vantiq.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Configures hedged reads, which trade a little extra load for a lower tail
+ * latency.  When a policy is set on the {@link Vantiq} instance, a
+ * {@link Vantiq#selectOne selectOne} (or an {@link Vantiq#execute execute} of
+ * one of the listed read-only procedures) that has not completed after the
+ * hedge delay is sent a second time, usually over another pooled connection.
+ * The first response is used and the other request is cancelled.
+ *
+ * The hedge delay is either fixed or, with an adaptive percentile, the given
+ * percentile of the latencies observed for hedged operations, so that only
+ * the slowest requests are hedged.  A budget caps the extra load: each
+ * request earns a fraction of a hedge and a hedge is only sent when a whole
+ * one is available.
+ *
+ * Only hedge operations without side effects, since the server may execute
+ * both requests.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * vantiq.setHedgePolicy(HedgePolicy.builder()
+ *     .adaptivePercentile(0.95)
+ *     .procedures("getDashboardTiles")
+ *     .build());
+ * </pre>
+ */
+public class HedgePolicy {
+
+    public static final long   DEFAULT_DELAY_MILLIS    = 50;
+    public static final double DEFAULT_MAX_EXTRA_LOAD  = 0.05;
+    public static final int    DEFAULT_MAX_BURST       = 10;
+
+    private final long delayMillis;
+    private final double adaptivePercentile;
+    private final double maxExtraLoad;
+    private final int maxBurst;
+    private final Set<String> procedures;
+
+    private HedgePolicy(Builder builder) {
+        this.delayMillis = builder.delayMillis;
+        this.adaptivePercentile = builder.adaptivePercentile;
+        this.maxExtraLoad = builder.maxExtraLoad;
+        this.maxBurst = builder.maxBurst;
+        this.procedures = Collections.unmodifiableSet(new LinkedHashSet<String>(builder.procedures));
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this policy.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the fixed hedge delay, which is also used until enough
+     * latencies have been observed for the adaptive delay.
+     *
+     * @return The delay in milliseconds
+     */
+    public long getDelayMillis() {
+        return this.delayMillis;
+    }
+
+    /**
+     * Returns the percentile of the observed latencies used as the hedge delay.
+     *
+     * @return The percentile, between 0 and 1, or 0 for a fixed delay
+     */
+    public double getAdaptivePercentile() {
+        return this.adaptivePercentile;
+    }
+
+    /**
+     * Returns the largest fraction of hedged operations that may be sent twice.
+     *
+     * @return The extra load, between 0 and 1
+     */
+    public double getMaxExtraLoad() {
+        return this.maxExtraLoad;
+    }
+
+    /**
+     * Returns the number of hedges that may be sent in a burst, e.g. right
+     * after the policy is set.
+     *
+     * @return The maximum burst
+     */
+    public int getMaxBurst() {
+        return this.maxBurst;
+    }
+
+    /**
+     * Returns the read-only procedures whose execution is hedged.
+     *
+     * @return The procedure names
+     */
+    public Set<String> getProcedures() {
+        return this.procedures;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgePolicy[delayMillis=" + this.delayMillis
+               + ", adaptivePercentile=" + this.adaptivePercentile
+               + ", maxExtraLoad=" + this.maxExtraLoad
+               + ", maxBurst=" + this.maxBurst
+               + ", procedures=" + this.procedures + "]";
+    }
+
+    /**
+     * Builder for {@link HedgePolicy}
+     */
+    public static class Builder {
+
+        private long delayMillis = DEFAULT_DELAY_MILLIS;
+        private double adaptivePercentile = 0;
+        private double maxExtraLoad = DEFAULT_MAX_EXTRA_LOAD;
+        private int maxBurst = DEFAULT_MAX_BURST;
+        private Set<String> procedures = new LinkedHashSet<String>();
+
+        private Builder() {}
+
+        private Builder(HedgePolicy policy) {
+            this.delayMillis = policy.delayMillis;
+            this.adaptivePercentile = policy.adaptivePercentile;
+            this.maxExtraLoad = policy.maxExtraLoad;
+            this.maxBurst = policy.maxBurst;
+            this.procedures = new LinkedHashSet<String>(policy.procedures);
+        }
+
+        /**
+         * Sets the fixed hedge delay.  With an adaptive percentile, it is used
+         * until enough latencies have been observed.
+         *
+         * @param delayMillis The delay in milliseconds
+         * @return This builder
+         */
+        public Builder delayMillis(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis must not be negative");
+            }
+            this.delayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Uses the given percentile of the observed latencies as the hedge
+         * delay (e.g. 0.95).
+         *
+         * @param adaptivePercentile The percentile, between 0 and 1, or 0 for
+         *                           a fixed delay
+         * @return This builder
+         */
+        public Builder adaptivePercentile(double adaptivePercentile) {
+            if (adaptivePercentile < 0 || adaptivePercentile >= 1) {
+                throw new IllegalArgumentException("adaptivePercentile must be at least 0 and less than 1");
+            }
+            this.adaptivePercentile = adaptivePercentile;
+            return this;
+        }
+
+        /**
+         * Sets the largest fraction of hedged operations that may be sent twice.
+         *
+         * @param maxExtraLoad The extra load, between 0 and 1
+         * @return This builder
+         */
+        public Builder maxExtraLoad(double maxExtraLoad) {
+            if (maxExtraLoad < 0 || maxExtraLoad > 1) {
+                throw new IllegalArgumentException("maxExtraLoad must be between 0 and 1");
+            }
+            this.maxExtraLoad = maxExtraLoad;
+            return this;
+        }
+
+        /**
+         * Sets the number of hedges that may be sent in a burst.
+         *
+         * @param maxBurst The maximum burst
+         * @return This builder
+         */
+        public Builder maxBurst(int maxBurst) {
+            if (maxBurst < 1) {
+                throw new IllegalArgumentException("maxBurst must be at least 1");
+            }
+            this.maxBurst = maxBurst;
+            return this;
+        }
+
+        /**
+         * Adds read-only procedures whose execution is hedged.
+         *
+         * @param procedures The procedure names
+         * @return This builder
+         */
+        public Builder procedures(String... procedures) {
+            this.procedures.addAll(Arrays.asList(procedures));
+            return this;
+        }
+
+        /**
+         * Creates the policy.
+         *
+         * @return The policy
+         */
+        public HedgePolicy build() {
+            return new HedgePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package io.vantiq.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning of the HTTP client used to communicate with the Vantiq server: the
+ * size of the connection pool, the limits of the dispatcher that runs
+ * asynchronous requests, whether HTTP/2 is used and whether request bodies
+ * are compressed.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * HttpClientConfig config = HttpClientConfig.builder()
+ *     .maxRequestsPerHost(64)
+ *     .maxIdleConnections(32)
+ *     .build();
+ * Vantiq vantiq = new Vantiq(server, 1, null, config);
+ * </pre>
+ */
+public class HttpClientConfig {
+
+    public static final int  DEFAULT_MAX_IDLE_CONNECTIONS   = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS      = TimeUnit.MINUTES.toMillis(5);
+    public static final int  DEFAULT_MAX_REQUESTS           = 64;
+    public static final int  DEFAULT_MAX_REQUESTS_PER_HOST  = 5;
+    public static final long DEFAULT_COMPRESSION_THRESHOLD  = 1024;
+
+    private static final HttpClientConfig DEFAULT = new Builder().build();
+
+    private final int maxIdleConnections;
+    private final long keepAliveMillis;
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final boolean http2Enabled;
+    private final boolean compressionEnabled;
+    private final long compressionThreshold;
+
+    private HttpClientConfig(Builder builder) {
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.keepAliveMillis = builder.keepAliveMillis;
+        this.maxRequests = builder.maxRequests;
+        this.maxRequestsPerHost = builder.maxRequestsPerHost;
+        this.http2Enabled = builder.http2Enabled;
+        this.compressionEnabled = builder.compressionEnabled;
+        this.compressionThreshold = builder.compressionThreshold;
+    }
+
+    /**
+     * Returns the configuration used when none is given, which matches the
+     * OkHttp defaults over HTTP/1.1.
+     *
+     * @return The default configuration
+     */
+    public static HttpClientConfig defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this configuration.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the maximum number of idle connections kept in the pool.
+     *
+     * @return The maximum number of idle connections
+     */
+    public int getMaxIdleConnections() {
+        return this.maxIdleConnections;
+    }
+
+    /**
+     * Returns how long an idle connection is kept in the pool.
+     *
+     * @return The keep alive duration in milliseconds
+     */
+    public long getKeepAliveMillis() {
+        return this.keepAliveMillis;
+    }
+
+    /**
+     * Returns the maximum number of asynchronous requests executed concurrently.
+     *
+     * @return The maximum number of concurrent requests
+     */
+    public int getMaxRequests() {
+        return this.maxRequests;
+    }
+
+    /**
+     * Returns the maximum number of asynchronous requests executed concurrently
+     * against a single host.  Since an SDK instance talks to a single Vantiq
+     * server, this is usually the effective limit.
+     *
+     * @return The maximum number of concurrent requests per host
+     */
+    public int getMaxRequestsPerHost() {
+        return this.maxRequestsPerHost;
+    }
+
+    /**
+     * Returns true if HTTP/2 is offered to the server.
+     *
+     * @return true if HTTP/2 is enabled
+     */
+    public boolean isHttp2Enabled() {
+        return this.http2Enabled;
+    }
+
+    /**
+     * Returns true if request bodies are gzip compressed and the compressed
+     * and uncompressed byte counts are recorded.
+     *
+     * @return true if compression is enabled
+     */
+    public boolean isCompressionEnabled() {
+        return this.compressionEnabled;
+    }
+
+    /**
+     * Returns the size in bytes from which request bodies are compressed.
+     *
+     * @return The compression threshold in bytes
+     */
+    public long getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientConfig[maxIdleConnections=" + this.maxIdleConnections
+               + ", keepAliveMillis=" + this.keepAliveMillis
+               + ", maxRequests=" + this.maxRequests
+               + ", maxRequestsPerHost=" + this.maxRequestsPerHost
+               + ", http2Enabled=" + this.http2Enabled
+               + ", compressionEnabled=" + this.compressionEnabled
+               + ", compressionThreshold=" + this.compressionThreshold + "]";
+    }
+
+    /**
+     * Builder for {@link HttpClientConfig}
+     */
+    public static class Builder {
+
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+        private int maxRequests = DEFAULT_MAX_REQUESTS;
+        private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        private boolean http2Enabled = false;
+        private boolean compressionEnabled = false;
+        private long compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+        private Builder() {}
+
+        private Builder(HttpClientConfig config) {
+            this.maxIdleConnections = config.maxIdleConnections;
+            this.keepAliveMillis = config.keepAliveMillis;
+            this.maxRequests = config.maxRequests;
+            this.maxRequestsPerHost = config.maxRequestsPerHost;
+            this.http2Enabled = config.http2Enabled;
+            this.compressionEnabled = config.compressionEnabled;
+            this.compressionThreshold = config.compressionThreshold;
+        }
+
+        /**
+         * Sets the maximum number of idle connections kept in the pool.
+         *
+         * @param maxIdleConnections The maximum number of idle connections
+         * @return This builder
+         */
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("maxIdleConnections must not be negative");
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Sets how long an idle connection is kept in the pool.
+         *
+         * @param duration The keep alive duration
+         * @param unit The unit of the duration
+         * @return This builder
+         */
+        public Builder keepAlive(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("keepAlive must be greater than 0");
+            }
+            this.keepAliveMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of asynchronous requests executed concurrently.
+         *
+         * @param maxRequests The maximum number of concurrent requests
+         * @return This builder
+         */
+        public Builder maxRequests(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests must be at least 1");
+            }
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of asynchronous requests executed concurrently
+         * against a single host.
+         *
+         * @param maxRequestsPerHost The maximum number of concurrent requests per host
+         * @return This builder
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("maxRequestsPerHost must be at least 1");
+            }
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Enables HTTP/2, which multiplexes concurrent requests over a single
+         * connection.  HTTP/2 is only negotiated over TLS.  If the server or a
+         * proxy in between returns a malformed HTTP/2 response (reported as
+         * "Expected ':status' header not present"), the request is retried over
+         * HTTP/1.1 and HTTP/1.1 is used from then on.
+         *
+         * @param http2Enabled true to offer HTTP/2 to the server
+         * @return This builder
+         */
+        public Builder http2Enabled(boolean http2Enabled) {
+            this.http2Enabled = http2Enabled;
+            return this;
+        }
+
+        /**
+         * Enables gzip compression of JSON and text request bodies of at least
+         * the {@link #compressionThreshold(long) threshold} size.  Bodies whose
+         * size is not known up front, such as large streamed records, are
+         * encoded up to the threshold to find out if they reach it.  The server
+         * must accept "Content-Encoding: gzip" requests.  Compressed responses
+         * are always accepted and decompressed transparently.  When enabled,
+         * the compressed and uncompressed byte counts are available from
+         * {@link Vantiq#getCompressionStats()}.  This is only the initial value,
+         * which {@link Vantiq#setCompressionEnabled(boolean)} changes.
+         *
+         * @param compressionEnabled true to compress request bodies
+         * @return This builder
+         */
+        public Builder compressionEnabled(boolean compressionEnabled) {
+            this.compressionEnabled = compressionEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the size in bytes from which request bodies are compressed.
+         * Smaller bodies gain little from compression.
+         *
+         * @param compressionThreshold The compression threshold in bytes
+         * @return This builder
+         */
+        public Builder compressionThreshold(long compressionThreshold) {
+            if (compressionThreshold < 0) {
+                throw new IllegalArgumentException("compressionThreshold must not be negative");
+            }
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * Creates the configuration.
+         *
+         * @return The configuration
+         */
+        public HttpClientConfig build() {
+            return new HttpClientConfig(this);
+        }
+    }
+}
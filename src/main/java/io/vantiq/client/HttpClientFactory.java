@@ -0,0 +1,98 @@
+package io.vantiq.client;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the root OkHttpClient instances that SDK sessions derive their
+ * clients from.  Each session derives its client with
+ * {@link OkHttpClient#newBuilder()}, so all the sessions created from the same
+ * root share its connection pool and dispatcher threads.
+ *
+ * Unless given a root client or an {@link HttpClientConfig}, every
+ * {@link Vantiq} instance uses a root from {@link #newDefaultClient()}, which
+ * shares the connection pool of the process-wide {@link #sharedClient()} but
+ * has its own dispatcher.  The limits on concurrent asynchronous requests
+ * therefore apply to each instance.
+ */
+public final class HttpClientFactory {
+
+    private HttpClientFactory() {}
+
+    /**
+     * Holder for the lazily created shared client
+     */
+    private static class SharedClientHolder {
+        static final OkHttpClient CLIENT = newClient(HttpClientConfig.defaults());
+    }
+
+    /**
+     * Returns the process-wide root client, created with the default
+     * {@link HttpClientConfig}.
+     *
+     * @return The shared root client
+     */
+    public static OkHttpClient sharedClient() {
+        return SharedClientHolder.CLIENT;
+    }
+
+    /**
+     * Creates a root client that shares the connection pool of
+     * {@link #sharedClient()} but has its own dispatcher, with the default
+     * request limits.  The dispatcher threads are idle when nothing is in flight,
+     * so the cost of a dispatcher per instance is small.
+     *
+     * @return The new root client
+     */
+    public static OkHttpClient newDefaultClient() {
+        return sharedClient().newBuilder()
+            .dispatcher(newDispatcher(HttpClientConfig.defaults()))
+            .build();
+    }
+
+    /**
+     * Creates a new root client with its own connection pool and dispatcher.
+     * Pass the result to several {@link Vantiq} instances to share it between
+     * them.
+     *
+     * @param config The connection pool, dispatcher and protocol settings
+     * @return The new root client
+     */
+    public static OkHttpClient newClient(HttpClientConfig config) {
+        //
+        //  Unless we specifically ask for HTTP 1.1 we are at risk for this error:
+        //
+        //  ProtocolException: Expected ':status' header not present
+        //
+        //  See https://stackoverflow.com/questions/46807237/protocolexception-expected-status-header-not-present
+        //  See https://stackoverflow.com/questions/49643383/http-2-protocol-not-working-with-okhttp
+        //
+        //  HTTP/2 is therefore opt-in, and sessions fall back to HTTP 1.1 if the error occurs.
+        //
+        List<Protocol> protocols = new ArrayList<>();
+        if (config.isHttp2Enabled()) {
+            protocols.add(Protocol.HTTP_2);
+        }
+        protocols.add(Protocol.HTTP_1_1);
+
+        return new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(config.getMaxIdleConnections(),
+                                               config.getKeepAliveMillis(), TimeUnit.MILLISECONDS))
+            .dispatcher(newDispatcher(config))
+            .protocols(protocols)
+            .build();
+    }
+
+    private static Dispatcher newDispatcher(HttpClientConfig config) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+        return dispatcher;
+    }
+}
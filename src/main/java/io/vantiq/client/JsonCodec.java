@@ -0,0 +1,83 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+
+/**
+ * Converts between application objects and JSON.  The codec is used for the
+ * objects sent to the Vantiq server (records, where clauses, procedure
+ * arguments and published events), for the errors returned by the server,
+ * and whenever a response or event body is bound to an application type
+ * (e.g. {@link VantiqResponse#getBodyAs(Type)} or
+ * {@link Vantiq#selectAs(String, Class, java.util.List, Object, SortSpec)}).
+ *
+ * The codec also parses the untyped body returned by
+ * {@link VantiqResponse#getBody()}, which is always a Gson
+ * {@link JsonElement}, and encodes the JSON trees sent to the server (such
+ * as a {@link SortSpec}).  Implementations must therefore be able to encode
+ * and decode {@link JsonElement JsonElements}, as {@link GsonCodec} does.
+ *
+ * The default codec is {@link GsonCodec}.  A different codec is set with
+ * {@link Vantiq#setJsonCodec(JsonCodec)}.  Implementations must be thread
+ * safe.
+ */
+public interface JsonCodec {
+
+    /**
+     * Encodes the given value as JSON.
+     *
+     * @param value The value to encode, which may be null
+     * @return The JSON text
+     */
+    String encode(Object value);
+
+    /**
+     * Encodes the given value as JSON, writing it to the given writer.  This is
+     * used to stream request bodies without first building the whole JSON
+     * text.  The default implementation writes the result of
+     * {@link #encode(Object)}.
+     *
+     * @param value The value to encode, which may be null
+     * @param writer The writer receiving the JSON text.  It is not closed.
+     * @throws IOException If the JSON cannot be written
+     */
+    default void encode(Object value, Writer writer) throws IOException {
+        writer.write(encode(value));
+    }
+
+    /**
+     * Decodes the JSON read from the given reader into the given type.
+     * Malformed JSON or JSON that does not match the type should be reported
+     * with a {@link com.google.gson.JsonParseException}.
+     *
+     * @param reader The reader providing the JSON text
+     * @param type The type to decode into
+     * @param <T> The type to decode into
+     * @return The decoded value
+     * @throws IOException If the JSON cannot be read
+     */
+    <T> T decode(Reader reader, Type type) throws IOException;
+
+    /**
+     * Converts an already parsed JSON tree into the given type.  The default
+     * implementation encodes the tree and decodes the text.
+     *
+     * @param tree The JSON tree
+     * @param type The type to decode into
+     * @param <T> The type to decode into
+     * @return The decoded value
+     */
+    default <T> T decode(JsonElement tree, Type type) {
+        try {
+            return decode(new StringReader(tree.toString()), type);
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package io.vantiq.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RequestListener} that aggregates the metrics of the requests by
+ * operation in memory, to be polled with {@link #getSnapshot()}:
+ *
+ * <pre>
+ * MetricsRegistry registry = new MetricsRegistry();
+ * vantiq.setRequestListener(registry);
+ * ...
+ * for (MetricsRegistry.OperationMetrics metrics : registry.getSnapshot().values()) {
+ *     System.out.println(metrics.getOperation() + ": " + metrics.getCount() + " requests, p99 "
+ *                        + metrics.getPercentileMillis(0.99) + "ms");
+ * }
+ * </pre>
+ *
+ * Latencies are recorded in a histogram with fixed buckets, so percentiles
+ * are approximated by the upper bound of the bucket they fall in.
+ */
+public class MetricsRegistry implements RequestListener {
+
+    /**
+     * The upper bounds, in milliseconds, of the latency histogram buckets.  A
+     * final bucket holds the latencies above the last bound.
+     */
+    public static final long[] BUCKET_BOUNDS_MILLIS =
+        { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    private final ConcurrentMap<String, Accumulator> operations = new ConcurrentHashMap<String, Accumulator>();
+
+    @Override
+    public void onRequest(RequestMetrics metrics) {
+        Accumulator accumulator = this.operations.get(metrics.getOperation());
+        if (accumulator == null) {
+            accumulator = new Accumulator();
+            Accumulator existing = this.operations.putIfAbsent(metrics.getOperation(), accumulator);
+            if (existing != null) {
+                accumulator = existing;
+            }
+        }
+        accumulator.record(metrics);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every operation seen so far
+     *
+     * @return The metrics keyed and sorted by operation
+     */
+    public Map<String, OperationMetrics> getSnapshot() {
+        Map<String, OperationMetrics> snapshot = new TreeMap<String, OperationMetrics>();
+        for (Map.Entry<String, Accumulator> entry : this.operations.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards all the metrics recorded so far
+     */
+    public void reset() {
+        this.operations.clear();
+    }
+
+    static int bucketOf(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (millis <= BUCKET_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+
+    private static class Accumulator {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final LongAdder retryCount = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder dnsNanos = new LongAdder();
+        private final LongAdder connectNanos = new LongAdder();
+        private final LongAdder serverNanos = new LongAdder();
+        private final LongAdder bodyNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<Integer, LongAdder>();
+
+        void record(RequestMetrics metrics) {
+            this.count.increment();
+            if (metrics.isError()) {
+                this.errorCount.increment();
+            }
+            this.retryCount.add(metrics.getRetryCount());
+            this.bytesSent.add(metrics.getBytesSent());
+            this.bytesReceived.add(metrics.getBytesReceived());
+            this.totalNanos.add(metrics.getTotalNanos());
+            this.dnsNanos.add(metrics.getDnsNanos());
+            this.connectNanos.add(metrics.getConnectNanos());
+            this.serverNanos.add(metrics.getServerNanos());
+            this.bodyNanos.add(metrics.getBodyNanos());
+            this.buckets.incrementAndGet(bucketOf(metrics.getTotalNanos()));
+
+            long max;
+            do {
+                max = this.maxNanos.get();
+            } while (metrics.getTotalNanos() > max && !this.maxNanos.compareAndSet(max, metrics.getTotalNanos()));
+
+            LongAdder statusCount = this.statusCounts.get(metrics.getStatusCode());
+            if (statusCount == null) {
+                statusCount = new LongAdder();
+                LongAdder existing = this.statusCounts.putIfAbsent(metrics.getStatusCode(), statusCount);
+                if (existing != null) {
+                    statusCount = existing;
+                }
+            }
+            statusCount.increment();
+        }
+
+        OperationMetrics snapshot(String operation) {
+            long[] bucketCounts = new long[this.buckets.length()];
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = this.buckets.get(i);
+            }
+            Map<Integer, Long> statuses = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, LongAdder> entry : this.statusCounts.entrySet()) {
+                statuses.put(entry.getKey(), entry.getValue().sum());
+            }
+            return new OperationMetrics(operation, this.count.sum(), this.errorCount.sum(), this.retryCount.sum(),
+                                        statuses, this.bytesSent.sum(), this.bytesReceived.sum(),
+                                        this.totalNanos.sum(), this.maxNanos.get(), this.dnsNanos.sum(),
+                                        this.connectNanos.sum(), this.serverNanos.sum(), this.bodyNanos.sum(),
+                                        bucketCounts);
+        }
+    }
+
+    /**
+     * A snapshot of the aggregated metrics of one operation.  The durations
+     * are the sums over all of its requests, in nanoseconds.
+     */
+    public static class OperationMetrics {
+        private final String operation;
+        private final long count;
+        private final long errorCount;
+        private final long retryCount;
+        private final Map<Integer, Long> statusCounts;
+        private final long bytesSent;
+        private final long bytesReceived;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long dnsNanos;
+        private final long connectNanos;
+        private final long serverNanos;
+        private final long bodyNanos;
+        private final long[] bucketCounts;
+
+        OperationMetrics(String operation, long count, long errorCount, long retryCount,
+                         Map<Integer, Long> statusCounts, long bytesSent, long bytesReceived, long totalNanos,
+                         long maxNanos, long dnsNanos, long connectNanos, long serverNanos, long bodyNanos,
+                         long[] bucketCounts) {
+            this.operation = operation;
+            this.count = count;
+            this.errorCount = errorCount;
+            this.retryCount = retryCount;
+            this.statusCounts = Collections.unmodifiableMap(statusCounts);
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.dnsNanos = dnsNanos;
+            this.connectNanos = connectNanos;
+            this.serverNanos = serverNanos;
+            this.bodyNanos = bodyNanos;
+            this.bucketCounts = bucketCounts;
+        }
+
+        /**
+         * Returns the operation (e.g. "select")
+         *
+         * @return The operation
+         */
+        public String getOperation() {
+            return this.operation;
+        }
+
+        /**
+         * Returns the number of requests
+         *
+         * @return The request count
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Returns the number of requests that failed or returned an error status
+         *
+         * @return The error count
+         */
+        public long getErrorCount() {
+            return this.errorCount;
+        }
+
+        /**
+         * Returns the number of retries made under the {@link RetryPolicy}
+         *
+         * @return The retry count
+         */
+        public long getRetryCount() {
+            return this.retryCount;
+        }
+
+        /**
+         * Returns the number of responses by HTTP status code.  Requests that
+         * failed without a response are counted under status 0.
+         *
+         * @return The counts keyed by status code
+         */
+        public Map<Integer, Long> getStatusCounts() {
+            return this.statusCounts;
+        }
+
+        /**
+         * Returns the number of request body bytes sent
+         *
+         * @return The bytes sent
+         */
+        public long getBytesSent() {
+            return this.bytesSent;
+        }
+
+        /**
+         * Returns the number of response body bytes received
+         *
+         * @return The bytes received
+         */
+        public long getBytesReceived() {
+            return this.bytesReceived;
+        }
+
+        /**
+         * Returns the sum of the total times of the requests
+         *
+         * @return The total time in nanoseconds
+         */
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        /**
+         * Returns the longest total time of a request
+         *
+         * @return The maximum time in nanoseconds
+         */
+        public long getMaxNanos() {
+            return this.maxNanos;
+        }
+
+        /**
+         * Returns the sum of the DNS lookup times
+         *
+         * @return The DNS lookup time in nanoseconds
+         */
+        public long getDnsNanos() {
+            return this.dnsNanos;
+        }
+
+        /**
+         * Returns the sum of the connect times, including TLS handshakes
+         *
+         * @return The connect time in nanoseconds
+         */
+        public long getConnectNanos() {
+            return this.connectNanos;
+        }
+
+        /**
+         * Returns the sum of the times spent waiting for the server
+         *
+         * @return The server time in nanoseconds
+         */
+        public long getServerNanos() {
+            return this.serverNanos;
+        }
+
+        /**
+         * Returns the sum of the times spent reading and decoding response bodies
+         *
+         * @return The body time in nanoseconds
+         */
+        public long getBodyNanos() {
+            return this.bodyNanos;
+        }
+
+        /**
+         * Returns the mean total time of the requests
+         *
+         * @return The mean time in milliseconds
+         */
+        public double getMeanMillis() {
+            return this.count == 0 ? 0 : (this.totalNanos / (double) this.count) / 1e6;
+        }
+
+        /**
+         * Returns the number of requests in each latency bucket.  The bucket at
+         * index i holds the requests that took at most
+         * {@link MetricsRegistry#BUCKET_BOUNDS_MILLIS BUCKET_BOUNDS_MILLIS[i]}
+         * milliseconds (and more than the previous bound).  The last bucket holds
+         * the requests that took longer than every bound.
+         *
+         * @return The bucket counts
+         */
+        public long[] getBucketCounts() {
+            return this.bucketCounts.clone();
+        }
+
+        /**
+         * Returns an approximation of the given latency percentile, the upper
+         * bound of the histogram bucket it falls in.  Latencies beyond the last
+         * bound are reported as the maximum time.
+         *
+         * @param quantile The quantile, between 0 and 1 (e.g. 0.99)
+         * @return The latency in milliseconds or 0 if there were no requests
+         */
+        public double getPercentileMillis(double quantile) {
+            if (quantile < 0 || quantile > 1) {
+                throw new IllegalArgumentException("quantile must be between 0 and 1");
+            }
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * this.count);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += this.bucketCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], this.maxNanos / 1e6);
+                }
+            }
+            return this.maxNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return "OperationMetrics[operation=" + this.operation
+                   + ", count=" + this.count
+                   + ", errorCount=" + this.errorCount
+                   + ", retryCount=" + this.retryCount
+                   + ", statusCounts=" + this.statusCounts
+                   + ", meanMillis=" + getMeanMillis()
+                   + ", maxMillis=" + (this.maxNanos / 1e6) + "]";
+        }
+    }
+}
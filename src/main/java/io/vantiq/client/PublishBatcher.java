@@ -0,0 +1,388 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Accumulates publish operations and sends them to the Vantiq server in
+ * batches through the "/batch" resource, rather than one request per event.
+ *
+ * Events are queued per target (resource and id).  The queue for a target is
+ * sent when it reaches the maximum batch size or number of bytes, or when its
+ * oldest event has waited for the linger time, whichever comes first.
+ *
+ * The number of events that are queued or in flight is bounded.  When the
+ * bound is reached, {@link #publish} blocks until earlier batches complete,
+ * for at most the maximum block time.  If no room becomes available in that
+ * time, the event is dropped and its handler fails with a
+ * {@link TimeoutException}.
+ *
+ * The outcome of each event is reported to the response handler given when
+ * it was published, with the same body as {@link Vantiq#publish}.  An event
+ * rejected by the server is reported through
+ * {@link ResponseHandler#onError} with a response carrying the status of
+ * that event, rather than the status of the "/batch" request.
+ */
+public class PublishBatcher implements Closeable {
+
+    public static final int  DEFAULT_MAX_BATCH_SIZE   = 100;
+    public static final long DEFAULT_MAX_BATCH_BYTES  = 256 * 1024;
+    public static final long DEFAULT_LINGER_MILLIS    = 20;
+    public static final int  DEFAULT_MAX_PENDING      = 10000;
+    public static final long DEFAULT_MAX_BLOCK_MILLIS = 30000;
+
+    private static final Type ERRORS_TYPE = new TypeToken<List<VantiqError>>(){}.getType();
+
+    private final Vantiq vantiq;
+    private final int maxBatchSize;
+    private final long maxBatchBytes;
+    private final long lingerMillis;
+    private final int maxPending;
+    private final long maxBlockMillis;
+
+    private final Semaphore pending;
+    private final Map<String,Batch> batches = new HashMap<String,Batch>();
+    private final ScheduledExecutorService scheduler;
+    private boolean closed = false;
+
+    /**
+     * Creates a batcher with the default limits.
+     *
+     * @param vantiq The authenticated Vantiq SDK instance used to send the batches
+     */
+    public PublishBatcher(Vantiq vantiq) {
+        this(vantiq, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Creates a batcher with the given limits.
+     *
+     * @param vantiq The authenticated Vantiq SDK instance used to send the batches
+     * @param maxBatchSize The maximum number of events sent in a single batch
+     * @param maxBatchBytes The number of bytes of payload after which a batch is sent
+     * @param lingerMillis The maximum time in milliseconds an event waits before its batch is sent
+     * @param maxPending The maximum number of events that are queued or in flight
+     */
+    public PublishBatcher(Vantiq vantiq, int maxBatchSize, long maxBatchBytes, long lingerMillis, int maxPending) {
+        this(vantiq, maxBatchSize, maxBatchBytes, lingerMillis, maxPending, DEFAULT_MAX_BLOCK_MILLIS);
+    }
+
+    /**
+     * Creates a batcher with the given limits.
+     *
+     * @param vantiq The authenticated Vantiq SDK instance used to send the batches
+     * @param maxBatchSize The maximum number of events sent in a single batch
+     * @param maxBatchBytes The number of bytes of payload after which a batch is sent
+     * @param lingerMillis The maximum time in milliseconds an event waits before its batch is sent
+     * @param maxPending The maximum number of events that are queued or in flight
+     * @param maxBlockMillis The maximum time in milliseconds {@link #publish} waits for room
+     *                       when the maximum number of pending events has been reached.  Zero
+     *                       fails immediately.
+     */
+    public PublishBatcher(Vantiq vantiq, int maxBatchSize, long maxBatchBytes, long lingerMillis, int maxPending,
+                          long maxBlockMillis) {
+        if (maxBatchSize <= 0 || maxBatchBytes <= 0 || lingerMillis < 0 || maxPending <= 0 || maxBlockMillis < 0) {
+            throw new IllegalArgumentException("Batch limits must be greater than 0");
+        }
+        this.vantiq = vantiq;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        this.maxPending = maxPending;
+        this.maxBlockMillis = maxBlockMillis;
+        this.pending = new Semaphore(maxPending);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vantiq-publish-batcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a publish to a specific topic, source or service.  This blocks if the
+     * maximum number of pending events has been reached, for at most the maximum
+     * block time.  Since the batches complete on the threads that deliver the
+     * responses, a handler that publishes again should use a batcher with a
+     * maximum block time of zero.
+     *
+     * @param resource The resource to publish to.  This must be the value of either
+     *                 {@link Vantiq.SystemResources#TOPICS}, {@link Vantiq.SystemResources#SOURCES}
+     *                 or {@link Vantiq.SystemResources#SERVICES}.
+     * @param id The topic, source or service to publish.
+     * @param payload The message to publish.  This will be converted to JSON using Gson.
+     * @param responseHandler The optional response handler that is called once the batch
+     *                        containing the event completes.
+     */
+    public void publish(String resource, String id, Object payload, ResponseHandler responseHandler) {
+        if(!Vantiq.SystemResources.SOURCES.value().equals(resource) &&
+           !Vantiq.SystemResources.TOPICS.value().equals(resource) &&
+           !Vantiq.SystemResources.SERVICES.value().equals(resource)) {
+            throw new IllegalArgumentException("Only 'sources', 'services' and 'topics' support publish");
+        }
+        String json = this.vantiq.toJson(payload);
+        String uri = "/resources/" + resource + "/" + id;
+
+        try {
+            if (!this.pending.tryAcquire(this.maxBlockMillis, TimeUnit.MILLISECONDS)) {
+                if (responseHandler != null) {
+                    responseHandler.onFailure(new TimeoutException(
+                        "No room for the publish after " + this.maxBlockMillis + " ms (" + this.maxPending + " pending)"));
+                }
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (responseHandler != null) {
+                responseHandler.onFailure(ex);
+            }
+            return;
+        }
+
+        Batch full = null;
+        synchronized (this) {
+            if (this.closed) {
+                this.pending.release();
+                throw new IllegalStateException("Publish batcher is closed");
+            }
+            Batch batch = this.batches.get(uri);
+            if (batch == null) {
+                batch = new Batch(uri);
+                this.batches.put(uri, batch);
+                scheduleLinger(batch);
+            }
+            batch.add(json, responseHandler);
+            if (batch.events.size() >= this.maxBatchSize || batch.bytes >= this.maxBatchBytes) {
+                this.batches.remove(uri);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Sends all the queued events without waiting for their linger time.  The
+     * results are delivered asynchronously to the response handlers.
+     */
+    public void flush() {
+        List<Batch> toSend;
+        synchronized (this) {
+            toSend = new ArrayList<Batch>(this.batches.values());
+            this.batches.clear();
+        }
+        for (Batch batch : toSend) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Returns the number of events that are queued or in flight.
+     *
+     * @return The number of pending events
+     */
+    public int getPendingCount() {
+        return this.maxPending - this.pending.availablePermits();
+    }
+
+    /**
+     * Sends any queued events and stops accepting new ones.  The results of
+     * the final batches are still delivered to the response handlers.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        flush();
+        this.scheduler.shutdown();
+    }
+
+    private void scheduleLinger(final Batch batch) {
+        batch.linger = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PublishBatcher.this) {
+                    if (batches.get(batch.uri) != batch) {
+                        return;
+                    }
+                    batches.remove(batch.uri);
+                }
+                send(batch);
+            }
+        }, this.lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Posts the batch.  The request body is assembled directly from the JSON of
+     * each payload, so the payloads are only serialized once.
+     */
+    private void send(Batch batch) {
+        if (batch.linger != null) {
+            batch.linger.cancel(false);
+        }
+
+        String headers = "{\"Content-Type\":\"application/json\",\"Authorization\":"
+                         + this.vantiq.toJson("Bearer " + this.vantiq.getAccessToken()) + "}";
+        String uri = this.vantiq.toJson(batch.uri);
+
+        StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE, batch.bytes + batch.events.size() * 160L));
+        sb.append('[');
+        for (int i = 0; i < batch.events.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"method\":\"POST\",\"headers\":").append(headers)
+              .append(",\"uri\":").append(uri)
+              .append(",\"body\":").append(batch.events.get(i))
+              .append('}');
+        }
+        sb.append(']');
+
+        BatchResponseHandler handler = new BatchResponseHandler(batch);
+        try {
+            this.vantiq.postBatch(sb.toString(), handler);
+        } catch (RuntimeException ex) {
+            handler.onFailure(ex);
+        }
+    }
+
+    /**
+     * The queued events for a single target
+     */
+    private static class Batch {
+        final String uri;
+        final List<String> events = new ArrayList<String>();
+        final List<ResponseHandler> handlers = new ArrayList<ResponseHandler>();
+        long bytes = 0;
+        ScheduledFuture<?> linger;
+
+        Batch(String uri) {
+            this.uri = uri;
+        }
+
+        void add(String json, ResponseHandler handler) {
+            this.events.add(json);
+            this.handlers.add(handler);
+            this.bytes += json.length();
+        }
+    }
+
+    /**
+     * Splits the response to a batch into the responses for each event.  An
+     * element of the result with a "status" of 400 or more is reported as an
+     * error, with the errors taken from its "body" and a response carrying
+     * that status.  Any other element, or a missing one, is reported as a
+     * success.
+     */
+    private class BatchResponseHandler implements ResponseHandler {
+
+        private final Batch batch;
+
+        BatchResponseHandler(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSuccess(Object body, Response response) {
+            pending.release(this.batch.events.size());
+            JsonArray results = (body instanceof JsonArray ? (JsonArray) body : null);
+            for (int i = 0; i < this.batch.handlers.size(); i++) {
+                ResponseHandler handler = this.batch.handlers.get(i);
+                if (handler == null) {
+                    continue;
+                }
+                JsonElement result = (results != null && i < results.size() ? results.get(i) : null);
+                List<VantiqError> errors = errorsFor(result);
+                if (errors != null) {
+                    handler.onError(errors, responseFor(result, response));
+                } else {
+                    handler.onSuccess(true, response);
+                }
+            }
+        }
+
+        @Override
+        public void onError(List<VantiqError> errors, Response response) {
+            pending.release(this.batch.events.size());
+            for (ResponseHandler handler : this.batch.handlers) {
+                if (handler != null) {
+                    handler.onError(errors, response);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable exception) {
+            pending.release(this.batch.events.size());
+            for (ResponseHandler handler : this.batch.handlers) {
+                if (handler != null) {
+                    handler.onFailure(exception);
+                }
+            }
+        }
+
+        /**
+         * Returns a response for a failed element, with the status of the element
+         * in place of the status of the "/batch" request.  The body of the batch
+         * has already been consumed, so it is not carried over.
+         */
+        private Response responseFor(JsonElement result, Response response) {
+            int status = result.getAsJsonObject().get("status").getAsInt();
+            return response.newBuilder()
+                    .code(status)
+                    .body(null)
+                    .build();
+        }
+
+        private List<VantiqError> errorsFor(JsonElement result) {
+            if (result == null || !result.isJsonObject()) {
+                return null;
+            }
+            JsonObject obj = result.getAsJsonObject();
+            JsonElement status = obj.get("status");
+            if (status == null || !status.isJsonPrimitive() || !status.getAsJsonPrimitive().isNumber()
+                    || status.getAsInt() < 400) {
+                return null;
+            }
+
+            JsonElement errorBody = obj.get("body");
+            if (errorBody != null && errorBody.isJsonArray()) {
+                try {
+                    List<VantiqError> errors = vantiq.getJsonCodec().decode(errorBody, ERRORS_TYPE);
+                    if (errors != null && !errors.isEmpty()) {
+                        return errors;
+                    }
+                } catch (RuntimeException ex) {
+                    // Fall through to the generic error
+                }
+            }
+            return Collections.singletonList(
+                new VantiqError("io.vantiq.batch.failed", "Publish failed (" + status.getAsInt() + ")", null));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io.vantiq.client;
+
+/**
+ * Configures how the WebSocket used by subscriptions is re-established when
+ * it fails or is closed by the server.  By default, subscriptions are lost
+ * when the WebSocket drops.  When a policy is set on the {@link Vantiq}
+ * instance, the SDK reconnects, validates the current access token again and
+ * re-issues every subscription with its original parameters.
+ *
+ * The delay before each attempt grows exponentially and is randomized
+ * between zero and the current maximum ("full jitter"), so that many
+ * clients losing the same server do not reconnect at the same moment.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * vantiq.setReconnectPolicy(ReconnectPolicy.builder()
+ *     .initialDelayMillis(500)
+ *     .maxDelayMillis(30000)
+ *     .build());
+ * </pre>
+ */
+public class ReconnectPolicy {
+
+    public static final long   DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+    public static final long   DEFAULT_MAX_DELAY_MILLIS     = 60000;
+    public static final double DEFAULT_MULTIPLIER           = 2.0;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final int maxAttempts;
+
+    private ReconnectPolicy(Builder builder) {
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.multiplier = builder.multiplier;
+        this.maxAttempts = builder.maxAttempts;
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this policy.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the upper bound of the delay before the first attempt.
+     *
+     * @return The initial delay in milliseconds
+     */
+    public long getInitialDelayMillis() {
+        return this.initialDelayMillis;
+    }
+
+    /**
+     * Returns the largest upper bound of the delay before an attempt.
+     *
+     * @return The maximum delay in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    /**
+     * Returns the factor applied to the upper bound of the delay after each
+     * failed attempt.
+     *
+     * @return The multiplier
+     */
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+
+    /**
+     * Returns the number of consecutive failed attempts after which the SDK
+     * stops reconnecting and reports the failure to the subscription callback.
+     *
+     * @return The maximum number of attempts or 0 for no limit
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Returns the delay before the given attempt, chosen at random between
+     * zero and the exponentially growing upper bound.
+     *
+     * @param attempt The number of the attempt, starting at 0
+     * @param random A random value between 0 (inclusive) and 1 (exclusive)
+     * @return The delay in milliseconds
+     */
+    public long getDelayMillis(int attempt, double random) {
+        double bound = this.initialDelayMillis * Math.pow(this.multiplier, attempt);
+        return (long) (Math.min(bound, this.maxDelayMillis) * random);
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy[initialDelayMillis=" + this.initialDelayMillis
+               + ", maxDelayMillis=" + this.maxDelayMillis
+               + ", multiplier=" + this.multiplier
+               + ", maxAttempts=" + this.maxAttempts + "]";
+    }
+
+    /**
+     * Builder for {@link ReconnectPolicy}
+     */
+    public static class Builder {
+
+        private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private double multiplier = DEFAULT_MULTIPLIER;
+        private int maxAttempts = 0;
+
+        private Builder() {}
+
+        private Builder(ReconnectPolicy policy) {
+            this.initialDelayMillis = policy.initialDelayMillis;
+            this.maxDelayMillis = policy.maxDelayMillis;
+            this.multiplier = policy.multiplier;
+            this.maxAttempts = policy.maxAttempts;
+        }
+
+        /**
+         * Sets the upper bound of the delay before the first attempt.
+         *
+         * @param initialDelayMillis The initial delay in milliseconds
+         * @return This builder
+         */
+        public Builder initialDelayMillis(long initialDelayMillis) {
+            if (initialDelayMillis < 0) {
+                throw new IllegalArgumentException("initialDelayMillis must not be negative");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the largest upper bound of the delay before an attempt.
+         *
+         * @param maxDelayMillis The maximum delay in milliseconds
+         * @return This builder
+         */
+        public Builder maxDelayMillis(long maxDelayMillis) {
+            if (maxDelayMillis < 0) {
+                throw new IllegalArgumentException("maxDelayMillis must not be negative");
+            }
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the factor applied to the upper bound of the delay after each
+         * failed attempt.
+         *
+         * @param multiplier The multiplier
+         * @return This builder
+         */
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier must be at least 1");
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Sets the number of consecutive failed attempts after which the SDK
+         * stops reconnecting.
+         *
+         * @param maxAttempts The maximum number of attempts or 0 for no limit
+         * @return This builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 0) {
+                throw new IllegalArgumentException("maxAttempts must not be negative");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Creates the policy.
+         *
+         * @return The policy
+         */
+        public ReconnectPolicy build() {
+            return new ReconnectPolicy(this);
+        }
+    }
+}
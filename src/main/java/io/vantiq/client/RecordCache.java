@@ -0,0 +1,495 @@
+package io.vantiq.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import io.vantiq.client.internal.VantiqSession;
+import okhttp3.Response;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cache of the responses of selectOne and select, configured by a
+ * {@link RecordCacheConfig}.  Each cached type is subscribed to its INSERT,
+ * UPDATE and DELETE events, which invalidate its entries.
+ *
+ * Reads capture the generation of their type, which every invalidation
+ * increments, so that a response is only stored if no event arrived while it
+ * was requested.
+ */
+class RecordCache {
+
+    private final RecordCacheConfig config;
+    private final VantiqSession session;
+    private final Cache<String, Entry> entries;
+    private final ConcurrentMap<String, TypeState> types = new ConcurrentHashMap<String, TypeState>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    RecordCache(RecordCacheConfig config, VantiqSession session) {
+        this.config = config;
+        this.session = session;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .removalListener(new RemovalListener<String, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Entry> notification) {
+                        // A replaced entry has the same key, which stays indexed for its replacement
+                        if (notification.getCause() != RemovalCause.REPLACED && notification.getValue() != null) {
+                            notification.getValue().state.unindex(notification.getKey(), notification.getValue());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    RecordCacheConfig getConfig() {
+        return this.config;
+    }
+
+    RecordCacheStats getStats() {
+        CacheStats stats = this.entries.stats();
+        return new RecordCacheStats(this.hitCount.sum(), this.missCount.sum(), stats.evictionCount(),
+                                    this.invalidationCount.sum(), this.entries.size());
+    }
+
+    /**
+     * Starts a read of the given resource.  Returns null if the resource is
+     * not cached, such as a system resource or a type that is not listed.
+     *
+     * @param resource The resource read
+     * @param path The path of the request
+     * @param queryParams The query parameters of the request, if any
+     * @return The read, which holds the cached response if there is one
+     */
+    Read read(String resource, String path, Map<String,String> queryParams) {
+        if (!isCacheable(resource) || !this.session.isAuthenticated()) {
+            return null;
+        }
+        TypeState state = subscribe(resource);
+        if (state.failed) {
+            return null;
+        }
+
+        String key = keyOf(path, queryParams);
+        Entry hit = null;
+        if (!isActive(state)) {
+            // Events may be missed, so the entries cannot be trusted until
+            // the subscriptions are back
+            state.stale = true;
+        } else {
+            if (state.stale) {
+                state.stale = false;
+                invalidate(state, null, true);
+            }
+            hit = this.entries.getIfPresent(key);
+        }
+        if (hit != null) {
+            this.hitCount.increment();
+        } else {
+            this.missCount.increment();
+        }
+        return new Read(state, key, queryParams != null, state.generation.get(), hit);
+    }
+
+    /**
+     * Invalidates every entry and drops the subscriptions of the cache
+     */
+    void close() {
+        for (TypeState state : this.types.values()) {
+            if (this.types.remove(state.type, state)) {
+                invalidate(state, null, true);
+                if (!state.failed) {
+                    unsubscribe(state);
+                }
+            }
+        }
+        this.entries.invalidateAll();
+    }
+
+    /**
+     * Invalidates every entry after the subscriptions were dropped, which
+     * are then made again by the next read.
+     */
+    void reset() {
+        for (TypeState state : this.types.values()) {
+            if (this.types.remove(state.type, state)) {
+                invalidate(state, null, true);
+            }
+        }
+        this.entries.invalidateAll();
+    }
+
+    private boolean isCacheable(String resource) {
+        if (resource.startsWith("system.")) {
+            return false;
+        }
+        for (Vantiq.SystemResources systemResource : Vantiq.SystemResources.values()) {
+            if (systemResource.value().equals(resource)) {
+                return false;
+            }
+        }
+        return this.config.getTypes().isEmpty() || this.config.getTypes().contains(resource);
+    }
+
+    /**
+     * Returns the state of the given type, subscribing to its events on the
+     * first read or after the subscriptions were lost.  The cache listens to
+     * the events alongside any subscription of the application to them.
+     */
+    private TypeState subscribe(String type) {
+        TypeState state = this.types.get(type);
+        if (state != null && (state.failed || isSubscribed(state))) {
+            return state;
+        }
+        if (state != null) {
+            // The WebSocket was closed for good, so subscribe again
+            invalidate(state, null, true);
+            this.types.remove(type, state);
+        }
+
+        TypeState newState = new TypeState(type);
+        state = this.types.putIfAbsent(type, newState);
+        if (state != null) {
+            return state;
+        }
+        for (Vantiq.TypeOperation operation : Vantiq.TypeOperation.values()) {
+            this.session.addSubscriptionListener(newState.pathOf(operation), newState.callbackOf(operation), true);
+        }
+        return newState;
+    }
+
+    private void unsubscribe(TypeState state) {
+        for (Vantiq.TypeOperation operation : Vantiq.TypeOperation.values()) {
+            this.session.removeSubscriptionListener(state.pathOf(operation), state.callbackOf(operation));
+        }
+    }
+
+    private boolean isSubscribed(TypeState state) {
+        for (Vantiq.TypeOperation operation : Vantiq.TypeOperation.values()) {
+            if (!this.session.hasSubscriptionListener(state.pathOf(operation), state.callbackOf(operation))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isActive(TypeState state) {
+        for (Vantiq.TypeOperation operation : Vantiq.TypeOperation.values()) {
+            if (!this.session.isSubscriptionActive(state.pathOf(operation))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Invalidates the queries of the type and, if records is true, its
+     * records with the given id, or all of them if the id is not known.  Only
+     * the entries indexed by the type are visited, not the whole cache.
+     *
+     * @return The number of entries invalidated
+     */
+    private int invalidate(TypeState state, String id, boolean records) {
+        state.generation.incrementAndGet();
+        int count = remove(state, state.queryKeys);
+        if (records) {
+            count += remove(state, state.unidentifiedKeys);
+            if (id == null) {
+                for (Set<String> keys : state.recordKeys.values()) {
+                    count += remove(state, keys);
+                }
+            } else {
+                Set<String> keys = state.recordKeys.get(id);
+                if (keys != null) {
+                    count += remove(state, keys);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes the entries of the type with the given keys.  The removal
+     * listener drops the keys from the index.
+     */
+    private int remove(TypeState state, Set<String> keys) {
+        int count = 0;
+        ConcurrentMap<String, Entry> map = this.entries.asMap();
+        for (String key : new ArrayList<String>(keys)) {
+            Entry entry = map.get(key);
+            if (entry != null && entry.state == state && map.remove(key, entry)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the key of a request: its path, followed by its query
+     * parameters in name order, with the JSON values normalized so that
+     * equal queries have the same key.
+     */
+    static String keyOf(String path, Map<String,String> queryParams) {
+        if (queryParams == null) {
+            return path;
+        }
+        StringBuilder key = new StringBuilder(path);
+        char separator = '?';
+        for (Map.Entry<String,String> param : new TreeMap<String,String>(queryParams).entrySet()) {
+            key.append(separator).append(param.getKey()).append('=').append(normalize(param.getValue()));
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            return sorted(JsonParser.parseString(value)).toString();
+        } catch (JsonSyntaxException ex) {
+            return value;
+        }
+    }
+
+    private static JsonElement sorted(JsonElement element) {
+        if (element.isJsonObject()) {
+            Map<String,JsonElement> members = new TreeMap<String,JsonElement>();
+            for (Map.Entry<String,JsonElement> member : element.getAsJsonObject().entrySet()) {
+                members.put(member.getKey(), sorted(member.getValue()));
+            }
+            JsonObject result = new JsonObject();
+            for (Map.Entry<String,JsonElement> member : members.entrySet()) {
+                result.add(member.getKey(), member.getValue());
+            }
+            return result;
+        }
+        if (element.isJsonArray()) {
+            JsonArray result = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                result.add(sorted(item));
+            }
+            return result;
+        }
+        return element;
+    }
+
+    private static String idOf(Object record) {
+        if (record instanceof JsonObject) {
+            JsonElement id = ((JsonObject) record).get("_id");
+            return (id != null && id.isJsonPrimitive() ? id.getAsString() : null);
+        }
+        if (record instanceof Map) {
+            Object id = ((Map) record).get("_id");
+            return (id != null ? id.toString() : null);
+        }
+        return null;
+    }
+
+    /**
+     * A read of a cached type
+     */
+    class Read {
+        private final TypeState state;
+        private final String key;
+        private final boolean query;
+        private final long generation;
+        private final Entry hit;
+
+        Read(TypeState state, String key, boolean query, long generation, Entry hit) {
+            this.state = state;
+            this.key = key;
+            this.query = query;
+            this.generation = generation;
+            this.hit = hit;
+        }
+
+        boolean isHit() {
+            return this.hit != null;
+        }
+
+        /**
+         * Returns a copy of the cached body, which the caller may modify
+         */
+        JsonElement getBody() {
+            return this.hit.body.deepCopy();
+        }
+
+        /**
+         * Returns the HTTP response the cached body was read with
+         */
+        Response getResponse() {
+            return this.hit.response;
+        }
+
+        /**
+         * Stores a successful JSON response, unless the type changed since
+         * the read started.
+         */
+        void store(Object body, Response response) {
+            if (!(body instanceof JsonElement) || response == null || !response.isSuccessful()) {
+                return;
+            }
+            if (types.get(this.state.type) != this.state || this.state.stale || !isActive(this.state)) {
+                return;
+            }
+            JsonElement copy = ((JsonElement) body).deepCopy();
+            Entry entry = new Entry(this.state, this.query, this.query ? null : idOf(copy), copy, response);
+            if (this.state.generation.get() != this.generation) {
+                return;
+            }
+            // Indexed first, so that an invalidation never misses a stored entry
+            this.state.index(this.key, entry);
+            entries.put(this.key, entry);
+
+            // Drop the entry if an event arrived while it was stored
+            if (this.state.generation.get() != this.generation) {
+                entries.asMap().remove(this.key, entry);
+            }
+        }
+    }
+
+    /**
+     * The subscriptions and generation of a cached type
+     */
+    private class TypeState {
+        final String type;
+        final AtomicLong generation = new AtomicLong();
+        final Map<Vantiq.TypeOperation, TypeCallback> callbacks =
+                new EnumMap<Vantiq.TypeOperation, TypeCallback>(Vantiq.TypeOperation.class);
+        volatile boolean failed = false;
+        volatile boolean stale = true;
+
+        // The keys of the cached entries of the type: its queries, its records
+        // by id, and the records whose id is not known
+        final Set<String> queryKeys = ConcurrentHashMap.newKeySet();
+        final ConcurrentMap<String, Set<String>> recordKeys = new ConcurrentHashMap<String, Set<String>>();
+        final Set<String> unidentifiedKeys = ConcurrentHashMap.newKeySet();
+
+        TypeState(String type) {
+            this.type = type;
+            for (Vantiq.TypeOperation operation : Vantiq.TypeOperation.values()) {
+                this.callbacks.put(operation, new TypeCallback(this, operation));
+            }
+        }
+
+        TypeCallback callbackOf(Vantiq.TypeOperation operation) {
+            return this.callbacks.get(operation);
+        }
+
+        void index(final String key, Entry entry) {
+            if (entry.query) {
+                this.queryKeys.add(key);
+            } else if (entry.id == null) {
+                this.unidentifiedKeys.add(key);
+            } else {
+                this.recordKeys.compute(entry.id, (id, keys) -> {
+                    Set<String> result = (keys != null ? keys : ConcurrentHashMap.<String>newKeySet());
+                    result.add(key);
+                    return result;
+                });
+            }
+        }
+
+        void unindex(final String key, Entry entry) {
+            if (entry.query) {
+                this.queryKeys.remove(key);
+            } else if (entry.id == null) {
+                this.unidentifiedKeys.remove(key);
+            } else {
+                this.recordKeys.computeIfPresent(entry.id, (id, keys) -> {
+                    keys.remove(key);
+                    return (keys.isEmpty() ? null : keys);
+                });
+            }
+        }
+
+        String pathOf(Vantiq.TypeOperation operation) {
+            return "/" + Vantiq.SystemResources.TYPES.value() + "/" + this.type
+                   + "/" + operation.toString().toLowerCase();
+        }
+    }
+
+    /**
+     * A cached response body
+     */
+    private static class Entry {
+        final TypeState state;
+        final boolean query;
+        final String id;
+        final JsonElement body;
+        final Response response;
+
+        Entry(TypeState state, boolean query, String id, JsonElement body, Response response) {
+            this.state = state;
+            this.query = query;
+            this.id = id;
+            this.body = body;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Invalidates the entries of a type on its events
+     */
+    private class TypeCallback implements SubscriptionCallback {
+        private final TypeState state;
+        private final Vantiq.TypeOperation operation;
+
+        TypeCallback(TypeState state, Vantiq.TypeOperation operation) {
+            this.state = state;
+            this.operation = operation;
+        }
+
+        @Override
+        public void onConnect() {
+            // Events may have been missed while reconnecting
+            invalidate(this.state, null, true);
+        }
+
+        @Override
+        public void onMessage(SubscriptionMessage message) {
+            String id = null;
+            if (message.getBody() instanceof Map) {
+                id = idOf(((Map) message.getBody()).get("value"));
+            }
+            // An insert can only change the results of queries
+            invalidationCount.add(invalidate(this.state, id, this.operation != Vantiq.TypeOperation.INSERT));
+        }
+
+        @Override
+        public void onError(String error) {
+            // The subscription was rejected, so the type is no longer cached
+            this.state.failed = true;
+            invalidate(this.state, null, true);
+            unsubscribe(this.state);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            invalidate(this.state, null, true);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.vantiq.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Configures the client-side cache of records read with
+ * {@link Vantiq#selectOne selectOne} and {@link Vantiq#select select} from
+ * user-defined types.  When a configuration is set on the {@link Vantiq}
+ * instance, the successful responses are kept, keyed by the type and the id
+ * or the normalized query, and later identical reads are answered from the
+ * cache.
+ *
+ * To keep the cache consistent, the first read of a type subscribes to its
+ * INSERT, UPDATE and DELETE events.  An insert invalidates the cached queries
+ * of the type, and an update or delete also invalidates the cached record with
+ * the same "_id".  Responses are only cached while these subscriptions are
+ * connected, and all the entries of a type are invalidated when they
+ * reconnect, since events may have been missed.  Entries are also evicted
+ * once they are older than the expiration, or when the cache is full.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * vantiq.setRecordCacheConfig(RecordCacheConfig.builder()
+ *     .maximumSize(500)
+ *     .types("Configuration")
+ *     .build());
+ * </pre>
+ */
+public class RecordCacheConfig {
+
+    public static final long DEFAULT_MAXIMUM_SIZE               = 1000;
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE_MILLIS  = 300000;
+
+    private final long maximumSize;
+    private final long expireAfterWriteMillis;
+    private final Set<String> types;
+
+    private RecordCacheConfig(Builder builder) {
+        this.maximumSize = builder.maximumSize;
+        this.expireAfterWriteMillis = builder.expireAfterWriteMillis;
+        this.types = Collections.unmodifiableSet(new LinkedHashSet<String>(builder.types));
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this configuration.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the largest number of cached responses.
+     *
+     * @return The maximum size
+     */
+    public long getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Returns how long a response stays cached after it was read.
+     *
+     * @return The expiration in milliseconds
+     */
+    public long getExpireAfterWriteMillis() {
+        return this.expireAfterWriteMillis;
+    }
+
+    /**
+     * Returns the types whose records are cached.
+     *
+     * @return The type names, or an empty set for all user-defined types
+     */
+    public Set<String> getTypes() {
+        return this.types;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordCacheConfig[maximumSize=" + this.maximumSize
+               + ", expireAfterWriteMillis=" + this.expireAfterWriteMillis
+               + ", types=" + this.types + "]";
+    }
+
+    /**
+     * Builder for {@link RecordCacheConfig}
+     */
+    public static class Builder {
+
+        private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+        private long expireAfterWriteMillis = DEFAULT_EXPIRE_AFTER_WRITE_MILLIS;
+        private Set<String> types = new LinkedHashSet<String>();
+
+        private Builder() {}
+
+        private Builder(RecordCacheConfig config) {
+            this.maximumSize = config.maximumSize;
+            this.expireAfterWriteMillis = config.expireAfterWriteMillis;
+            this.types = new LinkedHashSet<String>(config.types);
+        }
+
+        /**
+         * Sets the largest number of cached responses.  The least recently
+         * used ones are evicted first.
+         *
+         * @param maximumSize The maximum size
+         * @return This builder
+         */
+        public Builder maximumSize(long maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a response stays cached after it was read.  This
+         * bounds the staleness of an entry if an event is lost.
+         *
+         * @param expireAfterWriteMillis The expiration in milliseconds
+         * @return This builder
+         */
+        public Builder expireAfterWriteMillis(long expireAfterWriteMillis) {
+            if (expireAfterWriteMillis <= 0) {
+                throw new IllegalArgumentException("expireAfterWriteMillis must be positive");
+            }
+            this.expireAfterWriteMillis = expireAfterWriteMillis;
+            return this;
+        }
+
+        /**
+         * Restricts the cache to the given types.  By default, the records of
+         * every user-defined type are cached.
+         *
+         * @param types The type names
+         * @return This builder
+         */
+        public Builder types(String... types) {
+            this.types = new LinkedHashSet<String>(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Builds the configuration
+         *
+         * @return The record cache configuration
+         */
+        public RecordCacheConfig build() {
+            return new RecordCacheConfig(this);
+        }
+    }
+}
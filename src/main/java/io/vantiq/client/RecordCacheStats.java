@@ -0,0 +1,89 @@
+package io.vantiq.client;
+
+/**
+ * A snapshot of the use of the record cache, as returned by
+ * {@link Vantiq#getRecordCacheStats()}.  Only the reads of cached types are
+ * counted, as hits or misses.
+ */
+public class RecordCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long invalidationCount;
+    private final long size;
+
+    public RecordCacheStats(long hitCount, long missCount, long evictionCount,
+                            long invalidationCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of reads answered from the cache.
+     *
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of reads sent to the server.
+     *
+     * @return The miss count
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Returns the fraction of the reads answered from the cache.
+     *
+     * @return The hit rate, between 0 and 1
+     */
+    public double getHitRate() {
+        long total = this.hitCount + this.missCount;
+        return (total == 0 ? 0 : (double) this.hitCount / total);
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full or
+     * they expired.
+     *
+     * @return The eviction count
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Returns the number of entries invalidated by the events of their type.
+     *
+     * @return The invalidation count
+     */
+    public long getInvalidationCount() {
+        return this.invalidationCount;
+    }
+
+    /**
+     * Returns the number of cached responses.
+     *
+     * @return The size
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordCacheStats[hitCount=" + this.hitCount
+               + ", missCount=" + this.missCount
+               + ", evictionCount=" + this.evictionCount
+               + ", invalidationCount=" + this.invalidationCount
+               + ", size=" + this.size + "]";
+    }
+}
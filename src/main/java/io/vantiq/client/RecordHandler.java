@@ -0,0 +1,23 @@
+package io.vantiq.client;
+
+/**
+ * Response handler for streaming operations that deliver the records of a
+ * result one at a time as they are read from the response.
+ *
+ * {@link #onRecord} is called once per record.  After the last record,
+ * {@link ResponseHandler#onSuccess} is called with the number of records
+ * delivered as the body.  If the server returns an error, only
+ * {@link ResponseHandler#onError} is called.
+ *
+ * @param <T> The type of the records
+ */
+public interface RecordHandler<T> extends ResponseHandler {
+
+    /**
+     * Called for every record in the result, in order.
+     *
+     * @param record The decoded record
+     */
+    void onRecord(T record);
+
+}
@@ -0,0 +1,119 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okio.BufferedSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over the records of a JSON array response that decodes one
+ * record at a time directly from the HTTP response stream.  Only the record
+ * currently being returned is held in memory, regardless of the size of the
+ * result.
+ *
+ * The iterator holds the underlying HTTP connection open until all the
+ * records have been read or it is closed, so callers that stop early must
+ * call {@link #close}.
+ *
+ * @param <T> The type each record is decoded into
+ */
+public class RecordIterator<T> implements Iterator<T>, Closeable {
+
+    private final JsonReader reader;
+    private final TypeAdapter<T> adapter;
+
+    private boolean started = false;
+    private boolean closed = false;
+
+    RecordIterator(BufferedSource source, TypeAdapter<T> adapter) {
+        this.reader = new JsonReader(new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8));
+        this.adapter = adapter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.closed) {
+            return false;
+        }
+        try {
+            if (!this.started) {
+                this.started = true;
+                if (this.reader.peek() == JsonToken.END_DOCUMENT) {
+                    close();
+                    return false;
+                }
+                this.reader.beginArray();
+            }
+            if (this.reader.hasNext()) {
+                return true;
+            }
+            this.reader.endArray();
+            close();
+            return false;
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new UncheckedIOException(ex);
+        } catch (IllegalStateException ex) {
+            closeQuietly();
+            throw new JsonParseException("Response body is not a JSON array", ex);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return this.adapter.read(this.reader);
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Returns a sequential Stream over the remaining records.  Closing the
+     * stream closes this iterator.
+     *
+     * @return The stream of records
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator =
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::closeQuietly);
+    }
+
+    /**
+     * Releases the underlying HTTP response.  This is done automatically once
+     * the last record has been read.
+     */
+    @Override
+    public void close() {
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (!this.closed) {
+            this.closed = true;
+            try {
+                this.reader.close();
+            } catch (IOException ex) {
+                /* Nothing more we can do with the connection */
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.vantiq.client;
+
+/**
+ * Receives the {@link RequestMetrics} of every request made to the Vantiq
+ * server once its response has been read or the request has failed.  The
+ * listener is set with {@link Vantiq#setRequestListener(RequestListener)};
+ * {@link MetricsRegistry} is an implementation that aggregates the metrics
+ * in memory.
+ *
+ * The listener is called on the thread that completed the request, before
+ * the response is passed to the caller, so it must be quick and thread safe.
+ * Exceptions thrown by the listener are ignored.
+ */
+public interface RequestListener {
+
+    /**
+     * Called once for each completed or failed request.
+     *
+     * @param metrics The metrics of the request
+     */
+    void onRequest(RequestMetrics metrics);
+}
@@ -0,0 +1,211 @@
+package io.vantiq.client;
+
+/**
+ * The timings and sizes of a single request made to the Vantiq server, as
+ * passed to a {@link RequestListener}.  Durations are in nanoseconds and are
+ * zero for phases that did not happen, e.g. the DNS lookup and connection of
+ * a request sent over a pooled connection.
+ *
+ * The operation is the SDK method that sent the request: "select",
+ * "selectOne", "count", "insert", "upsert", "update", "delete", "deleteOne",
+ * "publish", "execute", "query", "batch", "upload", "download" and so on.
+ * For the generic requests, such as {@link Vantiq#post(String, Object)}, it
+ * is derived from the HTTP method and the path, or is the last path segment.
+ */
+public class RequestMetrics {
+
+    private final String operation;
+    private final String method;
+    private final String path;
+    private final int statusCode;
+    private final Throwable failure;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long dnsNanos;
+    private final long connectNanos;
+    private final long tlsNanos;
+    private final long serverNanos;
+    private final long bodyNanos;
+    private final long totalNanos;
+    private final int retryCount;
+
+    public RequestMetrics(String operation, String method, String path, int statusCode, Throwable failure,
+                          long bytesSent, long bytesReceived, long dnsNanos, long connectNanos,
+                          long tlsNanos, long serverNanos, long bodyNanos, long totalNanos) {
+        this(operation, method, path, statusCode, failure, bytesSent, bytesReceived, dnsNanos, connectNanos,
+             tlsNanos, serverNanos, bodyNanos, totalNanos, 0);
+    }
+
+    public RequestMetrics(String operation, String method, String path, int statusCode, Throwable failure,
+                          long bytesSent, long bytesReceived, long dnsNanos, long connectNanos,
+                          long tlsNanos, long serverNanos, long bodyNanos, long totalNanos, int retryCount) {
+        this.operation = operation;
+        this.method = method;
+        this.path = path;
+        this.statusCode = statusCode;
+        this.failure = failure;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.dnsNanos = dnsNanos;
+        this.connectNanos = connectNanos;
+        this.tlsNanos = tlsNanos;
+        this.serverNanos = serverNanos;
+        this.bodyNanos = bodyNanos;
+        this.totalNanos = totalNanos;
+        this.retryCount = retryCount;
+    }
+
+    /**
+     * Returns the SDK operation that issued the request (e.g. "select")
+     *
+     * @return The operation
+     */
+    public String getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * Returns the HTTP method of the request
+     *
+     * @return The HTTP method
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the path of the request, without the query parameters
+     *
+     * @return The path
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the HTTP status code of the response
+     *
+     * @return The status code or 0 if no response was received
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * Returns the exception that made the request fail
+     *
+     * @return The exception or null if a response was received
+     */
+    public Throwable getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Returns true if the request failed or the server returned an error status
+     *
+     * @return true if this is an error
+     */
+    public boolean isError() {
+        return this.failure != null || this.statusCode >= 400;
+    }
+
+    /**
+     * Returns the number of request body bytes sent to the server
+     *
+     * @return The bytes sent
+     */
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * Returns the number of response body bytes received from the server.
+     * For streamed responses (e.g. downloads), only the bytes read before the
+     * response was passed to the caller are counted.
+     *
+     * @return The bytes received
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    /**
+     * Returns the time spent resolving the server's address
+     *
+     * @return The DNS lookup time in nanoseconds
+     */
+    public long getDnsNanos() {
+        return this.dnsNanos;
+    }
+
+    /**
+     * Returns the time spent connecting to the server, including the TLS handshake
+     *
+     * @return The connect time in nanoseconds
+     */
+    public long getConnectNanos() {
+        return this.connectNanos;
+    }
+
+    /**
+     * Returns the time spent in the TLS handshake
+     *
+     * @return The TLS handshake time in nanoseconds
+     */
+    public long getTlsNanos() {
+        return this.tlsNanos;
+    }
+
+    /**
+     * Returns the time from sending the request until the response headers
+     * started to arrive, which is mostly the time taken by the server
+     *
+     * @return The server time in nanoseconds
+     */
+    public long getServerNanos() {
+        return this.serverNanos;
+    }
+
+    /**
+     * Returns the time spent reading and decoding the response body
+     *
+     * @return The body time in nanoseconds
+     */
+    public long getBodyNanos() {
+        return this.bodyNanos;
+    }
+
+    /**
+     * Returns the time from issuing the request until the response was
+     * read, including the time spent waiting for a free connection
+     *
+     * @return The total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    /**
+     * Returns the number of times the request was sent again under the
+     * {@link RetryPolicy}.  The other values describe the final attempt,
+     * except for the total time, which includes all attempts.
+     *
+     * @return The retry count
+     */
+    public int getRetryCount() {
+        return this.retryCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics[operation=" + this.operation
+               + ", method=" + this.method
+               + ", path=" + this.path
+               + ", statusCode=" + this.statusCode
+               + ", failure=" + this.failure
+               + ", bytesSent=" + this.bytesSent
+               + ", bytesReceived=" + this.bytesReceived
+               + ", totalNanos=" + this.totalNanos
+               + ", retryCount=" + this.retryCount + "]";
+    }
+}
@@ -0,0 +1,63 @@
+package io.vantiq.client;
+
+import io.vantiq.client.internal.CallTracker;
+import io.vantiq.client.internal.LazyBodyHandler;
+import okhttp3.Call;
+import okhttp3.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Response handler that completes a {@link CompletableFuture} with the
+ * response.  Errors and exceptions complete the future normally with a
+ * response that reports them, the same as the synchronous methods.
+ *
+ * Cancelling the future cancels the underlying HTTP call.  JSON bodies are
+ * only parsed when the body of the response is requested.
+ */
+class ResponseFuture extends CompletableFuture<VantiqResponse> implements ResponseHandler, CallTracker, LazyBodyHandler {
+
+    private final List<Call> calls = new ArrayList<Call>();
+
+    @Override
+    public void onSuccess(Object body, Response response) {
+        this.complete(new VantiqResponse(body, response));
+    }
+
+    @Override
+    public void onError(List<VantiqError> errors, Response response) {
+        this.complete(new VantiqResponse(errors, response));
+    }
+
+    @Override
+    public void onFailure(Throwable exception) {
+        this.complete(new VantiqResponse(exception));
+    }
+
+    @Override
+    public void track(Call call) {
+        synchronized (this.calls) {
+            if (!this.isCancelled()) {
+                this.calls.add(call);
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            synchronized (this.calls) {
+                for (Call call : this.calls) {
+                    call.cancel();
+                }
+                this.calls.clear();
+            }
+        }
+        return cancelled;
+    }
+}
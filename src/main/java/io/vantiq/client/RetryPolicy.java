@@ -0,0 +1,237 @@
+package io.vantiq.client;
+
+/**
+ * Configures how requests that fail transiently are retried.  By default,
+ * requests are not retried.  When a policy is set on the {@link Vantiq}
+ * instance, reads (such as select, selectOne, count and download) are sent
+ * again when the connection fails or the server responds with 429 (Too Many
+ * Requests), 502 (Bad Gateway) or 503 (Service Unavailable).
+ *
+ * The delay before each retry grows exponentially and is randomized between
+ * zero and the current maximum ("full jitter").  A "Retry-After" header in
+ * the response is honored instead, up to the maximum delay.
+ *
+ * Writes are only retried when an idempotency key header is configured.  The
+ * SDK then sends a unique key in that header with each write, the same for
+ * all of its retries, so that a server honoring the header applies the write
+ * once.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * vantiq.setRetryPolicy(RetryPolicy.builder()
+ *     .maxRetries(3)
+ *     .idempotencyKeyHeader("Idempotency-Key")
+ *     .build());
+ * </pre>
+ */
+public class RetryPolicy {
+
+    public static final int    DEFAULT_MAX_RETRIES          = 2;
+    public static final long   DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    public static final long   DEFAULT_MAX_DELAY_MILLIS     = 5000;
+    public static final double DEFAULT_MULTIPLIER           = 2.0;
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final String idempotencyKeyHeader;
+
+    private RetryPolicy(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.multiplier = builder.multiplier;
+        this.idempotencyKeyHeader = builder.idempotencyKeyHeader;
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this policy.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the maximum number of times a request is sent again.
+     *
+     * @return The maximum number of retries
+     */
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+
+    /**
+     * Returns the upper bound of the delay before the first retry.
+     *
+     * @return The initial delay in milliseconds
+     */
+    public long getInitialDelayMillis() {
+        return this.initialDelayMillis;
+    }
+
+    /**
+     * Returns the largest delay before a retry.
+     *
+     * @return The maximum delay in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    /**
+     * Returns the factor applied to the upper bound of the delay after each
+     * retry.
+     *
+     * @return The multiplier
+     */
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+
+    /**
+     * Returns the header carrying the idempotency key of writes.
+     *
+     * @return The header name or null if writes are not retried
+     */
+    public String getIdempotencyKeyHeader() {
+        return this.idempotencyKeyHeader;
+    }
+
+    /**
+     * Returns the delay before the given retry, chosen at random between zero
+     * and the exponentially growing upper bound.
+     *
+     * @param retry The number of the retry, starting at 0
+     * @param random A random value between 0 (inclusive) and 1 (exclusive)
+     * @return The delay in milliseconds
+     */
+    public long getDelayMillis(int retry, double random) {
+        double bound = this.initialDelayMillis * Math.pow(this.multiplier, retry);
+        return (long) (Math.min(bound, this.maxDelayMillis) * random);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[maxRetries=" + this.maxRetries
+               + ", initialDelayMillis=" + this.initialDelayMillis
+               + ", maxDelayMillis=" + this.maxDelayMillis
+               + ", multiplier=" + this.multiplier
+               + ", idempotencyKeyHeader=" + this.idempotencyKeyHeader + "]";
+    }
+
+    /**
+     * Builder for {@link RetryPolicy}
+     */
+    public static class Builder {
+
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private double multiplier = DEFAULT_MULTIPLIER;
+        private String idempotencyKeyHeader = null;
+
+        private Builder() {}
+
+        private Builder(RetryPolicy policy) {
+            this.maxRetries = policy.maxRetries;
+            this.initialDelayMillis = policy.initialDelayMillis;
+            this.maxDelayMillis = policy.maxDelayMillis;
+            this.multiplier = policy.multiplier;
+            this.idempotencyKeyHeader = policy.idempotencyKeyHeader;
+        }
+
+        /**
+         * Sets the maximum number of times a request is sent again.
+         *
+         * @param maxRetries The maximum number of retries
+         * @return This builder
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the upper bound of the delay before the first retry.
+         *
+         * @param initialDelayMillis The initial delay in milliseconds
+         * @return This builder
+         */
+        public Builder initialDelayMillis(long initialDelayMillis) {
+            if (initialDelayMillis < 0) {
+                throw new IllegalArgumentException("initialDelayMillis must not be negative");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the largest delay before a retry, including delays requested
+         * with "Retry-After".
+         *
+         * @param maxDelayMillis The maximum delay in milliseconds
+         * @return This builder
+         */
+        public Builder maxDelayMillis(long maxDelayMillis) {
+            if (maxDelayMillis < 0) {
+                throw new IllegalArgumentException("maxDelayMillis must not be negative");
+            }
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the factor applied to the upper bound of the delay after each
+         * retry.
+         *
+         * @param multiplier The multiplier
+         * @return This builder
+         */
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier must be at least 1");
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Enables the retry of writes by sending a unique idempotency key in
+         * the given header.  Only use this if the server applies a write once
+         * per key.
+         *
+         * @param idempotencyKeyHeader The header name (e.g. "Idempotency-Key")
+         *                             or null to not retry writes
+         * @return This builder
+         */
+        public Builder idempotencyKeyHeader(String idempotencyKeyHeader) {
+            this.idempotencyKeyHeader = idempotencyKeyHeader;
+            return this;
+        }
+
+        /**
+         * Creates the policy.
+         *
+         * @return The policy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cursor over the pages of a select, created by
+ * {@link Vantiq#selectPaged(String, List, Object, SortSpec, int)}.
+ *
+ * Each call to {@link #next} returns the response for one page, whose body
+ * is a List of JsonObject objects.  When a page is returned, the request for
+ * the following page has already been issued, so the fetch of page N+1
+ * overlaps with the caller's processing of page N.
+ *
+ * If a page fails, its response carries the errors or exception and the
+ * cursor ends.  This includes a page that cannot be continued from, such as
+ * one whose last record has no value for the sort property in
+ * {@link Continuation#SORT_KEY} mode: the page is returned and the following
+ * one fails with an IllegalStateException.
+ */
+public class SelectCursor implements Iterator<VantiqResponse>, Closeable {
+
+    /**
+     * Defines how the query for each page continues from the previous page.
+     */
+    public enum Continuation {
+        /**
+         * Skip the number of records already returned.  Works with any sort,
+         * but the server has to walk the skipped records for every page.
+         */
+        SKIP,
+
+        /**
+         * Constrain the query to records sorting after the last record of the
+         * previous page.  Requires the sort property to be unique.
+         */
+        SORT_KEY
+    }
+
+    private final Vantiq vantiq;
+    private final String resource;
+    private final List<String> propSpecs;
+    private final JsonElement where;
+    private final SortSpec sortSpec;
+    private final int pageSize;
+    private final Continuation continuation;
+
+    private CompletableFuture<VantiqResponse> pending;
+    private long skip = 0;
+    private int totalCount = -1;
+
+    SelectCursor(Vantiq vantiq,
+                 String resource,
+                 List<String> propSpecs,
+                 Object where,
+                 SortSpec sortSpec,
+                 int pageSize,
+                 Continuation continuation) {
+        this.vantiq = vantiq;
+        this.resource = resource;
+        if (where == null || where instanceof JsonElement) {
+            this.where = (JsonElement) where;
+        } else {
+            try {
+                this.where = vantiq.getJsonCodec().decode(new StringReader(vantiq.toJson(where)), JsonElement.class);
+            } catch (IOException ex) {
+                throw new JsonIOException(ex);
+            }
+        }
+        this.sortSpec = sortSpec;
+        this.pageSize = pageSize;
+        this.continuation = continuation;
+
+        // The sort property must be returned to continue from it
+        if (continuation == Continuation.SORT_KEY && propSpecs != null && !propSpecs.isEmpty()
+                && !propSpecs.contains(sortSpec.getProperty())) {
+            List<String> props = new ArrayList<String>(propSpecs);
+            props.add(sortSpec.getProperty());
+            propSpecs = props;
+        }
+        this.propSpecs = propSpecs;
+
+        this.pending = fetch(this.where, Collections.<String,String>emptyMap());
+    }
+
+    /**
+     * Issues the select for a single page.
+     */
+    private CompletableFuture<VantiqResponse> fetch(JsonElement pageWhere, Map<String,String> options) {
+        return this.vantiq.selectAsync(this.resource, this.propSpecs, pageWhere, this.sortSpec, this.pageSize,
+                                       options);
+    }
+
+    /**
+     * Issues the select for the page that follows the given one.
+     */
+    private CompletableFuture<VantiqResponse> fetchAfter(List<JsonObject> page) {
+        if (this.continuation == Continuation.SKIP) {
+            this.skip += page.size();
+            Map<String,String> options = new HashMap<String,String>();
+            options.put("skip", Long.toString(this.skip));
+            return fetch(this.where, options);
+        }
+
+        String property = this.sortSpec.getProperty();
+        JsonElement lastValue = page.get(page.size() - 1).get(property);
+        if (lastValue == null || lastValue.isJsonNull()) {
+            throw new IllegalStateException("Cannot continue select after a record without a value for '"
+                                            + property + "'");
+        }
+
+        JsonObject range = new JsonObject();
+        range.add(this.sortSpec.isDescending() ? "$lt" : "$gt", lastValue);
+        JsonObject after = new JsonObject();
+        after.add(property, range);
+
+        JsonElement pageWhere = after;
+        if (this.where != null) {
+            JsonArray and = new JsonArray();
+            and.add(this.where);
+            and.add(after);
+            JsonObject combined = new JsonObject();
+            combined.add("$and", and);
+            pageWhere = combined;
+        }
+        return fetch(pageWhere, Collections.<String,String>emptyMap());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.pending != null;
+    }
+
+    /**
+     * Returns the response for the next page, waiting for it to arrive if
+     * necessary.  On success the body is a List of JsonObject objects.
+     *
+     * @return The response for the next page
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public VantiqResponse next() {
+        if (this.pending == null) {
+            throw new NoSuchElementException();
+        }
+
+        VantiqResponse response;
+        try {
+            response = this.pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            response = new VantiqResponse(ex);
+        } catch (ExecutionException ex) {
+            response = new VantiqResponse(ex.getCause());
+        }
+        this.pending = null;
+
+        if (response.isSuccess() && response.getBody() instanceof List) {
+            if (this.totalCount < 0) {
+                this.totalCount = response.getCount();
+            }
+            List<JsonObject> page = (List<JsonObject>) response.getBody();
+            if (page.size() == this.pageSize) {
+                try {
+                    this.pending = fetchAfter(page);
+                } catch (IllegalStateException ex) {
+                    // Return this page and end the cursor with the error on the following one
+                    CompletableFuture<VantiqResponse> failed = new CompletableFuture<VantiqResponse>();
+                    failed.completeExceptionally(ex);
+                    this.pending = failed;
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Returns the total number of matching records, from the "X-Total-Count"
+     * header of the first page.  Returns -1 until the first page has been
+     * returned or if the server did not provide the count.
+     *
+     * @return The total number of records or -1 if not known
+     */
+    public int getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Returns the maximum number of records in each page
+     *
+     * @return The page size
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * Stops the cursor.  A page request that is still in flight is cancelled.
+     */
+    @Override
+    public void close() {
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+    }
+}
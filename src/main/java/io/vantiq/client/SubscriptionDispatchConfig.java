@@ -0,0 +1,198 @@
+package io.vantiq.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configures how subscription events are delivered to their callbacks.  By
+ * default, callbacks run on the thread that reads the WebSocket, so a slow
+ * callback delays the events of every subscription.  When a dispatch
+ * configuration is set on the {@link Vantiq} instance, each subscription
+ * created afterwards gets its own bounded queue and its callbacks run on the
+ * given executor.  The callbacks of a single subscription are still invoked
+ * one at a time and in the order the events arrived.
+ *
+ * Instances are immutable and are created with a {@link Builder}:
+ *
+ * <pre>
+ * SubscriptionDispatchConfig config = SubscriptionDispatchConfig.builder()
+ *     .queueCapacity(10000)
+ *     .overflowPolicy(SubscriptionDispatchConfig.OverflowPolicy.DROP_OLDEST)
+ *     .build();
+ * vantiq.setSubscriptionDispatchConfig(config);
+ * </pre>
+ */
+public class SubscriptionDispatchConfig {
+
+    /**
+     * What happens when an event arrives for a subscription whose queue is full
+     */
+    public enum OverflowPolicy {
+        /** Wait on the WebSocket reader thread until the queue has room */
+        BLOCK,
+
+        /** Discard the oldest queued event to make room for the new one */
+        DROP_OLDEST,
+
+        /** Discard the new event */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final Executor executor;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private SubscriptionDispatchConfig(Builder builder) {
+        this.executor = builder.executor != null ? builder.executor : DefaultExecutorHolder.EXECUTOR;
+        this.queueCapacity = builder.queueCapacity;
+        this.overflowPolicy = builder.overflowPolicy;
+    }
+
+    /**
+     * Returns a new builder initialized with the default values.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a new builder initialized with the values of this configuration.
+     *
+     * @return The builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the executor that runs the callbacks.
+     *
+     * @return The executor
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the maximum number of events queued for each subscription.
+     *
+     * @return The queue capacity
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * Returns what happens when a subscription's queue is full.
+     *
+     * @return The overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionDispatchConfig[queueCapacity=" + this.queueCapacity
+               + ", overflowPolicy=" + this.overflowPolicy + "]";
+    }
+
+    /**
+     * Executor used when none is given.  The threads are daemons, so they do
+     * not keep the JVM running.
+     */
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "vantiq-subscription-dispatch-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Builder for {@link SubscriptionDispatchConfig}
+     */
+    public static class Builder {
+
+        private Executor executor = null;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        private Builder() {}
+
+        private Builder(SubscriptionDispatchConfig config) {
+            this.executor = config.executor;
+            this.queueCapacity = config.queueCapacity;
+            this.overflowPolicy = config.overflowPolicy;
+        }
+
+        /**
+         * Sets the executor that runs the callbacks.  A subscription uses at
+         * most one thread of the executor at a time.  On JDK 21 or later, a
+         * virtual thread executor ({@code Executors.newVirtualThreadPerTaskExecutor()})
+         * lets each subscription have its own thread cheaply.  If not set, a
+         * shared pool of daemon threads is used.
+         *
+         * @param executor The executor
+         * @return This builder
+         */
+        public Builder executor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor must not be null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of events queued for each subscription.
+         *
+         * @param queueCapacity The queue capacity
+         * @return This builder
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("queueCapacity must be at least 1");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets what happens when a subscription's queue is full.  Note that
+         * {@link OverflowPolicy#BLOCK} also delays the events of the other
+         * subscriptions on the WebSocket.
+         *
+         * @param overflowPolicy The overflow policy
+         * @return This builder
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("overflowPolicy must not be null");
+            }
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Creates the configuration.
+         *
+         * @return The configuration
+         */
+        public SubscriptionDispatchConfig build() {
+            return new SubscriptionDispatchConfig(this);
+        }
+    }
+}
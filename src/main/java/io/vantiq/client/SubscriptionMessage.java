@@ -12,6 +12,23 @@ public class SubscriptionMessage {
     private Map<String, String> headers;
     private Object body;
 
+    public SubscriptionMessage() {
+    }
+
+    /**
+     * Creates a message whose body is provided by {@link #getBody()}.  Used by
+     * decoders that build the body lazily.
+     *
+     * @param status The status code
+     * @param contentType The content type of the body
+     * @param headers The headers
+     */
+    protected SubscriptionMessage(int status, String contentType, Map<String, String> headers) {
+        this.status = status;
+        this.contentType = contentType;
+        this.headers = headers;
+    }
+
     /**
      * The HTTP status code for this message.  Usually, this is 100.
      *
@@ -55,7 +72,7 @@ public class SubscriptionMessage {
         sb.append("  status:").append(this.status).append('\n');
         sb.append("  contentType:").append(this.contentType).append('\n');
         sb.append("  headers:").append(this.headers).append('\n');
-        sb.append("  body:").append(this.body).append('\n');
+        sb.append("  body:").append(this.getBody()).append('\n');
         sb.append(']');
         return sb.toString();
     }
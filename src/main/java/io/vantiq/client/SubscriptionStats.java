@@ -0,0 +1,184 @@
+package io.vantiq.client;
+
+/**
+ * A snapshot of the delivery state of a single subscription, as returned by
+ * {@link Vantiq#getSubscriptionStats()} or passed to a
+ * {@link SubscriptionStatsListener}.  The queue depth and dropped count
+ * are only non-zero for subscriptions created while a
+ * {@link SubscriptionDispatchConfig} was set.
+ *
+ * The counts and times are totals since the subscription was created.  The
+ * rates are measured since the previous snapshot of the subscription, so
+ * when snapshots are taken periodically they are the rates over the period.
+ */
+public class SubscriptionStats {
+
+    private final String path;
+    private final int queueDepth;
+    private final long droppedCount;
+    private final long messageCount;
+    private final long byteCount;
+    private final double messageRate;
+    private final double byteRate;
+    private final long decodeNanos;
+    private final long callbackNanos;
+    private final Double lastSequenceId;
+    private final Double lastPartitionId;
+    private final long subscribeLatencyNanos;
+    private final int reconnectCount;
+
+    public SubscriptionStats(String path, int queueDepth, long droppedCount) {
+        this(path, queueDepth, droppedCount, 0, 0, 0, 0, 0, 0, null, null, 0, 0);
+    }
+
+    public SubscriptionStats(String path, int queueDepth, long droppedCount, long messageCount, long byteCount,
+                             double messageRate, double byteRate, long decodeNanos, long callbackNanos,
+                             Double lastSequenceId, Double lastPartitionId, long subscribeLatencyNanos,
+                             int reconnectCount) {
+        this.path = path;
+        this.queueDepth = queueDepth;
+        this.droppedCount = droppedCount;
+        this.messageCount = messageCount;
+        this.byteCount = byteCount;
+        this.messageRate = messageRate;
+        this.byteRate = byteRate;
+        this.decodeNanos = decodeNanos;
+        this.callbackNanos = callbackNanos;
+        this.lastSequenceId = lastSequenceId;
+        this.lastPartitionId = lastPartitionId;
+        this.subscribeLatencyNanos = subscribeLatencyNanos;
+        this.reconnectCount = reconnectCount;
+    }
+
+    /**
+     * Returns the event path of the subscription (e.g. /topics/test/topic)
+     *
+     * @return The event path
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the number of events waiting to be delivered to the callback.
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     * Returns the number of events discarded because the queue was full.
+     *
+     * @return The dropped count
+     */
+    public long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Returns the number of events received.
+     *
+     * @return The message count
+     */
+    public long getMessageCount() {
+        return this.messageCount;
+    }
+
+    /**
+     * Returns the number of bytes of the WebSocket frames of the events received.
+     *
+     * @return The byte count
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Returns the number of events received per second since the previous snapshot.
+     *
+     * @return The message rate
+     */
+    public double getMessageRate() {
+        return this.messageRate;
+    }
+
+    /**
+     * Returns the number of bytes received per second since the previous snapshot.
+     *
+     * @return The byte rate
+     */
+    public double getByteRate() {
+        return this.byteRate;
+    }
+
+    /**
+     * Returns the time spent decoding the frames of the events.
+     *
+     * @return The decode time in nanoseconds
+     */
+    public long getDecodeNanos() {
+        return this.decodeNanos;
+    }
+
+    /**
+     * Returns the time spent in the callback handling the events.
+     *
+     * @return The callback time in nanoseconds
+     */
+    public long getCallbackNanos() {
+        return this.callbackNanos;
+    }
+
+    /**
+     * Returns the sequence id of the last reliable event received, as used by
+     * {@link Vantiq#ack(String, String, java.util.Map)}.
+     *
+     * @return The sequence id or null if no reliable event was received
+     */
+    public Double getLastSequenceId() {
+        return this.lastSequenceId;
+    }
+
+    /**
+     * Returns the partition id of the last reliable event received.
+     *
+     * @return The partition id or null if no reliable event was received
+     */
+    public Double getLastPartitionId() {
+        return this.lastPartitionId;
+    }
+
+    /**
+     * Returns the time between sending the subscribe request and receiving its
+     * acknowledgement, which approximates the round trip time to the server.
+     *
+     * @return The subscribe latency in nanoseconds or 0 if not acknowledged yet
+     */
+    public long getSubscribeLatencyNanos() {
+        return this.subscribeLatencyNanos;
+    }
+
+    /**
+     * Returns the number of times the subscription was re-established after
+     * the WebSocket reconnected.
+     *
+     * @return The reconnect count
+     */
+    public int getReconnectCount() {
+        return this.reconnectCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionStats[path=" + this.path
+               + ", queueDepth=" + this.queueDepth
+               + ", droppedCount=" + this.droppedCount
+               + ", messageCount=" + this.messageCount
+               + ", messageRate=" + this.messageRate
+               + ", byteRate=" + this.byteRate
+               + ", lastSequenceId=" + this.lastSequenceId
+               + ", reconnectCount=" + this.reconnectCount + "]";
+    }
+}
@@ -0,0 +1,17 @@
+package io.vantiq.client;
+
+import java.util.List;
+
+/**
+ * Receives periodic snapshots of the subscription stats, as set with
+ * {@link Vantiq#setSubscriptionStatsListener(SubscriptionStatsListener, long)}.
+ */
+public interface SubscriptionStatsListener {
+
+    /**
+     * Called with a snapshot of every current subscription.
+     *
+     * @param stats The stats of each subscription
+     */
+    void onStats(List<SubscriptionStats> stats);
+}
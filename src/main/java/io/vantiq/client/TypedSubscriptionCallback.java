@@ -0,0 +1,41 @@
+package io.vantiq.client;
+
+/**
+ * Interface that listens for events subscribed to from a Vantiq server and
+ * receives the value of each event bound to an instance of {@code T}.
+ *
+ * @param <T> The type the event value is bound to
+ */
+public interface TypedSubscriptionCallback<T> {
+
+    /**
+     * Called once the connection has been established and the
+     * subscription has been acknowledged by the Vantiq server.
+     */
+    void onConnect();
+
+    /**
+     * Called for every matching event that occurs
+     *
+     * @param value The value of the event (i.e. the "value" property of the
+     *              message body) bound to {@code T}
+     * @param message The information associated with the event
+     */
+    void onMessage(T value, SubscriptionMessage message);
+
+    /**
+     * Called whenever an error occurs that does not arise from
+     * an exception, such as if a non-success response is provided.
+     *
+     * @param error The error message
+     */
+    void onError(String error);
+
+    /**
+     * Called whenever an exception occurs during the subscription
+     * processing, including when an event value cannot be bound to {@code T}.
+     *
+     * @param t The exception thrown
+     */
+    void onFailure(Throwable t);
+}
@@ -1,12 +1,26 @@
 package io.vantiq.client;
 
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.vantiq.client.internal.CallTracker;
+import io.vantiq.client.internal.JsonRequestBody;
+import io.vantiq.client.internal.TypedSubscriptionCallbackAdapter;
 import io.vantiq.client.internal.VantiqSession;
 
 import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import okhttp3.Authenticator;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
 
 /**
  * Vantiq SDK for Java/Android API
@@ -42,21 +56,30 @@ public class Vantiq {
         }
     }
 
-    private static Gson gson = new Gson();
-
     public enum TypeOperation {
         INSERT, UPDATE, DELETE
     }
 
+    /**
+     * The default number of records in each request of insertAll and upsertAll
+     */
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+
+    /**
+     * The default number of concurrent requests of insertAll and upsertAll
+     */
+    public static final int DEFAULT_BULK_IN_FLIGHT = 4;
+
     private VantiqSession session;
     private boolean enablePings = true;
+    private volatile RecordCache recordCache;
 
     /**
      * Response handler that simply delegates to the given response handler.
      * This is provided, so that the Vantiq class can override only what is
      * required.
      */
-    class PassThruResponseHandler implements ResponseHandler {
+    class PassThruResponseHandler implements ResponseHandler, CallTracker {
 
         protected ResponseHandler delegate;
 
@@ -78,6 +101,13 @@ public class Vantiq {
         public void onFailure(Throwable t) {
             this.delegate.onFailure(t);
         }
+
+        @Override
+        public void track(Call call) {
+            if(this.delegate instanceof CallTracker) {
+                ((CallTracker) this.delegate).track(call);
+            }
+        }
     }
 
     /**
@@ -129,6 +159,46 @@ public class Vantiq {
     public Vantiq(String server, Authenticator proxyAuthenticator) {
         this.session = new VantiqSession(server, proxyAuthenticator);
     }
+
+    /**
+     * Constructs a Vantiq SDK instance against a specific Vantiq server
+     * URL using a specific REST API version, with the given tuning of the
+     * HTTP client.
+     *
+     * @param server             The URL of the Vantiq server
+     * @param apiVersion         The REST API version to use
+     * @param proxyAuthenticator The authenticator to use for proxy authentication, or null
+     * @param httpClientConfig   The connection pool, dispatcher and protocol settings, or null
+     *                           for the defaults
+     */
+    public Vantiq(String server, int apiVersion, Authenticator proxyAuthenticator, HttpClientConfig httpClientConfig) {
+        this.session = new VantiqSession(server, apiVersion, proxyAuthenticator, httpClientConfig);
+    }
+
+    /**
+     * Creates a Vantiq SDK instance against a specific Vantiq server
+     * URL using a specific REST API version.  The HTTP client is derived from
+     * the given root client, sharing its connection pool and dispatcher with
+     * all the other instances created from the same root.
+     *
+     * @param server             The URL of the Vantiq server
+     * @param apiVersion         The REST API version to use
+     * @param proxyAuthenticator The authenticator to use for proxy authentication, or null
+     * @param rootClient         The client to derive from, e.g. from {@link HttpClientFactory#newClient}
+     * @return The Vantiq SDK instance
+     */
+    public static Vantiq withClient(String server, int apiVersion, Authenticator proxyAuthenticator,
+                                    OkHttpClient rootClient) {
+        return new Vantiq(VantiqSession.withClient(server, apiVersion, proxyAuthenticator, rootClient), true);
+    }
+
+    /**
+     * Constructs a Vantiq SDK instance on an existing session.
+     */
+    private Vantiq(VantiqSession session, boolean enablePings) {
+        this.session = session;
+        this.enablePings = enablePings;
+    }
     
     /**
      * Returns if this Vantiq instance has been successfully
@@ -302,6 +372,156 @@ public class Vantiq {
         }
         return response;
     }
+
+    /**
+     * Sets how requests that fail transiently are retried.  By default,
+     * requests are not retried.  With a retry policy, reads (select,
+     * selectOne, count, download and other GET requests) are sent again after
+     * a jittered exponential backoff when the connection fails or the server
+     * responds with 429, 502 or 503, honoring a "Retry-After" header.  Writes
+     * are only retried if the policy names an idempotency key header.  The
+     * retries of each request are reported in {@link RequestMetrics#getRetryCount()}.
+     *
+     * @param policy The retry policy or null to not retry
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        this.session.setRetryPolicy(policy);
+    }
+
+    /**
+     * Returns how requests that fail transiently are retried.
+     *
+     * @return The retry policy or null if requests are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.session.getRetryPolicy();
+    }
+
+    /**
+     * Sets how slow reads are hedged.  By default, reads are not hedged.  With
+     * a hedge policy, a selectOne (or an execute of one of the read-only
+     * procedures listed in the policy) that has not completed after the hedge
+     * delay is sent a second time, the first response is used and the other
+     * request is cancelled.  The delay is fixed or adapts to a percentile of
+     * the observed latency, and a budget caps the extra load.
+     *
+     * @param policy The hedge policy or null to not hedge
+     */
+    public void setHedgePolicy(HedgePolicy policy) {
+        this.session.setHedgePolicy(policy);
+    }
+
+    /**
+     * Returns how slow reads are hedged.
+     *
+     * @return The hedge policy or null if reads are not hedged
+     */
+    public HedgePolicy getHedgePolicy() {
+        return this.session.getHedgePolicy();
+    }
+
+    /**
+     * Sets the client-side cache of the records read with selectOne and
+     * select.  By default, records are not cached.  With a cache, successful
+     * reads of user-defined types are kept and identical reads are answered
+     * from the cache.  The first read of a type subscribes to its insert,
+     * update and delete events, which invalidate its cached records and
+     * queries.  Setting a new configuration discards the previous cache.
+     *
+     * @param config The record cache configuration or null to not cache records
+     */
+    public void setRecordCacheConfig(RecordCacheConfig config) {
+        RecordCache previous = this.recordCache;
+        this.recordCache = (config != null ? new RecordCache(config, this.session) : null);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Returns the configuration of the record cache.
+     *
+     * @return The record cache configuration or null if records are not cached
+     */
+    public RecordCacheConfig getRecordCacheConfig() {
+        RecordCache cache = this.recordCache;
+        return (cache != null ? cache.getConfig() : null);
+    }
+
+    /**
+     * Returns the hits, misses, evictions and invalidations of the record cache.
+     *
+     * @return The record cache stats or null if records are not cached
+     */
+    public RecordCacheStats getRecordCacheStats() {
+        RecordCache cache = this.recordCache;
+        return (cache != null ? cache.getStats() : null);
+    }
+
+    /**
+     * Enables or disables the automatic refresh of the access token.  When
+     * enabled, the token is refreshed shortly before it expires (when its
+     * expiration is known from the token itself), concurrent refreshes are
+     * combined into one, requests issued during a refresh wait for the new
+     * token, and a request rejected with 401 (Unauthorized) is sent again once
+     * after the token it was sent with has been refreshed.
+     *
+     * @param enabled true to refresh the access token automatically
+     */
+    public void setTokenRefreshEnabled(boolean enabled) {
+        this.session.setTokenRefreshEnabled(enabled);
+    }
+
+    /**
+     * Returns if the access token is refreshed automatically.
+     *
+     * @return true if enabled
+     */
+    public boolean isTokenRefreshEnabled() {
+        return this.session.isTokenRefreshEnabled();
+    }
+
+    /**
+     * Sets how long before its expiration the access token is refreshed.
+     * The default is 60 seconds.
+     *
+     * @param refreshAheadMillis The time before expiration in milliseconds
+     */
+    public void setTokenRefreshAheadMillis(long refreshAheadMillis) {
+        this.session.setTokenRefreshAheadMillis(refreshAheadMillis);
+    }
+
+    /**
+     * Returns how long before its expiration the access token is refreshed.
+     *
+     * @return The time before expiration in milliseconds
+     */
+    public long getTokenRefreshAheadMillis() {
+        return this.session.getTokenRefreshAheadMillis();
+    }
+
+    /**
+     * Enables or disables the coalescing of identical reads.  When enabled, a
+     * GET (such as a select, selectOne or count) that is identical to one
+     * already in flight, with the same URL, access token and target namespace,
+     * is not sent but receives a copy of the response of the one in flight.
+     * A read may therefore not observe a write completed after the identical
+     * read in flight was sent.
+     *
+     * @param enabled true to coalesce identical reads
+     */
+    public void setRequestCoalescingEnabled(boolean enabled) {
+        this.session.setRequestCoalescingEnabled(enabled);
+    }
+
+    /**
+     * Returns if identical reads are coalesced.
+     *
+     * @return true if enabled
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return this.session.isRequestCoalescingEnabled();
+    }
     
 
 
@@ -347,19 +567,34 @@ public class Vantiq {
                        Object where,
                        SortSpec sortSpec,
                        ResponseHandler responseHandler) {
-        String path = this.buildPath(resource,null);
+        this.select(resource, propSpecs, where, sortSpec, 0L, null, responseHandler);
+    }
 
-        Map<String,String> queryParams = new HashMap<String,String>();
-        if(propSpecs != null) {
-            queryParams.put("props", VantiqSession.gson.toJson(propSpecs));
-        }
-        if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
-        }
-        if(sortSpec != null) {
-            queryParams.put("sort", VantiqSession.gson.toJson(sortSpec.serialize()));
-        }
-        this.session.get(path, queryParams, new PassThruResponseHandler(responseHandler) {
+    /**
+     * Performs a query to search for records that match the given constraints asynchronously.
+     * The response body will be a List of JsonObject objects.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param limit A limit to the number of records returned (limit less then or equals to 0 means no limit)
+     * @param options Any additional options to be added to the queryParams
+     * @param responseHandler The response handler that is called upon completion.
+     */
+    public void select(String resource,
+                       List<String> propSpecs,
+                       Object where,
+                       SortSpec sortSpec,
+                       long limit,
+                       Map<String,String> options,
+                       ResponseHandler responseHandler) {
+        String path = this.buildPath(resource,null);
+        Map<String,String> queryParams = this.buildSelectParams(propSpecs, where, sortSpec, limit, options);
+        this.cachedGet("select", resource, path, queryParams, new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 if(body instanceof JsonArray) {
@@ -369,11 +604,89 @@ public class Vantiq {
                         resultBody.add((JsonObject) arr.get(i));
                     }
                     this.delegate.onSuccess(resultBody, response);
+                } else {
+                    this.delegate.onSuccess(body, response);
                 }
             }
         });
     }
 
+    /**
+     * Returns a cursor that pages through all the records that match the given constraints.
+     * Each page is fetched with a separate select of at most <code>pageSize</code> records and
+     * the next page is requested in the background as soon as the current one is returned, so
+     * the fetch overlaps with the processing of the current page.
+     *
+     * If no sort is given, the records are ordered by "_id" and each page continues after the
+     * last "_id" of the previous page.  If a sort is given, pages are continued by skipping
+     * the records already returned, since the sort property may not be unique.  Use
+     * {@link #selectPaged(String, List, Object, SortSpec, int, SelectCursor.Continuation)} to choose
+     * the continuation explicitly.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param pageSize The maximum number of records in each page
+     * @return The cursor over the pages of the result
+     */
+    public SelectCursor selectPaged(String resource,
+                                    List<String> propSpecs,
+                                    Object where,
+                                    SortSpec sortSpec,
+                                    int pageSize) {
+        SelectCursor.Continuation continuation =
+            (sortSpec == null ? SelectCursor.Continuation.SORT_KEY : SelectCursor.Continuation.SKIP);
+        return this.selectPaged(resource, propSpecs, where, sortSpec, pageSize, continuation);
+    }
+
+    /**
+     * Returns a cursor that pages through all the records that match the given constraints.
+     * Each page is fetched with a separate select of at most <code>pageSize</code> records and
+     * the next page is requested in the background as soon as the current one is returned.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.  If null, the
+     *                 records are sorted by "_id".
+     * @param pageSize The maximum number of records in each page
+     * @param continuation How each page continues from the previous one.  {@link SelectCursor.Continuation#SORT_KEY}
+     *                     requires the sort property to be unique.
+     * @return The cursor over the pages of the result
+     */
+    public SelectCursor selectPaged(String resource,
+                                    List<String> propSpecs,
+                                    Object where,
+                                    SortSpec sortSpec,
+                                    int pageSize,
+                                    SelectCursor.Continuation continuation) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than 0");
+        }
+        if (sortSpec == null) {
+            sortSpec = new SortSpec("_id", false);
+        }
+        return new SelectCursor(this, resource, propSpecs, where, sortSpec, pageSize, continuation);
+    }
+
+    /**
+     * Posts an already serialized array of batch requests.  The requests must
+     * carry their own "Authorization" header.  Used by {@link PublishBatcher}.
+     *
+     * @param requests The JSON array of request objects
+     * @param responseHandler The response handler that is called upon completion.
+     */
+    void postBatch(String requests, ResponseHandler responseHandler) {
+        this.session.post("batch", "/batch", null, requests, responseHandler);
+    }
+
     /**
      * Performs a batch query, specified by a JSON array.
      *
@@ -408,7 +721,7 @@ public class Vantiq {
 
         String body = requests.toString();
 
-        this.session.post(path, queryParams, body, new PassThruResponseHandler(responseHandler) {
+        this.session.post("batch", path, queryParams, body, new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 if(body instanceof JsonArray) {
@@ -456,7 +769,7 @@ public class Vantiq {
 
         String body = requests.toString();
 
-        VantiqResponse response = this.session.post(path, queryParams, body, null);
+        VantiqResponse response = this.session.post("batch", path, queryParams, body, null);
 
         if(response != null) 
         {
@@ -542,20 +855,216 @@ public class Vantiq {
                                  long limit,
                                  Map<String,String> options) {
         String path = this.buildPath(resource,null);
+        Map<String,String> queryParams = this.buildSelectParams(propSpecs, where, sortSpec, limit, options);
+
+        VantiqResponse response = this.cachedGet("select", resource, path, queryParams);
+        if(response != null) {
+            if(response.getBody() instanceof JsonArray) {
+                JsonArray arr = (JsonArray) response.getBody();
+                List<JsonObject> resultBody = new ArrayList<JsonObject>();
+                for(int i=0; i<arr.size(); i++) {
+                    resultBody.add((JsonObject) arr.get(i));
+                }
+                response.setBody(resultBody);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Performs a query to search for records that match the given constraints synchronously,
+     * binding each record to the given class.  The records are decoded directly from the
+     * response stream, without building JsonObjects first.  The response body will be a
+     * List of objects of the given class.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param type The class each record is bound to
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param <T> The type each record is bound to
+     * @return The response from the Vantiq server
+     */
+    public <T> VantiqResponse selectAs(String resource,
+                                       Class<T> type,
+                                       List<String> propSpecs,
+                                       Object where,
+                                       SortSpec sortSpec) {
+        return this.selectAs(resource, type, propSpecs, where, sortSpec, 0L, null);
+    }
+
+    /**
+     * Performs a query to search for records that match the given constraints synchronously,
+     * binding each record to the given class.  The records are decoded directly from the
+     * response stream, without building JsonObjects first.  The response body will be a
+     * List of objects of the given class.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param type The class each record is bound to
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param limit A limit to the number of records returned (limit less then or equals to 0 means no limit)
+     * @param options Any additional options to be added to the queryParams
+     * @param <T> The type each record is bound to
+     * @return The response from the Vantiq server
+     */
+    public <T> VantiqResponse selectAs(String resource,
+                                       Class<T> type,
+                                       List<String> propSpecs,
+                                       Object where,
+                                       SortSpec sortSpec,
+                                       long limit,
+                                       Map<String,String> options) {
+        String path = this.buildPath(resource,null);
+        Map<String,String> queryParams = this.buildSelectParams(propSpecs, where, sortSpec, limit, options);
+
+        VantiqResponse response = this.session.getStreaming("select", path, queryParams, null);
+        if(response != null && response.isSuccess() && response.getBody() instanceof BufferedSource) {
+            JsonCodec codec = this.getJsonCodec();
+            if (!(codec instanceof GsonCodec)) {
+                return this.decodeRecords((BufferedSource) response.getBody(), type, codec, response);
+            }
+            TypeAdapter<T> adapter = ((GsonCodec) codec).getAdapter(type);
+            RecordIterator<T> records = new RecordIterator<T>((BufferedSource) response.getBody(), adapter);
+            List<T> resultBody = new ArrayList<T>();
+            try {
+                while (records.hasNext()) {
+                    resultBody.add(records.next());
+                }
+            } catch (UncheckedIOException ex) {
+                return new VantiqResponse(ex.getCause());
+            } catch (JsonParseException ex) {
+                return new VantiqResponse(ex);
+            } finally {
+                records.close();
+            }
+            response.setBody(resultBody);
+        }
+        return response;
+    }
+
+    /**
+     * Returns the adapter that decodes each streamed record with the codec of
+     * the session.  A codec other than {@link GsonCodec} has no incremental
+     * reader, so each record is read as a tree and then bound by the codec.
+     */
+    private <T> TypeAdapter<T> recordAdapter(final Type type) {
+        final JsonCodec codec = this.getJsonCodec();
+        if (codec instanceof GsonCodec) {
+            return ((GsonCodec) codec).getAdapter(type);
+        }
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public T read(JsonReader in) {
+                return codec.decode(JsonParser.parseReader(in), type);
+            }
+        };
+    }
+
+    /**
+     * Decodes a streamed array of records with a codec that has no incremental
+     * reader, replacing the body of the response with the resulting list.
+     */
+    private VantiqResponse decodeRecords(BufferedSource source, Type type, JsonCodec codec, VantiqResponse response) {
+        Type listType = TypeToken.getParameterized(List.class, type).getType();
+        try (Reader reader = new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8)) {
+            List<?> resultBody = codec.decode(reader, listType);
+            response.setBody(resultBody != null ? resultBody : new ArrayList<Object>());
+        } catch (IOException ex) {
+            return new VantiqResponse(ex);
+        } catch (JsonParseException ex) {
+            return new VantiqResponse(ex);
+        }
+        return response;
+    }
+
+    /**
+     * Performs a query to search for records that match the given constraints, returning
+     * a future for the response.  The response body will be a List of JsonObject objects.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> selectAsync(String resource,
+                                                         List<String> propSpecs,
+                                                         Object where,
+                                                         SortSpec sortSpec) {
+        return this.selectAsync(resource, propSpecs, where, sortSpec, 0L, null);
+    }
+
+    /**
+     * Performs a query to search for records that match the given constraints, returning
+     * a future for the response.  The response body will be a List of JsonObject objects.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param limit A limit to the number of records returned (limit less then or equals to 0 means no limit)
+     * @param options Any additional options to be added to the queryParams
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> selectAsync(String resource,
+                                                         List<String> propSpecs,
+                                                         Object where,
+                                                         SortSpec sortSpec,
+                                                         long limit,
+                                                         Map<String,String> options) {
+        ResponseFuture future = new ResponseFuture();
+        this.select(resource, propSpecs, where, sortSpec, limit, options, future);
+        return future;
+    }
 
+    /**
+     * Builds the query parameters used by the select operations.
+     */
+    private Map<String,String> buildSelectParams(List<String> propSpecs,
+                                                 Object where,
+                                                 SortSpec sortSpec,
+                                                 long limit,
+                                                 Map<String,String> options) {
         Map<String,String> queryParams = new HashMap<String,String>();
         if(propSpecs != null) {
-            queryParams.put("props", VantiqSession.gson.toJson(propSpecs));
+            queryParams.put("props", this.toJson(propSpecs));
         }
         if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
+            queryParams.put("where", this.toJson(where));
         }
         if (options != null) {
             queryParams.putAll(options);
         }
 
         if(sortSpec != null) {
-            queryParams.put("sort", VantiqSession.gson.toJson(sortSpec.serialize()));
+            queryParams.put("sort", this.toJson(sortSpec.serialize()));
         }
         
         if (limit > 0)
@@ -563,21 +1072,117 @@ public class Vantiq {
             queryParams.put("limit", Long.toString(limit));
             queryParams.put("count", "true");
         }
+        return queryParams;
+    }
 
-        VantiqResponse response = this.session.get(path, queryParams, null);
-        if(response != null) {
-            if(response.getBody() instanceof JsonArray) {
-                JsonArray arr = (JsonArray) response.getBody();
-                List<JsonObject> resultBody = new ArrayList<JsonObject>();
-                for(int i=0; i<arr.size(); i++) {
-                    resultBody.add((JsonObject) arr.get(i));
-                }
-                response.setBody(resultBody);
-            }
+    /**
+     * Performs a query to search for records that match the given constraints synchronously, without
+     * reading the whole result into memory.  The response body will be a
+     * {@link RecordIterator} of JsonObject objects that decodes each record as it is read from the
+     * response, so memory use is independent of the size of the result.
+     *
+     * The iterator holds the HTTP connection open until it has been fully read or closed.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse selectStream(String resource,
+                                       List<String> propSpecs,
+                                       Object where,
+                                       SortSpec sortSpec) {
+        return this.selectStream(resource, propSpecs, where, sortSpec, 0L, null);
+    }
+
+    /**
+     * Performs a query to search for records that match the given constraints synchronously, without
+     * reading the whole result into memory.  The response body will be a
+     * {@link RecordIterator} of JsonObject objects that decodes each record as it is read from the
+     * response, so memory use is independent of the size of the result.
+     *
+     * The iterator holds the HTTP connection open until it has been fully read or closed.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param limit A limit to the number of records returned (limit less then or equals to 0 means no limit)
+     * @param options Any additional options to be added to the queryParams
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse selectStream(String resource,
+                                       List<String> propSpecs,
+                                       Object where,
+                                       SortSpec sortSpec,
+                                       long limit,
+                                       Map<String,String> options) {
+        String path = this.buildPath(resource,null);
+        Map<String,String> queryParams = this.buildSelectParams(propSpecs, where, sortSpec, limit, options);
+
+        VantiqResponse response = this.session.getStreaming("select", path, queryParams, null);
+        if(response != null && response.isSuccess() && response.getBody() instanceof BufferedSource) {
+            TypeAdapter<JsonObject> adapter = this.recordAdapter(JsonObject.class);
+            response.setBody(new RecordIterator<JsonObject>((BufferedSource) response.getBody(), adapter));
         }
         return response;
     }
 
+    /**
+     * Performs a query to search for records that match the given constraints asynchronously, without
+     * reading the whole result into memory.  Each record is decoded as it is read from the response
+     * and delivered to {@link RecordHandler#onRecord}.  Once all the records have been delivered, the
+     * handler "onSuccess" is called with the number of records as the body.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param propSpecs The optional list of properties to return in each record.  A null or empty list returns all properties.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @param sortSpec The optional sort specification to order the returned records.
+     * @param recordHandler The handler that receives the records and is called upon completion.
+     */
+    public void selectStream(String resource,
+                             List<String> propSpecs,
+                             Object where,
+                             SortSpec sortSpec,
+                             final RecordHandler<JsonObject> recordHandler) {
+        String path = this.buildPath(resource,null);
+        Map<String,String> queryParams = this.buildSelectParams(propSpecs, where, sortSpec, 0L, null);
+
+        this.session.getStreaming("select", path, queryParams, new PassThruResponseHandler(recordHandler) {
+            @Override
+            public void onSuccess(Object body, Response response) {
+                TypeAdapter<JsonObject> adapter = Vantiq.this.recordAdapter(JsonObject.class);
+                RecordIterator<JsonObject> records = new RecordIterator<JsonObject>((BufferedSource) body, adapter);
+                int count = 0;
+                try {
+                    while (records.hasNext()) {
+                        recordHandler.onRecord(records.next());
+                        count++;
+                    }
+                } catch (UncheckedIOException ex) {
+                    this.delegate.onFailure(ex.getCause());
+                    return;
+                } catch (RuntimeException ex) {
+                    this.delegate.onFailure(ex);
+                    return;
+                } finally {
+                    records.close();
+                }
+                this.delegate.onSuccess(count, response);
+            }
+        });
+    }
+
     /**
      * Returns the record for the given resource and specified id asynchronously.
      * The response is a single JsonObject.
@@ -593,7 +1198,7 @@ public class Vantiq {
                          String id,
                          ResponseHandler responseHandler) {
         String path = this.buildPath(resource,id);
-        this.session.get(path, null, responseHandler);
+        this.cachedGet("selectOne", resource, path, null, responseHandler);
     }
 
     /**
@@ -608,7 +1213,92 @@ public class Vantiq {
     public VantiqResponse selectOne(String resource,
                                     String id) {
         String path = this.buildPath(resource,id);
-        return this.session.get(path, null, null);
+        return this.cachedGet("selectOne", resource, path, null);
+    }
+
+    /**
+     * Performs a GET synchronously, through the record cache if there is one
+     */
+    private VantiqResponse cachedGet(String operation, String resource, String path, Map<String,String> queryParams) {
+        RecordCache cache = this.recordCache;
+        RecordCache.Read read = (cache != null ? cache.read(resource, path, queryParams) : null);
+        if (read == null) {
+            return this.session.get(operation, path, queryParams, null);
+        }
+        if (read.isHit()) {
+            return new VantiqResponse(read.getBody(), read.getResponse());
+        }
+        VantiqResponse response = this.session.get(operation, path, queryParams, null);
+        if (response != null && response.isSuccess()) {
+            read.store(response.getBody(), response.getResponse());
+        }
+        return response;
+    }
+
+    /**
+     * Performs a GET asynchronously, through the record cache if there is one.
+     * A cached response is passed to the handler on the calling thread.
+     */
+    private void cachedGet(String operation, String resource, String path, Map<String,String> queryParams,
+                           ResponseHandler responseHandler) {
+        if (responseHandler == null) {
+            this.cachedGet(operation, resource, path, queryParams);
+            return;
+        }
+        RecordCache cache = this.recordCache;
+        final RecordCache.Read read = (cache != null ? cache.read(resource, path, queryParams) : null);
+        if (read == null) {
+            this.session.get(operation, path, queryParams, responseHandler);
+        } else if (read.isHit()) {
+            responseHandler.onSuccess(read.getBody(), read.getResponse());
+        } else {
+            this.session.get(operation, path, queryParams, new PassThruResponseHandler(responseHandler) {
+                @Override
+                public void onSuccess(Object body, Response response) {
+                    read.store(body, response);
+                    this.delegate.onSuccess(body, response);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the record for the given resource and specified id synchronously, bound
+     * to the given class.  The record is decoded directly from the response, without
+     * building a JsonObject first.  The response body will be an object of the given class.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param id The key used to lookup the record.  The underlying "_id" can be used.
+     * @param type The class the record is bound to
+     * @param <T> The type the record is bound to
+     * @return The response from the Vantiq server
+     */
+    public <T> VantiqResponse selectOneAs(String resource,
+                                          String id,
+                                          Class<T> type) {
+        String path = this.buildPath(resource,id);
+        return this.bindBody(this.session.get("selectOne", path, null, null), type);
+    }
+
+    /**
+     * Returns the record for the given resource and specified id, returning a future
+     * for the response.  The response is a single JsonObject.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param id The key used to lookup the record.  The underlying "_id" can be used.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> selectOneAsync(String resource,
+                                                            String id) {
+        ResponseFuture future = new ResponseFuture();
+        this.selectOne(resource, id, future);
+        return future;
     }
 
     /**
@@ -633,13 +1323,13 @@ public class Vantiq {
         queryParams.put("count", "true");
 
         // Since we are just counting, we only return "_id" property from server
-        queryParams.put("props", VantiqSession.gson.toJson(Collections.singletonList("_id")));
+        queryParams.put("props", this.toJson(Collections.singletonList("_id")));
 
         if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
+            queryParams.put("where", this.toJson(where));
         }
 
-        this.session.get(path, queryParams, new PassThruResponseHandler(responseHandler) {
+        this.session.get("count", path, queryParams, new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 String cntValue = response.header("X-Total-Count");
@@ -674,19 +1364,40 @@ public class Vantiq {
         queryParams.put("count", "true");
 
         // Since we are just counting, we only return "_id" property from server
-        queryParams.put("props", VantiqSession.gson.toJson(Collections.singletonList("_id")));
+        queryParams.put("props", this.toJson(Collections.singletonList("_id")));
 
         if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
+            queryParams.put("where", this.toJson(where));
         }
 
-        VantiqResponse response = this.session.get(path, queryParams, null);
+        VantiqResponse response = this.session.get("count", path, queryParams, null);
         if(response != null) {
             response.setBody(response.getCount());
         }
         return response;
     }
 
+    /**
+     * This method is similar to {@link #count(String, Object)} except it returns a future
+     * for the response.  The response is an Integer.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param where The optional where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> countAsync(String resource, Object where) {
+        ResponseFuture future = new ResponseFuture();
+        this.count(resource, where, future);
+        return future;
+    }
+
 
 
     /**
@@ -729,7 +1440,7 @@ public class Vantiq {
     public void post(String path,
                        Object object,
                        ResponseHandler responseHandler) {
-        this.session.post(path, null, VantiqSession.gson.toJson(object), responseHandler);
+        this.session.post(path, null, this.jsonBody(object), responseHandler);
     }
 
     /**
@@ -741,7 +1452,7 @@ public class Vantiq {
      */
     public VantiqResponse post(String path,
                                  Object object) {
-         return this.session.post(path, null, VantiqSession.gson.toJson(object), null);
+         return this.session.post(path, null, this.jsonBody(object), null);
     }
 
     /**
@@ -756,7 +1467,7 @@ public class Vantiq {
     public void put(String path,
                      Object object,
                      ResponseHandler responseHandler) {
-        this.session.put(path, null, VantiqSession.gson.toJson(object), responseHandler);
+        this.session.put(path, null, this.jsonBody(object), responseHandler);
     }
 
     /**
@@ -768,7 +1479,7 @@ public class Vantiq {
      */
     public VantiqResponse put(String path,
                                Object object) {
-        return this.session.put(path, null, VantiqSession.gson.toJson(object), null);
+        return this.session.put(path, null, this.jsonBody(object), null);
     }
 
     /**
@@ -829,7 +1540,7 @@ public class Vantiq {
                        Object object,
                        ResponseHandler responseHandler) {
         String path = this.buildPath(resource,null);
-        this.session.post(path, null, VantiqSession.gson.toJson(object), responseHandler);
+        this.session.post("insert", path, null, this.jsonBody(object), responseHandler);
     }
 
     /**
@@ -844,7 +1555,64 @@ public class Vantiq {
     public VantiqResponse insert(String resource,
                                  Object object) {
         String path = this.buildPath(resource,null);
-        return this.session.post(path, null, VantiqSession.gson.toJson(object), null);
+        return this.session.post("insert", path, null, this.jsonBody(object), null);
+    }
+
+    /**
+     * Inserts a new record of the specified resource type, returning a future for the
+     * response.  The response is a JsonObject of the record just inserted.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param object The object to insert.  This will be converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> insertAsync(String resource,
+                                                         Object object) {
+        ResponseFuture future = new ResponseFuture();
+        this.insert(resource, object, future);
+        return future;
+    }
+
+    /**
+     * Inserts a collection of records of the specified resource type synchronously.  The records
+     * are sent in chunks of {@link #DEFAULT_BULK_CHUNK_SIZE}, with up to {@link #DEFAULT_BULK_IN_FLIGHT}
+     * chunk requests in flight at once.
+     *
+     * @param resource The resource to insert into.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param objects The objects to insert.  These will be converted to JSON using Gson.
+     * @return The aggregated responses of the chunks
+     */
+    public BulkWriteResponse insertAll(String resource,
+                                       Iterable<?> objects) {
+        return this.insertAll(resource, objects, DEFAULT_BULK_CHUNK_SIZE, DEFAULT_BULK_IN_FLIGHT);
+    }
+
+    /**
+     * Inserts a collection of records of the specified resource type synchronously.  The input
+     * is read lazily, one chunk at a time, and each chunk is sent as a separate request.  Up to
+     * <code>maxInFlight</code> requests are outstanding at once; reading more of the input waits
+     * for one of them to complete.
+     *
+     * A failed chunk does not stop the remaining chunks from being written.
+     *
+     * @param resource The resource to insert into.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param objects The objects to insert.  These will be converted to JSON using Gson.
+     * @param chunkSize The maximum number of records in each request
+     * @param maxInFlight The maximum number of concurrent requests
+     * @return The aggregated responses of the chunks
+     */
+    public BulkWriteResponse insertAll(String resource,
+                                       Iterable<?> objects,
+                                       int chunkSize,
+                                       int maxInFlight) {
+        return this.writeAll(resource, objects, chunkSize, maxInFlight, false);
     }
 
     /**
@@ -864,7 +1632,7 @@ public class Vantiq {
                        Object object,
                        ResponseHandler responseHandler) {
         String path = this.buildPath(resource,id);
-        this.session.put(path, null, VantiqSession.gson.toJson(object), responseHandler);
+        this.session.put("update", path, null, this.jsonBody(object), responseHandler);
     }
 
     /**
@@ -877,11 +1645,33 @@ public class Vantiq {
      * @param object The object to insert.  This will be converted to JSON using Gson.
      * @return The response from the Vantiq server
      */
-    public VantiqResponse update(String resource,
-                                 String id,
-                                 Object object) {
-        String path = this.buildPath(resource,id);
-        return this.session.put(path, null, VantiqSession.gson.toJson(object), null);
+    public VantiqResponse update(String resource,
+                                 String id,
+                                 Object object) {
+        String path = this.buildPath(resource,id);
+        return this.session.put("update", path, null, this.jsonBody(object), null);
+    }
+
+    /**
+     * Updates an existing record of the specified resource type, returning a future for the
+     * response.  The response is a JsonObject of the record just updated.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param id The key used to lookup the record.  The underlying "_id" can be used.
+     * @param object The object to insert.  This will be converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> updateAsync(String resource,
+                                                         String id,
+                                                         Object object) {
+        ResponseFuture future = new ResponseFuture();
+        this.update(resource, id, object, future);
+        return future;
     }
 
     /**
@@ -914,7 +1704,7 @@ public class Vantiq {
         Map<String,String> queryParams = new HashMap<String,String>();
         queryParams.put("upsert", "true");
 
-        this.session.post(path, queryParams, VantiqSession.gson.toJson(object), responseHandler);
+        this.session.post("upsert", path, queryParams, this.jsonBody(object), responseHandler);
     }
 
     /**
@@ -944,7 +1734,130 @@ public class Vantiq {
         Map<String,String> queryParams = new HashMap<String,String>();
         queryParams.put("upsert", "true");
 
-        return this.session.post(path, queryParams, VantiqSession.gson.toJson(object), null);
+        return this.session.post("upsert", path, queryParams, this.jsonBody(object), null);
+    }
+
+    /**
+     * Upserts a record of the specified resource type, returning a future for the
+     * response.  The response is a JsonObject that is the record just upserted.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param object The object to insert.  This will be converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> upsertAsync(String resource,
+                                                         Object object) {
+        ResponseFuture future = new ResponseFuture();
+        this.upsert(resource, object, future);
+        return future;
+    }
+
+    /**
+     * Upserts a collection of records of the specified resource type synchronously.  The records
+     * are sent in chunks of {@link #DEFAULT_BULK_CHUNK_SIZE}, with up to {@link #DEFAULT_BULK_IN_FLIGHT}
+     * chunk requests in flight at once.
+     *
+     * @param resource The resource to upsert into.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param objects The objects to upsert.  These will be converted to JSON using Gson.
+     * @return The aggregated responses of the chunks
+     */
+    public BulkWriteResponse upsertAll(String resource,
+                                       Iterable<?> objects) {
+        return this.upsertAll(resource, objects, DEFAULT_BULK_CHUNK_SIZE, DEFAULT_BULK_IN_FLIGHT);
+    }
+
+    /**
+     * Upserts a collection of records of the specified resource type synchronously.  The input
+     * is read lazily, one chunk at a time, and each chunk is sent as a separate request.  Up to
+     * <code>maxInFlight</code> requests are outstanding at once; reading more of the input waits
+     * for one of them to complete.
+     *
+     * A failed chunk does not stop the remaining chunks from being written.
+     *
+     * @param resource The resource to upsert into.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param objects The objects to upsert.  These will be converted to JSON using Gson.
+     * @param chunkSize The maximum number of records in each request
+     * @param maxInFlight The maximum number of concurrent requests
+     * @return The aggregated responses of the chunks
+     */
+    public BulkWriteResponse upsertAll(String resource,
+                                       Iterable<?> objects,
+                                       int chunkSize,
+                                       int maxInFlight) {
+        return this.writeAll(resource, objects, chunkSize, maxInFlight, true);
+    }
+
+    /**
+     * Writes the records in chunks for insertAll and upsertAll.  If interrupted, no
+     * more chunks are sent and the chunks still in flight have no response.
+     */
+    private BulkWriteResponse writeAll(String resource,
+                                       Iterable<?> objects,
+                                       int chunkSize,
+                                       int maxInFlight,
+                                       boolean upsert) {
+        if (chunkSize <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Chunk size and in-flight limit must be greater than 0");
+        }
+        String path = this.buildPath(resource,null);
+
+        Map<String,String> queryParams = null;
+        if (upsert) {
+            queryParams = new HashMap<String,String>();
+            queryParams.put("upsert", "true");
+        }
+        String operation = (upsert ? "upsert" : "insert");
+
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        List<BulkWriteResponse.Chunk> chunks = new ArrayList<BulkWriteResponse.Chunk>();
+        Iterator<?> it = objects.iterator();
+        long offset = 0;
+        try {
+            while (it.hasNext()) {
+                List<Object> records = new ArrayList<Object>(chunkSize);
+                while (it.hasNext() && records.size() < chunkSize) {
+                    Object object = it.next();
+
+                    // Mongo doesn't like us passing back the _id
+                    if (upsert && object instanceof JsonObject && ((JsonObject) object).has("_id")) {
+                        ((JsonObject) object).remove("_id");
+                    }
+                    records.add(object);
+                }
+
+                inFlight.acquire();
+                final BulkWriteResponse.Chunk chunk = new BulkWriteResponse.Chunk(chunks.size(), offset, records.size());
+                chunks.add(chunk);
+                offset += records.size();
+
+                try {
+                    this.session.post(operation, path, queryParams, this.jsonBody(records), new BaseResponseHandler() {
+                        @Override
+                        public void completionHook(boolean success) {
+                            chunk.setResponse(getResponse());
+                            inFlight.release();
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    inFlight.release();
+                    throw ex;
+                }
+            }
+
+            // Wait for the outstanding chunks
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new BulkWriteResponse(chunks, ex);
+        }
+        return new BulkWriteResponse(chunks, null);
     }
 
     /**
@@ -966,10 +1879,10 @@ public class Vantiq {
         Map<String,String> queryParams = new HashMap<String,String>();
         queryParams.put("count", "true");
         if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
+            queryParams.put("where", this.toJson(where));
         }
 
-        this.session.delete(path, queryParams, new PassThruResponseHandler(responseHandler) {
+        this.session.delete("delete", path, queryParams, new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 this.delegate.onSuccess(true, response);
@@ -995,16 +1908,38 @@ public class Vantiq {
         Map<String,String> queryParams = new HashMap<String,String>();
         queryParams.put("count", "true");
         if(where != null) {
-            queryParams.put("where", VantiqSession.gson.toJson(where));
+            queryParams.put("where", this.toJson(where));
         }
 
-        VantiqResponse response = this.session.delete(path, queryParams, null);
+        VantiqResponse response = this.session.delete("delete", path, queryParams, null);
         if(response != null && response.isSuccess()) {
             response.setBody(true);
         }
         return response;
     }
 
+    /**
+     * Deletes the matching records specified by a where constraint, returning a future
+     * for the response.  The response is a boolean indicating the success of the removal.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param where The required where constraint that filters the records returned.  The where is structured
+     *              following the structure outline in the
+     *              <a href="https://dev.vantiq.com/docs/system/api/index.html">API Documentation</a>.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> deleteAsync(String resource,
+                                                         Object where) {
+        ResponseFuture future = new ResponseFuture();
+        this.delete(resource, where, future);
+        return future;
+    }
+
     /**
      * Deletes the record for the given resource and specified id asynchronously.   The response is a boolean
      * indicating the success of the removal.
@@ -1018,7 +1953,7 @@ public class Vantiq {
                           String id,
                           ResponseHandler responseHandler) {
         String path = this.buildPath(resource,id);
-        this.session.delete(path, null, new PassThruResponseHandler(responseHandler) {
+        this.session.delete("deleteOne", path, null, new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 this.delegate.onSuccess(true, response);
@@ -1038,13 +1973,33 @@ public class Vantiq {
     public VantiqResponse deleteOne(String resource,
                                     String id) {
         String path = this.buildPath(resource,id);
-        VantiqResponse response = this.session.delete(path, null, null);
+        VantiqResponse response = this.session.delete("deleteOne", path, null, null);
         if(response != null && response.isSuccess()) {
             response.setBody(true);
         }
         return response;
     }
 
+    /**
+     * Deletes the record for the given resource and specified id, returning a future
+     * for the response.  The response is a boolean indicating the success of the removal.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This can be a {@link Vantiq.SystemResources SystemResources} value or
+     *                 a user-defined type name.
+     * @param id The key used to lookup the record.  The underlying "_id" can be used.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> deleteOneAsync(String resource,
+                                                            String id) {
+        ResponseFuture future = new ResponseFuture();
+        this.deleteOne(resource, id, future);
+        return future;
+    }
+
     /**
      * Publishes to a specific topic or source asynchronously.  A publish operation is fire-and-forget.
      * The response is a boolean indicating the success of the publish.
@@ -1072,7 +2027,7 @@ public class Vantiq {
         }
 
         String path = "/resources/" + resource + "/" + id;
-        this.session.post(path, null, VantiqSession.gson.toJson(payload), new PassThruResponseHandler(responseHandler) {
+        this.session.post("publish", path, null, this.jsonBody(payload), new PassThruResponseHandler(responseHandler) {
             @Override
             public void onSuccess(Object body, Response response) {
                 this.delegate.onSuccess(true, response);
@@ -1106,13 +2061,36 @@ public class Vantiq {
         }
 
         String path = "/resources/" + resource + "/" + id;
-        VantiqResponse response = this.session.post(path, null, VantiqSession.gson.toJson(payload), null);
+        VantiqResponse response = this.session.post("publish", path, null, this.jsonBody(payload), null);
         if(response != null && response.isSuccess()) {
             response.setBody(true);
         }
         return response;
     }
 
+    /**
+     * Publishes to a specific topic or source, returning a future for the response.
+     * The response is a boolean indicating the success of the publish.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param resource The resource to query.  This must be the value of either
+     *                 {@link Vantiq.SystemResources#TOPICS} or {@link Vantiq.SystemResources#SOURCES}.
+     * @param id The topic or source to publish.
+     * @param payload For a topic, this is the message to publish.  For a source, this is the parameters that
+     *                defines the publish.  This will be converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> publishAsync(String resource,
+                                                          String id,
+                                                          Object payload) {
+        ResponseFuture future = new ResponseFuture();
+        this.publish(resource, id, payload, future);
+        return future;
+    }
+
     /**
      * Executes a specific procedure asynchronously.  An execute operation is request-response.
      * The response is a JsonObject with the result of the procedure.
@@ -1127,7 +2105,7 @@ public class Vantiq {
                         Object params,
                         ResponseHandler responseHandler) {
         String path = "/resources/" + SystemResources.PROCEDURES.value() + "/" + procedure;
-        this.session.post(path, null, VantiqSession.gson.toJson(params), responseHandler);
+        this.session.post("execute", path, null, this.jsonBody(params), responseHandler);
     }
 
     /**
@@ -1143,7 +2121,63 @@ public class Vantiq {
     public VantiqResponse execute(String procedure,
                                   Object params) {
         String path = "/resources/" + SystemResources.PROCEDURES.value() + "/" + procedure;
-        return this.session.post(path, null, VantiqSession.gson.toJson(params), null);
+        return this.session.post("execute", path, null, this.jsonBody(params), null);
+    }
+
+    /**
+     * Executes a specific procedure synchronously, binding the result to the given type.
+     * The result is decoded directly from the response, without building a JsonElement
+     * first.  The type can be a class or a parameterized type such as a {@code List<MyRecord>}
+     * obtained from a Gson {@code TypeToken}.  The response body will be the bound result.
+     *
+     * @param procedure The name of the procedure to execute.
+     * @param params The arguments for the procedure.  The parameters can be passed as positional
+     *               parameters using a JsonArray or as named parameters using a JsonObject.  The params
+     *               is converted to JSON using Gson.
+     * @param resultType The type the result is bound to
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse executeAs(String procedure,
+                                    Object params,
+                                    Type resultType) {
+        String path = "/resources/" + SystemResources.PROCEDURES.value() + "/" + procedure;
+        return this.bindBody(this.session.post("execute", path, null, this.jsonBody(params), null), resultType);
+    }
+
+    /**
+     * Replaces the body of a successful response with the body bound to the given type.
+     * If the body cannot be bound, the returned response reports the exception.
+     */
+    private VantiqResponse bindBody(VantiqResponse response, Type type) {
+        if(response != null && response.isSuccess()) {
+            try {
+                response.setBody(response.getBodyAs(type));
+            } catch (JsonParseException ex) {
+                return new VantiqResponse(ex);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Executes a specific procedure, returning a future for the response.
+     * The response is a JsonObject with the result of the procedure.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param procedure The name of the procedure to execute.
+     * @param params The arguments for the procedure.  The parameters can be passed as positional
+     *               parameters using a JsonArray or as named parameters using a JsonObject.  The params
+     *               is converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> executeAsync(String procedure,
+                                                          Object params) {
+        ResponseFuture future = new ResponseFuture();
+        this.execute(procedure, params, future);
+        return future;
     }
     
     
@@ -1165,7 +2199,7 @@ public class Vantiq {
                       Object params,
                       ResponseHandler responseHandler) {
         String path = "/resources/sources/" + source + "/query";
-        this.session.post(path, null, VantiqSession.gson.toJson(params), responseHandler);
+        this.session.post("query", path, null, this.jsonBody(params), responseHandler);
     }
 
     /**
@@ -1184,7 +2218,26 @@ public class Vantiq {
     public VantiqResponse query(String source,
                                 Object params) {
         String path = "/resources/sources/" + source + "/query";
-        return this.session.post(path, null, VantiqSession.gson.toJson(params), null);
+        return this.session.post("query", path, null, this.jsonBody(params), null);
+    }
+
+    /**
+     * Performs a query operation on the specified source, returning a future for the
+     * response.  The response is a JsonObject with the result of the source query operation.
+     *
+     * The future completes with the response once it arrives.  Errors are reported
+     * in the response rather than by completing the future exceptionally.  Cancelling
+     * the future cancels the underlying HTTP request.
+     *
+     * @param source The name of the source to query.
+     * @param params The arguments for the query operation.  The params is converted to JSON using Gson.
+     * @return The future response from the Vantiq server
+     */
+    public CompletableFuture<VantiqResponse> queryAsync(String source,
+                                                        Object params) {
+        ResponseFuture future = new ResponseFuture();
+        this.query(source, params, future);
+        return future;
     }
 
 
@@ -1201,7 +2254,7 @@ public class Vantiq {
     public void getNamespaceUsers(String namespace,
                           ResponseHandler responseHandler) {
         String path = "/resources/namespaces/" + namespace + "/authorizedUsers";
-        this.session.get(path, null, responseHandler);
+        this.session.get("getNamespaceUsers", path, null, responseHandler);
     }
 
     /**
@@ -1212,7 +2265,7 @@ public class Vantiq {
      */
     public VantiqResponse getNamespaceUsers(String namespace) {
         String path = "/resources/namespaces/" + namespace + "/authorizedUsers";
-        return this.session.get(path, null, null);
+        return this.session.get("getNamespaceUsers", path, null, null);
     }
 
 
@@ -1234,7 +2287,7 @@ public class Vantiq {
         // for a long upload to complete before determining that it would have failed because
         // the session was expired.
         //
-        this.session.get("_status", null, new ResponseHandler() {
+        this.session.get("status", "_status", null, new ResponseHandler() {
             @Override
             public void onSuccess(Object body, Response response) {
                 //
@@ -1271,7 +2324,7 @@ public class Vantiq {
         // for a long upload to complete before determining that it would have failed because
         // the session was expired.
         //
-        VantiqResponse response = this.session.get("_status", null, null);
+        VantiqResponse response = this.session.get("status", "_status", null, null);
         if(response.getStatusCode() != 200) {
             return response;
         }
@@ -1303,7 +2356,7 @@ public class Vantiq {
         // for a long upload to complete before determining that it would have failed because
         // the session was expired.
         //
-        this.session.get("_status", null, new ResponseHandler() {
+        this.session.get("status", "_status", null, new ResponseHandler() {
             @Override
             public void onSuccess(Object body, Response response) {
                 //
@@ -1340,7 +2393,7 @@ public class Vantiq {
         // for a long upload to complete before determining that it would have failed because
         // the session was expired.
         //
-        VantiqResponse response = this.session.get("_status", null, null);
+        VantiqResponse response = this.session.get("status", "_status", null, null);
         if(response.getStatusCode() != 200) {
             return response;
         }
@@ -1412,6 +2465,89 @@ public class Vantiq {
                           SubscriptionCallback callback,
                           Map<String, Object> parameters) {
 
+        String path = this.buildSubscriptionPath(resource, id, operation);
+        this.session.subscribe(path, callback, this.enablePings, parameters);
+    }
+
+    public void subscribe(String resource,
+                          String id,
+                          TypeOperation operation,
+                          SubscriptionCallback callback) {
+
+        subscribe(resource, id, operation, callback, null);
+    }
+
+    /**
+     * Subscribes to a specific topic, source, or type event and binds the value
+     * of each event to an instance of the given class.  The value is the
+     * "value" property of the event body, such as the published message or the
+     * inserted record.  It is bound directly from the received JSON, without
+     * the intermediate Map returned by {@link SubscriptionMessage#getBody()}.
+     *
+     * @param resource The resource whose events to subscribe.  This must be the
+     *                 value of {@link Vantiq.SystemResources#TOPICS},
+     *                 {@link Vantiq.SystemResources#SERVICES},
+     *                 {@link Vantiq.SystemResources#SOURCES} or
+     *                 {@link Vantiq.SystemResources#TYPES}.
+     * @param id The id of the resource
+     * @param operation Only for "types", the specific operation event to subscribe to.
+     * @param type The class the event values are bound to
+     * @param callback The callback used when the event is received
+     * @param parameters  parameters
+     * @param <T> The type the event values are bound to
+     */
+    public <T> void subscribe(String resource,
+                              String id,
+                              TypeOperation operation,
+                              Class<T> type,
+                              TypedSubscriptionCallback<T> callback,
+                              Map<String, Object> parameters) {
+        subscribe(resource, id, operation, new TypedSubscriptionCallbackAdapter<T>(type, callback, this.getJsonCodec()), parameters);
+    }
+
+    /**
+     * Subscribes to a specific topic, source, or type event and binds the value
+     * of each event to an instance of the given class, without any subscription
+     * parameters.  See
+     * {@link #subscribe(String, String, TypeOperation, Class, TypedSubscriptionCallback, Map)}.
+     *
+     * @param resource The resource whose events to subscribe.  This must be the
+     *                 value of {@link Vantiq.SystemResources#TOPICS},
+     *                 {@link Vantiq.SystemResources#SERVICES},
+     *                 {@link Vantiq.SystemResources#SOURCES} or
+     *                 {@link Vantiq.SystemResources#TYPES}.
+     * @param id The id of the resource
+     * @param operation Only for "types", the specific operation event to subscribe to.
+     * @param type The class the event values are bound to
+     * @param callback The callback used when the event is received
+     * @param <T> The type the event values are bound to
+     */
+    public <T> void subscribe(String resource,
+                              String id,
+                              TypeOperation operation,
+                              Class<T> type,
+                              TypedSubscriptionCallback<T> callback) {
+        subscribe(resource, id, operation, type, callback, null);
+    }
+
+    /**
+     * Unsubscribes from a specific topic, source, or type event that was
+     * previously subscribed to using {@link #subscribe}.  Any other subscriptions
+     * remain active on the WebSocket.
+     *
+     * @param resource The resource whose events were subscribed
+     * @param id The id of the resource
+     * @param operation Only for "types", the specific operation event
+     * @return true if there was a subscription for the event
+     */
+    public boolean unsubscribe(String resource,
+                               String id,
+                               TypeOperation operation) {
+        String path = this.buildSubscriptionPath(resource, id, operation);
+        return this.session.unsubscribe(path);
+    }
+
+    private String buildSubscriptionPath(String resource, String id, TypeOperation operation) {
         String path;
         if (SystemResources.TOPICS.value().equals(resource)) {
             path = "/" + resource  + id;
@@ -1433,15 +2569,7 @@ public class Vantiq {
         } else {
             throw new IllegalArgumentException("Only 'topics', 'sources' and 'types' support subscribe");
         }
-        this.session.subscribe(path, callback, this.enablePings, parameters);
-    }
-
-    public void subscribe(String resource,
-                          String id,
-                          TypeOperation operation,
-                          SubscriptionCallback callback) {
-
-        subscribe(resource, id, operation, callback, null);
+        return path;
     }
     
     /**
@@ -1466,6 +2594,199 @@ public class Vantiq {
      */
     public void unsubscribeAll() {
         this.session.unsubscribeAll();
+
+        // The subscriptions of the record cache are gone too
+        RecordCache cache = this.recordCache;
+        if (cache != null) {
+            cache.reset();
+        }
+    }
+
+    /**
+     * Enables or disables the gzip compression of JSON and text request
+     * bodies of at least the {@link #setCompressionThreshold(long) threshold}
+     * size.  The server must accept "Content-Encoding: gzip" requests.  By
+     * default, compression is disabled unless enabled by the
+     * {@link HttpClientConfig} of this instance, and it can be enabled however
+     * the client was built, including with {@link #withClient}.
+     *
+     * @param enabled true to compress request bodies
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.session.setCompressionEnabled(enabled);
+    }
+
+    /**
+     * Returns if request bodies are compressed.
+     *
+     * @return true if enabled
+     */
+    public boolean isCompressionEnabled() {
+        return this.session.isCompressionEnabled();
+    }
+
+    /**
+     * Sets the size in bytes from which request bodies are compressed.
+     * Defaults to {@link HttpClientConfig#DEFAULT_COMPRESSION_THRESHOLD}.
+     *
+     * @param threshold The compression threshold in bytes
+     */
+    public void setCompressionThreshold(long threshold) {
+        this.session.setCompressionThreshold(threshold);
+    }
+
+    /**
+     * Returns the size in bytes from which request bodies are compressed.
+     *
+     * @return The compression threshold in bytes
+     */
+    public long getCompressionThreshold() {
+        return this.session.getCompressionThreshold();
+    }
+
+    /**
+     * Returns the number of request and response body bytes exchanged with the
+     * server, before and after compression.  The counts are only recorded while
+     * compression is enabled with {@link #setCompressionEnabled(boolean)}.
+     *
+     * @return The compression stats
+     */
+    public CompressionStats getCompressionStats() {
+        return this.session.getCompressionStats();
+    }
+
+    /**
+     * Sets the listener that receives the metrics of every request made to the
+     * server: the operation, status code, bytes sent and received, and the time
+     * spent in DNS lookup, connecting, waiting for the server and reading the
+     * response.  {@link MetricsRegistry} aggregates the metrics in memory.
+     *
+     * @param requestListener The listener or null to stop collecting metrics
+     */
+    public void setRequestListener(RequestListener requestListener) {
+        this.session.setRequestListener(requestListener);
+    }
+
+    /**
+     * Returns the listener that receives the metrics of every request
+     *
+     * @return The listener or null if metrics are not collected
+     */
+    public RequestListener getRequestListener() {
+        return this.session.getRequestListener();
+    }
+
+    /**
+     * Sets the codec used to encode the objects sent to the server and to bind
+     * response bodies and event values to application types, such as with
+     * {@link #selectAs}, {@link #executeAs} and {@link VantiqResponse#getBodyAs(Type)}.
+     * Untyped bodies are always Gson {@link JsonElement} values, so the codec
+     * must be able to encode and decode them.
+     *
+     * @param jsonCodec The codec
+     */
+    public void setJsonCodec(JsonCodec jsonCodec) {
+        this.session.setJsonCodec(jsonCodec);
+    }
+
+    /**
+     * Returns the codec used to encode and bind JSON.  Defaults to
+     * {@link GsonCodec#getDefault()}.
+     *
+     * @return The codec
+     */
+    public JsonCodec getJsonCodec() {
+        return this.session.getJsonCodec();
+    }
+
+    /**
+     * Encodes a value sent to the server with the configured codec
+     */
+    String toJson(Object value) {
+        return this.getJsonCodec().encode(value);
+    }
+
+    /**
+     * Creates a request body that encodes the given value.  Encoding errors of
+     * all but large values are thrown here, before the request is sent.
+     */
+    private RequestBody jsonBody(Object value) {
+        return new JsonRequestBody(value, this.getJsonCodec());
+    }
+
+    /**
+     * Sets how the events of subscriptions created afterwards are delivered to
+     * their callbacks.  By default, callbacks run on the thread that reads the
+     * WebSocket, so a slow callback delays the events of every subscription.
+     * With a dispatch configuration, each subscription has a bounded queue and
+     * its callbacks run on the configured executor.
+     *
+     * @param config The dispatch configuration or null to deliver events on the
+     *               WebSocket reader thread
+     */
+    public void setSubscriptionDispatchConfig(SubscriptionDispatchConfig config) {
+        this.session.setSubscriptionDispatchConfig(config);
+    }
+
+    /**
+     * Returns how the events of new subscriptions are delivered to their callbacks.
+     *
+     * @return The dispatch configuration or null if events are delivered on the
+     *         WebSocket reader thread
+     */
+    public SubscriptionDispatchConfig getSubscriptionDispatchConfig() {
+        return this.session.getSubscriptionDispatchConfig();
+    }
+
+    /**
+     * Sets how the WebSocket used by subscriptions is re-established when it
+     * fails or is closed by the server.  By default, the subscriptions are lost
+     * and their callbacks receive the failure.  With a reconnect policy, the
+     * SDK opens a new WebSocket after a jittered exponential backoff, validates
+     * the current access token on it and subscribes again to every event with
+     * its original parameters.  The callbacks receive {@code onConnect} again
+     * once their subscription is re-established, and reliable events that were
+     * already acknowledged are not delivered again.
+     *
+     * @param policy The reconnect policy or null to not reconnect
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.session.setReconnectPolicy(policy);
+    }
+
+    /**
+     * Returns how the WebSocket used by subscriptions is re-established.
+     *
+     * @return The reconnect policy or null if the WebSocket is not re-established
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return this.session.getReconnectPolicy();
+    }
+
+    /**
+     * Returns a snapshot of the delivery state of every current subscription,
+     * such as the number of events received, their rate since the previous
+     * call to this method, the time spent decoding and handling them, the last reliable
+     * event sequence id, and the number of queued and dropped events.
+     *
+     * @return The subscription stats
+     */
+    public List<SubscriptionStats> getSubscriptionStats() {
+        return this.session.getSubscriptionStats();
+    }
+
+    /**
+     * Sets a listener that receives a snapshot of the stats of every current
+     * subscription at a fixed period.  The rates in each snapshot are measured
+     * over the period, whether or not {@link #getSubscriptionStats()} is also
+     * called.  The listener runs on a daemon thread of its own, and a report is
+     * skipped while the listener still handles the previous one.
+     *
+     * @param listener The listener or null to stop reporting
+     * @param periodMillis The period between snapshots in milliseconds
+     */
+    public void setSubscriptionStatsListener(SubscriptionStatsListener listener, long periodMillis) {
+        this.session.setSubscriptionStatsListener(listener, periodMillis);
     }
 
     /** Closes the websocket to Vantiq */
@@ -1574,4 +2895,27 @@ public class Vantiq {
     public long getConnectTimeout() {
         return this.session.getConnectTimeout();
     }
+
+    /**
+     * Returns a Vantiq SDK instance that shares the connection, server and
+     * authentication of this instance, but applies the given timeouts to the
+     * requests made through it.  Use it to override the timeouts of individual
+     * calls, for example:
+     *
+     * <pre>
+     * vantiq.withTimeouts(120000, 10000, 10000).execute("longRunningProcedure", params);
+     * </pre>
+     *
+     * Creating the instance is cheap; no new HTTP client or connection pool is created.
+     *
+     * @param readTimeout The read timeout in milliseconds
+     * @param writeTimeout The write timeout in milliseconds
+     * @param connectTimeout The connect timeout in milliseconds
+     * @return The Vantiq SDK instance with the given timeouts
+     */
+    public Vantiq withTimeouts(long readTimeout, long writeTimeout, long connectTimeout) {
+        Vantiq vantiq = new Vantiq(this.session.withTimeouts(readTimeout, writeTimeout, connectTimeout), this.enablePings);
+        vantiq.recordCache = this.recordCache;
+        return vantiq;
+    }
 }
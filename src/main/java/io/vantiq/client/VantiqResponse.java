@@ -1,14 +1,22 @@
 package io.vantiq.client;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import okhttp3.Response;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -18,24 +26,36 @@ import java.util.List;
  */
 public class VantiqResponse {
 
-    private static final JsonParser parser = new JsonParser();
-    private static final Gson gson = new Gson();
-
     private int count = -1;
     private int statusCode = -1;
     private String contentType;
-    private Object body;
+    private volatile Object body;
+    private volatile byte[] rawBody;
+    private JsonCodec codec = GsonCodec.getDefault();
     private Throwable exception;
     private List<VantiqError> errors;
 
     private Response response;
 
     public static VantiqResponse createFromResponse(Response response, boolean isStreamingResponse) {
+        return createFromResponse(response, isStreamingResponse, GsonCodec.getDefault());
+    }
+
+    /**
+     * Creates the response for the given HTTP response, using the given codec to parse
+     * errors and to bind the body in {@link #getBodyAs(Type)}.
+     *
+     * @param response The HTTP response
+     * @param isStreamingResponse If true, the body is a source to read from
+     * @param codec The JSON codec
+     * @return The response
+     */
+    public static VantiqResponse createFromResponse(Response response, boolean isStreamingResponse, JsonCodec codec) {
         try {
             if (response.isSuccessful()) {
-                return new VantiqResponse(VantiqResponse.extractBody(response, isStreamingResponse), response);
+                return new VantiqResponse(VantiqResponse.extractBody(response, isStreamingResponse, true, codec), response);
             } else {
-                return new VantiqResponse(VantiqResponse.extractErrors(response), response);
+                return new VantiqResponse(VantiqResponse.extractErrors(response, codec), response);
             }
         } catch(Exception ex) {
             ex.printStackTrace();
@@ -62,8 +82,13 @@ public class VantiqResponse {
         // Extract HTTP status code
         this.statusCode = response.code();
 
-        // Extract body
-        this.body = body;
+        // Extract body, keeping JSON undecoded until it is requested
+        if (body instanceof RawJsonBody) {
+            this.rawBody = ((RawJsonBody) body).bytes;
+            this.codec = ((RawJsonBody) body).codec;
+        } else {
+            this.body = body;
+        }
     }
 
     public VantiqResponse(List<VantiqError> errors, Response response) {
@@ -88,10 +113,44 @@ public class VantiqResponse {
     //------------------------------------------------------------------------
 
     protected void setBody(Object body) {
-        this.body = body;
+        synchronized (this) {
+            this.body = body;
+            this.rawBody = null;
+        }
+    }
+
+    /**
+     * The bytes of a JSON body that has not been decoded yet.  Only passed
+     * to a {@link VantiqResponse}, which decodes it on demand.
+     */
+    private static final class RawJsonBody {
+        private final byte[] bytes;
+        private final JsonCodec codec;
+
+        private RawJsonBody(byte[] bytes, JsonCodec codec) {
+            this.bytes = bytes;
+            this.codec = codec;
+        }
     }
 
     public static Object extractBody(Response response, boolean isStreamingResponse) throws IOException {
+        return extractBody(response, isStreamingResponse, false, GsonCodec.getDefault());
+    }
+
+    /**
+     * Extracts the body of a successful response.
+     *
+     * @param response The response
+     * @param isStreamingResponse If true, the body is returned as a source to read from
+     * @param lazyJson If true, a JSON body is returned as its undecoded bytes, which
+     *                 must be passed to {@link #VantiqResponse(Object, Response)}
+     * @param codec The codec used to parse a JSON body, or that the response
+     *              uses to parse an undecoded one
+     * @return The body
+     * @throws IOException If the body cannot be read
+     */
+    public static Object extractBody(Response response, boolean isStreamingResponse, boolean lazyJson,
+                                     JsonCodec codec) throws IOException {
         Object body = null;
 
         if(isStreamingResponse) {
@@ -99,10 +158,16 @@ public class VantiqResponse {
         } else {
             String contentType = response.header("Content-Type");
 
-            if ("application/json".equals(contentType)) {
+            if ("application/json".equals(contentType) && lazyJson) {
+                byte[] bytes = response.body().bytes();
+                if (bytes.length > 0) {
+                    validate(bytes);
+                    body = new RawJsonBody(bytes, codec);
+                }
+            } else if ("application/json".equals(contentType)) {
                 String stringBody = response.body().string();
                 if (stringBody != null && stringBody.length() > 0) {
-                    body = parser.parse(stringBody);
+                    body = codec.decode(new StringReader(stringBody), JsonElement.class);
                 }
             } else if (contentType != null && contentType.startsWith("text/")) {
                 body = response.body().string();
@@ -115,7 +180,40 @@ public class VantiqResponse {
         return body;
     }
 
+    /**
+     * Checks the syntax of an undecoded JSON body, as leniently as the body was
+     * parsed before it was decoded on demand, without building a tree.  So a
+     * malformed body is still reported when the response is created.
+     *
+     * @throws JsonSyntaxException If the body is malformed
+     */
+    private static void validate(byte[] bytes) throws IOException {
+        JsonReader reader = new JsonReader(reader(bytes));
+        reader.setLenient(true);
+        try {
+            reader.skipValue();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+        } catch (MalformedJsonException | EOFException | IllegalStateException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
     public static List<VantiqError> extractErrors(Response response) throws IOException {
+        return extractErrors(response, GsonCodec.getDefault());
+    }
+
+    /**
+     * Extracts the errors of a failed response.  If the body cannot be decoded
+     * by the codec, a single error with the body as its message is returned.
+     *
+     * @param response The response
+     * @param codec The JSON codec
+     * @return The errors
+     * @throws IOException If the body cannot be read
+     */
+    public static List<VantiqError> extractErrors(Response response, JsonCodec codec) throws IOException {
         String body = response.body().string();
         if(body != null) body = body.trim();
 
@@ -125,7 +223,7 @@ public class VantiqResponse {
             
             try
             {
-                listOfErrors = gson.fromJson(body, errorsType);
+                listOfErrors = codec.decode(new StringReader(body), errorsType);
             }
             catch (Exception ex)
             {
@@ -149,7 +247,7 @@ public class VantiqResponse {
 
             try
             {
-                ve = gson.fromJson(body, VantiqError.class);
+                ve = codec.decode(new StringReader(body), VantiqError.class);
             }
             catch (Exception ex)
             {
@@ -249,13 +347,81 @@ public class VantiqResponse {
 
     /**
      * Returns the response body.  If there was an exception or error, then
-     * no body will exist.
+     * no body will exist.  A JSON body is parsed into a JsonElement by the
+     * {@link JsonCodec} of the session the first time it is requested.  A
+     * malformed JSON body is reported by {@link #hasException()} instead.
      * @return The parsed response body
+     * @throws JsonSyntaxException If a custom codec rejects the JSON body
      */
     public Object getBody() {
+        if (this.rawBody != null) {
+            synchronized (this) {
+                byte[] raw = this.rawBody;
+                if (raw != null) {
+                    try {
+                        this.body = this.codec.decode(reader(raw), JsonElement.class);
+                    } catch (IOException ex) {
+                        throw new JsonSyntaxException(ex);
+                    }
+                    this.rawBody = null;
+                }
+            }
+        }
         return this.body;
     }
 
+    /**
+     * Returns the response body bound to the given class.  If the JSON body
+     * has not been parsed yet, it is bound directly from the response bytes
+     * without building a JsonElement tree.
+     *
+     * @param type The class to bind the body to
+     * @param <T> The type of the body
+     * @return The bound body or null if there is no body
+     * @throws JsonSyntaxException If the body cannot be bound to the class
+     */
+    public <T> T getBodyAs(Class<T> type) {
+        return this.getBodyAs((Type) type);
+    }
+
+    /**
+     * Returns the response body bound to the given type, such as a
+     * {@code List<MyRecord>} obtained from a {@link TypeToken}.  If the JSON
+     * body has not been parsed yet, it is bound directly from the response
+     * bytes without building a JsonElement tree.  The body is bound by the
+     * {@link JsonCodec} of the session that issued the request.
+     *
+     * @param type The type to bind the body to
+     * @param <T> The type of the body
+     * @return The bound body or null if there is no body
+     * @throws JsonSyntaxException If the body cannot be bound to the type
+     */
+    public <T> T getBodyAs(Type type) {
+        byte[] raw = this.rawBody;
+        if (raw != null) {
+            try {
+                return this.codec.decode(reader(raw), type);
+            } catch (IOException ex) {
+                throw new JsonSyntaxException(ex);
+            }
+        }
+        Object body = this.body;
+        if (body == null) {
+            return null;
+        } else if (body instanceof JsonElement) {
+            return this.codec.decode((JsonElement) body, type);
+        }
+        try {
+            return this.codec.decode(new StringReader(this.codec.encode(body)), type);
+        } catch (IOException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+    }
+
+    private static Reader reader(byte[] bytes) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder("VantiqResponse[\n");
         sb.append("  statusCode:").append(this.statusCode).append('\n');
@@ -269,8 +435,14 @@ public class VantiqResponse {
         if(this.exception != null) {
             sb.append("  exception:").append(this.exception.getMessage()).append('\n');
         }
-        if(this.body != null) {
-            sb.append("  body:").append(this.body).append('\n');
+        Object body;
+        try {
+            body = this.getBody();
+        } catch (JsonParseException ex) {
+            body = "<" + ex.getMessage() + ">";
+        }
+        if(body != null) {
+            sb.append("  body:").append(body).append('\n');
         }
         sb.append(']');
         return sb.toString();
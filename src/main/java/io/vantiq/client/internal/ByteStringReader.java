@@ -0,0 +1,104 @@
+package io.vantiq.client.internal;
+
+import okio.ByteString;
+
+import java.io.Reader;
+
+/**
+ * Reader that decodes UTF-8 text directly from a range of a ByteString.
+ * Unlike an InputStreamReader, it neither copies the bytes nor allocates a
+ * decoder buffer, which matters when it is created for every subscription
+ * event.  Malformed sequences are read as U+FFFD.
+ */
+final class ByteStringReader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final ByteString bytes;
+    private final int end;
+    private int pos;
+
+    /**
+     * The low surrogate of a supplementary character that did not fit in the
+     * previous read, or -1
+     */
+    private int pendingLowSurrogate = -1;
+
+    ByteStringReader(ByteString bytes, int start, int end) {
+        this.bytes = bytes;
+        this.pos = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (this.pendingLowSurrogate >= 0) {
+            cbuf[off + n++] = (char) this.pendingLowSurrogate;
+            this.pendingLowSurrogate = -1;
+        }
+        while (n < len && this.pos < this.end) {
+            int lead = this.bytes.getByte(this.pos) & 0xff;
+            int codePoint;
+            int size;
+            if (lead < 0x80) {
+                codePoint = lead;
+                size = 1;
+            } else if ((lead & 0xe0) == 0xc0) {
+                codePoint = lead & 0x1f;
+                size = 2;
+            } else if ((lead & 0xf0) == 0xe0) {
+                codePoint = lead & 0x0f;
+                size = 3;
+            } else if ((lead & 0xf8) == 0xf0) {
+                codePoint = lead & 0x07;
+                size = 4;
+            } else {
+                codePoint = REPLACEMENT;
+                size = 1;
+            }
+
+            if (size > 1) {
+                if (this.pos + size > this.end) {
+                    codePoint = REPLACEMENT;
+                    size = this.end - this.pos;
+                } else {
+                    for (int i = 1; i < size; i++) {
+                        int b = this.bytes.getByte(this.pos + i) & 0xff;
+                        if ((b & 0xc0) != 0x80) {
+                            codePoint = REPLACEMENT;
+                            size = i;
+                            break;
+                        }
+                        codePoint = (codePoint << 6) | (b & 0x3f);
+                    }
+                    if (codePoint > Character.MAX_CODE_POINT) {
+                        codePoint = REPLACEMENT;
+                    }
+                }
+            }
+            this.pos += size;
+
+            if (Character.isSupplementaryCodePoint(codePoint)) {
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                char low = Character.lowSurrogate(codePoint);
+                if (n < len) {
+                    cbuf[off + n++] = low;
+                } else {
+                    this.pendingLowSurrogate = low;
+                }
+            } else {
+                cbuf[off + n++] = (char) codePoint;
+            }
+        }
+        return (n == 0 ? -1 : n);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,147 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.RequestListener;
+import io.vantiq.client.RequestMetrics;
+import okhttp3.MultipartBody;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the metrics of a single request.  It is attached to the OkHttp
+ * request as a tag, filled in by the {@link MetricsEventListener} as the
+ * call progresses, and reported to the {@link RequestListener} by the
+ * session once the response has been read.
+ */
+class CallMetrics {
+
+    private final RequestListener listener;
+    private final String operation;
+    private final String method;
+    private final String path;
+    private final long startNanos;
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    volatile long dnsStart;
+    volatile long dnsNanos;
+    volatile long connectStart;
+    volatile long connectNanos;
+    volatile long tlsStart;
+    volatile long tlsNanos;
+    volatile long requestStart;
+    volatile long serverNanos;
+    volatile long bytesSent;
+    volatile long bytesReceived;
+    final AtomicInteger retryCount = new AtomicInteger();
+
+    /**
+     * Creates the metrics of a request for the given SDK operation, e.g.
+     * "count", which the caller knows better than {@link #operationOf} does.
+     */
+    CallMetrics(RequestListener listener, String operation, String method, String path) {
+        this(listener, operation, method, path, System.nanoTime());
+    }
+
+    private CallMetrics(RequestListener listener, String operation, String method, String path, long startNanos) {
+        this.listener = listener;
+        this.operation = operation;
+        this.method = method;
+        this.path = path;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Returns empty metrics for a hedge of this request.  They are only
+     * reported if the hedge wins, and their total time still counts from the
+     * start of this request.
+     */
+    CallMetrics forHedge() {
+        return new CallMetrics(this.listener, this.operation, this.method, this.path, this.startNanos);
+    }
+
+    /**
+     * Reports a request that received a response.
+     *
+     * @param statusCode The HTTP status code
+     * @param bodyNanos The time spent reading and decoding the body
+     */
+    void complete(int statusCode, long bodyNanos) {
+        report(statusCode, null, bodyNanos);
+    }
+
+    /**
+     * Reports a request that failed without a response.
+     *
+     * @param failure The exception
+     */
+    void fail(Throwable failure) {
+        report(0, failure, 0);
+    }
+
+    private void report(int statusCode, Throwable failure, long bodyNanos) {
+        if (!this.reported.compareAndSet(false, true)) {
+            return;
+        }
+        RequestMetrics metrics =
+            new RequestMetrics(this.operation, this.method, this.path, statusCode, failure,
+                               this.bytesSent, this.bytesReceived, this.dnsNanos, this.connectNanos,
+                               this.tlsNanos, this.serverNanos, bodyNanos, System.nanoTime() - this.startNanos,
+                               this.retryCount.get());
+        try {
+            this.listener.onRequest(metrics);
+        } catch (RuntimeException ex) {
+            // A broken listener must not fail the request
+        }
+    }
+
+    /**
+     * Derives the SDK operation from the HTTP method and the path, which has
+     * the form "api/vN/resources/{resource}[/{id}[/...]]" for most requests.
+     * Only used for the requests whose caller does not name the operation,
+     * such as the generic post, put and delete.
+     */
+    static String operationOf(String method, String path, Map<String,String> queryParams, Object body) {
+        String[] segments = path.split("/");
+        int index = -1;
+        for (int i = 0; i < segments.length; i++) {
+            if ("resources".equals(segments[i])) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0 || index + 1 >= segments.length) {
+            if ("GET".equals(method) && index < 0) {
+                return "download";
+            }
+            return segments.length > 0 ? segments[segments.length - 1] : method.toLowerCase();
+        }
+
+        String resource = segments[index + 1];
+        boolean hasId = index + 2 < segments.length;
+        switch (method) {
+            case "GET":
+                return hasId ? "selectOne" : "select";
+            case "PUT":
+                return "update";
+            case "DELETE":
+                return hasId ? "deleteOne" : "delete";
+            case "POST":
+                if (body instanceof MultipartBody) {
+                    return "upload";
+                } else if ("procedures".equals(resource)) {
+                    return "execute";
+                } else if (index + 3 < segments.length && "query".equals(segments[index + 3])) {
+                    return "query";
+                } else if (hasId && ("topics".equals(resource) || "sources".equals(resource)
+                                     || "services".equals(resource))) {
+                    return "publish";
+                } else if (queryParams != null && "true".equals(queryParams.get("upsert"))) {
+                    return "upsert";
+                }
+                return "insert";
+            default:
+                return method.toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Call;
+
+/**
+ * Implemented by response handlers that need access to the underlying
+ * OkHttp {@link Call}, for example to cancel it.  The session reports each
+ * call to the handler before the call is enqueued.
+ */
+public interface CallTracker {
+
+    /**
+     * Called with each call issued on behalf of the handler.
+     *
+     * @param call The call about to be enqueued
+     */
+    void track(Call call);
+}
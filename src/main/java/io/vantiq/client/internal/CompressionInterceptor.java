@@ -0,0 +1,248 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.CompressionStats;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gzip compresses JSON and text request bodies of at least a threshold size
+ * and counts the request and response bytes before and after compression.
+ * Bodies of unknown length are encoded up to the threshold to find out which
+ * side of it they are on.
+ *
+ * This is an application interceptor, so it sees the uncompressed bodies.
+ * The bytes on the wire are counted by the {@link #networkInterceptor()},
+ * which must be installed as a network interceptor.  Response decompression
+ * itself is done transparently by OkHttp, which advertises gzip support
+ * unless the request sets its own "Accept-Encoding" header.
+ *
+ * The interceptor is installed in every session, and compression can be
+ * enabled or disabled at any time.  While it is disabled, requests pass
+ * through unchanged and no bytes are counted.
+ */
+class CompressionInterceptor implements Interceptor {
+
+    private volatile boolean enabled;
+    private volatile long threshold;
+
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestBytesSent = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseBytesReceived = new AtomicLong();
+
+    CompressionInterceptor(boolean enabled, long threshold) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Returns a snapshot of the byte counts
+     */
+    CompressionStats getStats() {
+        return new CompressionStats(this.requestBytes.get(), this.requestBytesSent.get(),
+                                    this.responseBytes.get(), this.responseBytesReceived.get());
+    }
+
+    /**
+     * Returns the interceptor that counts the response bytes received from
+     * the server before they are decompressed.
+     */
+    Interceptor networkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                if (!enabled) {
+                    return chain.proceed(chain.request());
+                }
+                return countResponse(chain.proceed(chain.request()), responseBytesReceived);
+            }
+        };
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!this.enabled) {
+            return chain.proceed(request);
+        }
+        if (request.header("Content-Encoding") != null) {
+            // Already encoded, e.g. a request retried by another interceptor
+            return chain.proceed(request);
+        }
+        RequestBody body = request.body();
+        if (body != null) {
+            // Read once, so that a body is judged against a single threshold
+            long threshold = this.threshold;
+            long length = body.contentLength();
+            if (length < 0 && isCompressible(body.contentType()) && !body.isOneShot()) {
+                // A streamed body, e.g. a JsonRequestBody, is only sent as-is if it
+                // turns out to be below the threshold
+                Buffer small = bufferBelowThreshold(body, threshold);
+                if (small != null) {
+                    body = RequestBody.create(body.contentType(), small.readByteString());
+                    length = body.contentLength();
+                    request = request.newBuilder().method(request.method(), body).build();
+                }
+            }
+            if (isCompressible(body.contentType()) && (length < 0 || length >= threshold)) {
+                request = request.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(request.method(), new GzipRequestBody(body))
+                    .build();
+            } else if (length >= 0) {
+                this.requestBytes.addAndGet(length);
+                this.requestBytesSent.addAndGet(length);
+            }
+        }
+        return countResponse(chain.proceed(request), this.responseBytes);
+    }
+
+    /**
+     * Writes a body of unknown length into a buffer, stopping as soon as the
+     * threshold is reached.  Returns the buffered body if it is smaller than
+     * the threshold, or null if it must be compressed, in which case it is
+     * written again when sent.
+     */
+    private Buffer bufferBelowThreshold(RequestBody body, final long threshold) throws IOException {
+        final Buffer buffer = new Buffer();
+        BufferedSink sink = Okio.buffer(new ForwardingSink(buffer) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                if (buffer.size() >= threshold) {
+                    throw new ThresholdReachedException();
+                }
+            }
+        });
+        try {
+            body.writeTo(sink);
+            sink.flush();
+        } catch (ThresholdReachedException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            // Encoders may wrap the exception of the sink
+            if (ex.getCause() instanceof ThresholdReachedException) {
+                return null;
+            }
+            throw ex;
+        }
+        return (buffer.size() < threshold ? buffer : null);
+    }
+
+    /**
+     * Thrown to stop writing a body once it has reached the threshold
+     */
+    private static class ThresholdReachedException extends IOException {
+        ThresholdReachedException() {
+            super("Compression threshold reached");
+        }
+    }
+
+    private static boolean isCompressible(MediaType contentType) {
+        return contentType != null
+               && ("text".equals(contentType.type()) || contentType.subtype().contains("json"));
+    }
+
+    /**
+     * Wraps the response body so that the bytes read from it are added to the counter
+     */
+    private static Response countResponse(Response response, final AtomicLong counter) {
+        final ResponseBody body = response.body();
+        if (body == null || response.code() == 101) {
+            return response;
+        }
+        Source source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    counter.addAndGet(read);
+                }
+                return read;
+            }
+        };
+        return response.newBuilder()
+            .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+            .build();
+    }
+
+    /**
+     * Sink that adds the bytes written through it to a counter
+     */
+    private static class CountingSink extends ForwardingSink {
+        private final AtomicLong counter;
+
+        CountingSink(Sink delegate, AtomicLong counter) {
+            super(delegate);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            this.counter.addAndGet(byteCount);
+        }
+    }
+
+    /**
+     * Request body that gzip compresses the body it wraps as it is written.
+     * The compressed length is not known up front, so it is sent with chunked
+     * transfer encoding.
+     */
+    private class GzipRequestBody extends RequestBody {
+        private final RequestBody body;
+
+        GzipRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return this.body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            GzipSink gzip = new GzipSink(new CountingSink(sink, requestBytesSent));
+            BufferedSink raw = Okio.buffer(new CountingSink(gzip, requestBytes));
+            this.body.writeTo(raw);
+            raw.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+/**
+ * Event listener that passes every event to another listener, so that a
+ * subclass can observe some events without hiding them from the listener of
+ * the root client.
+ */
+class ForwardingEventListener extends EventListener {
+
+    private final EventListener delegate;
+
+    ForwardingEventListener(EventListener delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        this.delegate.callStart(call);
+    }
+
+    @Override
+    public void proxySelectStart(Call call, HttpUrl url) {
+        this.delegate.proxySelectStart(call, url);
+    }
+
+    @Override
+    public void proxySelectEnd(Call call, HttpUrl url, List<Proxy> proxies) {
+        this.delegate.proxySelectEnd(call, url, proxies);
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        this.delegate.dnsStart(call, domainName);
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+        this.delegate.dnsEnd(call, domainName, addresses);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+        this.delegate.connectStart(call, address, proxy);
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        this.delegate.secureConnectStart(call);
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        this.delegate.secureConnectEnd(call, handshake);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+        this.delegate.connectEnd(call, address, proxy, protocol);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        this.delegate.connectFailed(call, address, proxy, protocol, ioe);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        this.delegate.connectionAcquired(call, connection);
+    }
+
+    @Override
+    public void connectionReleased(Call call, Connection connection) {
+        this.delegate.connectionReleased(call, connection);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        this.delegate.requestHeadersStart(call);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        this.delegate.requestHeadersEnd(call, request);
+    }
+
+    @Override
+    public void requestBodyStart(Call call) {
+        this.delegate.requestBodyStart(call);
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        this.delegate.requestBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void requestFailed(Call call, IOException ioe) {
+        this.delegate.requestFailed(call, ioe);
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        this.delegate.responseHeadersStart(call);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        this.delegate.responseHeadersEnd(call, response);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        this.delegate.responseBodyStart(call);
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        this.delegate.responseBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void responseFailed(Call call, IOException ioe) {
+        this.delegate.responseFailed(call, ioe);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        this.delegate.callEnd(call);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        this.delegate.callFailed(call, ioe);
+    }
+
+    @Override
+    public void canceled(Call call) {
+        this.delegate.canceled(call);
+    }
+
+    @Override
+    public void satisfactionFailure(Call call, Response response) {
+        this.delegate.satisfactionFailure(call, response);
+    }
+
+    @Override
+    public void cacheHit(Call call, Response response) {
+        this.delegate.cacheHit(call, response);
+    }
+
+    @Override
+    public void cacheMiss(Call call) {
+        this.delegate.cacheMiss(call);
+    }
+
+    @Override
+    public void cacheConditionalHit(Call call, Response cachedResponse) {
+        this.delegate.cacheConditionalHit(call, cachedResponse);
+    }
+}
@@ -0,0 +1,284 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.HedgePolicy;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends hedged requests according to a {@link HedgePolicy}.  A hedged call
+ * is started as usual; if it has not completed after the hedge delay and the
+ * budget allows, a copy of it is started too.  The first response wins and
+ * the other call is cancelled.  A failure or a server error (5xx) only wins if
+ * the other call is not outstanding.
+ *
+ * The latencies of the hedged operations are kept in a small ring buffer, from
+ * which the adaptive delay is computed.
+ */
+class Hedger {
+
+    private static final int SAMPLES = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final HedgePolicy policy;
+
+    // Guarded by this
+    private final long[] samples = new long[SAMPLES];
+    private int sampleCount;
+    private long adaptiveDelayMillis = -1;
+    private double tokens;
+
+    private final AtomicInteger hedgeCount = new AtomicInteger();
+
+    Hedger(HedgePolicy policy) {
+        this.policy = policy;
+        this.tokens = policy.getMaxBurst();
+    }
+
+    HedgePolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Returns the number of hedges sent so far
+     */
+    int getHedgeCount() {
+        return this.hedgeCount.get();
+    }
+
+    /**
+     * Returns true for the requests that may be hedged: selectOne and the
+     * execution of the listed read-only procedures.
+     */
+    boolean isHedgeable(String operation, String path) {
+        if ("selectOne".equals(operation)) {
+            return true;
+        }
+        if ("execute".equals(operation)) {
+            String procedure = path.substring(path.lastIndexOf('/') + 1);
+            return this.policy.getProcedures().contains(procedure);
+        }
+        return false;
+    }
+
+    /**
+     * Executes the call synchronously, hedging it if it is slow.  The call
+     * runs on the calling thread, so only the hedge goes through the
+     * dispatcher.  The hedge is created by the given factory.
+     */
+    Response execute(Call.Factory factory, Call call) throws IOException {
+        final CompletableFuture<Response> result = new CompletableFuture<Response>();
+        HedgedCall hedged = newHedgedCall(factory, call, new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        hedged.scheduleHedge(delayMillis());
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException ex) {
+            // Also the case when the hedge won and cancelled the call
+            hedged.onFailure(call, ex);
+            response = null;
+        }
+        if (response != null) {
+            hedged.onResponse(call, response);
+        }
+
+        // Completed unless the call lost, or failed while the hedge is outstanding
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            hedged.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Enqueues the call, hedging it if it is slow.  The callback is called
+     * once, with the winning call.  The hedge is created by the given factory.
+     */
+    void enqueue(Call.Factory factory, Call call, Callback callback) {
+        HedgedCall hedged = newHedgedCall(factory, call, callback);
+        call.enqueue(hedged);
+        hedged.scheduleHedge(delayMillis());
+    }
+
+    private HedgedCall newHedgedCall(Call.Factory factory, Call call, Callback callback) {
+        synchronized (this) {
+            this.tokens = Math.min(this.policy.getMaxBurst(), this.tokens + this.policy.getMaxExtraLoad());
+        }
+        return new HedgedCall(factory, call, callback);
+    }
+
+    /**
+     * Returns the hedge delay, the adaptive percentile of the observed
+     * latencies once there are enough of them, or the fixed delay.
+     */
+    synchronized long delayMillis() {
+        if (this.policy.getAdaptivePercentile() > 0 && this.adaptiveDelayMillis >= 0) {
+            return this.adaptiveDelayMillis;
+        }
+        return this.policy.getDelayMillis();
+    }
+
+    private synchronized boolean tryAcquireHedge() {
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens -= 1;
+        return true;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        this.samples[this.sampleCount % SAMPLES] = nanos;
+        this.sampleCount++;
+        if (this.policy.getAdaptivePercentile() > 0 && this.sampleCount >= MIN_SAMPLES
+                && this.sampleCount % RECOMPUTE_INTERVAL == 0) {
+            long[] sorted = Arrays.copyOf(this.samples, Math.min(this.sampleCount, SAMPLES));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(this.policy.getAdaptivePercentile() * sorted.length) - 1;
+            this.adaptiveDelayMillis = TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+        }
+    }
+
+    /**
+     * A call and its hedge, racing to complete the callback
+     */
+    private class HedgedCall implements Callback {
+        private final Call.Factory factory;
+        private final Call primary;
+        private final Callback callback;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private volatile Call hedge;
+        private volatile ScheduledFuture<?> timer;
+
+        HedgedCall(Call.Factory factory, Call primary, Callback callback) {
+            this.factory = factory;
+            this.primary = primary;
+            this.callback = callback;
+        }
+
+        /**
+         * Schedules the hedge, once the call has been started
+         */
+        void scheduleHedge(long delayMillis) {
+            this.timer = VantiqSession.SchedulerHolder.EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    startHedge();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void startHedge() {
+            if (this.done.get() || this.primary.isCanceled() || !tryAcquireHedge()) {
+                return;
+            }
+            this.outstanding.incrementAndGet();
+            hedgeCount.incrementAndGet();
+            Call hedge = newHedge();
+            this.hedge = hedge;
+            // The primary may have won before the hedge was visible to win()
+            if (this.done.get()) {
+                hedge.cancel();
+                return;
+            }
+            hedge.enqueue(this);
+        }
+
+        /**
+         * Creates the hedge.  The metrics of the request are not shared with
+         * the hedge, since both calls record into them concurrently: the hedge
+         * has its own, and the callbacks report those of the winning call.
+         */
+        private Call newHedge() {
+            Request request = this.primary.request();
+            CallMetrics metrics = request.tag(CallMetrics.class);
+            if (metrics == null) {
+                return this.primary.clone();
+            }
+            return this.factory.newCall(request.newBuilder().tag(CallMetrics.class, metrics.forHedge()).build());
+        }
+
+        /**
+         * Cancels the call and its hedge
+         */
+        void cancel() {
+            this.primary.cancel();
+            Call hedge = this.hedge;
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+
+        @Override
+        public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+            boolean last = this.outstanding.decrementAndGet() == 0;
+            if ((response.code() < 500 || last) && win(call)) {
+                recordLatency(System.nanoTime() - this.startNanos);
+                this.callback.onResponse(call, response);
+            } else {
+                response.close();
+            }
+        }
+
+        @Override
+        public void onFailure(@NotNull Call call, @NotNull IOException e) {
+            boolean last = this.outstanding.decrementAndGet() == 0;
+            // Cancelling the primary, e.g. through a ResponseFuture, cancels the hedge too
+            boolean cancelled = (call == this.primary && this.primary.isCanceled());
+            if ((last || cancelled) && win(call)) {
+                this.callback.onFailure(call, e);
+            }
+        }
+
+        /**
+         * Returns true for the first call to complete, and cancels the other
+         */
+        private boolean win(Call winner) {
+            if (!this.done.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> timer = this.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            Call hedge = this.hedge;
+            if (winner != this.primary) {
+                this.primary.cancel();
+            } else if (hedge != null) {
+                hedge.cancel();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interceptor installed when HTTP/2 is enabled.  Some servers and proxies
+ * return HTTP/2 responses that OkHttp rejects with
+ * "ProtocolException: Expected ':status' header not present".  When that
+ * happens, the request is retried on a client restricted to HTTP/1.1 and all
+ * later requests go straight to that client.
+ *
+ * This must be the innermost application interceptor, and the HTTP/1.1
+ * client must not carry the session's other interceptors, so that they run
+ * once per request.  Cancelling the call also cancels the HTTP/1.1 call it
+ * was handed to, provided the client reports its cancellation through the
+ * {@link CancelListenerFactory} of the interceptor.
+ */
+class Http2FallbackInterceptor implements Interceptor {
+
+    private final OkHttpClient http1Client;
+    private volatile boolean http1Only = false;
+
+    // The HTTP/1.1 call each call in progress was handed to
+    private final ConcurrentMap<Call, Call> handedOver = new ConcurrentHashMap<Call, Call>();
+
+    Http2FallbackInterceptor(OkHttpClient http1Client) {
+        this.http1Client = http1Client;
+    }
+
+    /**
+     * Returns true once the fallback to HTTP/1.1 has occurred.
+     */
+    boolean isHttp1Only() {
+        return this.http1Only;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (this.http1Only) {
+            return executeHttp1(chain);
+        }
+        try {
+            return chain.proceed(chain.request());
+        } catch (ProtocolException ex) {
+            String message = ex.getMessage();
+            if (message == null || !message.contains(":status")) {
+                throw ex;
+            }
+            this.http1Only = true;
+            return executeHttp1(chain);
+        }
+    }
+
+    /**
+     * Runs the request on the HTTP/1.1 client, cancelling it if the call of
+     * the chain is cancelled meanwhile.
+     */
+    private Response executeHttp1(Chain chain) throws IOException {
+        Call outer = chain.call();
+        Call inner = this.http1Client.newCall(chain.request());
+        this.handedOver.put(outer, inner);
+        try {
+            // Cancelled before it was handed over
+            if (outer.isCanceled()) {
+                inner.cancel();
+            }
+            return inner.execute();
+        } finally {
+            this.handedOver.remove(outer);
+        }
+    }
+
+    /**
+     * Cancels the HTTP/1.1 call the given call was handed to, if any
+     */
+    private void canceled(Call outer) {
+        Call inner = this.handedOver.get(outer);
+        if (inner != null) {
+            inner.cancel();
+        }
+    }
+
+    /**
+     * Creates the listeners of the calls that may be handed to the HTTP/1.1
+     * client, which report their cancellation to the interceptor and pass
+     * every event on to the listeners of the given factory.
+     */
+    static class CancelListenerFactory implements EventListener.Factory {
+        private final EventListener.Factory delegate;
+        private final Http2FallbackInterceptor interceptor;
+
+        CancelListenerFactory(EventListener.Factory delegate, Http2FallbackInterceptor interceptor) {
+            this.delegate = delegate;
+            this.interceptor = interceptor;
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            return new ForwardingEventListener(this.delegate.create(call)) {
+                @Override
+                public void canceled(Call call) {
+                    super.canceled(call);
+                    interceptor.canceled(call);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.vantiq.client.internal;
+
+import com.google.gson.JsonIOException;
+import io.vantiq.client.JsonCodec;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request body that encodes an object as JSON directly into bytes, rather
+ * than first building the JSON text as a String and then encoding that
+ * String as UTF-8.
+ *
+ * Values below {@link #STREAM_THRESHOLD} bytes are encoded when the body is
+ * created, so they are sent with their length and encoding errors are thrown
+ * to the caller.  Larger values are encoded into the HTTP request as it is
+ * sent, with chunked transfer encoding, and must not be modified until the
+ * request completes.  Their encoding errors fail the request.
+ */
+public class JsonRequestBody extends RequestBody {
+
+    /**
+     * Size from which a value is streamed rather than encoded up front
+     */
+    public static final int STREAM_THRESHOLD = 64 * 1024;
+
+    private final Object value;
+    private final JsonCodec codec;
+
+    // The encoded value, or null if it is streamed
+    private final ByteString encoded;
+
+    public JsonRequestBody(Object value, JsonCodec codec) {
+        this.value = value;
+        this.codec = codec;
+        this.encoded = encodeBelowThreshold();
+    }
+
+    /**
+     * Returns the object encoded by this body
+     *
+     * @return The object
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+    /**
+     * Returns whether the value is encoded as the body is sent, because it
+     * is too large to be encoded up front
+     *
+     * @return True if the body is streamed
+     */
+    public boolean isStreamed() {
+        return this.encoded == null;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return VantiqSession.APPLICATION_JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return (this.encoded != null ? this.encoded.size() : -1);
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        if (this.encoded != null) {
+            sink.write(this.encoded);
+            return;
+        }
+        try {
+            encode(sink);
+        } catch (RuntimeException ex) {
+            // Fail the request rather than the thread that sends it
+            throw new IOException("Failed to encode the request body", ex);
+        }
+    }
+
+    private void encode(BufferedSink sink) throws IOException {
+        // The writer is flushed rather than closed, since closing it would close the sink
+        Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+        this.codec.encode(this.value, writer);
+        writer.flush();
+    }
+
+    /**
+     * Encodes the value into a buffer, stopping as soon as the threshold is
+     * reached.  Returns the encoded value if it is smaller than the
+     * threshold, or null if it must be streamed.
+     */
+    private ByteString encodeBelowThreshold() {
+        final Buffer buffer = new Buffer();
+        BufferedSink sink = Okio.buffer(new ForwardingSink(buffer) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                if (buffer.size() >= STREAM_THRESHOLD) {
+                    throw new ThresholdReachedException();
+                }
+            }
+        });
+        try {
+            encode(sink);
+            sink.flush();
+        } catch (ThresholdReachedException ex) {
+            return null;
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        } catch (RuntimeException ex) {
+            // Encoders may wrap the exception of the sink
+            if (ex.getCause() instanceof ThresholdReachedException) {
+                return null;
+            }
+            throw ex;
+        }
+        return (buffer.size() < STREAM_THRESHOLD ? buffer.readByteString() : null);
+    }
+
+    /**
+     * Thrown to stop encoding a value once it has reached the threshold
+     */
+    private static class ThresholdReachedException extends IOException {
+        ThresholdReachedException() {
+            super("Stream threshold reached");
+        }
+    }
+}
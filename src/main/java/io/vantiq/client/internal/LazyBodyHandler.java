@@ -0,0 +1,10 @@
+package io.vantiq.client.internal;
+
+/**
+ * Marker for response handlers that only pass the body given to
+ * {@code onSuccess} on to a {@link io.vantiq.client.VantiqResponse}.  The
+ * session gives such handlers JSON bodies undecoded, so they are only parsed
+ * if and when the response body is requested.
+ */
+public interface LazyBodyHandler {
+}
@@ -0,0 +1,102 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+/**
+ * Records the network phases of a call into the {@link CallMetrics} attached
+ * to its request.
+ */
+class MetricsEventListener extends EventListener {
+
+    private final CallMetrics metrics;
+
+    MetricsEventListener(CallMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        this.metrics.dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+        this.metrics.dnsNanos += System.nanoTime() - this.metrics.dnsStart;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+        this.metrics.connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        this.metrics.tlsStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        this.metrics.tlsNanos += System.nanoTime() - this.metrics.tlsStart;
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+        this.metrics.connectNanos += System.nanoTime() - this.metrics.connectStart;
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        this.metrics.connectNanos += System.nanoTime() - this.metrics.connectStart;
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        this.metrics.requestStart = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        this.metrics.bytesSent += byteCount;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        this.metrics.serverNanos += System.nanoTime() - this.metrics.requestStart;
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        this.metrics.bytesReceived += byteCount;
+    }
+
+    /**
+     * Creates a listener for the calls whose request carries {@link CallMetrics}
+     * and defers to the root client's factory for the others.
+     */
+    static class Factory implements EventListener.Factory {
+        private final EventListener.Factory delegate;
+
+        Factory(EventListener.Factory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            CallMetrics metrics = call.request().tag(CallMetrics.class);
+            if (metrics != null) {
+                return new MetricsEventListener(metrics);
+            }
+            return this.delegate.create(call);
+        }
+    }
+}
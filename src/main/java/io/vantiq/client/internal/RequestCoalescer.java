@@ -0,0 +1,397 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces identical reads that are in flight at the same time.  The first
+ * GET for a given URL, headers (which include the access token and the
+ * target namespace) and timeouts is sent; the identical GETs issued before
+ * its response arrives wait for it instead of being sent.  The response body
+ * is read once and each caller receives its own copy of the response.
+ *
+ * Each caller keeps its own call, which is never executed, so that it can
+ * cancel its wait without cancelling the shared request.  Cancelling that
+ * call fails the caller at once, and the shared request is cancelled once no
+ * caller waits for it.
+ */
+class RequestCoalescer {
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+
+    /**
+     * Returns the number of requests that were not sent because an identical
+     * one was in flight
+     */
+    int getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * Returns the key of the request: its method, URL, headers and the
+     * timeouts of the session that issued it, so that a session created with
+     * {@link VantiqSession#withTimeouts} never waits on a request sent with
+     * other timeouts.
+     */
+    static String keyOf(Request request) {
+        StringBuilder key = new StringBuilder()
+            .append(request.method()).append(' ').append(request.url()).append('\n')
+            .append(request.headers());
+        VantiqSession session = request.tag(VantiqSession.class);
+        if (session != null) {
+            key.append(session.getConnectTimeout()).append('/')
+               .append(session.getReadTimeout()).append('/')
+               .append(session.getWriteTimeout());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Wraps the call of a caller, so that cancelling it notifies the flight
+     * the caller waits for.
+     *
+     * @param call The call of the caller, which is never executed
+     * @param callbackExecutor The executor that reports the cancellation to
+     *                         the callback of the caller
+     * @return The call to give to the caller
+     */
+    WaitingCall newCall(Call call, Executor callbackExecutor) {
+        return new WaitingCall(call, callbackExecutor);
+    }
+
+    /**
+     * Registers the callback of a caller for the request with the given key.
+     * If an identical request is in flight, the callback is called with its
+     * response.  Otherwise, a new flight is returned, which the caller sends
+     * as the callback of the shared request.
+     *
+     * @param key The key of the request
+     * @param call The call of the caller, which notifies the flight when cancelled
+     * @param callback The callback of the caller
+     * @return The flight to send, or null if the caller joined one in flight
+     */
+    Flight join(String key, WaitingCall call, Callback callback) {
+        Waiter waiter = new Waiter(call, callback);
+        Flight flight = new Flight(key);
+        flight.waiters.add(waiter);
+        while (true) {
+            Flight existing = this.flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                call.joined(flight);
+                return flight;
+            }
+            if (existing.add(waiter)) {
+                this.coalescedCount.incrementAndGet();
+                call.joined(existing);
+                return null;
+            }
+            // The flight just completed, so start a new one
+            this.flights.remove(key, existing);
+        }
+    }
+
+    /**
+     * The call of a caller waiting for a flight.  It is never executed, but
+     * cancelling it stops the wait.
+     */
+    static class WaitingCall implements Call {
+        private final Call delegate;
+        private final Executor callbackExecutor;
+        private Flight flight;
+
+        WaitingCall(Call delegate, Executor callbackExecutor) {
+            this.delegate = delegate;
+            this.callbackExecutor = callbackExecutor;
+        }
+
+        /**
+         * Records the flight the call waits for.  If the call was cancelled
+         * before, the flight is notified at once.
+         */
+        private void joined(Flight flight) {
+            synchronized (this) {
+                this.flight = flight;
+            }
+            if (this.delegate.isCanceled()) {
+                flight.cancel(this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            // Cancelled before reading the flight, so that joined() sees it otherwise
+            this.delegate.cancel();
+            Flight flight;
+            synchronized (this) {
+                flight = this.flight;
+            }
+            if (flight != null) {
+                flight.cancel(this);
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return this.delegate.isCanceled();
+        }
+
+        @NotNull
+        @Override
+        public Request request() {
+            return this.delegate.request();
+        }
+
+        @NotNull
+        @Override
+        public Response execute() throws IOException {
+            return this.delegate.execute();
+        }
+
+        @Override
+        public void enqueue(@NotNull Callback callback) {
+            this.delegate.enqueue(callback);
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return this.delegate.isExecuted();
+        }
+
+        @NotNull
+        @Override
+        public Timeout timeout() {
+            return this.delegate.timeout();
+        }
+
+        @NotNull
+        @Override
+        public Call clone() {
+            return this.delegate.clone();
+        }
+    }
+
+    /**
+     * A caller waiting for the response
+     */
+    private static class Waiter {
+        final WaitingCall call;
+        final Callback callback;
+
+        Waiter(WaitingCall call, Callback callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * The shared request and the callers waiting for its response
+     */
+    class Flight implements Callback {
+        private final String key;
+
+        // Guarded by this
+        private final List<Waiter> waiters = new ArrayList<Waiter>();
+        private boolean done = false;
+        private Call shared;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Records the shared call once it has been created.
+         *
+         * @return false if every caller already cancelled, so the shared call
+         *         must not be sent
+         */
+        synchronized boolean start(Call shared) {
+            this.shared = shared;
+            return !this.done;
+        }
+
+        /**
+         * Fails the caller of the given call, which was cancelled, and cancels
+         * the shared call once no caller is left.  As with OkHttp, the failure
+         * is reported on the executor of the call rather than on the thread
+         * that cancelled it.
+         */
+        private void cancel(final WaitingCall call) {
+            Waiter canceled = null;
+            boolean abandoned = false;
+            Call shared;
+            synchronized (this) {
+                if (this.done) {
+                    return;
+                }
+                for (Iterator<Waiter> it = this.waiters.iterator(); it.hasNext(); ) {
+                    Waiter waiter = it.next();
+                    if (waiter.call == call) {
+                        canceled = waiter;
+                        it.remove();
+                        break;
+                    }
+                }
+                abandoned = this.waiters.isEmpty();
+                shared = this.shared;
+            }
+            if (abandoned) {
+                // Let later callers start a new flight rather than join a cancelled one
+                complete();
+                if (shared != null) {
+                    shared.cancel();
+                }
+            }
+            if (canceled != null) {
+                final Callback callback = canceled.callback;
+                Runnable failure = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            callback.onFailure(call, new IOException("Canceled"));
+                        } catch (RuntimeException ex) {
+                            // As with OkHttp, a failing callback only affects its own caller
+                        }
+                    }
+                };
+                try {
+                    call.callbackExecutor.execute(failure);
+                } catch (RejectedExecutionException ex) {
+                    failure.run();
+                }
+            }
+        }
+
+        private synchronized boolean add(Waiter waiter) {
+            if (this.done) {
+                return false;
+            }
+            this.waiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * Closes the flight to new callers and returns the waiting ones
+         */
+        private List<Waiter> complete() {
+            List<Waiter> waiters;
+            synchronized (this) {
+                this.done = true;
+                waiters = new ArrayList<Waiter>(this.waiters);
+                this.waiters.clear();
+            }
+            flights.remove(this.key, this);
+            return waiters;
+        }
+
+        @Override
+        public void onResponse(@NotNull Call call, @NotNull Response response) {
+            CallMetrics metrics = call.request().tag(CallMetrics.class);
+            long bodyStart = System.nanoTime();
+            byte[] bytes;
+            try {
+                bytes = response.body().bytes();
+            } catch (IOException ex) {
+                onFailure(call, ex);
+                return;
+            } finally {
+                response.close();
+            }
+            if (metrics != null) {
+                metrics.complete(response.code(), System.nanoTime() - bodyStart);
+            }
+
+            ResponseBody body = response.body();
+            for (Waiter waiter : complete()) {
+                try {
+                    if (waiter.call.isCanceled()) {
+                        waiter.callback.onFailure(waiter.call, new IOException("Canceled"));
+                        continue;
+                    }
+                    Response copy = response.newBuilder()
+                            .body(ResponseBody.create(body.contentType(), bytes))
+                            .build();
+                    waiter.callback.onResponse(waiter.call, copy);
+                } catch (IOException | RuntimeException ex) {
+                    // As with OkHttp, a failing callback only affects its own caller
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(@NotNull Call call, @NotNull IOException e) {
+            CallMetrics metrics = call.request().tag(CallMetrics.class);
+            if (metrics != null) {
+                metrics.fail(e);
+            }
+            for (Waiter waiter : complete()) {
+                try {
+                    waiter.callback.onFailure(waiter.call, e);
+                } catch (RuntimeException ex) {
+                    // As with OkHttp, a failing callback only affects its own caller
+                }
+            }
+        }
+    }
+
+    /**
+     * A callback that lets a synchronous caller wait for its response
+     */
+    static class ResponseWaiter implements Callback {
+        private final CompletableFuture<Response> result = new CompletableFuture<Response>();
+
+        @Override
+        public void onResponse(@NotNull Call call, @NotNull Response response) {
+            this.result.complete(response);
+        }
+
+        @Override
+        public void onFailure(@NotNull Call call, @NotNull IOException e) {
+            this.result.completeExceptionally(e);
+        }
+
+        /**
+         * Waits for the response of the given call, for at most the given time
+         *
+         * @param timeoutMillis The maximum time to wait, or 0 to wait without a limit
+         */
+        Response get(Call call, long timeoutMillis) throws IOException {
+            try {
+                return (timeoutMillis > 0 ? this.result.get(timeoutMillis, TimeUnit.MILLISECONDS)
+                                          : this.result.get());
+            } catch (InterruptedException ex) {
+                call.cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            } catch (TimeoutException ex) {
+                call.cancel();
+                throw new InterruptedIOException("timeout");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+}
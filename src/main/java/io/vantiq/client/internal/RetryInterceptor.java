@@ -0,0 +1,131 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.RetryPolicy;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries requests according to the {@link RetryPolicy} of the session that
+ * issued them.  Reads are retried when the call fails or the server responds
+ * with 429, 502 or 503.  Writes are only retried if the policy names an
+ * idempotency key header, in which case each write is given a unique key
+ * that is kept across its retries.
+ *
+ * This is an application interceptor, so each retry goes through the
+ * network interceptors and event listener again, and the caller only sees
+ * the final response or failure.  The retries of an asynchronous call wait
+ * on its dispatcher thread.
+ */
+class RetryInterceptor implements Interceptor {
+
+    private final VantiqSession defaultSession;
+
+    RetryInterceptor(VantiqSession defaultSession) {
+        this.defaultSession = defaultSession;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        VantiqSession session = request.tag(VantiqSession.class);
+        if (session == null) {
+            session = this.defaultSession;
+        }
+        RetryPolicy policy = session.getRetryPolicy();
+        if (policy == null || policy.getMaxRetries() == 0) {
+            return chain.proceed(request);
+        }
+
+        if (!isSafe(request.method())) {
+            String header = policy.getIdempotencyKeyHeader();
+            if (header == null) {
+                return chain.proceed(request);
+            }
+            if (request.header(header) == null) {
+                request = request.newBuilder().header(header, UUID.randomUUID().toString()).build();
+            }
+        }
+
+        CallMetrics metrics = request.tag(CallMetrics.class);
+        for (int retry = 0; ; retry++) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException ex) {
+                if (retry >= policy.getMaxRetries() || chain.call().isCanceled()) {
+                    throw ex;
+                }
+                pause(policy.getDelayMillis(retry, ThreadLocalRandom.current().nextDouble()));
+                recordRetry(metrics);
+                continue;
+            }
+
+            if (retry >= policy.getMaxRetries() || !isRetryable(response.code())) {
+                return response;
+            }
+            long delay = retryAfterMillis(response.header("Retry-After"));
+            if (delay < 0) {
+                delay = policy.getDelayMillis(retry, ThreadLocalRandom.current().nextDouble());
+            }
+            response.close();
+            pause(Math.min(delay, policy.getMaxDelayMillis()));
+            recordRetry(metrics);
+        }
+    }
+
+    private static boolean isSafe(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 429 || code == 502 || code == 503;
+    }
+
+    private static void recordRetry(CallMetrics metrics) {
+        if (metrics != null) {
+            metrics.retryCount.incrementAndGet();
+        }
+    }
+
+    private static void pause(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Returns the delay requested by a "Retry-After" header, given either in
+     * seconds or as an HTTP date, or -1 if there is none.
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException ex) {
+            // Not in seconds, so it must be a date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+}
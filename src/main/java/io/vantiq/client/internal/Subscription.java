@@ -0,0 +1,422 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.SubscriptionCallback;
+import io.vantiq.client.SubscriptionDispatchConfig;
+import io.vantiq.client.SubscriptionMessage;
+import io.vantiq.client.SubscriptionStats;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The state of a single subscription held by {@link VantiqSubscriber}.
+ * Instances are shared between the threads that subscribe and the WebSocket
+ * reader thread, so all mutable state is volatile or atomic.
+ *
+ * Besides the callback of the application, a subscription may have internal
+ * listeners, such as the record cache, which share its events without
+ * taking the path from the application.  Listeners are called directly on
+ * the WebSocket reader thread, before the callback.
+ */
+class Subscription {
+
+    enum State {
+        /** The subscribe request has not been acknowledged yet */
+        PENDING,
+
+        /** The server acknowledged the subscription */
+        SUBSCRIBED,
+
+        /** The server rejected the subscription */
+        FAILED
+    }
+
+    private final String path;
+    private final SubscriptionCallback callback;
+    private final Map<String,Object> parameters;
+    private final SubscriptionDispatcher dispatcher;
+    private final boolean internal;
+    private final List<SubscriptionCallback> listeners = new CopyOnWriteArrayList<SubscriptionCallback>();
+    private final AtomicBoolean requested = new AtomicBoolean(false);
+    private volatile State state = State.PENDING;
+    private volatile boolean resubscribing = false;
+
+    // Highest acknowledged sequence id of each partition of a reliable subscription
+    private static final Double NO_PARTITION = -1.0;
+    private final ConcurrentMap<Double,Double> ackedSequences = new ConcurrentHashMap<Double,Double>();
+    private volatile String subscriptionName;
+
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder callbackNanos = new LongAdder();
+    private final AtomicInteger reconnectCount = new AtomicInteger();
+    private volatile Double lastSequenceId;
+    private volatile Double lastPartitionId;
+    private volatile long requestedAt;
+    private volatile long subscribeLatencyNanos;
+
+    private final long createdAt = System.nanoTime();
+
+    /**
+     * Creates the subscription.  If a dispatch configuration is given, the
+     * callbacks run on its executor, otherwise on the calling thread.
+     */
+    Subscription(String path, SubscriptionCallback callback, Map<String,Object> parameters,
+                 SubscriptionDispatchConfig dispatchConfig) {
+        this.path = path;
+        this.callback = (callback != null ? new TimedCallback(callback) : null);
+        this.parameters = parameters;
+        if (callback != null && dispatchConfig != null) {
+            this.dispatcher = new SubscriptionDispatcher(dispatchConfig, this.callback);
+        } else {
+            this.dispatcher = null;
+        }
+        this.internal = false;
+    }
+
+    /**
+     * Creates a subscription that only exists for internal listeners, without
+     * parameters, which the application may take over by subscribing to the
+     * same path.
+     */
+    Subscription(String path, List<SubscriptionCallback> listeners) {
+        this.path = path;
+        this.callback = null;
+        this.parameters = null;
+        this.dispatcher = null;
+        this.internal = true;
+        this.listeners.addAll(listeners);
+    }
+
+    /**
+     * Returns true if the subscription only exists for internal listeners
+     */
+    boolean isInternal() {
+        return this.internal;
+    }
+
+    List<SubscriptionCallback> getListeners() {
+        return this.listeners;
+    }
+
+    void addListener(SubscriptionCallback listener) {
+        this.listeners.add(listener);
+    }
+
+    boolean removeListener(SubscriptionCallback listener) {
+        return this.listeners.remove(listener);
+    }
+
+    String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the callback, which may be null if the caller is not interested
+     * in the events.
+     */
+    SubscriptionCallback getCallback() {
+        return this.callback;
+    }
+
+    Map<String,Object> getParameters() {
+        return this.parameters;
+    }
+
+    State getState() {
+        return this.state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Marks the subscribe request as sent.  Returns true only for the first
+     * caller, so the request is sent once even if subscribing races with the
+     * WebSocket authentication.
+     */
+    boolean markRequested() {
+        if (!this.requested.compareAndSet(false, true)) {
+            return false;
+        }
+        this.requestedAt = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Undoes {@link #markRequested()} when the request could not be sent, so
+     * that it is sent once the WebSocket is authenticated.
+     */
+    void clearRequested() {
+        this.requested.set(false);
+    }
+
+    /**
+     * Records the acknowledgement of the subscribe request
+     */
+    void markSubscribed() {
+        this.subscribeLatencyNanos = System.nanoTime() - this.requestedAt;
+        this.state = State.SUBSCRIBED;
+        if (this.resubscribing) {
+            this.resubscribing = false;
+            this.reconnectCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prepares the subscription to be requested again on a new WebSocket.
+     * The reconnect is counted once the server acknowledges it.
+     */
+    void resetForReconnect() {
+        this.state = State.PENDING;
+        this.resubscribing = true;
+        this.requested.set(false);
+    }
+
+    /**
+     * Returns the parameters of the subscribe request.  When a persistent
+     * subscription is requested again after a reconnect, its name is added so
+     * that the server resumes it rather than creating a new one.
+     */
+    Map<String,Object> getRequestParameters() {
+        String name = this.subscriptionName;
+        if (!this.resubscribing || name == null || this.parameters == null
+                || !Boolean.TRUE.equals(this.parameters.get("persistent"))
+                || this.parameters.containsKey("subscriptionName")) {
+            return this.parameters;
+        }
+        Map<String,Object> parameters = new HashMap<String,Object>(this.parameters);
+        parameters.put("subscriptionName", name);
+        return parameters;
+    }
+
+    /**
+     * Records the name the server gave to a persistent subscription
+     */
+    void setSubscriptionName(String subscriptionName) {
+        this.subscriptionName = subscriptionName;
+    }
+
+    /**
+     * Returns the name of a persistent subscription, known once the server
+     * reported it or an event was acknowledged
+     */
+    String getSubscriptionName() {
+        return this.subscriptionName;
+    }
+
+    /**
+     * Records the acknowledgement of a reliable event, so that the event is
+     * not delivered again if the server re-sends it after a reconnect.
+     */
+    void recordAck(String subscriptionId, Double sequenceId, Double partitionId) {
+        if (subscriptionId != null) {
+            this.subscriptionName = subscriptionId;
+        }
+        if (sequenceId != null) {
+            this.ackedSequences.merge(partitionId != null ? partitionId : NO_PARTITION, sequenceId, Math::max);
+        }
+    }
+
+    /**
+     * Returns true if the reliable event with the given sequence id has
+     * already been acknowledged
+     */
+    boolean isAcknowledged(Double sequenceId, Double partitionId) {
+        if (sequenceId == null) {
+            return false;
+        }
+        Double acked = this.ackedSequences.get(partitionId != null ? partitionId : NO_PARTITION);
+        return acked != null && sequenceId <= acked;
+    }
+
+    /**
+     * Records an event received for this subscription.
+     *
+     * @param bytes The size of the WebSocket frame
+     * @param decodeNanos The time spent decoding the frame
+     * @param sequenceId The sequence id of a reliable event, or null
+     * @param partitionId The partition id of a reliable event, or null
+     */
+    void recordMessage(long bytes, long decodeNanos, Double sequenceId, Double partitionId) {
+        this.messageCount.increment();
+        this.byteCount.add(bytes);
+        this.decodeNanos.add(decodeNanos);
+        if (sequenceId != null) {
+            this.lastSequenceId = sequenceId;
+            this.lastPartitionId = partitionId;
+        }
+    }
+
+    void deliverConnect() {
+        for (SubscriptionCallback listener : this.listeners) {
+            try {
+                listener.onConnect();
+            } catch (RuntimeException ex) {
+                // A failing listener does not affect the application
+            }
+        }
+        if (this.dispatcher != null) {
+            this.dispatcher.onConnect();
+        } else if (this.callback != null) {
+            this.callback.onConnect();
+        }
+    }
+
+    void deliverMessage(SubscriptionMessage msg) {
+        for (SubscriptionCallback listener : this.listeners) {
+            try {
+                listener.onMessage(msg);
+            } catch (RuntimeException ex) {
+                // A failing listener does not affect the application
+            }
+        }
+        if (this.dispatcher != null) {
+            this.dispatcher.onMessage(msg);
+        } else if (this.callback != null) {
+            this.callback.onMessage(msg);
+        }
+    }
+
+    void deliverError(String message) {
+        for (SubscriptionCallback listener : this.listeners) {
+            try {
+                listener.onError(message);
+            } catch (RuntimeException ex) {
+                // A failing listener does not affect the application
+            }
+        }
+        if (this.dispatcher != null) {
+            this.dispatcher.onError(message);
+        } else if (this.callback != null) {
+            this.callback.onError(message);
+        }
+    }
+
+    /**
+     * Reports the loss of the WebSocket to the callback.  This is the last
+     * notification of the subscription, so it is delivered directly rather
+     * than queued behind the pending events.
+     */
+    void deliverFailure(Throwable t) {
+        for (SubscriptionCallback listener : this.listeners) {
+            try {
+                listener.onFailure(t);
+            } catch (RuntimeException ex) {
+                // A failing listener does not affect the application
+            }
+        }
+        if (this.callback != null) {
+            this.callback.onFailure(t);
+        }
+    }
+
+    /**
+     * Stops delivering events to the callback
+     */
+    void close() {
+        if (this.dispatcher != null) {
+            this.dispatcher.close();
+        }
+    }
+
+    /**
+     * Returns the stats of the subscription, with the rates measured since the
+     * previous snapshot taken with the same window.
+     */
+    SubscriptionStats getStats(StatsWindow window) {
+        long now = System.nanoTime();
+        long messages = this.messageCount.sum();
+        long bytes = this.byteCount.sum();
+        long[] previous = window.advance(this, now, messages, bytes);
+        double seconds = (now - previous[0]) / 1e9;
+        double messageRate = seconds > 0 ? (messages - previous[1]) / seconds : 0;
+        double byteRate = seconds > 0 ? (bytes - previous[2]) / seconds : 0;
+
+        int queueDepth = (this.dispatcher != null ? this.dispatcher.getQueueDepth() : 0);
+        long droppedCount = (this.dispatcher != null ? this.dispatcher.getDroppedCount() : 0);
+        return new SubscriptionStats(this.path, queueDepth, droppedCount, messages, bytes, messageRate, byteRate,
+                                     this.decodeNanos.sum(), this.callbackNanos.sum(), this.lastSequenceId,
+                                     this.lastPartitionId, this.subscribeLatencyNanos, this.reconnectCount.get());
+    }
+
+    /**
+     * The totals of each subscription at the previous snapshot taken by one
+     * reader of the stats, such as the application or a periodic listener.
+     * Each reader has its own window, so that the rates one of them sees do
+     * not depend on how often the others read the stats.
+     */
+    static class StatsWindow {
+        // Time, message count and byte count of each subscription, guarded by this
+        private final Map<Subscription, long[]> previous = new IdentityHashMap<Subscription, long[]>();
+
+        /**
+         * Records the totals of the subscription and returns the previous
+         * ones, which are those at its creation for its first snapshot.
+         */
+        synchronized long[] advance(Subscription subscription, long at, long messages, long bytes) {
+            long[] previous = this.previous.put(subscription, new long[] { at, messages, bytes });
+            return (previous != null ? previous : new long[] { subscription.createdAt, 0, 0 });
+        }
+
+        /**
+         * Forgets the subscriptions that are no longer current
+         */
+        synchronized void retain(Collection<Subscription> subscriptions) {
+            if (this.previous.size() > subscriptions.size()) {
+                Set<Subscription> current = Collections.newSetFromMap(new IdentityHashMap<Subscription, Boolean>());
+                current.addAll(subscriptions);
+                this.previous.keySet().retainAll(current);
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent handling each event to the callback time
+     */
+    private class TimedCallback implements SubscriptionCallback {
+        private final SubscriptionCallback delegate;
+
+        TimedCallback(SubscriptionCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onConnect() {
+            this.delegate.onConnect();
+        }
+
+        @Override
+        public void onMessage(SubscriptionMessage message) {
+            long start = System.nanoTime();
+            try {
+                this.delegate.onMessage(message);
+            } finally {
+                callbackNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void onError(String error) {
+            this.delegate.onError(error);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            this.delegate.onFailure(t);
+        }
+    }
+}
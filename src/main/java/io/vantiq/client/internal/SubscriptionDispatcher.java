@@ -0,0 +1,156 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.SubscriptionCallback;
+import io.vantiq.client.SubscriptionDispatchConfig;
+import io.vantiq.client.SubscriptionDispatchConfig.OverflowPolicy;
+import io.vantiq.client.SubscriptionMessage;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the events of a single subscription to its callback on an
+ * executor instead of the WebSocket reader thread.  Events are held in a
+ * bounded queue and drained by at most one task at a time, so the callback
+ * sees them one at a time and in order.
+ */
+class SubscriptionDispatcher implements Runnable {
+
+    /**
+     * Maximum number of events delivered by one task before it yields the
+     * executor thread to other subscriptions
+     */
+    private static final int DRAIN_BATCH_SIZE = 64;
+
+    private final SubscriptionDispatchConfig config;
+    private final SubscriptionCallback callback;
+    private final BlockingDeque<Runnable> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    SubscriptionDispatcher(SubscriptionDispatchConfig config, SubscriptionCallback callback) {
+        this.config = config;
+        this.callback = callback;
+        this.queue = new LinkedBlockingDeque<Runnable>(config.getQueueCapacity());
+    }
+
+    void onConnect() {
+        enqueueControl(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnect();
+            }
+        });
+    }
+
+    void onError(final String message) {
+        enqueueControl(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(message);
+            }
+        });
+    }
+
+    void onMessage(final SubscriptionMessage message) {
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                callback.onMessage(message);
+            }
+        };
+
+        OverflowPolicy policy = this.config.getOverflowPolicy();
+        if (policy == OverflowPolicy.BLOCK) {
+            try {
+                this.queue.putLast(delivery);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } else if (policy == OverflowPolicy.DROP_NEWEST) {
+            if (!this.queue.offerLast(delivery)) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } else {
+            while (!this.queue.offerLast(delivery)) {
+                if (this.queue.pollFirst() != null) {
+                    this.dropped.incrementAndGet();
+                }
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Connection and error notifications are never dropped.  They only occur
+     * while the subscription is being established, when the queue is empty.
+     */
+    private void enqueueControl(Runnable delivery) {
+        try {
+            this.queue.putLast(delivery);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (this.closed || !this.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.config.getExecutor().execute(this);
+        } catch (RejectedExecutionException ex) {
+            this.scheduled.set(false);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < DRAIN_BATCH_SIZE && !this.closed; i++) {
+                Runnable delivery = this.queue.pollFirst();
+                if (delivery == null) {
+                    break;
+                }
+                try {
+                    delivery.run();
+                } catch (RuntimeException ex) {
+                    this.callback.onFailure(ex);
+                }
+            }
+        } finally {
+            this.scheduled.set(false);
+        }
+
+        // Reschedule if events arrived after the last poll, or the batch limit was reached
+        if (!this.queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Discards the queued events.  No callbacks are invoked afterwards.
+     */
+    void close() {
+        this.closed = true;
+        this.queue.clear();
+    }
+
+    int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    long getDroppedCount() {
+        return this.dropped.get();
+    }
+}
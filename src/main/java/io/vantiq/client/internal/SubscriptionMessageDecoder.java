@@ -0,0 +1,209 @@
+package io.vantiq.client.internal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import io.vantiq.client.GsonCodec;
+import io.vantiq.client.JsonCodec;
+import io.vantiq.client.SubscriptionMessage;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the WebSocket frames sent by the Vantiq server into
+ * {@link SubscriptionMessage} instances in a single pass of a
+ * {@link JsonReader} over the bytes of the frame, which are decoded in place
+ * rather than copied into a String.  The status and headers needed to route
+ * the message are read directly.  The body is read as a JSON tree, whose
+ * numbers are only parsed when used, and is only converted to the Object
+ * returned by {@link SubscriptionMessage#getBody()} when it is first
+ * requested.
+ *
+ * The whole frame, including the nested values of the body, is checked as
+ * it is read, so a malformed frame is reported by {@link #decode}.
+ */
+final class SubscriptionMessageDecoder {
+
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT_ADAPTER =
+            GsonCodec.getDefault().getAdapter(JsonElement.class);
+
+    static final String SEQUENCE_ID = "sequenceId";
+    static final String PARTITION_ID = "partitionId";
+    static final String SUBSCRIPTION_NAME = "subscriptionName";
+    static final String VALUE = "value";
+
+    private SubscriptionMessageDecoder() {}
+
+    /**
+     * Decodes the given frame
+     *
+     * @param bytes The UTF-8 encoded JSON frame
+     * @param codec The codec that converts the body of the message
+     * @return The message or null if the frame is empty
+     * @throws IOException If the frame is not valid JSON
+     */
+    static SubscriptionMessage decode(ByteString bytes, JsonCodec codec) throws IOException {
+        // JsonReader fails on an empty document, which Gson.fromJson decoded as null
+        if (isBlank(bytes)) {
+            return null;
+        }
+
+        // Lenient, as when the frames were decoded with Gson.fromJson
+        JsonReader reader = new JsonReader(new ByteStringReader(bytes, 0, bytes.size()));
+        reader.setLenient(true);
+        try {
+            int status = 0;
+            String contentType = null;
+            Map<String,String> headers = null;
+            JsonElement body = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("status".equals(name)) {
+                    status = reader.nextInt();
+                } else if ("contentType".equals(name)) {
+                    contentType = reader.nextString();
+                } else if ("headers".equals(name)) {
+                    headers = readHeaders(reader);
+                } else if ("body".equals(name)) {
+                    body = JSON_ELEMENT_ADAPTER.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new MalformedJsonException("Unexpected content after the message at " + reader.getPath());
+            }
+            return new DecodedSubscriptionMessage(status, contentType, headers, body, codec);
+        } catch (IllegalStateException | NumberFormatException | JsonParseException ex) {
+            // Valid JSON of the wrong shape, e.g. an array or a non numeric status
+            throw new MalformedJsonException(ex.getMessage(), ex);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isBlank(ByteString bytes) {
+        for (int i = 0; i < bytes.size(); i++) {
+            byte b = bytes.getByte(i);
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String,String> readHeaders(JsonReader reader) throws IOException {
+        Map<String,String> headers = new HashMap<String,String>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                headers.put(name, reader.nextString());
+            } else if (token == JsonToken.BOOLEAN) {
+                headers.put(name, String.valueOf(reader.nextBoolean()));
+            } else {
+                reader.skipValue();
+                headers.put(name, null);
+            }
+        }
+        reader.endObject();
+        return headers;
+    }
+
+    /**
+     * Message whose body is converted from the JSON tree on first access by
+     * the codec of the session as an Object (i.e. Map, List, String, Double
+     * and Boolean with {@link io.vantiq.client.GsonCodec}).
+     */
+    static class DecodedSubscriptionMessage extends SubscriptionMessage {
+
+        private final JsonElement bodyJson;
+        private final JsonCodec codec;
+        private volatile Object body;
+        private volatile boolean bodyDecoded = false;
+
+        DecodedSubscriptionMessage(int status, String contentType, Map<String,String> headers,
+                                   JsonElement bodyJson, JsonCodec codec) {
+            super(status, contentType, headers);
+            this.bodyJson = bodyJson;
+            this.codec = codec;
+        }
+
+        @Override
+        public Object getBody() {
+            if (!this.bodyDecoded) {
+                if (this.bodyJson != null) {
+                    this.body = this.codec.decode(this.bodyJson, Object.class);
+                }
+                this.bodyDecoded = true;
+            }
+            return this.body;
+        }
+
+        /**
+         * Converts the "value" property of the body, or the whole body if it
+         * has no such property, into the given type without converting the
+         * rest of the body.
+         *
+         * @return The value or null if there is no body
+         * @throws JsonParseException If the value cannot be converted
+         */
+        <T> T decodeValue(JsonCodec codec, Type type) {
+            if (this.bodyJson == null) {
+                return null;
+            }
+            JsonElement value = property(VALUE);
+            return codec.decode(value != null ? value : this.bodyJson, type);
+        }
+
+        /**
+         * Returns the top level number property of the body with the given
+         * name, or null if the body has no such number
+         */
+        Double getBodyNumber(String name) {
+            JsonElement property = property(name);
+            if (property == null || !property.isJsonPrimitive() || !((JsonPrimitive) property).isNumber()) {
+                return null;
+            }
+            return property.getAsDouble();
+        }
+
+        /**
+         * Returns the top level string property of the body with the given
+         * name, or null if the body has no such string
+         */
+        String getBodyString(String name) {
+            JsonElement property = property(name);
+            if (property == null || !property.isJsonPrimitive() || !((JsonPrimitive) property).isString()) {
+                return null;
+            }
+            return property.getAsString();
+        }
+
+        /**
+         * Returns the top level property of the body with the given name, or
+         * null if the body is not an object or has no such property
+         */
+        private JsonElement property(String name) {
+            if (this.bodyJson == null || !this.bodyJson.isJsonObject()) {
+                return null;
+            }
+            return ((JsonObject) this.bodyJson).get(name);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.vantiq.client.internal;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the timeouts of the session that issued a request to that call
+ * only.  This lets timeouts change, and differ between sessions sharing a
+ * client, without building a new client.  Requests are tagged with their
+ * session; untagged requests (e.g. the WebSocket upgrade) use the default
+ * session.
+ */
+class TimeoutInterceptor implements Interceptor {
+
+    private final VantiqSession defaultSession;
+
+    TimeoutInterceptor(VantiqSession defaultSession) {
+        this.defaultSession = defaultSession;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        VantiqSession session = chain.request().tag(VantiqSession.class);
+        if (session == null) {
+            session = this.defaultSession;
+        }
+        return chain
+            .withConnectTimeout(toMillis(session.getConnectTimeout()), TimeUnit.MILLISECONDS)
+            .withReadTimeout(toMillis(session.getReadTimeout()), TimeUnit.MILLISECONDS)
+            .withWriteTimeout(toMillis(session.getWriteTimeout()), TimeUnit.MILLISECONDS)
+            .proceed(chain.request());
+    }
+
+    private static int toMillis(long timeout) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, timeout));
+    }
+}
@@ -0,0 +1,254 @@
+package io.vantiq.client.internal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the access token of a session fresh when token refresh is enabled.
+ *
+ * The token is refreshed shortly before it expires, when its expiration is
+ * known from the "exp" claim of the access token (or, failing that, of the
+ * id token).  Concurrent refreshes are coalesced into a single call to
+ * {@link VantiqSession#refresh}.  The shared scheduler only triggers the
+ * scheduled refresh, which runs on a separate pool so that it neither holds
+ * up the timers of other sessions nor waits behind the requests it unblocks
+ * in the dispatcher.  As an application interceptor, it holds
+ * back the requests issued while a refresh is in progress and sends them
+ * with the new token, and replays once a request rejected with 401 after
+ * refreshing the token it was sent with.
+ *
+ * Only requests with a bearer token are affected, so the authenticate and
+ * refresh requests themselves pass through unchanged.
+ */
+class TokenManager implements Interceptor {
+
+    static final long DEFAULT_REFRESH_AHEAD_MILLIS = 60000;
+
+    private static final String BEARER = "Bearer ";
+
+    private final VantiqSession session;
+
+    private volatile boolean enabled = false;
+    private volatile long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+
+    // Guarded by this
+    private CompletableFuture<String> refreshing;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    TokenManager(VantiqSession session) {
+        this.session = session;
+    }
+
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        tokenChanged();
+    }
+
+    long getRefreshAheadMillis() {
+        return this.refreshAheadMillis;
+    }
+
+    void setRefreshAheadMillis(long refreshAheadMillis) {
+        if (refreshAheadMillis < 0) {
+            throw new IllegalArgumentException("refreshAheadMillis must not be negative");
+        }
+        this.refreshAheadMillis = refreshAheadMillis;
+        tokenChanged();
+    }
+
+    /**
+     * Schedules the refresh of the current token, replacing the previous
+     * schedule.  Called whenever the token of the session changes.
+     */
+    synchronized void tokenChanged() {
+        if (this.scheduledRefresh != null) {
+            this.scheduledRefresh.cancel(false);
+            this.scheduledRefresh = null;
+        }
+        final String token = this.session.getAccessToken();
+        if (!this.enabled || token == null) {
+            return;
+        }
+        long expiresAt = expirationMillis(token);
+        if (expiresAt <= 0) {
+            expiresAt = expirationMillis(this.session.getIdToken());
+        }
+        if (expiresAt <= 0) {
+            return;
+        }
+        long delay = Math.max(0, expiresAt - this.refreshAheadMillis - System.currentTimeMillis());
+        this.scheduledRefresh = VantiqSession.SchedulerHolder.EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                RefreshExecutorHolder.EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh(token);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Holder for the lazily created pool that runs the scheduled refreshes.
+     * Its threads only live while refreshes are running.
+     */
+    private static class RefreshExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "vantiq-token-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the current token, waiting for a refresh in progress to finish
+     */
+    String awaitToken() throws IOException {
+        CompletableFuture<String> refreshing;
+        synchronized (this) {
+            refreshing = this.refreshing;
+        }
+        if (refreshing != null) {
+            join(refreshing);
+        }
+        return this.session.getAccessToken();
+    }
+
+    /**
+     * Refreshes the given token unless it was already replaced.  Concurrent
+     * callers share a single refresh.
+     *
+     * @return The current token after the refresh
+     */
+    String refresh(String staleToken) {
+        CompletableFuture<String> refreshing;
+        boolean refreshHere = false;
+        synchronized (this) {
+            if (this.refreshing == null) {
+                String current = this.session.getAccessToken();
+                if (staleToken == null || !staleToken.equals(current)) {
+                    return current;
+                }
+                this.refreshing = new CompletableFuture<String>();
+                refreshHere = true;
+            }
+            refreshing = this.refreshing;
+        }
+
+        if (!refreshHere) {
+            try {
+                join(refreshing);
+            } catch (IOException ex) {
+                // Interrupted, so proceed with the current token
+            }
+            return this.session.getAccessToken();
+        }
+
+        try {
+            // On success, the session takes the new token.  Otherwise, it keeps
+            // the stale one and the callers end up with their original error.
+            this.session.refresh(staleToken, null);
+            refreshing.complete(this.session.getAccessToken());
+        } catch (RuntimeException ex) {
+            refreshing.completeExceptionally(ex);
+        } finally {
+            synchronized (this) {
+                this.refreshing = null;
+            }
+        }
+        return this.session.getAccessToken();
+    }
+
+    private static String join(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the access token refresh", ex);
+        } catch (ExecutionException ex) {
+            // The refresh failed, so the request proceeds with the current token
+            return null;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String authorization = request.header("Authorization");
+        if (!this.enabled || authorization == null || !authorization.startsWith(BEARER)) {
+            return chain.proceed(request);
+        }
+
+        String token = awaitToken();
+        if (token != null && !authorization.equals(BEARER + token)) {
+            request = withToken(request, token);
+        }
+        Response response = chain.proceed(request);
+        if (response.code() != 401) {
+            return response;
+        }
+
+        String used = request.header("Authorization").substring(BEARER.length());
+        String refreshed = refresh(used);
+        if (refreshed == null || refreshed.equals(used)) {
+            return response;
+        }
+        response.close();
+        return chain.proceed(withToken(request, refreshed));
+    }
+
+    private static Request withToken(Request request, String token) {
+        return request.newBuilder().header("Authorization", BEARER + token).build();
+    }
+
+    /**
+     * Returns the expiration time of a JWT from its "exp" claim, or 0 if the
+     * token is not a JWT or has no expiration.  The claims are parsed by the
+     * codec of the session.
+     */
+    long expirationMillis(String token) {
+        if (token == null) {
+            return 0;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return 0;
+        }
+        try {
+            ByteString payload = ByteString.decodeBase64(parts[1]);
+            if (payload == null) {
+                return 0;
+            }
+            JsonElement claims = this.session.getJsonCodec().decode(new StringReader(payload.utf8()), JsonElement.class);
+            if (claims == null || !claims.isJsonObject()) {
+                return 0;
+            }
+            JsonElement exp = ((JsonObject) claims).get("exp");
+            if (exp == null || !exp.isJsonPrimitive() || !exp.getAsJsonPrimitive().isNumber()) {
+                return 0;
+            }
+            return (long) (exp.getAsDouble() * 1000);
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+    }
+}
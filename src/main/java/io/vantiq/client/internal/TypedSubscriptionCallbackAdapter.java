@@ -0,0 +1,75 @@
+package io.vantiq.client.internal;
+
+import io.vantiq.client.JsonCodec;
+import io.vantiq.client.SubscriptionCallback;
+import io.vantiq.client.SubscriptionMessage;
+import io.vantiq.client.TypedSubscriptionCallback;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * Adapts a {@link TypedSubscriptionCallback} to a {@link SubscriptionCallback}.
+ * The event value is bound by the session's {@link JsonCodec} directly from the
+ * JSON tree read by {@link SubscriptionMessageDecoder}, without first
+ * converting the body to a Map.
+ *
+ * @param <T> The type the event value is bound to
+ */
+public class TypedSubscriptionCallbackAdapter<T> implements SubscriptionCallback {
+
+    private final Class<T> type;
+    private final JsonCodec codec;
+    private final TypedSubscriptionCallback<T> callback;
+
+    public TypedSubscriptionCallbackAdapter(Class<T> type, TypedSubscriptionCallback<T> callback, JsonCodec codec) {
+        this.type = type;
+        this.codec = codec;
+        this.callback = callback;
+    }
+
+    @Override
+    public void onConnect() {
+        this.callback.onConnect();
+    }
+
+    @Override
+    public void onMessage(SubscriptionMessage message) {
+        T value;
+        try {
+            if (message instanceof SubscriptionMessageDecoder.DecodedSubscriptionMessage) {
+                value = ((SubscriptionMessageDecoder.DecodedSubscriptionMessage) message)
+                    .decodeValue(this.codec, this.type);
+            } else {
+                value = this.codec.decode(new StringReader(this.codec.encode(valueOf(message))), this.type);
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.callback.onFailure(ex);
+            return;
+        }
+        this.callback.onMessage(value, message);
+    }
+
+    @Override
+    public void onError(String error) {
+        this.callback.onError(error);
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+        this.callback.onFailure(t);
+    }
+
+    /**
+     * Returns the "value" property of the event body or the whole body if it
+     * has no such property.
+     */
+    private static Object valueOf(SubscriptionMessage message) {
+        Object body = message.getBody();
+        if (body instanceof Map && ((Map<?,?>) body).containsKey("value")) {
+            return ((Map<?,?>) body).get("value");
+        }
+        return body;
+    }
+}
@@ -3,13 +3,28 @@ package io.vantiq.client.internal;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import io.vantiq.client.CompressionStats;
+import io.vantiq.client.GsonCodec;
+import io.vantiq.client.HedgePolicy;
+import io.vantiq.client.HttpClientConfig;
+import io.vantiq.client.HttpClientFactory;
+import io.vantiq.client.JsonCodec;
+import io.vantiq.client.ReconnectPolicy;
+import io.vantiq.client.RequestListener;
+import io.vantiq.client.RequestMetrics;
 import io.vantiq.client.ResponseHandler;
+import io.vantiq.client.RetryPolicy;
 import io.vantiq.client.SubscriptionCallback;
+import io.vantiq.client.SubscriptionDispatchConfig;
+import io.vantiq.client.SubscriptionStats;
+import io.vantiq.client.SubscriptionStatsListener;
 import io.vantiq.client.VantiqError;
 import io.vantiq.client.VantiqResponse;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.net.Proxy;
 import java.net.ProxySelector;
@@ -19,7 +34,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Authenticator;
 import okhttp3.Call;
@@ -44,12 +64,26 @@ public class VantiqSession {
 
     public final static MediaType APPLICATION_JSON = MediaType.parse("application/json");
     public final static MediaType PLAIN_TEXT = MediaType.parse("plain/text");
-    public final static Gson                  gson = new Gson();
+
+    /**
+     * The Gson instance of the default codec.
+     *
+     * @deprecated JSON is encoded and decoded by the {@link JsonCodec} of the
+     * session, returned by {@link #getJsonCodec()}
+     */
+    @Deprecated
+    public final static Gson                  gson = GsonCodec.getDefault().getGson();
 
     public final static int DEFAULT_API_VERSION = 1;
 
     private OkHttpClient client = null;
 
+    /**
+     * The session holding the server and authentication state.  This is the
+     * session itself, except for sessions created by {@link #withTimeouts}.
+     */
+    private final VantiqSession owner;
+
     private String   server;
     private int      apiVersion;
     private Authenticator proxyAuthenticator = null;
@@ -60,11 +94,26 @@ public class VantiqSession {
     private String   username;
     private String   targetNamespace;
 
-    private long readTimeout = 0;
-    private long writeTimeout = 0;
-    private long connectTimeout = 0;
+    private HttpClientConfig httpClientConfig;
+    private CompressionInterceptor compression;
 
-    private VantiqSubscriber subscriber;
+    private volatile long readTimeout = 0;
+    private volatile long writeTimeout = 0;
+    private volatile long connectTimeout = 0;
+
+    private volatile VantiqSubscriber subscriber;
+    private volatile SubscriptionDispatchConfig subscriptionDispatchConfig;
+    private volatile ReconnectPolicy reconnectPolicy;
+    private volatile RetryPolicy retryPolicy;
+    private volatile Hedger hedger;
+    private volatile RequestCoalescer coalescer;
+    private volatile JsonCodec jsonCodec = GsonCodec.getDefault();
+    private volatile RequestListener requestListener;
+    private TokenManager tokenManager;
+    private ScheduledFuture<?> statsReporter;
+
+    // The totals of the previous call to getSubscriptionStats, from which its rates are computed
+    private final Subscription.StatsWindow statsWindow = new Subscription.StatsWindow();
 
     public VantiqSession(String server) {
         this(server, DEFAULT_API_VERSION);
@@ -78,52 +127,125 @@ public class VantiqSession {
         this(server, apiVersion, null);
     }
     public VantiqSession(String server, int apiVersion, Authenticator proxyAuthenticator) {
+        this(server, apiVersion, proxyAuthenticator, HttpClientConfig.defaults(), HttpClientFactory.newDefaultClient());
+    }
+
+    /**
+     * Creates a session with its own root client built from the given
+     * configuration.  A null configuration gives the same session as
+     * {@link #VantiqSession(String, int, Authenticator)}.
+     */
+    public VantiqSession(String server, int apiVersion, Authenticator proxyAuthenticator,
+                         HttpClientConfig httpClientConfig) {
+        this(server, apiVersion, proxyAuthenticator,
+             (httpClientConfig != null ? httpClientConfig : HttpClientConfig.defaults()),
+             (httpClientConfig != null ? HttpClientFactory.newClient(httpClientConfig)
+                                       : HttpClientFactory.newDefaultClient()));
+    }
+
+    /**
+     * Creates a session whose client is derived from the given root client,
+     * sharing its connection pool and dispatcher.
+     */
+    public static VantiqSession withClient(String server, int apiVersion, Authenticator proxyAuthenticator,
+                                           OkHttpClient rootClient) {
+        if (rootClient == null) {
+            throw new IllegalArgumentException("rootClient must not be null");
+        }
+        return new VantiqSession(server, apiVersion, proxyAuthenticator, null, rootClient);
+    }
+
+    private VantiqSession(String server, int apiVersion, Authenticator proxyAuthenticator,
+                          HttpClientConfig httpClientConfig, OkHttpClient rootClient) {
         super();
-        this.server     = server;
-        this.apiVersion = apiVersion;
+        this.owner = this;
+        this.owner.server     = server;
+        this.owner.apiVersion = apiVersion;
         this.proxyAuthenticator = proxyAuthenticator;
-        this.targetNamespace = null;
-        createClient();
+        this.httpClientConfig = httpClientConfig;
+        this.owner.targetNamespace = null;
+        this.owner.tokenManager = new TokenManager(this);
+        createClient(rootClient);
     }
 
-    private void createClient() {
-        
-        //
-        //  Unless we specifically ask for HTTP 1.1 we are at risk for this error:
-        //
-        //  ProtocolException: Expected ':status' header not present
-        //
-        //  See https://stackoverflow.com/questions/46807237/protocolexception-expected-status-header-not-present
-        //  See https://stackoverflow.com/questions/49643383/http-2-protocol-not-working-with-okhttp
-        //
-        List<Protocol> protocols = new ArrayList<>();
-        protocols.add(Protocol.HTTP_1_1);
-        
+    /**
+     * Creates a session that shares the client, server and authentication state
+     * of the given session, but uses its own timeouts.
+     */
+    private VantiqSession(VantiqSession parent, long readTimeout, long writeTimeout, long connectTimeout) {
+        super();
+        this.owner = parent.owner;
+        this.client = parent.client;
+        this.proxyAuthenticator = parent.proxyAuthenticator;
+        this.httpClientConfig = parent.httpClientConfig;
+        this.compression = parent.compression;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Derives the client of this session from the root client.  The derived
+     * client shares the connection pool and dispatcher of the root.
+     */
+    private void createClient(OkHttpClient rootClient) {
         boolean needProxyAuth = setupProxyAuthentication();
-    
-        OkHttpClient.Builder builder = new OkHttpClient.Builder()
-            .readTimeout(this.readTimeout, TimeUnit.MILLISECONDS)
-            .writeTimeout(this.writeTimeout, TimeUnit.MILLISECONDS)
-            .connectTimeout(this.connectTimeout, TimeUnit.MILLISECONDS)
-            .protocols(protocols);
+
+        // The network level settings, shared by the HTTP 1.1 fallback client
+        OkHttpClient.Builder baseBuilder = rootClient.newBuilder()
+            .eventListenerFactory(new MetricsEventListener.Factory(rootClient.eventListenerFactory()));
         
         // If a proxy authenticator has been provided, set up our client to use it.
         if (needProxyAuth) {
-            builder.proxySelector(ProxySelector.getDefault());
+            baseBuilder.proxySelector(ProxySelector.getDefault());
             // if a proxy authenticator has been provided, use it.  Otherwise, assume things will work out.
             if (this.proxyAuthenticator != null) {
-                builder.proxyAuthenticator(this.proxyAuthenticator);
+                baseBuilder.proxyAuthenticator(this.proxyAuthenticator);
             }
         }
+        // Compression is always installed, so that it can be enabled whatever the root client
+        HttpClientConfig config = (this.httpClientConfig != null ? this.httpClientConfig : HttpClientConfig.defaults());
+        this.compression = new CompressionInterceptor(config.isCompressionEnabled(), config.getCompressionThreshold());
+        baseBuilder.addNetworkInterceptor(this.compression.networkInterceptor());
+        OkHttpClient base = baseBuilder.build();
+
+        OkHttpClient.Builder builder = base.newBuilder()
+            .addInterceptor(new TimeoutInterceptor(this))
+            .addInterceptor(new RetryInterceptor(this))
+            .addInterceptor(this.owner.tokenManager)
+            .addInterceptor(this.compression);
+
+        if (base.protocols().contains(Protocol.HTTP_2)) {
+            // Fall back to an HTTP 1.1 client sharing the same pool if the server mishandles HTTP/2.
+            // The fallback is the innermost interceptor and its client is derived from the base
+            // client, so the other interceptors only run once per request.
+            List<Protocol> protocols = new ArrayList<>();
+            protocols.add(Protocol.HTTP_1_1);
+            OkHttpClient http1Client = base.newBuilder()
+                .protocols(protocols)
+                .addInterceptor(new TimeoutInterceptor(this))
+                .build();
+            Http2FallbackInterceptor fallback = new Http2FallbackInterceptor(http1Client);
+            builder.addInterceptor(fallback)
+                   .eventListenerFactory(new Http2FallbackInterceptor.CancelListenerFactory(
+                       base.eventListenerFactory(), fallback));
+        }
         this.client = builder.build();
     }
+
+    /**
+     * Returns the OkHttp client used by this session
+     */
+    OkHttpClient getClient() {
+        return this.client;
+    }
     
     private boolean setupProxyAuthentication() {
         if (proxyAuthenticator != null) {
             return true;
         } else {
             try {
-                URI serverUri = new URI(this.server);
+                URI serverUri = new URI(this.owner.server);
                 // ask Java if we're using a proxy.
                 List<Proxy> proxies = ProxySelector.getDefault().select(serverUri);
                 if (proxies.size() == 0 || (proxies.size() == 1  && proxies.get(0).type() == Proxy.NO_PROXY.type())) {
@@ -158,7 +280,7 @@ public class VantiqSession {
      * @return true if authenticated successfully
      */
     public boolean isAuthenticated() {
-        return this.authenticated;
+        return this.owner.authenticated;
     }
 
     /**
@@ -171,8 +293,9 @@ public class VantiqSession {
      * @param accessToken The access token to set
      */
     public void setAccessToken(String accessToken) {
-        this.accessToken = accessToken;
-        this.authenticated = (this.accessToken != null? true: false);
+        this.owner.accessToken = accessToken;
+        this.owner.authenticated = (this.owner.accessToken != null? true: false);
+        this.owner.tokenManager.tokenChanged();
     }
 
     /**
@@ -181,7 +304,7 @@ public class VantiqSession {
      * @param targetNamespace The target namespace to set
      */
     public void setTargetNamespace(String targetNamespace) {
-        this.targetNamespace = targetNamespace;
+        this.owner.targetNamespace = targetNamespace;
     }
 
     /**
@@ -190,7 +313,7 @@ public class VantiqSession {
      * @return The idToken or null if not an authenticated session or an old Vantiq server
      */
     public String getIdToken() {
-        return this.idToken;
+        return this.owner.idToken;
     }
 
     /**
@@ -199,7 +322,7 @@ public class VantiqSession {
      * @return The access token used for requests or null if not an authenticated session.
      */
     public String getAccessToken() {
-        return this.accessToken;
+        return this.owner.accessToken;
     }
 
     /**
@@ -208,7 +331,7 @@ public class VantiqSession {
      * @return The target namespace used for requests
      */
     public String getTargetNamespace() {
-        return this.targetNamespace;
+        return this.owner.targetNamespace;
     }
 
 
@@ -218,7 +341,7 @@ public class VantiqSession {
      * @return The username
      */
     public String getUsername() {
-        return this.username;
+        return this.owner.username;
     }
 
     /**
@@ -227,7 +350,7 @@ public class VantiqSession {
      * @param username The username
      */
     public void setUsername(String username) {
-        this.username = username;
+        this.owner.username = username;
     }
 
     /**
@@ -236,7 +359,7 @@ public class VantiqSession {
      * @param server The server URL
      */
     public void setServer(String server) {
-        this.server = server;
+        this.owner.server = server;
     }
 
     /**
@@ -245,7 +368,7 @@ public class VantiqSession {
      * @return The server URL
      */
     public String getServer() {
-        return this.server;
+        return this.owner.server;
     }
 
     /**
@@ -254,7 +377,277 @@ public class VantiqSession {
      * @return The API version
      */
     public int getApiVersion() {
-        return this.apiVersion;
+        return this.owner.apiVersion;
+    }
+
+    /**
+     * Returns the configuration of the HTTP client
+     *
+     * @return The HTTP client configuration or null if the session was created from a root client
+     */
+    public HttpClientConfig getHttpClientConfig() {
+        return this.httpClientConfig;
+    }
+
+    /**
+     * Enables or disables the gzip compression of JSON and text request
+     * bodies of at least the compression threshold.  The initial value comes
+     * from the {@link HttpClientConfig} of the session, if any.
+     *
+     * @param enabled true to compress request bodies
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.compression.setEnabled(enabled);
+    }
+
+    /**
+     * Returns if request bodies are compressed
+     *
+     * @return true if enabled
+     */
+    public boolean isCompressionEnabled() {
+        return this.compression.isEnabled();
+    }
+
+    /**
+     * Sets the minimum size of the request bodies that are compressed
+     *
+     * @param threshold The compression threshold in bytes
+     */
+    public void setCompressionThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.compression.setThreshold(threshold);
+    }
+
+    /**
+     * Returns the minimum size of the request bodies that are compressed
+     *
+     * @return The compression threshold in bytes
+     */
+    public long getCompressionThreshold() {
+        return this.compression.getThreshold();
+    }
+
+    /**
+     * Returns the request and response byte counts before and after compression
+     *
+     * @return The compression stats, which are only recorded while compression is enabled
+     */
+    public CompressionStats getCompressionStats() {
+        return this.compression.getStats();
+    }
+
+    /**
+     * Sets the listener that receives the metrics of every request.
+     *
+     * @param requestListener The listener or null to stop collecting metrics
+     */
+    public void setRequestListener(RequestListener requestListener) {
+        this.owner.requestListener = requestListener;
+    }
+
+    /**
+     * Returns the listener that receives the metrics of every request
+     *
+     * @return The listener or null if metrics are not collected
+     */
+    public RequestListener getRequestListener() {
+        return this.owner.requestListener;
+    }
+
+    /**
+     * Sets the codec used to encode the objects sent to the server, to decode
+     * errors and to bind bodies to application types.
+     *
+     * @param jsonCodec The codec
+     */
+    public void setJsonCodec(JsonCodec jsonCodec) {
+        if (jsonCodec == null) {
+            throw new IllegalArgumentException("jsonCodec must not be null");
+        }
+        this.owner.jsonCodec = jsonCodec;
+    }
+
+    /**
+     * Returns the codec used to encode the objects sent to the server, to decode
+     * errors and to bind bodies to application types.
+     *
+     * @return The codec
+     */
+    public JsonCodec getJsonCodec() {
+        return this.owner.jsonCodec;
+    }
+
+    /**
+     * Sets how the events of subscriptions created afterwards are delivered to
+     * their callbacks.
+     *
+     * @param subscriptionDispatchConfig The dispatch configuration or null to
+     *                                   deliver on the WebSocket reader thread
+     */
+    public void setSubscriptionDispatchConfig(SubscriptionDispatchConfig subscriptionDispatchConfig) {
+        this.owner.subscriptionDispatchConfig = subscriptionDispatchConfig;
+    }
+
+    /**
+     * Returns how the events of new subscriptions are delivered to their callbacks
+     *
+     * @return The dispatch configuration or null if delivered on the WebSocket reader thread
+     */
+    public SubscriptionDispatchConfig getSubscriptionDispatchConfig() {
+        return this.owner.subscriptionDispatchConfig;
+    }
+
+    /**
+     * Sets how requests that fail transiently are retried.
+     *
+     * @param retryPolicy The retry policy or null to not retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.owner.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns how requests that fail transiently are retried
+     *
+     * @return The retry policy or null if requests are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.owner.retryPolicy;
+    }
+
+    /**
+     * Sets how slow reads are hedged.
+     *
+     * @param hedgePolicy The hedge policy or null to not hedge
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.owner.hedger = (hedgePolicy != null ? new Hedger(hedgePolicy) : null);
+    }
+
+    /**
+     * Returns how slow reads are hedged
+     *
+     * @return The hedge policy or null if reads are not hedged
+     */
+    public HedgePolicy getHedgePolicy() {
+        Hedger hedger = this.owner.hedger;
+        return (hedger != null ? hedger.getPolicy() : null);
+    }
+
+    /**
+     * Returns the number of hedged requests sent since the hedge policy was set
+     *
+     * @return The hedge count
+     */
+    int getHedgeCount() {
+        Hedger hedger = this.owner.hedger;
+        return (hedger != null ? hedger.getHedgeCount() : 0);
+    }
+
+    /**
+     * Enables or disables the coalescing of identical reads.  When enabled,
+     * a GET that is identical to one in flight (same URL, access token and
+     * target namespace) is not sent, but receives a copy of its response.
+     *
+     * @param enabled true to coalesce identical reads
+     */
+    public void setRequestCoalescingEnabled(boolean enabled) {
+        this.owner.coalescer = (enabled ? new RequestCoalescer() : null);
+    }
+
+    /**
+     * Returns if identical reads are coalesced.
+     *
+     * @return true if enabled
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return this.owner.coalescer != null;
+    }
+
+    /**
+     * Returns the number of reads that were not sent since coalescing was
+     * enabled, because an identical one was in flight
+     *
+     * @return The coalesced count
+     */
+    int getCoalescedCount() {
+        RequestCoalescer coalescer = this.owner.coalescer;
+        return (coalescer != null ? coalescer.getCoalescedCount() : 0);
+    }
+
+    /**
+     * Enables or disables the automatic refresh of the access token.  When
+     * enabled, the token is refreshed ahead of its expiration (if known from
+     * the token), requests issued during a refresh wait for the new token,
+     * and a request rejected with 401 is sent again once with a refreshed token.
+     *
+     * @param enabled true to refresh the access token automatically
+     */
+    public void setTokenRefreshEnabled(boolean enabled) {
+        this.owner.tokenManager.setEnabled(enabled);
+    }
+
+    /**
+     * Returns if the access token is refreshed automatically
+     *
+     * @return true if enabled
+     */
+    public boolean isTokenRefreshEnabled() {
+        return this.owner.tokenManager.isEnabled();
+    }
+
+    /**
+     * Sets how long before its expiration the access token is refreshed
+     *
+     * @param refreshAheadMillis The time before expiration in milliseconds
+     */
+    public void setTokenRefreshAheadMillis(long refreshAheadMillis) {
+        this.owner.tokenManager.setRefreshAheadMillis(refreshAheadMillis);
+    }
+
+    /**
+     * Returns how long before its expiration the access token is refreshed
+     *
+     * @return The time before expiration in milliseconds
+     */
+    public long getTokenRefreshAheadMillis() {
+        return this.owner.tokenManager.getRefreshAheadMillis();
+    }
+
+    /**
+     * Sets how the WebSocket used by subscriptions is re-established when it
+     * drops.
+     *
+     * @param reconnectPolicy The reconnect policy or null to not reconnect
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.owner.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Returns how the WebSocket used by subscriptions is re-established
+     *
+     * @return The reconnect policy or null if the WebSocket is not re-established
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return this.owner.reconnectPolicy;
+    }
+
+    /**
+     * Returns a session that shares the client, server and authentication of this
+     * session, but applies the given timeouts to its requests.  No new client is
+     * created.
+     *
+     * @param readTimeout The read timeout in milliseconds
+     * @param writeTimeout The write timeout in milliseconds
+     * @param connectTimeout The connect timeout in milliseconds
+     * @return The session with the given timeouts
+     */
+    public VantiqSession withTimeouts(long readTimeout, long writeTimeout, long connectTimeout) {
+        return new VantiqSession(this, readTimeout, writeTimeout, connectTimeout);
     }
 
     /**
@@ -264,7 +657,6 @@ public class VantiqSession {
      */
     public void setReadTimeout(long timeout) {
         this.readTimeout = timeout;
-        createClient();
     }
 
     /**
@@ -283,7 +675,6 @@ public class VantiqSession {
      */
     public void setWriteTimeout(long timeout) {
         this.writeTimeout = timeout;
-        createClient();
     }
 
     /**
@@ -302,7 +693,6 @@ public class VantiqSession {
      */
     public void setConnectTimeout(long timeout) {
         this.connectTimeout = timeout;
-        createClient();
     }
 
     /**
@@ -318,7 +708,7 @@ public class VantiqSession {
      * This class provides a bridge between the {@link okhttp3.Callback} used
      * in the underlying OkHttp request and the {@link io.vantiq.client.ResponseHandler}
      */
-    static class CallbackAdapter implements Callback {
+    class CallbackAdapter implements Callback {
 
         private ResponseHandler responseHandler;
         private boolean isStreamingResponse = false;
@@ -334,11 +724,45 @@ public class VantiqSession {
             this.isStreamingResponse = isStreamingResponse;
         }
 
+        /**
+         * Passes the call to the response handler if it tracks its calls.
+         */
+        void track(Call call) {
+            if(this.responseHandler instanceof CallTracker) {
+                ((CallTracker) this.responseHandler).track(call);
+            }
+        }
+
         @Override
         public void onResponse(Call call, Response response) throws IOException {
+            CallMetrics metrics = call.request().tag(CallMetrics.class);
+            long bodyStart = System.nanoTime();
             if(response.isSuccessful()) {
-                Object body = VantiqResponse.extractBody(response, this.isStreamingResponse);
+                // Adapters with a response hook inspect the body, so it is only left
+                // undecoded for the plain adapter
+                boolean lazyJson = this.responseHandler instanceof LazyBodyHandler
+                                   && this.getClass() == CallbackAdapter.class;
+                Object body;
+                try {
+                    body = VantiqResponse.extractBody(response, this.isStreamingResponse, lazyJson,
+                                                      VantiqSession.this.getJsonCodec());
+                } catch(IOException ex) {
+                    if(metrics != null) {
+                        metrics.fail(ex);
+                    }
+                    throw ex;
+                } catch(JsonParseException ex) {
+                    // A malformed body is a client failure, as for the synchronous calls
+                    if(metrics != null) {
+                        metrics.fail(ex);
+                    }
+                    this.responseHandler.onFailure(ex);
+                    return;
+                }
                 responseHook(body);
+                if(metrics != null) {
+                    metrics.complete(response.code(), System.nanoTime() - bodyStart);
+                }
                 this.responseHandler.onSuccess(body, response);
             } else {
                 try {
@@ -364,7 +788,7 @@ public class VantiqSession {
 
                     try
                     {
-                        errors = gson.fromJson(bodyString, errorsType);
+                        errors = VantiqSession.this.getJsonCodec().decode(new StringReader(bodyString), errorsType);
                     }
                     catch (Exception ex)
                     {
@@ -377,7 +801,7 @@ public class VantiqSession {
                         
                         try
                         {
-                            jo = gson.fromJson(bodyString,JsonObject.class);
+                            jo = VantiqSession.this.getJsonCodec().decode(new StringReader(bodyString), JsonObject.class);
                         }
                         catch (Exception ex)
                         {
@@ -406,8 +830,14 @@ public class VantiqSession {
                         }
                      }
 
+                    if(metrics != null) {
+                        metrics.complete(response.code(), System.nanoTime() - bodyStart);
+                    }
                     this.responseHandler.onError(errors, response);
                 } catch(IOException ex) {
+                    if(metrics != null) {
+                        metrics.fail(ex);
+                    }
                     this.responseHandler.onFailure(ex);
                 }
 
@@ -416,6 +846,10 @@ public class VantiqSession {
 
         @Override
         public void onFailure(Call call, IOException t) {
+            CallMetrics metrics = call.request().tag(CallMetrics.class);
+            if(metrics != null) {
+                metrics.fail(t);
+            }
             this.responseHandler.onFailure(t);
         }
 
@@ -449,16 +883,17 @@ public class VantiqSession {
                         JsonElement token = ((JsonObject) jsonBody).get("accessToken");
                         if (token != null)
                         {
-                            VantiqSession.this.username = username;
-                            VantiqSession.this.accessToken = token.getAsString();
-                            VantiqSession.this.authenticated = true;
+                            VantiqSession.this.owner.username = username;
+                            VantiqSession.this.owner.accessToken = token.getAsString();
+                            VantiqSession.this.owner.authenticated = true;
 
                             JsonElement idToken = ((JsonObject) jsonBody).get("idToken");
 
                             if (idToken != null)
                             {
-                                VantiqSession.this.idToken = idToken.getAsString();
+                                VantiqSession.this.owner.idToken = idToken.getAsString();
                             }
+                            VantiqSession.this.owner.tokenManager.tokenChanged();
                         }
                     }
                 }
@@ -472,7 +907,7 @@ public class VantiqSession {
         String usernameAndPassword = username + ":" + password;
         String encoded = "Basic " + ByteString.encodeUtf8(usernameAndPassword).base64();
 
-        VantiqResponse response = this.request(encoded, "GET", "authenticate",
+        VantiqResponse response = this.request(encoded, "GET", "authenticate", "authenticate",
                 null, null, null, false, cb);
 
         if (response != null)
@@ -483,16 +918,17 @@ public class VantiqSession {
                 JsonElement token = ((JsonObject) jsonBody).get("accessToken");
                 if (token != null)
                 {
-                    this.username = username;
-                    this.accessToken = token.getAsString();
-                    this.authenticated = true;
+                    this.owner.username = username;
+                    this.owner.accessToken = token.getAsString();
+                    this.owner.authenticated = true;
 
                     JsonElement idToken = ((JsonObject) jsonBody).get("idToken");
 
                     if (idToken != null)
                     {
-                        this.idToken = idToken.getAsString();
+                        this.owner.idToken = idToken.getAsString();
                     }
+                    this.owner.tokenManager.tokenChanged();
                 }
             }
         }
@@ -523,27 +959,29 @@ public class VantiqSession {
                 public void responseHook(Object body)
                 {
 
-                    VantiqSession.this.username = null;
-                    VantiqSession.this.accessToken = null;
-                    VantiqSession.this.authenticated = false;
+                    VantiqSession.this.owner.username = null;
+                    VantiqSession.this.owner.accessToken = null;
+                    VantiqSession.this.owner.authenticated = false;
+                    VantiqSession.this.owner.tokenManager.tokenChanged();
                 }
             };
         }
 
-        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.server).newBuilder();
+        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.owner.server).newBuilder();
         urlBuilder.addPathSegments("authenticate/revoke");
 
 
         // Build request
         Request.Builder builder = new Request.Builder()
-                .url(urlBuilder.build());
+                .url(urlBuilder.build())
+                .tag(VantiqSession.class, this);
 
         // Add body based on type
         RequestBody reqBody = null;
 
-        if (this.targetNamespace != null)
+        if (this.owner.targetNamespace != null)
         {
-            builder.addHeader("X-Target-Namespace",this.targetNamespace);
+            builder.addHeader("X-Target-Namespace",this.owner.targetNamespace);
         }
 
         builder.addHeader("Content-Type", PLAIN_TEXT.toString());
@@ -565,7 +1003,7 @@ public class VantiqSession {
         {
             try
             {
-                response = VantiqResponse.createFromResponse(client.newCall(request).execute(), false);
+                response = VantiqResponse.createFromResponse(client.newCall(request).execute(), false, this.getJsonCodec());
             }
             catch (IOException ex)
             {
@@ -576,9 +1014,10 @@ public class VantiqSession {
 
         if (response != null)
         {
-            VantiqSession.this.username = null;
-            VantiqSession.this.accessToken = null;
-            VantiqSession.this.authenticated = false;
+            VantiqSession.this.owner.username = null;
+            VantiqSession.this.owner.accessToken = null;
+            VantiqSession.this.owner.authenticated = false;
+            VantiqSession.this.owner.tokenManager.tokenChanged();
         }
 
         return response;
@@ -612,15 +1051,16 @@ public class VantiqSession {
                         JsonElement token = ((JsonObject) jsonBody).get("accessToken");
                         if (token != null)
                         {
-                            VantiqSession.this.accessToken = token.getAsString();
-                            VantiqSession.this.authenticated = true;
+                            VantiqSession.this.owner.accessToken = token.getAsString();
+                            VantiqSession.this.owner.authenticated = true;
 
                             JsonElement idToken = ((JsonObject) jsonBody).get("idToken");
 
                             if (idToken != null)
                             {
-                                VantiqSession.this.idToken = idToken.getAsString();
+                                VantiqSession.this.owner.idToken = idToken.getAsString();
                             }
+                            VantiqSession.this.owner.tokenManager.tokenChanged();
                         }
                     }
                 }
@@ -628,20 +1068,21 @@ public class VantiqSession {
         }
 
 
-        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.server).newBuilder();
+        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.owner.server).newBuilder();
         urlBuilder.addPathSegments("authenticate/refresh");
 
 
         // Build request
         Request.Builder builder = new Request.Builder()
-                .url(urlBuilder.build());
+                .url(urlBuilder.build())
+                .tag(VantiqSession.class, this);
 
         // Add body based on type
         RequestBody reqBody = null;
 
-        if (this.targetNamespace != null)
+        if (this.owner.targetNamespace != null)
         {
-            builder.addHeader("X-Target-Namespace",this.targetNamespace);
+            builder.addHeader("X-Target-Namespace",this.owner.targetNamespace);
         }
 
         builder.addHeader("Content-Type", PLAIN_TEXT.toString());
@@ -663,7 +1104,7 @@ public class VantiqSession {
         {
             try
             {
-                response = VantiqResponse.createFromResponse(client.newCall(request).execute(), false);
+                response = VantiqResponse.createFromResponse(client.newCall(request).execute(), false, this.getJsonCodec());
             }
             catch (IOException ex)
             {
@@ -679,15 +1120,16 @@ public class VantiqSession {
                 JsonElement token = ((JsonObject) jsonBody).get("accessToken");
                 if (token != null)
                 {
-                    this.accessToken = token.getAsString();
-                    this.authenticated = true;
+                    this.owner.accessToken = token.getAsString();
+                    this.owner.authenticated = true;
 
                     JsonElement idToken = ((JsonObject) jsonBody).get("idToken");
 
                     if (idToken != null)
                     {
-                        this.idToken = idToken.getAsString();
+                        this.owner.idToken = idToken.getAsString();
                     }
+                    this.owner.tokenManager.tokenChanged();
                 }
             }
         }
@@ -704,7 +1146,7 @@ public class VantiqSession {
         if(!isAuthenticated()) {
             throw new IllegalStateException("Not authenticated");
         }
-        return "Bearer " + this.accessToken;
+        return "Bearer " + this.owner.accessToken;
     }
 
     /**
@@ -716,7 +1158,7 @@ public class VantiqSession {
         if(path.startsWith("/")) {
             path = path.substring(1);
         }
-        return "api/v" + this.apiVersion + "/" + path;
+        return "api/v" + this.owner.apiVersion + "/" + path;
     }
 
     /**
@@ -735,7 +1177,7 @@ public class VantiqSession {
                               Map<String,String> extraHeaders,
                               ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler) : null);
-        return this.request(authValue(), "GET", fullPath, queryParams, extraHeaders, null, false, cb);
+        return this.request(authValue(), "GET", null, fullPath, queryParams, extraHeaders, null, false, cb);
     }
 
     /**
@@ -751,8 +1193,67 @@ public class VantiqSession {
     public VantiqResponse get(String path,
                               Map<String,String> queryParams,
                               ResponseHandler responseHandler) {
+        return this.get(null, path, queryParams, responseHandler);
+    }
+
+    /**
+     * Perform a HTTP GET request for an SDK operation against a given path
+     *
+     * @param operation The SDK operation reported in the {@link RequestMetrics}, e.g. "count", or
+     *                  null to derive it from the method and the path
+     * @param path The unencoded partial path for the GET (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse get(String operation,
+                              String path,
+                              Map<String,String> queryParams,
+                              ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler) : null);
-        return this.request(authValue(), "GET", fullpath(path), queryParams, null, null, false, cb);
+        return this.request(authValue(), "GET", operation, fullpath(path), queryParams, null, null, false, cb);
+    }
+
+    /**
+     * Perform a HTTP GET request against a given path without reading the
+     * response body.  On success, the response body will be the
+     * BufferedSource of the HTTP response, which the caller must consume
+     * or close.
+     *
+     * @param path The unencoded partial path for the GET (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse getStreaming(String path,
+                                       Map<String,String> queryParams,
+                                       ResponseHandler responseHandler) {
+        return this.getStreaming(null, path, queryParams, responseHandler);
+    }
+
+    /**
+     * Perform a HTTP GET request for an SDK operation against a given path
+     * without reading the response body, as {@link #getStreaming(String, Map, ResponseHandler)}
+     *
+     * @param operation The SDK operation reported in the {@link RequestMetrics}, e.g. "count", or
+     *                  null to derive it from the method and the path
+     * @param path The unencoded partial path for the GET (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse getStreaming(String operation,
+                                       String path,
+                                       Map<String,String> queryParams,
+                                       ResponseHandler responseHandler) {
+        Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler, true) : null);
+        return this.request(authValue(), "GET", operation, fullpath(path), queryParams, null, null, true, cb);
     }
 
     /**
@@ -760,7 +1261,8 @@ public class VantiqSession {
      *
      * @param path The unencoded partial path for the POST (without any query parameters)
      * @param queryParams The unencoded query parameters included in the request
-     * @param body The JSON encoding string included in the body of the request
+     * @param body The body of the request, either a JSON encoded String or a RequestBody
+     *             such as a {@link JsonRequestBody}
      * @param responseHandler The response handler that is called upon completion.  If null,
      *                        then the call is performed synchronously and the response is
      *                        provided as the returned value.
@@ -768,10 +1270,32 @@ public class VantiqSession {
      */
     public VantiqResponse post(String path,
                                Map<String,String> queryParams,
-                               String body,
+                               Object body,
+                               ResponseHandler responseHandler) {
+        return this.post(null, path, queryParams, body, responseHandler);
+    }
+
+    /**
+     * Perform a HTTP POST request for an SDK operation against a specific path
+     *
+     * @param operation The SDK operation reported in the {@link RequestMetrics}, e.g. "count", or
+     *                  null to derive it from the method and the path
+     * @param path The unencoded partial path for the POST (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param body The body of the request, either a JSON encoded String or a RequestBody
+     *             such as a {@link JsonRequestBody}
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse post(String operation,
+                               String path,
+                               Map<String,String> queryParams,
+                               Object body,
                                ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler) : null);
-        return this.request(authValue(), "POST", fullpath(path), queryParams, null, body, false, cb);
+        return this.request(authValue(), "POST", operation, fullpath(path), queryParams, null, body, false, cb);
     }
 
     /**
@@ -779,7 +1303,8 @@ public class VantiqSession {
      *
      * @param path The unencoded partial path for the PUT (without any query parameters)
      * @param queryParams The unencoded query parameters included in the request
-     * @param body The JSON encoding string included in the body of the request
+     * @param body The body of the request, either a JSON encoded String or a RequestBody
+     *             such as a {@link JsonRequestBody}
      * @param responseHandler The response handler that is called upon completion.  If null,
      *                        then the call is performed synchronously and the response is
      *                        provided as the returned value.
@@ -787,10 +1312,32 @@ public class VantiqSession {
      */
     public VantiqResponse put(String path,
                               Map<String,String> queryParams,
-                              String body,
+                              Object body,
+                              ResponseHandler responseHandler) {
+        return this.put(null, path, queryParams, body, responseHandler);
+    }
+
+    /**
+     * Perform a HTTP PUT request for an SDK operation against a specific path
+     *
+     * @param operation The SDK operation reported in the {@link RequestMetrics}, e.g. "count", or
+     *                  null to derive it from the method and the path
+     * @param path The unencoded partial path for the PUT (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param body The body of the request, either a JSON encoded String or a RequestBody
+     *             such as a {@link JsonRequestBody}
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse put(String operation,
+                              String path,
+                              Map<String,String> queryParams,
+                              Object body,
                               ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler) : null);
-        return this.request(authValue(), "PUT", fullpath(path), queryParams, null, body, false, cb);
+        return this.request(authValue(), "PUT", operation, fullpath(path), queryParams, null, body, false, cb);
     }
 
     /**
@@ -806,8 +1353,27 @@ public class VantiqSession {
     public VantiqResponse delete(String path,
                                  Map<String,String> queryParams,
                                  ResponseHandler responseHandler) {
+        return this.delete(null, path, queryParams, responseHandler);
+    }
+
+    /**
+     * Perform a HTTP DELETE request for an SDK operation against a given path
+     *
+     * @param operation The SDK operation reported in the {@link RequestMetrics}, e.g. "count", or
+     *                  null to derive it from the method and the path
+     * @param path The unencoded partial path for the DELETE (without any query parameters)
+     * @param queryParams The unencoded query parameters included in the request
+     * @param responseHandler The response handler that is called upon completion.  If null,
+     *                        then the call is performed synchronously and the response is
+     *                        provided as the returned value.
+     * @return The response from the Vantiq server
+     */
+    public VantiqResponse delete(String operation,
+                                 String path,
+                                 Map<String,String> queryParams,
+                                 ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler) : null);
-        return this.request(authValue(), "DELETE", fullpath(path), queryParams, null, null, false, cb);
+        return this.request(authValue(), "DELETE", operation, fullpath(path), queryParams, null, null, false, cb);
     }
 
     /**
@@ -837,7 +1403,7 @@ public class VantiqSession {
             .setType(MultipartBody.FORM)
             .addFormDataPart("defaultName", documentPath, fileBody)
             .build();
-        return this.request(authValue(), "POST", fullpath(path), queryParams, null, reqBody, false, cb);
+        return this.request(authValue(), "POST", "upload", fullpath(path), queryParams, null, reqBody, false, cb);
     }
 
     /**
@@ -852,7 +1418,7 @@ public class VantiqSession {
      */
     public VantiqResponse download(String path, ResponseHandler responseHandler) {
         Callback cb = (responseHandler != null ? new CallbackAdapter(responseHandler, true) : null);
-        return this.request(authValue(), "GET", path, null, null, null, true, cb);
+        return this.request(authValue(), "GET", "download", path, null, null, null, true, cb);
     }
 
     //----------------------------------------------------------------
@@ -865,6 +1431,8 @@ public class VantiqSession {
      *
      * @param authValue The value of the "Authorization" header.
      * @param method The HTTP method to use (e.g. GET, POST, etc)
+     * @param operation The SDK operation reported in the metrics, or null to derive it
+     *                  from the method and the path
      * @param path The full unencoded URL path to use (without query parameters)
      * @param queryParams The unencoded query parameters to include in the request
      * @param body The optional request body to include.  This can be a String or
@@ -878,13 +1446,14 @@ public class VantiqSession {
      */
     private VantiqResponse request(String authValue,
                                    String method,
+                                   String operation,
                                    String path,
                                    Map<String,String> queryParams,
                                    Map<String,String> extraHeaders,
                                    Object body,
                                    boolean isStreamingResponse,
                                    Callback callback) {
-        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.server).newBuilder();
+        HttpUrl.Builder urlBuilder = HttpUrl.parse(this.owner.server).newBuilder();
         urlBuilder.addPathSegments(path);
         if(queryParams != null) {
             for(Map.Entry<String,String> param : queryParams.entrySet()) {
@@ -895,6 +1464,7 @@ public class VantiqSession {
         // Build request
         Request.Builder builder = new Request.Builder()
             .url(urlBuilder.build())
+            .tag(VantiqSession.class, this)
             .addHeader("Authorization", authValue);
 
         if (extraHeaders != null)
@@ -908,9 +1478,29 @@ public class VantiqSession {
             }
         }
 
-        if (this.targetNamespace != null)
+        if (this.owner.targetNamespace != null)
         {
-            builder.addHeader("X-Target-Namespace",this.targetNamespace);
+            builder.addHeader("X-Target-Namespace",this.owner.targetNamespace);
+        }
+
+        // Identical reads in flight share a single request, which alone
+        // carries the metrics
+        RequestCoalescer coalescer = this.owner.coalescer;
+        if (isStreamingResponse || !"GET".equals(method)) {
+            coalescer = null;
+        }
+
+        if (operation == null) {
+            operation = CallMetrics.operationOf(method, path, queryParams, body);
+        }
+
+        RequestListener requestListener = this.owner.requestListener;
+        CallMetrics metrics = null;
+        if (requestListener != null) {
+            metrics = new CallMetrics(requestListener, operation, method, path);
+            if (coalescer == null) {
+                builder.tag(CallMetrics.class, metrics);
+            }
         }
         
         // Add body based on type
@@ -931,19 +1521,125 @@ public class VantiqSession {
         // Finally construct the request
         Request request = builder.build();
 
+        // Reads covered by the hedge policy are sent again if slow
+        Hedger hedger = this.owner.hedger;
+        if (hedger != null && !hedger.isHedgeable(operation, path)) {
+            hedger = null;
+        }
+
+        CallMetrics flightMetrics = null;
+        if (coalescer != null) {
+            flightMetrics = metrics;
+            metrics = null;
+        }
+
         // Execute the request either synchronously or asynchronously based on existence of callback
         if(callback != null) {
-            client.newCall(request).enqueue(callback);
+            Call call = client.newCall(request);
+            if (coalescer != null) {
+                call = coalescer.newCall(call, client.dispatcher().executorService());
+            }
+            if(callback instanceof CallbackAdapter) {
+                ((CallbackAdapter) callback).track(call);
+            }
+            if (coalescer != null) {
+                coalesce(coalescer, request, flightMetrics, hedger, (RequestCoalescer.WaitingCall) call, callback, false);
+            } else if (hedger != null) {
+                hedger.enqueue(client, call, callback);
+            } else {
+                call.enqueue(callback);
+            }
             return null;
         } else {
             try {
-                return VantiqResponse.createFromResponse(client.newCall(request).execute(), isStreamingResponse);
+                Call call = client.newCall(request);
+                Response response;
+                if (coalescer != null) {
+                    RequestCoalescer.WaitingCall waiting = coalescer.newCall(call, client.dispatcher().executorService());
+                    RequestCoalescer.ResponseWaiter waiter = new RequestCoalescer.ResponseWaiter();
+                    coalesce(coalescer, request, flightMetrics, hedger, waiting, waiter, true);
+                    call = waiting;
+                    response = waiter.get(call, coalescedWaitMillis());
+                } else {
+                    response = (hedger != null ? hedger.execute(client, call) : call.execute());
+                    if (hedger != null && metrics != null) {
+                        // A winning hedge reports its own metrics
+                        CallMetrics winner = response.request().tag(CallMetrics.class);
+                        if (winner != null) {
+                            metrics = winner;
+                        }
+                    }
+                }
+                long bodyStart = System.nanoTime();
+                VantiqResponse vantiqResponse =
+                    VantiqResponse.createFromResponse(response, isStreamingResponse, this.getJsonCodec());
+                if (metrics != null) {
+                    metrics.complete(response.code(), System.nanoTime() - bodyStart);
+                }
+                return vantiqResponse;
             } catch(IOException ex) {
+                if (metrics != null) {
+                    metrics.fail(ex);
+                }
                 throw new RuntimeException(ex);
             }
         }
     }
 
+    /**
+     * Waits for the response of an identical read in flight or, if there is
+     * none, sends the shared request, which carries the metrics of the read.
+     * A synchronous caller sends the shared request on its own thread, so it
+     * is not subject to the limits of the OkHttp dispatcher, and the callbacks
+     * of the callers that joined it then run on that thread.
+     */
+    private void coalesce(RequestCoalescer coalescer,
+                          Request request,
+                          CallMetrics metrics,
+                          Hedger hedger,
+                          RequestCoalescer.WaitingCall call,
+                          Callback callback,
+                          boolean synchronous) {
+        RequestCoalescer.Flight flight = coalescer.join(RequestCoalescer.keyOf(request), call, callback);
+        if (flight == null) {
+            return;
+        }
+        Call shared = client.newCall(metrics != null ? request.newBuilder().tag(CallMetrics.class, metrics).build()
+                                                     : request);
+        if (!flight.start(shared)) {
+            return;
+        }
+        if (!synchronous) {
+            if (hedger != null) {
+                hedger.enqueue(client, shared, flight);
+            } else {
+                shared.enqueue(flight);
+            }
+            return;
+        }
+        Response response;
+        try {
+            response = (hedger != null ? hedger.execute(client, shared) : shared.execute());
+        } catch (IOException ex) {
+            flight.onFailure(shared, ex);
+            return;
+        }
+        flight.onResponse(shared, response);
+    }
+
+    /**
+     * Returns how long a synchronous caller waits for the response of a read
+     * it joined: the sum of the timeouts of this session, or 0 (no limit) if
+     * the read timeout is not limited.
+     */
+    private long coalescedWaitMillis() {
+        long readTimeout = this.getReadTimeout();
+        if (readTimeout <= 0) {
+            return 0;
+        }
+        return Math.max(0, this.getConnectTimeout()) + Math.max(0, this.getWriteTimeout()) + readTimeout;
+    }
+
     //----------------------------------------------------------------
     // Subscription Support using OkHttp
     //----------------------------------------------------------------
@@ -966,34 +1662,242 @@ public class VantiqSession {
             throw new IllegalStateException("Not authenticated");
         }
 
-        if(this.subscriber == null) {
-            this.subscriber = new VantiqSubscriber(this, client, enablePings);
-            this.subscriber.connect(new VantiqSubscriberLifecycleListener() {
-                @Override
-                public void onConnect() {
-                    VantiqSession.this.subscriber.subscribe(path, callback, parameters);
-                }
+        VantiqSubscriber subscriber;
+        synchronized (this.owner) {
+            subscriber = this.owner.subscriber;
+            if (subscriber == null) {
+                // Register the subscription before connecting, so it is sent
+                // as soon as the WebSocket session is authenticated
+                subscriber = new VantiqSubscriber(this.owner, client, enablePings);
+                subscriber.subscribe(path, callback, parameters);
+                connectSubscriber(subscriber);
+                return;
+            }
+        }
+        subscriber.subscribe(path, callback, parameters);
+    }
 
-                @Override
-                public void onError(String message, ResponseBody body) {
-                    callback.onError(message);
-                }
+    /**
+     * Adds an internal listener to a specific Vantiq event, such as the
+     * invalidation of the record cache.  Unlike {@link #subscribe}, the
+     * listener shares the event with the application, which can still
+     * subscribe to it and unsubscribe from it.
+     *
+     * @param path The path that defines the event (e.g. /resource/id[/operation])
+     * @param listener The listener that is executed for every event that occurs.
+     * @param enablePings Indicates if pings should be enabled to ensure the websocket stays open
+     */
+    public void addSubscriptionListener(String path, SubscriptionCallback listener, boolean enablePings) {
+        if(!this.isAuthenticated()) {
+            throw new IllegalStateException("Not authenticated");
+        }
 
-                @Override
-                public void onFailure(Throwable t) {
-                    callback.onFailure(t);
-                }
+        VantiqSubscriber subscriber;
+        synchronized (this.owner) {
+            subscriber = this.owner.subscriber;
+            if (subscriber == null) {
+                subscriber = new VantiqSubscriber(this.owner, client, enablePings);
+                subscriber.addListener(path, listener);
+                connectSubscriber(subscriber);
+                return;
+            }
+        }
+        subscriber.addListener(path, listener);
+    }
 
-                @Override
-                public void onClose() {
-                    // No-op
-                }
-            });
-        } else {
-            this.subscriber.subscribe(path, callback, parameters);
+    /**
+     * Removes a listener added with {@link #addSubscriptionListener}
+     *
+     * @param path The path used to add the listener
+     * @param listener The listener
+     * @return true if the listener was registered
+     */
+    public boolean removeSubscriptionListener(String path, SubscriptionCallback listener) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        return subscriber != null && subscriber.removeListener(path, listener);
+    }
+
+    /**
+     * Returns true if the given listener was added with
+     * {@link #addSubscriptionListener} and its WebSocket was not closed since
+     *
+     * @param path The path used to add the listener
+     * @param listener The listener
+     * @return true if the listener is registered
+     */
+    public boolean hasSubscriptionListener(String path, SubscriptionCallback listener) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        return subscriber != null && subscriber.hasListener(path, listener);
+    }
+
+    /**
+     * Connects a new subscriber and makes it the subscriber of the session.
+     * Called while holding the lock on the owner.
+     */
+    private void connectSubscriber(final VantiqSubscriber newSubscriber) {
+        newSubscriber.connect(new VantiqSubscriberLifecycleListener() {
+            @Override
+            public void onConnect() {
+                // No-op, pending subscriptions are sent by the subscriber
+            }
+
+            @Override
+            public void onError(String message, ResponseBody body) {
+                // Every subscription depends on the WebSocket session
+                newSubscriber.deliverError(message);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // The subscriber is not reconnecting, so later subscriptions need a new one
+                newSubscriber.deliverFailure(t);
+                detachSubscriber(newSubscriber);
+            }
+
+            @Override
+            public void onClose() {
+                detachSubscriber(newSubscriber);
+            }
+        });
+        this.owner.subscriber = newSubscriber;
+    }
+
+    /**
+     * Discards a subscriber whose WebSocket is gone for good
+     */
+    private void detachSubscriber(VantiqSubscriber subscriber) {
+        synchronized (this.owner) {
+            if (this.owner.subscriber != subscriber) {
+                return;
+            }
+            this.owner.subscriber = null;
         }
+        subscriber.close();
     }
 
+    /**
+     * Removes the subscription to the event with the given path.  The WebSocket
+     * connection is kept open for any other subscriptions.
+     *
+     * @param path The path used to subscribe (e.g. /resource/id[/operation])
+     * @return true if there was a subscription for the path
+     */
+    public boolean unsubscribe(String path) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        return subscriber != null && subscriber.unsubscribe(path);
+    }
+
+    /**
+     * Returns true if there is a subscription to the event with the given path
+     *
+     * @param path The path used to subscribe (e.g. /resource/id[/operation])
+     * @return true if subscribed
+     */
+    public boolean isSubscribed(String path) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        return subscriber != null && subscriber.isSubscribed(path);
+    }
+
+    /**
+     * Returns true if the subscription to the event with the given path is
+     * acknowledged by the server and its WebSocket is connected
+     *
+     * @param path The path used to subscribe (e.g. /resource/id[/operation])
+     * @return true if the subscription is active
+     */
+    public boolean isSubscriptionActive(String path) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        return subscriber != null && subscriber.isActive(path);
+    }
+
+    /**
+     * Returns a snapshot of the delivery state of every current subscription
+     *
+     * @return The subscription stats
+     */
+    public List<SubscriptionStats> getSubscriptionStats() {
+        return getSubscriptionStats(this.owner.statsWindow);
+    }
+
+    private List<SubscriptionStats> getSubscriptionStats(Subscription.StatsWindow window) {
+        VantiqSubscriber subscriber = this.owner.subscriber;
+        if (subscriber == null) {
+            return new ArrayList<SubscriptionStats>();
+        }
+        return subscriber.getStats(window);
+    }
+
+    /**
+     * Sets a listener that periodically receives the stats of every
+     * subscription.  Replaces the previous listener.  The rates are measured
+     * over the period, independently of {@link #getSubscriptionStats()}, and
+     * the listener runs on its own thread rather than on the scheduler.  A
+     * report is skipped while the listener still handles the previous one.
+     *
+     * @param listener The listener or null to stop reporting
+     * @param periodMillis The period between snapshots in milliseconds
+     */
+    public void setSubscriptionStatsListener(final SubscriptionStatsListener listener, long periodMillis) {
+        if (listener != null && periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be greater than 0");
+        }
+        synchronized (this.owner) {
+            if (this.owner.statsReporter != null) {
+                this.owner.statsReporter.cancel(false);
+                this.owner.statsReporter = null;
+            }
+            if (listener != null) {
+                final Subscription.StatsWindow window = new Subscription.StatsWindow();
+                final AtomicBoolean reporting = new AtomicBoolean(false);
+                final Runnable report = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            listener.onStats(getSubscriptionStats(window));
+                        } catch (RuntimeException ex) {
+                            // Keep reporting even if the listener fails once
+                        } finally {
+                            reporting.set(false);
+                        }
+                    }
+                };
+                this.owner.statsReporter = SchedulerHolder.EXECUTOR.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (reporting.compareAndSet(false, true)) {
+                            StatsExecutorHolder.EXECUTOR.execute(report);
+                        }
+                    }
+                }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Single daemon thread shared by the timers of all sessions: the stats
+     * reporters, the WebSocket reconnects, the token refreshes and the hedges.
+     * The tasks only hand work over to other threads or enqueue calls, and
+     * never block it.
+     */
+    static class SchedulerHolder {
+        static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vantiq-subscription-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs the stats listeners, so that a slow listener never delays the
+     * timers of the scheduler.  Its threads only live while listeners run.
+     */
+    private static class StatsExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "vantiq-subscription-stats");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
     /**
      * Acknowledge the receipt of a reliable message
@@ -1010,7 +1914,7 @@ public class VantiqSession {
         params.put("subscriptionId", subscriptionId);
         params.put("sequenceId", sequenceId);
         params.put("partitionId", partitionId);
-        this.subscriber.ack(requestId, subscriptionId, sequenceId, partitionId);
+        this.owner.subscriber.ack(requestId, subscriptionId, sequenceId, partitionId);
     }
     
     /**
@@ -1018,18 +1922,20 @@ public class VantiqSession {
      * server.
      */
     public void unsubscribeAll() {
-        if(this.subscriber != null) {
-            this.subscriber.close();
-            this.subscriber = null;
-        }
+        close();
     }
 
     /**
      * Closes the WebSocket to the Vantiq server.
      */
     public void close() {
-        this.subscriber.close();
-        this.subscriber = null;
-
+        VantiqSubscriber subscriber;
+        synchronized (this.owner) {
+            subscriber = this.owner.subscriber;
+            this.owner.subscriber = null;
+        }
+        if (subscriber != null) {
+            subscriber.close();
+        }
     }
 }
\ No newline at end of file
@@ -1,14 +1,21 @@
 package io.vantiq.client.internal;
 
+import com.google.gson.JsonSyntaxException;
+import io.vantiq.client.ReconnectPolicy;
 import io.vantiq.client.SubscriptionCallback;
 import io.vantiq.client.SubscriptionMessage;
+import io.vantiq.client.SubscriptionStats;
 import okhttp3.*;
 import okio.Buffer;
 import okio.ByteString;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 
@@ -19,16 +26,24 @@ public class VantiqSubscriber extends WebSocketListener {
 
     private VantiqSession                              session = null;
     private OkHttpClient                                client = null;
-    private WebSocket                                webSocket = null;
+    private volatile WebSocket                       webSocket = null;
     private VantiqSubscriberLifecycleListener lifecycleHandler = null;
     private boolean                                enablePings = false;
     private ScheduledExecutorService         scheduledExecutor = null;
     private ScheduledFuture                       pingerHandle = null;
 
-    private boolean                            wsauthenticated = false;
+    private volatile boolean                   wsauthenticated = false;
+    private volatile boolean                            closed = false;
+    private ScheduledFuture<?>                  reconnectHandle = null;
+    private int                               reconnectAttempts = 0;
 
-    private Map<String,SubscriptionCallback>         callbacks = new HashMap<String,SubscriptionCallback>();
-    private Map<String,Boolean>                     subscribed = new HashMap<String,Boolean>();
+    private final ConcurrentMap<String,Subscription> subscriptions = new ConcurrentHashMap<String,Subscription>();
+
+    /**
+     * Prefix of the request id of unsubscribe requests, so that their replies
+     * are never routed to a new subscription to the same path
+     */
+    private static final String UNSUBSCRIBE_REQUEST_PREFIX = "unsubscribe:";
 
     public VantiqSubscriber(VantiqSession session, OkHttpClient client, boolean enablePings) {
         this.session     = session;
@@ -42,7 +57,10 @@ public class VantiqSubscriber extends WebSocketListener {
 
     public void connect(VantiqSubscriberLifecycleListener lifecycleHandler) {
         this.lifecycleHandler = lifecycleHandler;
+        connect();
+    }
 
+    private void connect() {
         if (!this.session.isAuthenticated()) {
             throw new IllegalStateException("Session must be authenticated to subscribe to Vantiq events");
         }
@@ -97,43 +115,283 @@ public class VantiqSubscriber extends WebSocketListener {
         }
     } 
     
+    /**
+     * Registers a subscription for the given path.  If the WebSocket session is
+     * already authenticated, the subscribe request is sent immediately.
+     * Otherwise, it is sent once the session is authenticated.
+     *
+     * If the path is only subscribed by internal listeners, the subscription
+     * is requested again with the given parameters and the listeners keep
+     * receiving its events.
+     *
+     * @param path The path that defines the event (e.g. /resource/id[/operation])
+     * @param callback The callback that is executed for every event that occurs.  May be null.
+     * @param parameters Parameters
+     */
     public void subscribe(String path, SubscriptionCallback callback, Map<String, Object> parameters) {
-        if (!this.wsauthenticated) {
-            throw new IllegalStateException("Must be connected to subscribe to events");
+        Subscription subscription =
+                new Subscription(path, callback, parameters, this.session.getSubscriptionDispatchConfig());
+        synchronized (this.subscriptions) {
+            Subscription existing = this.subscriptions.get(path);
+            if (existing != null && !existing.isInternal()) {
+                throw new IllegalStateException("Callback already registered for event: " + path);
+            }
+            if (existing != null) {
+                for (SubscriptionCallback listener : existing.getListeners()) {
+                    subscription.addListener(listener);
+                }
+            }
+            replace(existing, subscription);
+        }
+    }
+
+    /**
+     * Removes the subscription for the given path and asks the server to stop
+     * sending its events.  If internal listeners share the path, it is
+     * subscribed again for them alone.
+     *
+     * @param path The path used to subscribe
+     * @return true if there was a subscription for the path
+     */
+    public boolean unsubscribe(String path) {
+        synchronized (this.subscriptions) {
+            Subscription subscription = this.subscriptions.get(path);
+            if (subscription == null || subscription.isInternal()) {
+                return false;
+            }
+            List<SubscriptionCallback> listeners = subscription.getListeners();
+            replace(subscription, listeners.isEmpty() ? null : new Subscription(path, listeners));
         }
+        return true;
+    }
 
-        if (this.callbacks.containsKey(path)) {
-            throw new IllegalStateException("Callback already registered for event: " + path);
+    /**
+     * Adds an internal listener to the events of the given path, subscribing
+     * to them if neither the application nor another listener did.  Unlike
+     * {@link #subscribe}, this never fails because the path is subscribed
+     * already, and does not keep the application from subscribing to it.
+     *
+     * @param path The path that defines the event (e.g. /resource/id[/operation])
+     * @param listener The listener
+     */
+    public void addListener(String path, SubscriptionCallback listener) {
+        synchronized (this.subscriptions) {
+            Subscription subscription = this.subscriptions.get(path);
+            if (subscription == null) {
+                replace(null, new Subscription(path, Collections.singletonList(listener)));
+                return;
+            }
+            subscription.addListener(listener);
+            if (subscription.getState() == Subscription.State.SUBSCRIBED) {
+                listener.onConnect();
+            }
+        }
+    }
+
+    /**
+     * Removes an internal listener, unsubscribing from the path if it was the
+     * last user of the subscription.
+     *
+     * @param path The path used to add the listener
+     * @param listener The listener
+     * @return true if the listener was registered
+     */
+    public boolean removeListener(String path, SubscriptionCallback listener) {
+        synchronized (this.subscriptions) {
+            Subscription subscription = this.subscriptions.get(path);
+            if (subscription == null || !subscription.removeListener(listener)) {
+                return false;
+            }
+            if (subscription.isInternal() && subscription.getListeners().isEmpty()) {
+                replace(subscription, null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given internal listener receives the events of the
+     * given path
+     *
+     * @param path The path used to add the listener
+     * @param listener The listener
+     * @return true if the listener is registered
+     */
+    public boolean hasListener(String path, SubscriptionCallback listener) {
+        Subscription subscription = this.subscriptions.get(path);
+        return subscription != null && subscription.getListeners().contains(listener);
+    }
+
+    /**
+     * Replaces the subscription of a path, either of which may be null.  The
+     * old one is closed and unsubscribed, and the new one is requested.
+     * Called while holding the lock on the subscriptions.
+     */
+    private void replace(Subscription existing, Subscription replacement) {
+        String path = (existing != null ? existing : replacement).getPath();
+        if (replacement != null) {
+            this.subscriptions.put(path, replacement);
         } else {
-            this.callbacks.put(path, callback);
-            this.subscribed.put(path, Boolean.FALSE);
+            this.subscriptions.remove(path);
+        }
+        if (existing != null) {
+            existing.close();
+            sendUnsubscribe(path);
+        }
+        if (replacement != null && this.wsauthenticated) {
+            sendSubscribe(replacement);
         }
+    }
 
+    private void sendUnsubscribe(String path) {
+        WebSocket webSocket = this.webSocket;
+        if (webSocket != null && this.wsauthenticated) {
+            VantiqSubscriptionRequest request =
+                    new VantiqSubscriptionRequest(path, this.session.getAccessToken(), null);
+            request.op = "unsubscribe";
+            request.parameters.put("requestId", UNSUBSCRIBE_REQUEST_PREFIX + path);
+            webSocket.send(this.session.getJsonCodec().encode(request));
+        }
+    }
+
+    /**
+     * Returns true if the application subscribed to the given path
+     *
+     * @param path The path used to subscribe
+     * @return true if subscribed
+     */
+    public boolean isSubscribed(String path) {
+        Subscription subscription = this.subscriptions.get(path);
+        return subscription != null && !subscription.isInternal();
+    }
+
+    /**
+     * Returns true if the subscription for the given path is acknowledged
+     * and the WebSocket is connected, so its events are being received
+     *
+     * @param path The path used to subscribe
+     * @return true if the subscription is active
+     */
+    public boolean isActive(String path) {
+        Subscription subscription = this.subscriptions.get(path);
+        return subscription != null
+               && subscription.getState() == Subscription.State.SUBSCRIBED
+               && this.webSocket != null && this.wsauthenticated;
+    }
+
+    /**
+     * Returns a snapshot of the delivery state of every subscription, with
+     * the rates measured since the previous snapshot taken with the window
+     *
+     * @param window The totals of the previous snapshot of the reader
+     * @return The subscription stats
+     */
+    List<SubscriptionStats> getStats(Subscription.StatsWindow window) {
+        List<SubscriptionStats> stats = new ArrayList<SubscriptionStats>();
+        List<Subscription> current = new ArrayList<Subscription>(this.subscriptions.values());
+        for (Subscription subscription : current) {
+            stats.add(subscription.getStats(window));
+        }
+        window.retain(current);
+        return stats;
+    }
+
+    private void sendSubscribe(Subscription subscription) {
+        if (!subscription.markRequested()) {
+            return;
+        }
+        // A reconnect may replace the WebSocket at any time, so it is read once
+        WebSocket webSocket = this.webSocket;
+        if (webSocket == null || !this.wsauthenticated) {
+            // Requested with the others once the new WebSocket is authenticated,
+            // unless that happened in the meantime
+            subscription.clearRequested();
+            if (this.webSocket != null && this.wsauthenticated) {
+                sendSubscribe(subscription);
+            }
+            return;
+        }
         VantiqSubscriptionRequest request =
-                new VantiqSubscriptionRequest(path, this.session.getAccessToken(), parameters);
-        String body = VantiqSession.gson.toJson(request);
-        this.webSocket.send(body);
+                new VantiqSubscriptionRequest(subscription.getPath(), this.session.getAccessToken(),
+                                              subscription.getRequestParameters());
+        String body = this.session.getJsonCodec().encode(request);
+        webSocket.send(body);
     }
 
     public void ack(String requestId, String subscriptionId, Double sequenceId, Double partitionId) {
+        Subscription subscription = this.subscriptions.get(requestId);
+        if (subscription != null) {
+            subscription.recordAck(subscriptionId, sequenceId, partitionId);
+        }
+        sendAck(requestId, subscriptionId, sequenceId, partitionId);
+    }
+
+    private void sendAck(String requestId, String subscriptionId, Double sequenceId, Double partitionId) {
+        WebSocket webSocket = this.webSocket;
+        if (webSocket == null) {
+            // The server re-sends the event after the reconnect and it is acknowledged then
+            return;
+        }
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("subscriptionId", subscriptionId);
         params.put("sequenceId", sequenceId);
         params.put("partitionId", partitionId);
         VantiqAcknowledgementRequest request =
                 new VantiqAcknowledgementRequest(requestId, this.session.getAccessToken(), params);
-        String body = VantiqSession.gson.toJson(request);
-        this.webSocket.send(body);
+        String body = this.session.getJsonCodec().encode(request);
+        webSocket.send(body);
+    }
+
+    /**
+     * Reports an error of the WebSocket session to every subscription
+     *
+     * @param message The error message
+     */
+    public void deliverError(String message) {
+        for (Subscription subscription : this.subscriptions.values()) {
+            try {
+                subscription.deliverError(message);
+            } catch (RuntimeException ex) {
+                // A failing callback does not keep the others from being notified
+            }
+        }
+    }
+
+    /**
+     * Reports the loss of the WebSocket to every subscription, once it is not
+     * reconnected
+     *
+     * @param t The cause
+     */
+    public void deliverFailure(Throwable t) {
+        for (Subscription subscription : this.subscriptions.values()) {
+            try {
+                subscription.deliverFailure(t);
+            } catch (RuntimeException ex) {
+                // A failing callback does not keep the others from being notified
+            }
+        }
     }
 
     public void close() {
+        synchronized (this) {
+            this.closed = true;
+            if (this.reconnectHandle != null) {
+                this.reconnectHandle.cancel(false);
+                this.reconnectHandle = null;
+            }
+        }
+        for (Subscription subscription : this.subscriptions.values()) {
+            subscription.close();
+        }
         if (this.scheduledExecutor != null) {
             this.scheduledExecutor.shutdown();
             this.scheduledExecutor = null;
         }
-        if (this.webSocket != null) {
-            this.webSocket.close(1000, null);
-            this.webSocket = null;
+        WebSocket webSocket = this.webSocket;
+        this.webSocket = null;
+        if (webSocket != null) {
+            webSocket.close(1000, null);
         }
     }
 
@@ -161,10 +419,11 @@ public class VantiqSubscriber extends WebSocketListener {
         public void run() {
             VantiqSubscriber subscriber = VantiqSubscriber.this;
             try {
-                if (subscriber.webSocket != null) {
+                WebSocket webSocket = subscriber.webSocket;
+                if (webSocket != null) {
                     Buffer payload = new Buffer();
                     payload.writeString("Vantiq-Ping", StandardCharsets.ISO_8859_1);
-                    subscriber.webSocket.send(payload.readByteString());
+                    webSocket.send(payload.readByteString());
                 } else {
                     subscriber.pingerHandle.cancel(true);
                     subscriber.pingerHandle = null;
@@ -191,34 +450,119 @@ public class VantiqSubscriber extends WebSocketListener {
         //
         ValidateAuthenticationRequest request =
             new ValidateAuthenticationRequest(this.session.getAccessToken());
-        String body = VantiqSession.gson.toJson(request);
-        this.webSocket.send(body);
+        String body = this.session.getJsonCodec().encode(request);
+        webSocket.send(body);
     }
 
     @Override
     public void onFailure(@NotNull WebSocket webSocket, @NotNull Throwable t, Response response) {
-        this.lifecycleHandler.onFailure(t);
+        if (!isCurrent(webSocket)) {
+            return;
+        }
+        if (!scheduleReconnect()) {
+            this.lifecycleHandler.onFailure(t);
+        }
+    }
+
+    @Override
+    public void onClosing(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
+        // Complete the close handshake started by the server
+        webSocket.close(1000, null);
+    }
+
+    /**
+     * Returns false for the callbacks of a WebSocket that has already been
+     * replaced by a reconnect.
+     */
+    private boolean isCurrent(WebSocket webSocket) {
+        WebSocket current = this.webSocket;
+        return current == null || current == webSocket;
+    }
+
+    //--------------------------------------------------------------------------
+    // Reconnect Support
+    //--------------------------------------------------------------------------
+
+    /**
+     * Schedules a new WebSocket after the current one failed or was closed by
+     * the server, if a reconnect policy is set and its attempts are not used up.
+     *
+     * @return true if a reconnect was scheduled
+     */
+    private synchronized boolean scheduleReconnect() {
+        ReconnectPolicy policy = this.session.getReconnectPolicy();
+        if (this.closed || policy == null) {
+            return false;
+        }
+        if (policy.getMaxAttempts() > 0 && this.reconnectAttempts >= policy.getMaxAttempts()) {
+            return false;
+        }
+        this.webSocket = null;
+        this.wsauthenticated = false;
+        long delay = policy.getDelayMillis(this.reconnectAttempts++, ThreadLocalRandom.current().nextDouble());
+        this.reconnectHandle = VantiqSession.SchedulerHolder.EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Opens a new WebSocket.  Once the access token is validated on it, every
+     * registered subscription is requested again with its original parameters.
+     */
+    private void reconnect() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.reconnectHandle = null;
+            for (Subscription subscription : this.subscriptions.values()) {
+                subscription.resetForReconnect();
+            }
+        }
+        try {
+            connect();
+        } catch (RuntimeException ex) {
+            if (!scheduleReconnect()) {
+                this.lifecycleHandler.onFailure(ex);
+            }
+        }
     }
 
     @Override
     public void onMessage(@NotNull WebSocket webSocket, ByteString bodyBytes) {
-        String bodyStr = bodyBytes.utf8();
-        SubscriptionMessage msg =
-            VantiqSession.gson.fromJson(bodyStr, SubscriptionMessage.class);
+        SubscriptionMessage msg;
+        long decodeStart = System.nanoTime();
+        try {
+            msg = SubscriptionMessageDecoder.decode(bodyBytes, this.session.getJsonCodec());
+        } catch (IOException ex) {
+            throw new JsonSyntaxException(ex);
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+        if (msg == null) {
+            return;
+        }
 
         String requestId = null;
-        SubscriptionCallback callback = null;
-        boolean isSubscribed = false;
-        if (msg != null && msg.getHeaders() != null) {
+        Subscription subscription = null;
+        if (msg.getHeaders() != null) {
             requestId = msg.getHeaders().get("X-Request-Id");
-            callback = this.callbacks.get(requestId);
-            isSubscribed = this.subscribed.get(requestId);
+            if (requestId != null && requestId.startsWith(UNSUBSCRIBE_REQUEST_PREFIX)) {
+                // Nothing waits for the reply to an unsubscribe
+                return;
+            }
+            if (requestId != null) {
+                subscription = this.subscriptions.get(requestId);
+            }
         }
 
         if (this.wsauthenticated) {
 
-            // If the callback is null, this is the initial connection response
-            if (callback == null) {
+            // If there is no subscription, this is the initial connection response
+            if (subscription == null) {
                 if (msg.getStatus() == 200) {
                     //
                     // Once connected, we start pinging if requested.  Pinging will continue
@@ -227,43 +571,102 @@ public class VantiqSubscriber extends WebSocketListener {
                     // (Moved from onOpen so that the pings don't interfere with the authentication- this was causing
                     // tests to fail)
                     //
-                    if (this.enablePings) {
+                    if (this.enablePings && this.pingerHandle == null) {
                         startPeriodicPings();
                     }
                 } else {
                     this.lifecycleHandler.onError("Error authenticating WebSocket request", null);
                 }
             } else {
-
-                // If this is yet to be subscribed, then it's the subscription
-                // response
-                if(!isSubscribed) {
-                    if(msg.getStatus() == 200) {
-                        this.subscribed.put(requestId, Boolean.TRUE);
-                        callback.onConnect();
-                    } else if (msg.getStatus() == 100) {
-                        callback.onMessage(msg);
-                    } else {
-                        callback.onError("Error subscribing to '" + requestId + "'");
-                    }
-                } else {
-                    callback.onMessage(msg);
-                }
-
+                dispatch(subscription, msg, bodyBytes.size(), decodeNanos);
             }
 
         } else {
             if (msg.getStatus() == 200) {
                 this.wsauthenticated = true;
+                synchronized (this) {
+                    this.reconnectAttempts = 0;
+                }
                 this.lifecycleHandler.onConnect();
+
+                // Send the subscriptions made while the session was being authenticated
+                for (Subscription pending : this.subscriptions.values()) {
+                    sendSubscribe(pending);
+                }
             } else {
                 this.lifecycleHandler.onError("Error establishing authenticated WebSocket session", null);
             }
         }
     }
 
+    /**
+     * Delivers a message to its subscription.  While the subscription is pending,
+     * the message is the response to the subscribe request.
+     */
+    private void dispatch(Subscription subscription, SubscriptionMessage msg, long bytes, long decodeNanos) {
+        if (subscription.getState() == Subscription.State.SUBSCRIBED || msg.getStatus() == 100) {
+            deliverEvent(subscription, msg, bytes, decodeNanos);
+        } else if (msg.getStatus() == 200) {
+            String name = null;
+            if (msg instanceof SubscriptionMessageDecoder.DecodedSubscriptionMessage) {
+                name = ((SubscriptionMessageDecoder.DecodedSubscriptionMessage) msg)
+                    .getBodyString(SubscriptionMessageDecoder.SUBSCRIPTION_NAME);
+            }
+            if (name != null) {
+                subscription.setSubscriptionName(name);
+            }
+            subscription.markSubscribed();
+            subscription.deliverConnect();
+        } else {
+            subscription.setState(Subscription.State.FAILED);
+            subscription.deliverError("Error subscribing to '" + subscription.getPath() + "'");
+        }
+    }
+
+    /**
+     * Updates the stats of the subscription with an event and delivers it.
+     * Reliable events carry the sequence and partition ids used to acknowledge
+     * them.  An event that was already acknowledged is one the server re-sent
+     * after a reconnect, so it is acknowledged again instead of delivered.
+     */
+    private void deliverEvent(Subscription subscription, SubscriptionMessage msg,
+                              long bytes, long decodeNanos) {
+        Double sequenceId = null;
+        Double partitionId = null;
+        if (msg instanceof SubscriptionMessageDecoder.DecodedSubscriptionMessage) {
+            // Read from the JSON tree, so the body is only converted if the callback asks for it
+            SubscriptionMessageDecoder.DecodedSubscriptionMessage decoded =
+                (SubscriptionMessageDecoder.DecodedSubscriptionMessage) msg;
+            sequenceId = decoded.getBodyNumber(SubscriptionMessageDecoder.SEQUENCE_ID);
+            if (sequenceId != null) {
+                partitionId = decoded.getBodyNumber(SubscriptionMessageDecoder.PARTITION_ID);
+            }
+        }
+        subscription.recordMessage(bytes, decodeNanos, sequenceId, partitionId);
+        if (subscription.isAcknowledged(sequenceId, partitionId)) {
+            sendAck(subscription.getPath(), subscription.getSubscriptionName(), sequenceId, partitionId);
+            return;
+        }
+        subscription.deliverMessage(msg);
+    }
+
     @Override
     public void onClosed(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
-        this.lifecycleHandler.onClose();
+        if (!isCurrent(webSocket)) {
+            return;
+        }
+        if (!scheduleReconnect()) {
+            int attempts;
+            synchronized (this) {
+                attempts = this.reconnectAttempts;
+            }
+            if (attempts > 0) {
+                // Reconnecting, but the attempts are used up
+                this.lifecycleHandler.onFailure(new IOException("WebSocket closed after " + attempts
+                                                                + " reconnect attempts: " + code + " " + reason));
+            } else {
+                this.lifecycleHandler.onClose();
+            }
+        }
     }
 }
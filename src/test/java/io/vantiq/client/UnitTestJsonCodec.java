@@ -0,0 +1,47 @@
+package io.vantiq.client;
+
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JSON codec used for unit tests to record what it encoded and decoded.  It
+ * is not a {@link GsonCodec}, so the client cannot use Gson directly.
+ */
+public class UnitTestJsonCodec implements JsonCodec {
+
+    public final List<Object> encoded = Collections.synchronizedList(new ArrayList<Object>());
+    public final List<Type> decoded = Collections.synchronizedList(new ArrayList<Type>());
+
+    private final JsonCodec delegate = GsonCodec.getDefault();
+
+    @Override
+    public String encode(Object value) {
+        this.encoded.add(value);
+        return this.delegate.encode(value);
+    }
+
+    @Override
+    public void encode(Object value, Writer writer) throws IOException {
+        this.encoded.add(value);
+        this.delegate.encode(value, writer);
+    }
+
+    @Override
+    public <T> T decode(Reader reader, Type type) throws IOException {
+        this.decoded.add(type);
+        return this.delegate.decode(reader, type);
+    }
+
+    @Override
+    public <T> T decode(JsonElement tree, Type type) {
+        this.decoded.add(type);
+        return this.delegate.decode(tree, type);
+    }
+}
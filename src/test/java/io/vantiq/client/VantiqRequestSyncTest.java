@@ -1,6 +1,11 @@
 package io.vantiq.client;
 
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import okhttp3.HttpUrl;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -9,6 +14,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -115,6 +125,179 @@ public class VantiqRequestSyncTest extends VantiqTestBase {
         assertThat("Valid body", ((List<JsonObject>) response.getBody()).get(0).get("b").getAsString(), is("bingo"));
     }
 
+    @Test
+    public void testSelectStream() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).addProperty("b", "bingo").obj())
+                                                .add(new JsonObjectBuilder().addProperty("a", 2).addProperty("b", "jenga").obj())
+                                                .json()));
+
+        JsonObject where = new JsonObjectBuilder().addProperty("a", 1).obj();
+        VantiqResponse response = vantiq.selectStream("MyType", null, where, new SortSpec("a", false));
+
+        RecordedRequest request = server.takeRequest();
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Valid path", url.encodedPath(), is("/api/v1/resources/custom/MyType"));
+        assertThat("Valid where", url.queryParameter("where"), is("{\"a\":1}"));
+        assertThat("Valid sort",  url.queryParameter("sort"),  is("{\"a\":1}"));
+
+        assertTrue("Successful response", response.isSuccess());
+        RecordIterator<JsonObject> records = (RecordIterator<JsonObject>) response.getBody();
+        assertTrue("First record", records.hasNext());
+        assertThat("Valid record", records.next().get("b").getAsString(), is("bingo"));
+        assertThat("Valid record", records.next().get("b").getAsString(), is("jenga"));
+        assertFalse("No more records", records.hasNext());
+    }
+
+    @Test
+    public void testSelectStreamJsonCodec() throws Exception {
+        UnitTestJsonCodec codec = new UnitTestJsonCodec();
+        vantiq.setJsonCodec(codec);
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).obj())
+                                                .add(new JsonObjectBuilder().addProperty("a", 2).obj())
+                                                .json()));
+
+        VantiqResponse response = vantiq.selectStream("MyType", null, null, null);
+        RecordIterator<JsonObject> records = (RecordIterator<JsonObject>) response.getBody();
+        assertThat("First record", records.next().get("a").getAsInt(), is(1));
+        assertThat("Second record", records.next().get("a").getAsInt(), is(2));
+        assertFalse("No more records", records.hasNext());
+
+        // Each record is bound by the codec
+        assertThat("Decoded records", codec.decoded, is(Arrays.<Type>asList(JsonObject.class, JsonObject.class)));
+    }
+
+    @Test
+    public void testSelectStreamAsStream() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).obj())
+                                                .add(new JsonObjectBuilder().addProperty("a", 2).obj())
+                                                .add(new JsonObjectBuilder().addProperty("a", 3).obj())
+                                                .json()));
+
+        VantiqResponse response = vantiq.selectStream("MyType", null, null, null);
+        RecordIterator<JsonObject> records = (RecordIterator<JsonObject>) response.getBody();
+        int sum = records.stream().mapToInt(r -> r.get("a").getAsInt()).sum();
+        assertThat("Sum of records", sum, is(6));
+    }
+
+    @Test
+    public void testSelectStreamError() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(404)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"code\":\"com.accessg2.ag2rs.type.not.found\",\"message\":\"Not found\",\"params\":[]}]"));
+
+        VantiqResponse response = vantiq.selectStream("MyType", null, null, null);
+        assertFalse("Error response", response.isSuccess());
+        assertThat("Error code", response.getErrors().get(0).getCode(), is("com.accessg2.ag2rs.type.not.found"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSelectPaged() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setHeader("X-Total-Count", 3)
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("_id", "id1").obj())
+                                                .add(new JsonObjectBuilder().addProperty("_id", "id2").obj())
+                                                .json()));
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setHeader("X-Total-Count", 1)
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("_id", "id3").obj())
+                                                .json()));
+
+        Map<String,Object> where = new HashMap<String,Object>();
+        where.put("a", 1);
+        SelectCursor cursor = vantiq.selectPaged("MyType", null, where, null, 2);
+
+        assertTrue("First page", cursor.hasNext());
+        VantiqResponse page = cursor.next();
+        assertTrue("Successful response", page.isSuccess());
+        assertThat("Page size", ((List<JsonObject>) page.getBody()).size(), is(2));
+        assertThat("Total count", cursor.getTotalCount(), is(3));
+
+        RecordedRequest request = server.takeRequest();
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Valid where", url.queryParameter("where"), is("{\"a\":1}"));
+        assertThat("Valid sort",  url.queryParameter("sort"),  is("{\"_id\":1}"));
+        assertThat("Valid limit", url.queryParameter("limit"), is("2"));
+
+        // The second page continues from the last _id of the first
+        assertTrue("Second page", cursor.hasNext());
+        page = cursor.next();
+        assertThat("Page size", ((List<JsonObject>) page.getBody()).size(), is(1));
+        assertThat("Total count", cursor.getTotalCount(), is(3));
+        assertFalse("No more pages", cursor.hasNext());
+
+        request = server.takeRequest();
+        url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Valid where", url.queryParameter("where"),
+                   is("{\"$and\":[{\"a\":1},{\"_id\":{\"$gt\":\"id2\"}}]}"));
+    }
+
+    @Test
+    public void testSelectPagedMissingSortKey() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).obj())
+                                                .json()));
+
+        // The page is returned even though the cursor cannot continue from it
+        SelectCursor cursor = vantiq.selectPaged("MyType", null, null, null, 1);
+        VantiqResponse page = cursor.next();
+        assertTrue("Successful response", page.isSuccess());
+        assertThat("Page size", ((List<JsonObject>) page.getBody()).size(), is(1));
+
+        assertTrue("Failed page", cursor.hasNext());
+        page = cursor.next();
+        assertTrue("Exception", page.getException() instanceof IllegalStateException);
+        assertFalse("No more pages", cursor.hasNext());
+        assertThat("Single request", server.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void testSelectPagedSkip() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).obj())
+                                                .json()));
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[]"));
+
+        SelectCursor cursor = vantiq.selectPaged("MyType", null, null, new SortSpec("a", true), 1);
+        assertTrue("Successful response", cursor.next().isSuccess());
+        assertTrue("Successful response", cursor.next().isSuccess());
+        assertFalse("No more pages", cursor.hasNext());
+
+        server.takeRequest();
+        RecordedRequest request = server.takeRequest();
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Valid skip", url.queryParameter("skip"), is("1"));
+        assertNull("No where", url.queryParameter("where"));
+    }
+
     @Test
     public void testSelectOne() throws Exception {
         server.enqueue(new MockResponse()
@@ -211,6 +394,9 @@ public class VantiqRequestSyncTest extends VantiqTestBase {
         assertThat("Valid request body", reqObj.get("a").getAsInt(),    is(1));
         assertThat("Valid request body", reqObj.get("b").getAsString(), is("foo"));
 
+        // The body is encoded as it is sent
+        assertThat("Streamed request body", request.getHeader("Transfer-Encoding"), is("chunked"));
+
         // Check response
         assertTrue("Successful response", response.isSuccess());
         assertThat("Valid body", ((JsonObject) response.getBody()).get("a").getAsInt(), is(1));
@@ -282,6 +468,72 @@ public class VantiqRequestSyncTest extends VantiqTestBase {
         assertThat("Valid body", ((JsonObject) response.getBody()).get("b").getAsString(), is("foo"));
     }
 
+    @Test
+    public void testInsertAll() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[]"));
+        server.enqueue(new MockResponse()
+                               .setResponseCode(400)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"code\":\"io.vantiq.bad\",\"message\":\"Bad\",\"params\":[]}]"));
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[]"));
+
+        List<JsonObject> records = new ArrayList<JsonObject>();
+        for(int i = 0; i < 5; i++) {
+            records.add(new JsonObjectBuilder().addProperty("a", i).obj());
+        }
+
+        BulkWriteResponse response = vantiq.insertAll("MyType", records, 2, 1);
+
+        // The records are sent in chunks of two
+        RecordedRequest request = server.takeRequest();
+        assertThat("Valid path", request.getPath(), is("/api/v1/resources/custom/MyType"));
+        JsonArray chunk = gson.fromJson(readAll(request.getBody()), JsonArray.class);
+        assertThat("Chunk size", chunk.size(), is(2));
+        server.takeRequest();
+        chunk = gson.fromJson(readAll(server.takeRequest().getBody()), JsonArray.class);
+        assertThat("Last chunk size", chunk.size(), is(1));
+        assertThat("Last chunk record", chunk.get(0).getAsJsonObject().get("a").getAsInt(), is(4));
+
+        // Check the aggregated response
+        assertFalse("Failed response", response.isSuccess());
+        assertThat("Chunks",  response.getChunks().size(), is(3));
+        assertThat("Records", response.getRecordCount(), is(5L));
+        assertThat("Failed chunks", response.getFailedChunks().size(), is(1));
+        BulkWriteResponse.Chunk failed = response.getFailedChunks().get(0);
+        assertThat("Failed offset", failed.getOffset(), is(2L));
+        assertThat("Failed error", failed.getResponse().getErrors().get(0).getCode(), is("io.vantiq.bad"));
+    }
+
+    @Test
+    public void testUpsertAll() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[]"));
+
+        List<JsonObject> records = Arrays.asList(
+            new JsonObjectBuilder().addProperty("_id", "abc").addProperty("a", 1).obj(),
+            new JsonObjectBuilder().addProperty("a", 2).obj());
+
+        BulkWriteResponse response = vantiq.upsertAll("MyType", records);
+
+        RecordedRequest request = server.takeRequest();
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Upsert parameter", url.queryParameter("upsert"), is("true"));
+        JsonArray chunk = gson.fromJson(readAll(request.getBody()), JsonArray.class);
+        assertThat("Chunk size", chunk.size(), is(2));
+        assertFalse("No _id", chunk.get(0).getAsJsonObject().has("_id"));
+
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Chunks", response.getChunks().size(), is(1));
+    }
+
     @Test
     public void testDelete() throws Exception {
         server.enqueue(new MockResponse()
@@ -414,6 +666,261 @@ public class VantiqRequestSyncTest extends VantiqTestBase {
         assertThat("Valid body", ((JsonObject) response.getBody()).get("total").getAsInt(), is(3));
     }
 
+    @Test
+    public void testGetBodyAs() throws Exception {
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"a\",\"total\":3},{\"name\":\"b\",\"total\":4}]"));
+
+        VantiqResponse response = vantiq.execute("totals", new JsonObject());
+        assertTrue("Successful response", response.isSuccess());
+
+        // Bound from the undecoded body
+        List<Total> totals = response.getBodyAs(new TypeToken<List<Total>>(){}.getType());
+        assertThat("Total count", totals.size(), is(2));
+        assertThat("Total name", totals.get(1).name, is("b"));
+        assertThat("Total value", totals.get(1).total, is(4));
+
+        // The untyped body is still available, and can be bound again afterwards
+        assertThat("Parsed body", ((JsonArray) response.getBody()).size(), is(2));
+        Total[] array = response.getBodyAs(Total[].class);
+        assertThat("Bound from parsed body", array[0].total, is(3));
+    }
+
+    @Test
+    public void testSelectAs() throws Exception {
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"a\",\"total\":3},{\"name\":\"b\",\"total\":4}]"));
+
+        VantiqResponse response = vantiq.selectAs("Totals", Total.class, Arrays.asList("name", "total"), null, null);
+
+        RecordedRequest request = server.takeRequest();
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        assertThat("Valid path", url.encodedPath(), is("/api/v1/resources/custom/Totals"));
+        assertThat("Valid props", url.queryParameter("props"), is("[\"name\",\"total\"]"));
+
+        assertTrue("Successful response", response.isSuccess());
+        List<Total> totals = (List<Total>) response.getBody();
+        assertThat("Total count", totals.size(), is(2));
+        assertThat("Total name", totals.get(0).name, is("a"));
+        assertThat("Total value", totals.get(1).total, is(4));
+    }
+
+    @Test
+    public void testSelectOneAsAndExecuteAs() throws Exception {
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{\"name\":\"a\",\"total\":3}"));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"b\",\"total\":4}]"));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{\"name\":[]}"));
+
+        VantiqResponse response = vantiq.selectOneAs("Totals", "a", Total.class);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Selected total", ((Total) response.getBody()).total, is(3));
+
+        response = vantiq.executeAs("totals", new JsonObject(), new TypeToken<List<Total>>(){}.getType());
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Executed total", ((List<Total>) response.getBody()).get(0).name, is("b"));
+
+        // A result that cannot be bound is reported as an exception
+        response = vantiq.selectOneAs("Totals", "c", Total.class);
+        assertTrue("Binding exception", response.hasException());
+    }
+
+    @Test
+    public void testMalformedBody() throws Exception {
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"a\",\"total\":3},"));
+
+        // A malformed body is reported as an exception, not when the body is read
+        VantiqResponse response = vantiq.select("MyType", null, null, null);
+        assertTrue("Exception", response.hasException());
+        assertFalse("Not successful", response.isSuccess());
+        assertNull("No body", response.getBody());
+        assertThat("Printable", response.toString(), containsString("exception:"));
+
+        // Bodies are parsed leniently, as they always were
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{name:'a', total:3}"));
+        response = vantiq.execute("totals", new JsonObject());
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Lenient body", response.getBodyAs(Total.class).total, is(3));
+    }
+
+    static class Total {
+        String name;
+        int total;
+    }
+
+    @Test
+    public void testRequestMetrics() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        vantiq.setRequestListener(registry);
+
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"a\",\"total\":3}]"));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{}"));
+        server.enqueue(new MockResponse()
+                                .setResponseCode(404));
+
+        vantiq.select("Totals", null, null, null);
+        vantiq.insert("Totals", new JsonObject());
+        vantiq.execute("whoops", new JsonObject());
+
+        Map<String, MetricsRegistry.OperationMetrics> snapshot = registry.getSnapshot();
+        MetricsRegistry.OperationMetrics select = snapshot.get("select");
+        assertThat("Select count", select.getCount(), is(1L));
+        assertThat("Select status", select.getStatusCounts().get(200), is(1L));
+        assertThat("Select bytes received", select.getBytesReceived(), is(24L));
+        assertThat("Select errors", select.getErrorCount(), is(0L));
+        assertTrue("Select latency", select.getTotalNanos() > 0);
+        assertThat("Histogram", select.getBucketCounts().length, is(MetricsRegistry.BUCKET_BOUNDS_MILLIS.length + 1));
+
+        assertThat("Insert bytes sent", snapshot.get("insert").getBytesSent(), is(2L));
+
+        MetricsRegistry.OperationMetrics execute = snapshot.get("execute");
+        assertThat("Execute status", execute.getStatusCounts().get(404), is(1L));
+        assertThat("Execute errors", execute.getErrorCount(), is(1L));
+
+        // A count is a GET of the records too, but is reported as a count
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"_id\":\"1\"}]"));
+        vantiq.count("Totals", null);
+        snapshot = registry.getSnapshot();
+        assertThat("Count count", snapshot.get("count").getCount(), is(1L));
+        assertThat("Select count", snapshot.get("select").getCount(), is(1L));
+    }
+
+    @Test
+    public void testRetryPolicy() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        vantiq.setRequestListener(registry);
+        vantiq.setRetryPolicy(RetryPolicy.builder().initialDelayMillis(1).build());
+
+        // Reads are retried, honoring Retry-After
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "0"));
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("[{\"name\":\"a\"}]"));
+        VantiqResponse response = vantiq.select("Totals", null, null, null);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Select retries", registry.getSnapshot().get("select").getRetryCount(), is(2L));
+        server.takeRequest();
+        server.takeRequest();
+        server.takeRequest();
+
+        // Writes are not retried without an idempotency key
+        server.enqueue(new MockResponse().setResponseCode(503));
+        response = vantiq.insert("Totals", new JsonObject());
+        assertThat("Insert status", response.getStatusCode(), is(503));
+        assertNull("No idempotency key", server.takeRequest().getHeader("Idempotency-Key"));
+
+        // With a key, the write is retried with the same key
+        vantiq.setRetryPolicy(vantiq.getRetryPolicy().toBuilder().idempotencyKeyHeader("Idempotency-Key").build());
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{}"));
+        response = vantiq.insert("Totals", new JsonObject());
+        assertTrue("Successful response", response.isSuccess());
+        String key = server.takeRequest().getHeader("Idempotency-Key");
+        assertNotNull("Idempotency key", key);
+        RecordedRequest retried = server.takeRequest();
+        assertThat("Same key", retried.getHeader("Idempotency-Key"), is(key));
+        assertThat("Body sent again", retried.getBody().readUtf8(), is("{}"));
+    }
+
+    @Test
+    public void testJsonCodec() throws Exception {
+        vantiq.setJsonCodec(new GsonCodec(new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE)
+                .create()));
+
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{}"));
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{\"Name\":\"b\",\"Total\":4}"));
+
+        Total total = new Total();
+        total.name = "a";
+        total.total = 3;
+        VantiqResponse response = vantiq.insert("Totals", total);
+        assertTrue("Successful response", response.isSuccess());
+
+        // The object is encoded with the codec
+        RecordedRequest request = server.takeRequest();
+        assertThat("Encoded body", request.getBody().readUtf8(), is("{\"Name\":\"a\",\"Total\":3}"));
+
+        // The result is bound with the codec
+        response = vantiq.selectOneAs("Totals", "b", Total.class);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Bound name", ((Total) response.getBody()).name, is("b"));
+        assertThat("Bound total", ((Total) response.getBody()).total, is(4));
+    }
+
+    @Test
+    public void testJsonCodecUntyped() throws Exception {
+        final List<Type> decoded = new ArrayList<Type>();
+        final List<Object> encoded = new ArrayList<Object>();
+        vantiq.setJsonCodec(new GsonCodec(new GsonBuilder().create()) {
+            @Override
+            public void encode(Object value, Writer writer) throws IOException {
+                encoded.add(value);
+                super.encode(value, writer);
+            }
+
+            @Override
+            public <T> T decode(Reader reader, Type type) throws IOException {
+                decoded.add(type);
+                return super.decode(reader, type);
+            }
+        });
+
+        server.enqueue(new MockResponse()
+                                .setHeader("Content-Type", "application/json")
+                                .setResponseCode(200)
+                                .setBody("{\"a\":1}"));
+
+        JsonObject record = new JsonObject();
+        record.addProperty("a", 1);
+        VantiqResponse response = vantiq.insert("Totals", record);
+        assertTrue("Successful response", response.isSuccess());
+
+        // JSON trees are encoded and untyped bodies are parsed with the codec
+        assertThat("Encoded body", server.takeRequest().getBody().readUtf8(), is("{\"a\":1}"));
+        assertTrue("Encoded tree", encoded.contains(record));
+        assertThat("Untyped body", ((JsonObject) response.getBody()).get("a").getAsInt(), is(1));
+        assertTrue("Parsed tree", decoded.contains(JsonElement.class));
+    }
+
     @Test
     public void testMissingProcedure() throws Exception {
         server.enqueue(new MockResponse()
@@ -479,6 +986,29 @@ public class VantiqRequestSyncTest extends VantiqTestBase {
                                                         null);
     }
 
+    @Test
+    public void testUnsubscribe() throws Exception {
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, null);
+        vantiq.subscribe(Vantiq.SystemResources.TYPES.value(), "MyType", Vantiq.TypeOperation.INSERT, null);
+
+        try {
+            vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, null);
+            fail("Duplicate subscription should fail");
+        } catch (IllegalStateException ex) {
+            assertThat("Duplicate error", ex.getMessage(), is("Callback already registered for event: /topics/test/topic"));
+        }
+
+        assertTrue("Unsubscribed", vantiq.unsubscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null));
+        assertFalse("Already unsubscribed", vantiq.unsubscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null));
+
+        // The path can be subscribed again and the other subscription is unaffected
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, null);
+        assertTrue("Type unsubscribed",
+                   vantiq.unsubscribe(Vantiq.SystemResources.TYPES.value(), "MyType", Vantiq.TypeOperation.INSERT));
+        vantiq.unsubscribeAll();
+        assertFalse("No subscriptions", vantiq.unsubscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null));
+    }
+
     @Test
     public void testUploadInvalidSession() throws Exception {
         server.enqueue(new MockResponse()
@@ -2,17 +2,32 @@ package io.vantiq.client;
 
 import com.google.gson.JsonObject;
 import okhttp3.HttpUrl;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.*;
 
@@ -24,6 +39,9 @@ public class VantiqRequestTest extends VantiqTestBase {
 
     private Vantiq vantiq;
 
+    // Text frames received by the mocked WebSockets
+    private final List<String> webSocketRequests = Collections.synchronizedList(new ArrayList<String>());
+
     @Before
     public void setUpVantiq() throws Exception {
         vantiq = new Vantiq(server.url("/").toString());
@@ -72,6 +90,27 @@ public class VantiqRequestTest extends VantiqTestBase {
         assertThat("Valid body", handler.getBodyAsList().get(0).get("a").getAsInt(), is(1));
     }
 
+    @Test
+    public void testSelectMalformedBody() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"a\":1},"));
+
+        vantiq.select("MyType", null, null, null, handler);
+        waitForCompletion();
+        assertTrue("Failure", handler.failure);
+        assertTrue("Exception", handler.hasException());
+
+        // The same holds for the futures, which decode the body on demand
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"a\":1},"));
+        VantiqResponse response = vantiq.selectAsync("MyType", null, null, null).get(5, TimeUnit.SECONDS);
+        assertTrue("Future exception", response.hasException());
+    }
+
     @Test
     public void testSelectQueryWithConstraints() throws Exception {
         server.enqueue(new MockResponse()
@@ -101,6 +140,138 @@ public class VantiqRequestTest extends VantiqTestBase {
         assertThat("Valid body", handler.getBodyAsList().get(0).get("b").getAsString(), is("bingo"));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSelectAsync() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).addProperty("b", "bingo").obj())
+                                                .json()));
+
+        CompletableFuture<VantiqResponse> future = vantiq.selectAsync("MyType", null, null, null);
+        VantiqResponse response = future.get(5, TimeUnit.SECONDS);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Valid body", ((List<JsonObject>) response.getBody()).get(0).get("a").getAsInt(), is(1));
+    }
+
+    @Test
+    public void testInsertAsyncError() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(400)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"code\":\"io.vantiq.bad.request\",\"message\":\"Bad\",\"params\":[]}]"));
+
+        VantiqResponse response = vantiq.insertAsync("MyType", new JsonObject()).get(5, TimeUnit.SECONDS);
+        assertFalse("Error response", response.isSuccess());
+        assertThat("Error code", response.getErrors().get(0).getCode(), is("io.vantiq.bad.request"));
+    }
+
+    @Test
+    public void testCancelAsync() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeadersDelay(10, TimeUnit.SECONDS)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("{}"));
+
+        CompletableFuture<VantiqResponse> future = vantiq.executeAsync("slowProcedure", null);
+        server.takeRequest();
+        assertTrue("Cancelled", future.cancel(true));
+        assertTrue("Future cancelled", future.isCancelled());
+    }
+
+    @Test
+    public void testPublishBatcher() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"status\":200},"
+                                        + "{\"status\":400,\"body\":[{\"code\":\"io.vantiq.bad\",\"message\":\"Bad\",\"params\":[]}]}]"));
+
+        final CountDownLatch done = new CountDownLatch(2);
+        BaseResponseHandler first = new BaseResponseHandler() {
+            @Override
+            public void completionHook(boolean success) { done.countDown(); }
+        };
+        BaseResponseHandler second = new BaseResponseHandler() {
+            @Override
+            public void completionHook(boolean success) { done.countDown(); }
+        };
+
+        PublishBatcher batcher = new PublishBatcher(vantiq, 2, 1024, 60000, 10);
+        batcher.publish("topics", "sensors", new JsonObjectBuilder().addProperty("a", 1).obj(), first);
+        batcher.publish("topics", "sensors", new JsonObjectBuilder().addProperty("a", 2).obj(), second);
+        assertTrue("Batch completed", done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+
+        // Both events are sent in a single batch request
+        RecordedRequest request = server.takeRequest();
+        assertThat("Valid path", request.getPath(), is("/api/v1/batch"));
+        String body = readAll(request.getBody());
+        assertThat("Valid uri", body, containsString("\"uri\":\"/resources/topics/sensors\""));
+        assertThat("Valid body", body, containsString("\"body\":{\"a\":2}"));
+
+        assertTrue("First published", first.getResponse().isSuccess());
+        assertFalse("Second failed", second.getResponse().isSuccess());
+        assertThat("Event status", second.getStatusCode(), is(400));
+        assertThat("Error code", second.getErrors().get(0).getCode(), is("io.vantiq.bad"));
+        assertThat("Nothing pending", batcher.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void testPublishBatcherFull() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("[{\"status\":200}]"));
+
+        BaseResponseHandler first = new BaseResponseHandler();
+        BaseResponseHandler second = new BaseResponseHandler();
+
+        PublishBatcher batcher = new PublishBatcher(vantiq, 10, 1024, 60000, 1, 0);
+        batcher.publish("topics", "sensors", new JsonObjectBuilder().addProperty("a", 1).obj(), first);
+        batcher.publish("topics", "sensors", new JsonObjectBuilder().addProperty("a", 2).obj(), second);
+
+        // The second publish does not wait for room
+        assertTrue("Second rejected", second.hasException());
+        assertThat("Timed out", second.getException(), instanceOf(TimeoutException.class));
+        assertThat("One pending", batcher.getPendingCount(), is(1));
+        batcher.close();
+    }
+
+    @Test
+    public void testSelectStream() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody(new JsonArrayBuilder()
+                                                .add(new JsonObjectBuilder().addProperty("a", 1).addProperty("b", "bingo").obj())
+                                                .add(new JsonObjectBuilder().addProperty("a", 2).addProperty("b", "jenga").obj())
+                                                .json()));
+
+        final List<JsonObject> records = new ArrayList<JsonObject>();
+        class StreamHandler extends UnitTestResponseHandler implements RecordHandler<JsonObject> {
+            @Override
+            public void onRecord(JsonObject record) {
+                records.add(record);
+            }
+        }
+        StreamHandler streamHandler = new StreamHandler();
+
+        vantiq.selectStream("MyType", null, null, null, streamHandler);
+        synchronized (streamHandler) {
+            if (!streamHandler.success) {
+                streamHandler.wait(2000);
+            }
+        }
+
+        assertTrue("Successful response", streamHandler.success);
+        assertThat("Record count", streamHandler.getBodyAsInt(), is(2));
+        assertThat("Valid record", records.get(1).get("b").getAsString(), is("jenga"));
+    }
+
     @Test
     public void testSelectOne() throws Exception {
         server.enqueue(new MockResponse()
@@ -207,6 +378,65 @@ public class VantiqRequestTest extends VantiqTestBase {
         assertThat("Valid body", handler.getBodyAsJsonObject().get("b").getAsString(), is("foo"));
     }
 
+    @Test
+    public void testInsertLargeBody() throws Exception {
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("{}"));
+
+        // Small values are sent with their length
+        vantiq.insert("MyType", new JsonObjectBuilder().addProperty("a", 1).obj(), handler);
+        waitForCompletion();
+        RecordedRequest request = server.takeRequest();
+        assertThat("Content-Length", request.getHeader("Content-Length"), is("7"));
+
+        // Large values are streamed
+        server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setBody("{}"));
+        List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 5000; i++) {
+            Map<String, Object> record = new HashMap<String, Object>();
+            record.put("id", i);
+            record.put("name", "record " + i);
+            records.add(record);
+        }
+        VantiqResponse response = vantiq.insertAsync("MyType", records).get(5, TimeUnit.SECONDS);
+        assertTrue("Successful response: " + response, response.isSuccess());
+
+        request = server.takeRequest();
+        assertNull("No Content-Length", request.getHeader("Content-Length"));
+        assertThat("Chunked", request.getHeader("Transfer-Encoding"), is("chunked"));
+        List<?> sent = gson.fromJson(readAll(request.getBody()), List.class);
+        assertThat("Valid request body", sent.size(), is(5000));
+    }
+
+    @Test
+    public void testInsertUnserializable() throws Exception {
+        // Small values are encoded up front, so the error is thrown to the caller
+        Map<String, Object> record = new HashMap<String, Object>();
+        record.put("value", Double.NaN);
+        try {
+            vantiq.insertAsync("MyType", record);
+            fail("Encoding error not thrown");
+        } catch (IllegalArgumentException ex) {
+            assertThat("Encoding error", ex.getMessage(), containsString("NaN"));
+        }
+        assertThat("No request sent", server.getRequestCount(), is(1));
+
+        // Large values are encoded as they are sent, so the error fails the request
+        List<Object> records = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++) {
+            records.add(Collections.singletonMap("name", "record " + i));
+        }
+        records.add(record);
+        VantiqResponse response = vantiq.insertAsync("MyType", records).get(5, TimeUnit.SECONDS);
+        assertTrue("Failed: " + response, response.hasException());
+        assertThat("Encoding error", response.getException().getCause(), instanceOf(IllegalArgumentException.class));
+    }
+
     @Test
     public void testUpdate() throws Exception {
         server.enqueue(new MockResponse()
@@ -662,4 +892,568 @@ public class VantiqRequestTest extends VantiqTestBase {
         assertThat("Valid body - name", ((JsonObject) handler.getBody()).get("name").getAsString(), is("testVideo.mp4"));
         assertThat("Valid body - fileType", ((JsonObject) handler.getBody()).get("fileType").getAsString(), is("video/mp4"));
     }
+
+    @Test
+    public void testSubscriptionDispatch() throws Exception {
+        final String path = "/topics/test/topic";
+        final int eventCount = 5;
+
+        String[] events = new String[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            events[i] = "{\"value\":" + i + "}";
+        }
+        enqueueWebSocket(path, events);
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = new ArrayList<String>();
+        final List<SubscriptionMessage> received = new ArrayList<SubscriptionMessage>();
+        SubscriptionCallback callback = new UnitTestSubscriptionCallback() {
+            @Override
+            public void onConnect() {
+                connected.countDown();
+            }
+
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (received) {
+                    threads.add(Thread.currentThread().getName());
+                    received.add(message);
+                }
+            }
+        };
+
+        vantiq.setSubscriptionDispatchConfig(SubscriptionDispatchConfig.builder()
+                                                     .queueCapacity(2)
+                                                     .overflowPolicy(SubscriptionDispatchConfig.OverflowPolicy.DROP_NEWEST)
+                                                     .build());
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, callback);
+        assertTrue("Connected", connected.await(5, TimeUnit.SECONDS));
+
+        // The callback is blocked, so at most one event is in flight and two are queued
+        SubscriptionStats stats = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            stats = vantiq.getSubscriptionStats().get(0);
+            if (stats.getDroppedCount() >= eventCount - 3) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertThat("Path", stats.getPath(), is(path));
+        assertTrue("Events dropped: " + stats, stats.getDroppedCount() >= eventCount - 3);
+        assertTrue("Queue bounded: " + stats, stats.getQueueDepth() <= 2);
+
+        release.countDown();
+        int expected = eventCount - (int) vantiq.getSubscriptionStats().get(0).getDroppedCount();
+        deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && received.size() < expected) {
+            Thread.sleep(10);
+        }
+
+        synchronized (received) {
+            assertThat("Delivered events", received.size(), is(expected));
+            for (String thread : threads) {
+                assertThat("Dispatch thread", thread, containsString("vantiq-subscription-dispatch"));
+            }
+        }
+        assertThat("Queue drained", vantiq.getSubscriptionStats().get(0).getQueueDepth(), is(0));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testSubscribeJsonCodec() throws Exception {
+        UnitTestJsonCodec codec = new UnitTestJsonCodec();
+        vantiq.setJsonCodec(codec);
+        enqueueWebSocket("/topics/test/topic", "{\"value\":{\"a\":1}}");
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> body = new AtomicReference<Object>();
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, new UnitTestSubscriptionCallback() {
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                body.set(message.getBody());
+                done.countDown();
+            }
+        });
+        assertTrue("Event received", done.await(5, TimeUnit.SECONDS));
+
+        // The requests sent on the WebSocket are encoded, and the event body decoded, by the codec
+        assertTrue("Validate and subscribe encoded", codec.encoded.size() >= 2);
+        assertTrue("Body decoded", codec.decoded.contains(Object.class));
+        assertThat("Body", ((Map) ((Map) body.get()).get("value")).get("a"), is((Object) 1.0));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testSubscriptionStats() throws Exception {
+        enqueueWebSocket("/topics/test/topic",
+                         "{\"value\":1,\"sequenceId\":7,\"partitionId\":2}",
+                         "{\"value\":2,\"sequenceId\":8,\"partitionId\":2}");
+
+        final CountDownLatch done = new CountDownLatch(2);
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, new UnitTestSubscriptionCallback() {
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                done.countDown();
+            }
+        });
+        assertTrue("Events received", done.await(5, TimeUnit.SECONDS));
+
+        SubscriptionStats stats = vantiq.getSubscriptionStats().get(0);
+        assertThat("Message count", stats.getMessageCount(), is(2L));
+        assertTrue("Byte count: " + stats, stats.getByteCount() > 0);
+        assertTrue("Message rate: " + stats, stats.getMessageRate() > 0);
+        assertTrue("Decode time: " + stats, stats.getDecodeNanos() > 0);
+        assertTrue("Subscribe latency: " + stats, stats.getSubscribeLatencyNanos() > 0);
+        assertThat("Last sequence id", stats.getLastSequenceId(), is(8.0));
+        assertThat("Last partition id", stats.getLastPartitionId(), is(2.0));
+
+        // Nothing arrived since the previous call
+        assertThat("Polled message rate", vantiq.getSubscriptionStats().get(0).getMessageRate(), is(0.0));
+
+        // The periodic listener receives snapshots with rates of its own, off the scheduler
+        final CountDownLatch reported = new CountDownLatch(1);
+        final List<SubscriptionStats> snapshot = new ArrayList<SubscriptionStats>();
+        final List<String> threads = new ArrayList<String>();
+        vantiq.setSubscriptionStatsListener(new SubscriptionStatsListener() {
+            @Override
+            public void onStats(List<SubscriptionStats> stats) {
+                synchronized (snapshot) {
+                    if (snapshot.isEmpty()) {
+                        snapshot.addAll(stats);
+                        threads.add(Thread.currentThread().getName());
+                    }
+                }
+                reported.countDown();
+            }
+        }, 10);
+        assertTrue("Stats reported", reported.await(5, TimeUnit.SECONDS));
+        vantiq.setSubscriptionStatsListener(null, 0);
+        synchronized (snapshot) {
+            assertThat("Reported path", snapshot.get(0).getPath(), is("/topics/test/topic"));
+            assertTrue("Reported message rate: " + snapshot.get(0), snapshot.get(0).getMessageRate() > 0);
+            assertThat("Listener thread", threads.get(0), is("vantiq-subscription-stats"));
+        }
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        final String path = "/topics/test/reliable";
+        final String headers = "\"headers\":{\"X-Request-Id\":\"" + path + "\"}";
+
+        // The first WebSocket delivers an event and is closed by the server once it is acknowledged
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                if (text.contains("\"validate\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                } else if (text.contains("\"subscribe\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200," + headers + "}"));
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":100," + headers
+                                                         + ",\"body\":{\"sequenceId\":7,\"partitionId\":0}}"));
+                } else if (text.contains("\"acknowledge\"")) {
+                    webSocket.close(1001, "Going away");
+                }
+            }
+        }));
+
+        // The second one re-sends the acknowledged event before the next one
+        enqueueWebSocket(path,
+                         "{\"sequenceId\":7,\"partitionId\":0}",
+                         "{\"sequenceId\":8,\"partitionId\":0}");
+
+        vantiq.setReconnectPolicy(ReconnectPolicy.builder().initialDelayMillis(10).build());
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Object> sequenceIds = new ArrayList<Object>();
+        final List<String> events = new ArrayList<String>();
+        Map<String, Object> parameters = Collections.<String, Object>singletonMap("persistent", true);
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/reliable", null, new UnitTestSubscriptionCallback() {
+            @Override
+            public void onConnect() {
+                synchronized (events) {
+                    events.add("connect");
+                }
+            }
+
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                Map body = (Map) message.getBody();
+                synchronized (events) {
+                    events.add("message");
+                    sequenceIds.add(body.get("sequenceId"));
+                }
+                try {
+                    vantiq.ack("sub1", path, body);
+                } catch (Exception ex) {
+                    fail(ex.toString());
+                }
+                done.countDown();
+            }
+        }, parameters);
+        assertTrue("Events received", done.await(5, TimeUnit.SECONDS));
+
+        // The persistent subscription is resumed by name on the new WebSocket
+        String resubscribe = null;
+        synchronized (webSocketRequests) {
+            for (String request : webSocketRequests) {
+                if (request.contains("\"subscribe\"")) {
+                    resubscribe = request;
+                }
+            }
+        }
+        assertThat("Resubscribe", resubscribe, containsString("\"subscriptionName\":\"sub1\""));
+
+        synchronized (events) {
+            assertThat("Callback events", events, is(Arrays.asList("connect", "message", "connect", "message")));
+            assertThat("Sequence ids", sequenceIds, is(Arrays.<Object>asList(7.0, 8.0)));
+        }
+        SubscriptionStats stats = vantiq.getSubscriptionStats().get(0);
+        assertThat("Reconnect count", stats.getReconnectCount(), is(1));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testReconnectGivesUp() throws Exception {
+        // The WebSocket is closed once both subscriptions are acknowledged, and cannot be opened again
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            private int subscribes = 0;
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                if (text.contains("\"validate\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                } else if (text.contains("\"subscribe\"")) {
+                    String path = gson.fromJson(text, JsonObject.class).get("resourceId").getAsString();
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200,\"headers\":{\"X-Request-Id\":\""
+                                                         + path + "\"}}"));
+                    if (++subscribes == 2) {
+                        webSocket.close(1001, "Going away");
+                    }
+                }
+            }
+        }));
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        vantiq.setReconnectPolicy(ReconnectPolicy.builder().initialDelayMillis(10).maxAttempts(1).build());
+        final CountDownLatch failed = new CountDownLatch(2);
+        final List<String> failedPaths = Collections.synchronizedList(new ArrayList<String>());
+        for (final String topic : Arrays.asList("/test/first", "/test/second")) {
+            vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), topic, null, new UnitTestSubscriptionCallback() {
+                @Override
+                public void onFailure(Throwable t) {
+                    failedPaths.add(topic);
+                    failed.countDown();
+                }
+            });
+        }
+
+        // Every subscription is told that its events are no longer received
+        assertTrue("Subscriptions failed", failed.await(5, TimeUnit.SECONDS));
+        Collections.sort(failedPaths);
+        assertThat("Failed subscriptions", failedPaths, is(Arrays.asList("/test/first", "/test/second")));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testResubscribeAfterUnsubscribe() throws Exception {
+        final String path = "/topics/test/topic";
+
+        // The server replies to each request with its request id, and sends an event after each subscribe
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                webSocketRequests.add(text);
+                if (text.contains("\"validate\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                    return;
+                }
+                String requestId = gson.fromJson(text, JsonObject.class)
+                                       .getAsJsonObject("parameters").get("requestId").getAsString();
+                String headers = "\"headers\":{\"X-Request-Id\":\"" + requestId + "\"}";
+                webSocket.send(ByteString.encodeUtf8("{\"status\":200," + headers + "}"));
+                if (text.contains("\"subscribe\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":100," + headers + ",\"body\":{\"value\":1}}"));
+                }
+            }
+        }));
+
+        final CountDownLatch first = new CountDownLatch(1);
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, new UnitTestSubscriptionCallback() {
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                first.countDown();
+            }
+        });
+        assertTrue("First event", first.await(5, TimeUnit.SECONDS));
+
+        // The reply to the unsubscribe is not taken for the acknowledgement of the new subscription
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch second = new CountDownLatch(1);
+        assertTrue("Unsubscribed", vantiq.unsubscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null));
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/topic", null, new UnitTestSubscriptionCallback() {
+            @Override
+            public void onConnect() {
+                events.add("connect");
+            }
+
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                events.add("message " + message.getStatus());
+                second.countDown();
+            }
+        });
+        assertTrue("Second event", second.await(5, TimeUnit.SECONDS));
+        assertThat("Callback events", events, is(Arrays.asList("connect", "message 100")));
+
+        String unsubscribe = null;
+        synchronized (webSocketRequests) {
+            for (String request : webSocketRequests) {
+                if (request.contains("\"unsubscribe\"")) {
+                    unsubscribe = request;
+                }
+            }
+        }
+        assertThat("Unsubscribe request id", unsubscribe, containsString("\"requestId\":\"unsubscribe:" + path + "\""));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testTypedSubscribe() throws Exception {
+        enqueueWebSocket("/topics/test/reading",
+                         "{\"path\":\"/topics/test/reading/publish\",\"value\":{\"sensor\":\"s1\",\"temperature\":21.5,\"count\":3}}",
+                         "{\"path\":\"/topics/test/reading/publish\",\"value\":{\"sensor\":[]}}");
+
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Reading> readings = new ArrayList<Reading>();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        vantiq.subscribe(Vantiq.SystemResources.TOPICS.value(), "/test/reading", null, Reading.class,
+                         new TypedSubscriptionCallback<Reading>() {
+            @Override
+            public void onConnect() {}
+
+            @Override
+            public void onMessage(Reading value, SubscriptionMessage message) {
+                readings.add(value);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {}
+
+            @Override
+            public void onFailure(Throwable t) {
+                failures.add(t);
+                done.countDown();
+            }
+        });
+        assertTrue("Events received", done.await(5, TimeUnit.SECONDS));
+
+        assertThat("Bound values", readings.size(), is(1));
+        assertThat("Sensor", readings.get(0).sensor, is("s1"));
+        assertThat("Temperature", readings.get(0).temperature, is(21.5));
+        assertThat("Count", readings.get(0).count, is(3));
+
+        // A value that cannot be bound is reported as a failure
+        assertThat("Binding failures", failures.size(), is(1));
+        vantiq.unsubscribeAll();
+    }
+
+    static class Reading {
+        String sensor;
+        double temperature;
+        int count;
+    }
+
+    @Test
+    public void testRecordCache() throws Exception {
+        final AtomicInteger gets = new AtomicInteger();
+        final AtomicReference<WebSocket> events = new AtomicReference<WebSocket>();
+        final String record = "{\"_id\":\"c1\",\"name\":\"limit\",\"value\":10}";
+
+        // The WebSocket accepts every subscription, and every GET returns the record
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().endsWith("/wsock/websocket")) {
+                    return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                        @Override
+                        public void onMessage(WebSocket webSocket, String text) {
+                            if (text.contains("\"validate\"")) {
+                                events.set(webSocket);
+                                webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                            } else if (text.contains("\"subscribe\"")) {
+                                String path = gson.fromJson(text, JsonObject.class).get("resourceId").getAsString();
+                                webSocket.send(ByteString.encodeUtf8("{\"status\":200,\"headers\":{\"X-Request-Id\":\""
+                                                                     + path + "\"}}"));
+                            }
+                        }
+                    });
+                }
+                gets.incrementAndGet();
+                return new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(request.getPath().contains("where=") ? "[" + record + "]" : record);
+            }
+        });
+        vantiq.setRecordCacheConfig(RecordCacheConfig.builder().types("Config").build());
+        Map<String, Object> where = Collections.<String, Object>singletonMap("name", "limit");
+
+        // Reads go to the server until the subscriptions to the type events are acknowledged
+        long deadline = System.currentTimeMillis() + 5000;
+        while (vantiq.getRecordCacheStats().getHitCount() == 0 && System.currentTimeMillis() < deadline) {
+            assertThat("Record", ((JsonObject) vantiq.selectOne("Config", "c1").getBody()).get("value").getAsInt(), is(10));
+            Thread.sleep(10);
+        }
+        assertThat("Cache hit", vantiq.getRecordCacheStats().getHitCount(), is(1L));
+        vantiq.select("Config", null, where, null);
+
+        // Cached reads are not sent, and return a copy of the cached record
+        int sent = gets.get();
+        JsonObject cached = (JsonObject) vantiq.selectOne("Config", "c1").getBody();
+        cached.addProperty("value", 99);
+        VantiqResponse response = vantiq.selectOneAsync("Config", "c1").get(5, TimeUnit.SECONDS);
+        assertThat("Cached record", ((JsonObject) response.getBody()).get("value").getAsInt(), is(10));
+        assertThat("Status code", response.getStatusCode(), is(200));
+        assertThat("Cached query", ((List) vantiq.select("Config", null, where, null).getBody()).size(), is(1));
+        assertThat("Requests sent", gets.get(), is(sent));
+
+        // An insert only invalidates the queries
+        String insertHeaders = "\"headers\":{\"X-Request-Id\":\"/types/Config/insert\"}";
+        events.get().send(ByteString.encodeUtf8("{\"status\":100," + insertHeaders
+                                                + ",\"body\":{\"value\":{\"_id\":\"c2\",\"name\":\"other\"}}}"));
+        waitForInvalidations(1);
+        vantiq.selectOne("Config", "c1");
+        assertThat("Record still cached", gets.get(), is(sent));
+        vantiq.select("Config", null, where, null);
+        assertThat("Query sent", gets.get(), is(sent + 1));
+
+        // An update of the record invalidates it and the queries
+        String updateHeaders = "\"headers\":{\"X-Request-Id\":\"/types/Config/update\"}";
+        events.get().send(ByteString.encodeUtf8("{\"status\":100," + updateHeaders
+                                                + ",\"body\":{\"value\":{\"_id\":\"c1\",\"value\":11}}}"));
+        waitForInvalidations(3);
+        vantiq.selectOne("Config", "c1");
+        assertThat("Record sent", gets.get(), is(sent + 2));
+
+        RecordCacheStats stats = vantiq.getRecordCacheStats();
+        assertThat("Invalidations", stats.getInvalidationCount(), is(3L));
+        assertTrue("Misses: " + stats, stats.getMissCount() >= 4);
+        assertTrue("Hit rate: " + stats, stats.getHitRate() > 0);
+
+        // Other types and system resources are not cached
+        vantiq.selectOne("Other", "o1");
+        vantiq.selectOne("Other", "o1");
+        assertThat("Uncached requests", gets.get(), is(sent + 4));
+        vantiq.unsubscribeAll();
+    }
+
+    @Test
+    public void testRecordCacheSharedSubscription() throws Exception {
+        final AtomicReference<WebSocket> events = new AtomicReference<WebSocket>();
+        final String record = "{\"_id\":\"c1\",\"name\":\"limit\",\"value\":10}";
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().endsWith("/wsock/websocket")) {
+                    return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                        @Override
+                        public void onMessage(WebSocket webSocket, String text) {
+                            if (text.contains("\"validate\"")) {
+                                events.set(webSocket);
+                                webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                            } else if (text.contains("\"subscribe\"")) {
+                                String path = gson.fromJson(text, JsonObject.class).get("resourceId").getAsString();
+                                webSocket.send(ByteString.encodeUtf8("{\"status\":200,\"headers\":{\"X-Request-Id\":\""
+                                                                     + path + "\"}}"));
+                            }
+                        }
+                    });
+                }
+                return new MockResponse()
+                        .setResponseCode(200)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(record);
+            }
+        });
+        vantiq.setRecordCacheConfig(RecordCacheConfig.builder().types("Config").build());
+        String updateEvent = "{\"status\":100,\"headers\":{\"X-Request-Id\":\"/types/Config/update\"},"
+                             + "\"body\":{\"value\":{\"_id\":\"c1\",\"value\":11}}}";
+
+        // The cache subscribes to the type events first
+        waitForCacheHit(1);
+
+        // The application can still subscribe to one of them, and both receive its events
+        final CountDownLatch received = new CountDownLatch(1);
+        vantiq.subscribe(Vantiq.SystemResources.TYPES.value(), "Config", Vantiq.TypeOperation.UPDATE,
+                         new UnitTestSubscriptionCallback() {
+            @Override
+            public void onMessage(SubscriptionMessage message) {
+                received.countDown();
+            }
+        });
+        waitForCacheHit(2);
+        events.get().send(ByteString.encodeUtf8(updateEvent));
+        assertTrue("Application event", received.await(5, TimeUnit.SECONDS));
+        waitForInvalidations(1);
+
+        // Unsubscribing the application keeps the invalidation of the cache
+        assertTrue("Unsubscribed",
+                   vantiq.unsubscribe(Vantiq.SystemResources.TYPES.value(), "Config", Vantiq.TypeOperation.UPDATE));
+        assertFalse("Cache listener is not an application subscription",
+                    vantiq.unsubscribe(Vantiq.SystemResources.TYPES.value(), "Config", Vantiq.TypeOperation.UPDATE));
+        waitForCacheHit(3);
+        events.get().send(ByteString.encodeUtf8(updateEvent));
+        waitForInvalidations(2);
+        vantiq.unsubscribeAll();
+    }
+
+    /**
+     * Reads the cached record until the cache has answered the given number of reads
+     */
+    private void waitForCacheHit(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (vantiq.getRecordCacheStats().getHitCount() < count && System.currentTimeMillis() < deadline) {
+            vantiq.selectOne("Config", "c1");
+            Thread.sleep(10);
+        }
+        assertThat("Cache hits", vantiq.getRecordCacheStats().getHitCount(), is(count));
+    }
+
+    private void waitForInvalidations(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (vantiq.getRecordCacheStats().getInvalidationCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat("Invalidations", vantiq.getRecordCacheStats().getInvalidationCount(), is(count));
+    }
+
+    /**
+     * Mocks the Vantiq WebSocket: accepts the session and the subscription to
+     * the given path, then publishes the given event bodies
+     */
+    private void enqueueWebSocket(final String path, final String... eventBodies) {
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                webSocketRequests.add(text);
+                if (text.contains("\"validate\"")) {
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200}"));
+                } else if (text.contains("\"subscribe\"")) {
+                    String headers = "\"headers\":{\"X-Request-Id\":\"" + path + "\"}";
+                    webSocket.send(ByteString.encodeUtf8("{\"status\":200," + headers + "}"));
+                    for (String body : eventBodies) {
+                        webSocket.send(ByteString.encodeUtf8("{\"status\":100," + headers + ",\"body\":" + body + "}"));
+                    }
+                }
+            }
+        }));
+    }
 }
@@ -1,7 +1,28 @@
 package io.vantiq.client.internal;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.vantiq.client.BaseResponseHandler;
+import io.vantiq.client.CompressionStats;
+import io.vantiq.client.GsonCodec;
+import io.vantiq.client.HedgePolicy;
+import io.vantiq.client.HttpClientConfig;
+import io.vantiq.client.HttpClientFactory;
+import io.vantiq.client.RequestListener;
+import io.vantiq.client.RequestMetrics;
+import io.vantiq.client.SubscriptionMessage;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
 import io.vantiq.client.VantiqResponse;
 import io.vantiq.client.VantiqTestBase;
 import org.junit.After;
@@ -9,10 +30,28 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Mocked unit tests that exercise the request and
@@ -125,6 +164,420 @@ public class VantiqSessionRequestTest extends VantiqTestBase {
         assertThat("Plain text body", (String) response.getBody(), is("Hello!"));
     }
 
+    @Test
+    public void testHttpClientConfig() throws Exception {
+        HttpClientConfig config = HttpClientConfig.builder()
+                                                  .maxRequestsPerHost(32)
+                                                  .maxIdleConnections(16)
+                                                  .http2Enabled(true)
+                                                  .build();
+        VantiqSession tuned = new VantiqSession(server.url("/").toString(), 1, null, config);
+        tuned.setAccessToken("234592dadf23412");
+        assertThat("Config", tuned.getHttpClientConfig().getMaxRequestsPerHost(), is(32));
+
+        // The fallback runs inside the other interceptors, so they are not repeated after it
+        List<Interceptor> interceptors = tuned.getClient().interceptors();
+        assertTrue("Fallback innermost",
+                   interceptors.get(interceptors.size() - 1) instanceof Http2FallbackInterceptor);
+
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 1.2)
+                                        .json()));
+
+        // Without TLS the server negotiates HTTP/1.1
+        VantiqResponse response = tuned.get("/resources/types", null, null);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Valid body", ((JsonObject) response.getBody()).get("a").getAsDouble(), is(1.2));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        HttpClientConfig config = HttpClientConfig.builder()
+                                                  .compressionEnabled(true)
+                                                  .compressionThreshold(16)
+                                                  .build();
+        VantiqSession compressed = new VantiqSession(server.url("/").toString(), 1, null, config);
+        compressed.setAccessToken("234592dadf23412");
+
+        StringBuilder records = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            records.append(i > 0 ? "," : "").append("{\"name\":\"sensor\",\"reading\":").append(i).append("}");
+        }
+        String json = records.append("]").toString();
+
+        Buffer gzipped = new Buffer();
+        BufferedSink gzip = Okio.buffer(new GzipSink(gzipped));
+        gzip.writeUtf8(json);
+        gzip.close();
+        long gzippedSize = gzipped.size();
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setHeader("Content-Encoding", "gzip")
+                           .setBody(gzipped));
+
+        VantiqResponse response = compressed.post("/resources/custom/Sensor", null, json, null);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Decompressed body", response.getBody().toString(), is(json));
+
+        // The request body is compressed
+        RecordedRequest request = server.takeRequest();
+        assertThat("Content-Encoding", request.getHeader("Content-Encoding"), is("gzip"));
+        assertThat("Request body", Okio.buffer(new GzipSource(request.getBody())).readUtf8(), is(json));
+
+        CompressionStats stats = compressed.getCompressionStats();
+        assertThat("Request bytes", stats.getRequestBytes(), is((long) json.length()));
+        assertThat("Request bytes sent", stats.getRequestBytesSent(), is(request.getBodySize()));
+        assertThat("Response bytes", stats.getResponseBytes(), is((long) json.length()));
+        assertThat("Response bytes received", stats.getResponseBytesReceived(), is(gzippedSize));
+        assertTrue("Compressed", stats.getRequestBytesSent() < stats.getRequestBytes());
+
+        // Small bodies are sent as-is
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("{}"));
+        compressed.post("/resources/custom/Sensor", null, "{}", null);
+        assertNull("Not compressed", server.takeRequest().getHeader("Content-Encoding"));
+
+        // Small streamed bodies are sent as-is too, with their length
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("{}"));
+        JsonObject small = new JsonObject();
+        small.addProperty("a", 1);
+        compressed.post("/resources/custom/Sensor", null, new JsonRequestBody(small, GsonCodec.getDefault()), null);
+        request = server.takeRequest();
+        assertNull("Streamed not compressed", request.getHeader("Content-Encoding"));
+        assertThat("Streamed body", request.getBody().readUtf8(), is("{\"a\":1}"));
+        assertThat("Content-Length", request.getHeader("Content-Length"), is("7"));
+
+        // Large streamed bodies are compressed
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("{}"));
+        JsonArray large = JsonParser.parseString(json).getAsJsonArray();
+        compressed.post("/resources/custom/Sensor", null, new JsonRequestBody(large, GsonCodec.getDefault()), null);
+        request = server.takeRequest();
+        assertThat("Streamed compressed", request.getHeader("Content-Encoding"), is("gzip"));
+        assertThat("Streamed request body", Okio.buffer(new GzipSource(request.getBody())).readUtf8(), is(json));
+    }
+
+    @Test
+    public void testCompressionWithClient() throws Exception {
+        // Compression does not depend on how the client was built
+        VantiqSession shared = VantiqSession.withClient(server.url("/").toString(), 1, null,
+                                                        HttpClientFactory.sharedClient());
+        shared.setAccessToken("234592dadf23412");
+        assertFalse("Disabled by default", shared.isCompressionEnabled());
+
+        StringBuilder records = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            records.append(i > 0 ? "," : "").append("{\"name\":\"sensor\",\"reading\":").append(i).append("}");
+        }
+        String json = records.append("]").toString();
+
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("{}"));
+        shared.post("/resources/custom/Sensor", null, json, null);
+        assertNull("Not compressed", server.takeRequest().getHeader("Content-Encoding"));
+        assertThat("Nothing counted", shared.getCompressionStats().getRequestBytes(), is(0L));
+
+        shared.setCompressionEnabled(true);
+        shared.setCompressionThreshold(16);
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("{}"));
+        shared.post("/resources/custom/Sensor", null, json, null);
+        RecordedRequest request = server.takeRequest();
+        assertThat("Content-Encoding", request.getHeader("Content-Encoding"), is("gzip"));
+        assertThat("Request body", Okio.buffer(new GzipSource(request.getBody())).readUtf8(), is(json));
+        assertThat("Request bytes", shared.getCompressionStats().getRequestBytes(), is((long) json.length()));
+    }
+
+    @Test
+    public void testSharedClient() throws Exception {
+        VantiqSession other = new VantiqSession(server.url("/").toString());
+        assertTrue("Shared pool",
+                   session.getClient().connectionPool() == other.getClient().connectionPool());
+        assertTrue("Shared pool",
+                   session.getClient().connectionPool() == HttpClientFactory.sharedClient().connectionPool());
+        assertTrue("Own dispatcher",
+                   session.getClient().dispatcher() != other.getClient().dispatcher());
+        assertThat("Default per host limit", session.getClient().dispatcher().getMaxRequestsPerHost(),
+                   is(HttpClientConfig.defaults().getMaxRequestsPerHost()));
+
+        // Changing the timeouts does not create a new client
+        OkHttpClient client = session.getClient();
+        session.setReadTimeout(5000);
+        session.setConnectTimeout(5000);
+        assertTrue("Same client", session.getClient() == client);
+    }
+
+    @Test
+    public void testNullHttpClientConfig() throws Exception {
+        VantiqSession defaults = new VantiqSession(server.url("/").toString(), 1, null, null);
+        assertThat("Default config", defaults.getHttpClientConfig().getMaxRequestsPerHost(),
+                   is(HttpClientConfig.defaults().getMaxRequestsPerHost()));
+        assertTrue("Shared pool",
+                   defaults.getClient().connectionPool() == HttpClientFactory.sharedClient().connectionPool());
+
+        OkHttpClient root = HttpClientFactory.newClient(HttpClientConfig.defaults());
+        VantiqSession derived = VantiqSession.withClient(server.url("/").toString(), 1, null, root);
+        assertTrue("Root dispatcher", derived.getClient().dispatcher() == root.dispatcher());
+    }
+
+    @Test
+    public void testWithTimeouts() throws Exception {
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 1.2)
+                                        .json()));
+
+        VantiqSession timed = session.withTimeouts(60000, 1000, 1000);
+        assertThat("Read timeout", timed.getReadTimeout(), is(60000L));
+        assertThat("Parent read timeout", session.getReadTimeout(), is(0L));
+        assertTrue("Same client", timed.getClient() == session.getClient());
+
+        // The derived session uses the authentication of its parent
+        VantiqResponse response = timed.get("/resources/types", null, null);
+        assertTrue("Successful response", response.isSuccess());
+        RecordedRequest request = server.takeRequest();
+        assertThat("Authorization", request.getHeader("Authorization"), is("Bearer 234592dadf23412"));
+    }
+
+    @Test
+    public void testTokenRefresh() throws Exception {
+        session.setTokenRefreshEnabled(true);
+
+        // A request rejected with 401 is replayed once with the refreshed token
+        server.enqueue(new MockResponse()
+                           .setResponseCode(401)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("[{\"code\":\"io.vantiq.authentication.failed\",\"message\":\"Unauthorized\"}]"));
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("accessToken", "5d4a2b1c0e9f")
+                                        .json()));
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 1.2)
+                                        .json()));
+
+        VantiqResponse response = session.get("/resources/types", null, null);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Rejected", server.takeRequest().getHeader("Authorization"), is("Bearer 234592dadf23412"));
+        RecordedRequest refresh = server.takeRequest();
+        assertThat("Refresh path", refresh.getPath(), is("/authenticate/refresh"));
+        assertThat("Refreshed token", refresh.getBody().readUtf8(), is("234592dadf23412"));
+        assertThat("Replayed", server.takeRequest().getHeader("Authorization"), is("Bearer 5d4a2b1c0e9f"));
+        assertThat("New token", session.getAccessToken(), is("5d4a2b1c0e9f"));
+
+        // A token with a known expiration is refreshed ahead of it
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("accessToken", "8c7b6a5f4e3d")
+                                        .json()));
+        long exp = System.currentTimeMillis() / 1000 + 30;
+        String claims = Base64.getUrlEncoder().withoutPadding()
+                              .encodeToString(("{\"exp\":" + exp + "}").getBytes(StandardCharsets.UTF_8));
+        String jwt = "eyJhbGciOiJIUzI1NiJ9." + claims + ".c2lnbmF0dXJl";
+        session.setAccessToken(jwt);
+        refresh = server.takeRequest(5, TimeUnit.SECONDS);
+        assertThat("Refresh path", refresh.getPath(), is("/authenticate/refresh"));
+        assertThat("Refreshed token", refresh.getBody().readUtf8(), is(jwt));
+        session.setTokenRefreshEnabled(false);
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        session.setHedgePolicy(HedgePolicy.builder().delayMillis(50).build());
+        final List<RequestMetrics> reported = Collections.synchronizedList(new ArrayList<RequestMetrics>());
+        session.setRequestListener(new RequestListener() {
+            @Override
+            public void onRequest(RequestMetrics metrics) {
+                reported.add(metrics);
+            }
+        });
+
+        // The first request is slow, so the hedge sent after 50ms wins
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setHeadersDelay(5, TimeUnit.SECONDS)
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 1.2)
+                                        .json()));
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 2.4)
+                                        .json()));
+
+        long start = System.nanoTime();
+        VantiqResponse response = session.get("/resources/types/Sensor", null, null);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Successful response", response.isSuccess());
+        assertThat("Hedge response", ((JsonObject) response.getBody()).get("a").getAsDouble(), is(2.4));
+        assertTrue("Not waiting for the slow response: " + elapsedMillis, elapsedMillis < 4000);
+        assertThat("Hedge count", session.getHedgeCount(), is(1));
+
+        // Only the metrics of the winning hedge are reported, measured from the first request
+        assertThat("Reported", reported.size(), is(1));
+        assertThat("Operation", reported.get(0).getOperation(), is("selectOne"));
+        assertThat("Bytes received", reported.get(0).getBytesReceived(), is(9L));
+        assertTrue("Total time", reported.get(0).getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // Other requests are not hedged
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody("[]"));
+        session.get("/resources/types", null, null);
+        assertThat("Hedge count", session.getHedgeCount(), is(1));
+    }
+
+    @Test
+    public void testRequestCoalescing() throws Exception {
+        session.setRequestCoalescingEnabled(true);
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setHeadersDelay(500, TimeUnit.MILLISECONDS)
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 1.2)
+                                        .json()));
+
+        // The first read is sent, and the identical reads made while it is in flight wait for it
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<VantiqResponse>> responses = new ArrayList<Future<VantiqResponse>>();
+            Callable<VantiqResponse> read = new Callable<VantiqResponse>() {
+                @Override
+                public VantiqResponse call() {
+                    return session.get("/resources/custom/Config/c1", null, null);
+                }
+            };
+            responses.add(executor.submit(read));
+            RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+            assertThat("Request path", request.getPath(), is("/api/v1/resources/custom/Config/c1"));
+            for (int i = 0; i < 3; i++) {
+                responses.add(executor.submit(read));
+            }
+            session.get("/resources/custom/Config/c1", null, handler);
+            waitForCompletion();
+            assertTrue("Successful async response", handler.success);
+            assertThat("Shared async response", ((JsonObject) handler.getBody()).get("a").getAsDouble(), is(1.2));
+
+            for (Future<VantiqResponse> response : responses) {
+                VantiqResponse result = response.get(5, TimeUnit.SECONDS);
+                assertTrue("Successful response", result.isSuccess());
+                assertThat("Shared response", ((JsonObject) result.getBody()).get("a").getAsDouble(), is(1.2));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertNull("Single request", server.takeRequest(100, TimeUnit.MILLISECONDS));
+        assertThat("Coalesced count", session.getCoalescedCount(), is(4));
+
+        // Once the response arrived, the next read is sent
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setBody(new JsonObjectBuilder()
+                                        .addProperty("a", 2.4)
+                                        .json()));
+        VantiqResponse response = session.get("/resources/custom/Config/c1", null, null);
+        assertThat("New response", ((JsonObject) response.getBody()).get("a").getAsDouble(), is(2.4));
+        assertThat("Coalesced count", session.getCoalescedCount(), is(4));
+    }
+
+    @Test
+    public void testRequestCoalescingCancel() throws Exception {
+        session.setRequestCoalescingEnabled(true);
+        server.enqueue(new MockResponse()
+                           .setResponseCode(200)
+                           .setHeader("Content-Type", "application/json")
+                           .setHeadersDelay(1, TimeUnit.SECONDS)
+                           .setBody("{}"));
+
+        // The second read joins the first, and cancelling it only stops its own wait
+        session.get("/resources/custom/Config/c1", null, handler);
+        server.takeRequest(5, TimeUnit.SECONDS);
+        final CompletableFuture<String> canceled = new CompletableFuture<String>();
+        final AtomicReference<Call> joined = new AtomicReference<Call>();
+        class TrackingHandler extends BaseResponseHandler implements CallTracker {
+            @Override
+            public void track(Call call) {
+                joined.set(call);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                canceled.complete(Thread.currentThread().getName());
+            }
+        }
+        session.get("/resources/custom/Config/c1", null, new TrackingHandler());
+        assertThat("Coalesced count", session.getCoalescedCount(), is(1));
+        joined.get().cancel();
+
+        // The failure is reported at once, and not on the shared scheduler
+        String thread = canceled.get(500, TimeUnit.MILLISECONDS);
+        assertFalse("Not on the scheduler", thread.contains("vantiq-subscription-scheduler"));
+        waitForCompletion();
+        assertTrue("Shared read not cancelled", handler.success);
+    }
+
+    @Test
+    public void testRequestCoalescingTimeouts() throws Exception {
+        session.setRequestCoalescingEnabled(true);
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse()
+                               .setResponseCode(200)
+                               .setHeader("Content-Type", "application/json")
+                               .setHeadersDelay(300, TimeUnit.MILLISECONDS)
+                               .setBody("{}"));
+        }
+
+        // A session with other timeouts does not wait on the read in flight
+        final VantiqSession patient = session.withTimeouts(60000, 60000, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            Future<VantiqResponse> first = executor.submit(new Callable<VantiqResponse>() {
+                @Override
+                public VantiqResponse call() {
+                    return session.get("/resources/custom/Config/c1", null, null);
+                }
+            });
+            server.takeRequest(5, TimeUnit.SECONDS);
+            VantiqResponse second = patient.get("/resources/custom/Config/c1", null, null);
+            assertTrue("Successful response", second.isSuccess());
+            assertTrue("Successful first response", first.get(5, TimeUnit.SECONDS).isSuccess());
+        } finally {
+            executor.shutdown();
+        }
+        assertThat("Second request", server.takeRequest(1, TimeUnit.SECONDS).getPath(),
+                   is("/api/v1/resources/custom/Config/c1"));
+        assertThat("Coalesced count", session.getCoalescedCount(), is(0));
+    }
+
     @Test
     public void testUpload() throws Exception {
         server.enqueue(new MockResponse()
@@ -263,4 +716,111 @@ public class VantiqSessionRequestTest extends VantiqTestBase {
                 null);
         assertTrue("Successful response", response.isSuccess());
     }
+
+    @Test
+    public void testDecodeSubscriptionMessage() throws Exception {
+        String frame = "{\"status\":100,\"contentType\":\"application/json\","
+                       + "\"headers\":{\"X-Request-Id\":\"/topics/test/topic\",\"X-Count\":3},"
+                       + "\"extra\":[1,2],"
+                       + "\"body\":{\"path\":\"/topics/test/topic/publish\",\"value\":{\"a\":1,\"b\":[true,\"x\"]}}}";
+
+        SubscriptionMessage msg = SubscriptionMessageDecoder.decode(ByteString.encodeUtf8(frame), GsonCodec.getDefault());
+        assertThat("Status", msg.getStatus(), is(100));
+        assertThat("Content type", msg.getContentType(), is("application/json"));
+        assertThat("Request id", msg.getHeaders().get("X-Request-Id"), is("/topics/test/topic"));
+        assertThat("Numeric header", msg.getHeaders().get("X-Count"), is("3"));
+
+        // The body has the same shape as when decoded by Gson as an Object
+        Map body = (Map) msg.getBody();
+        assertThat("Body path", (String) body.get("path"), is("/topics/test/topic/publish"));
+        Map value = (Map) body.get("value");
+        assertThat("Number", (Double) value.get("a"), is(1.0));
+        assertThat("List", (List<Object>) value.get("b"), is(Arrays.<Object>asList(true, "x")));
+        assertThat("Same body", msg.getBody() == body, is(true));
+
+        // The typed value and the routing properties are read without converting the whole body
+        String event = "{\"status\":100,\"body\":{\"sequenceId\":7,\"partitionId\":2,"
+                       + "\"subscriptionName\":\"sub\\\"1\",\"value\":{\"a\":1,\"b\":\"caf\u00e9\"}}}";
+        SubscriptionMessageDecoder.DecodedSubscriptionMessage decoded =
+            (SubscriptionMessageDecoder.DecodedSubscriptionMessage) SubscriptionMessageDecoder.decode(
+                ByteString.encodeUtf8(event), GsonCodec.getDefault());
+        assertThat("Sequence id", decoded.getBodyNumber(SubscriptionMessageDecoder.SEQUENCE_ID), is(7.0));
+        assertThat("Partition id", decoded.getBodyNumber(SubscriptionMessageDecoder.PARTITION_ID), is(2.0));
+        assertThat("Escaped name", decoded.getBodyString(SubscriptionMessageDecoder.SUBSCRIPTION_NAME), is("sub\"1"));
+        assertNull("Not a number", decoded.getBodyNumber(SubscriptionMessageDecoder.SUBSCRIPTION_NAME));
+        JsonObject typed = decoded.decodeValue(GsonCodec.getDefault(), JsonObject.class);
+        assertThat("Typed number", typed.get("a").getAsInt(), is(1));
+        assertThat("Typed string", typed.get("b").getAsString(), is("caf\u00e9"));
+
+        SubscriptionMessage ack =
+            SubscriptionMessageDecoder.decode(ByteString.encodeUtf8("{\"status\":200}"), GsonCodec.getDefault());
+        assertThat("Ack status", ack.getStatus(), is(200));
+        assertNull("No headers", ack.getHeaders());
+        assertNull("No body", ack.getBody());
+    }
+
+    @Test
+    public void testDecodeSubscriptionMessageEscapes() throws Exception {
+        // Escaped keys match, and escaped strings are unescaped
+        String frame = "{\"st\\u0061tus\":100,\"contentType\":\"application\\/json\","
+                       + "\"headers\":{\"X-Request-Id\":\"/topics/\\\"quoted\\\"\"},"
+                       + "\"b\\u006fdy\":{\"sequence\\u0049d\":3,\"value\":\"tab\\there \\u00e9\"}}";
+        SubscriptionMessageDecoder.DecodedSubscriptionMessage msg =
+            (SubscriptionMessageDecoder.DecodedSubscriptionMessage) SubscriptionMessageDecoder.decode(
+                ByteString.encodeUtf8(frame), GsonCodec.getDefault());
+        assertThat("Escaped status key", msg.getStatus(), is(100));
+        assertThat("Escaped content type", msg.getContentType(), is("application/json"));
+        assertThat("Escaped header", msg.getHeaders().get("X-Request-Id"), is("/topics/\"quoted\""));
+        assertThat("Escaped body key", msg.getBodyNumber(SubscriptionMessageDecoder.SEQUENCE_ID), is(3.0));
+        assertThat("Escaped value", ((Map) msg.getBody()).get("value"), is((Object) "tab\there \u00e9"));
+        assertThat("Typed escaped value", msg.decodeValue(GsonCodec.getDefault(), String.class), is("tab\there \u00e9"));
+    }
+
+    @Test
+    public void testDecodeSubscriptionMessageNested() throws Exception {
+        // Brackets and quotes in nested strings do not end the body early
+        String frame = "{\"status\":100,\"body\":{\"value\":{\"a\":[{\"b\":\"]}\\\"\"},[[],{}]],"
+                       + "\"c\":{\"d\":{\"e\":null}}},\"sequenceId\":9},\"headers\":{\"X-Request-Id\":\"r\"}}";
+        SubscriptionMessageDecoder.DecodedSubscriptionMessage msg =
+            (SubscriptionMessageDecoder.DecodedSubscriptionMessage) SubscriptionMessageDecoder.decode(
+                ByteString.encodeUtf8(frame), GsonCodec.getDefault());
+        assertThat("Header after the body", msg.getHeaders().get("X-Request-Id"), is("r"));
+        assertThat("Sequence id after nested values", msg.getBodyNumber(SubscriptionMessageDecoder.SEQUENCE_ID), is(9.0));
+        JsonObject value = msg.decodeValue(GsonCodec.getDefault(), JsonObject.class);
+        JsonArray a = value.getAsJsonArray("a");
+        assertThat("Nested string", a.get(0).getAsJsonObject().get("b").getAsString(), is("]}\""));
+        assertThat("Nested arrays", a.get(1).getAsJsonArray().size(), is(2));
+        assertTrue("Nested null", value.getAsJsonObject("c").getAsJsonObject("d").get("e").isJsonNull());
+        Map body = (Map) msg.getBody();
+        assertThat("Converted nested value", ((Map) ((Map) body.get("value")).get("c")).containsKey("d"), is(true));
+    }
+
+    @Test
+    public void testDecodeSubscriptionMessageMalformed() throws Exception {
+        String[] frames = {
+            // Truncated
+            "{\"status\":100,\"body\":{\"a\":1",
+            // Mismatched brackets nested in the body
+            "{\"status\":100,\"body\":{\"a\":[1,2}}}",
+            // Missing colon nested in the body
+            "{\"status\":100,\"body\":{\"a\":{\"b\" 1}}}",
+            // Unterminated string in a header
+            "{\"status\":100,\"headers\":{\"X-Request-Id\":\"r}}",
+            // Content after the message
+            "{\"status\":100}}",
+            // Not an object
+            "[{\"status\":100}]",
+            // Non numeric status
+            "{\"status\":\"ok\"}"
+        };
+        for (String frame : frames) {
+            try {
+                SubscriptionMessageDecoder.decode(ByteString.encodeUtf8(frame), GsonCodec.getDefault());
+                fail("Malformed frame decoded: " + frame);
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+        assertNull("Empty frame", SubscriptionMessageDecoder.decode(ByteString.encodeUtf8(" \n"), GsonCodec.getDefault()));
+    }
 }